@@ -0,0 +1,45 @@
+package solution;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar
+ *
+ * Takes the usual JMH command line, but always attaches the GC profiler so
+ * every result comes with its allocation rate (gc.alloc.rate.norm is the
+ * number to watch: bytes allocated per operation).
+ *
+ * Usage: java -jar benchmarks.jar [JMH options] [benchmark regex]
+ */
+public final class BenchmarkMain
+{
+    private BenchmarkMain()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+            || options.shouldListProfilers() || options.shouldListResultFormats())
+        {
+            // Nothing to run, so nothing to profile
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        boolean profiled = options.getProfilers().stream()
+            .anyMatch(profiler -> profiler.getKlass().equals("gc")
+                               || profiler.getKlass().equals(GCProfiler.class.getName()));
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options);
+        if (!profiled)
+        {
+            builder.addProfiler(GCProfiler.class);
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,214 @@
+package solution;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loopback soak test for ChatServer
+ *
+ * Opens many idle client connections from a single selector thread,
+ * pings every one of them and reports how many threads the process
+ * needed to hold them. Without a server address an in-memory server is
+ * started in the same JVM; with one, the clients connect to a server
+ * started separately with "--server" (useful when descriptor limits do
+ * not allow both ends of 10k connections in one process).
+ *
+ * Usage: ChatServerSoak [connections] [host:port]
+ */
+public final class ChatServerSoak
+{
+    private static final int MAX_PENDING_CONNECTS = 512;
+    private static final byte[] PING = "PING\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int PONG_BYTES = "PONG\n".length();
+
+    private ChatServerSoak()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+
+        ChatServer server = null;
+        InetSocketAddress address;
+        if (args.length > 1)
+        {
+            int colon = args[1].lastIndexOf(':');
+            address = new InetSocketAddress(args[1].substring(0, colon),
+                                            Integer.parseInt(args[1].substring(colon + 1)));
+        }
+        else
+        {
+            server = new ChatServer(ChatService.inMemory(),
+                                    new InetSocketAddress("127.0.0.1", 0), ChatServer.DEFAULT_LOOPS);
+            server.start();
+            address = new InetSocketAddress("127.0.0.1", server.getPort());
+        }
+
+        try (Selector selector = Selector.open())
+        {
+            long started = System.nanoTime();
+            SocketChannel[] clients = connectAll(selector, address, connections);
+            long connected = System.nanoTime();
+
+            pingAll(selector, clients);
+            long pinged = System.nanoTime();
+
+            System.out.printf("Connected %d clients in %d ms, all answered PING in %d ms%n",
+                              clients.length, (connected - started) / 1_000_000,
+                              (pinged - connected) / 1_000_000);
+            System.out.println("Live threads in this process: "
+                               + ManagementFactory.getThreadMXBean().getThreadCount());
+            if (server != null)
+            {
+                System.out.println("Server: " + server.getStatisticsSummary());
+            }
+
+            System.out.print(conversation(address));
+
+            for (SocketChannel client : clients)
+            {
+                client.close();
+            }
+        }
+        finally
+        {
+            if (server != null)
+            {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the connections with a bounded number of connects in flight
+     */
+    private static SocketChannel[] connectAll(Selector selector, InetSocketAddress address,
+                                              int count) throws IOException
+    {
+        SocketChannel[] clients = new SocketChannel[count];
+        int opened = 0;
+        int established = 0;
+        int inFlight = 0;
+
+        while (established < count)
+        {
+            while (opened < count && inFlight < MAX_PENDING_CONNECTS)
+            {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                clients[opened] = channel;
+                if (channel.connect(address))
+                {
+                    established++;
+                }
+                else
+                {
+                    channel.register(selector, SelectionKey.OP_CONNECT, opened);
+                    inFlight++;
+                }
+                opened++;
+            }
+
+            selector.select(1000);
+            for (SelectionKey key : selector.selectedKeys())
+            {
+                SocketChannel channel = (SocketChannel) key.channel();
+                if (key.isConnectable() && channel.finishConnect())
+                {
+                    key.interestOps(0);
+                    established++;
+                    inFlight--;
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+        return clients;
+    }
+
+    /**
+     * Sends PING on every connection and waits until each has answered
+     */
+    private static void pingAll(Selector selector, SocketChannel[] clients) throws IOException
+    {
+        int[] received = new int[clients.length];
+        for (int i = 0; i < clients.length; i++)
+        {
+            clients[i].write(ByteBuffer.wrap(PING));
+            SelectionKey key = clients[i].keyFor(selector);
+            if (key == null)
+            {
+                clients[i].register(selector, SelectionKey.OP_READ, i);
+            }
+            else
+            {
+                key.attach(i);
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        int answered = 0;
+        while (answered < clients.length)
+        {
+            if (selector.select(10_000) == 0)
+            {
+                throw new IOException("Timed out with " + (clients.length - answered)
+                                      + " clients still waiting for PONG");
+            }
+            for (SelectionKey key : selector.selectedKeys())
+            {
+                int index = (Integer) key.attachment();
+                buffer.clear();
+                int read = clients[index].read(buffer);
+                if (read < 0)
+                {
+                    throw new IOException("Server closed client " + index);
+                }
+                received[index] += read;
+                if (received[index] >= PONG_BYTES)
+                {
+                    key.interestOps(0);
+                    answered++;
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * Runs one pipelined register/login/send/fetch exchange
+     * @return Server replies
+     */
+    private static String conversation(InetSocketAddress address) throws IOException
+    {
+        String requests = "REGISTER soa_1 Passw0rd! Soak One +27830000001\n"
+                        + "REGISTER soa_2 Passw0rd! Soak Two +27830000002\n"
+                        + "LOGIN soa_1 Passw0rd!\n"
+                        + "SEND +27830000002 Hello over the loopback\n"
+                        + "FETCH\n"
+                        + "QUIT\n";
+
+        try (SocketChannel channel = SocketChannel.open(address))
+        {
+            channel.write(ByteBuffer.wrap(requests.getBytes(StandardCharsets.UTF_8)));
+
+            ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+            while (channel.read(buffer) >= 0)
+            {
+                if (!buffer.hasRemaining())
+                {
+                    break;
+                }
+            }
+            buffer.flip();
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        }
+    }
+}
@@ -0,0 +1,577 @@
+package solution;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic workload for the messaging core, without Swing or sockets
+ *
+ * Registers N users through ChatService.register (and so
+ * Login.registerUser), then runs M sender threads for a fixed time. Each
+ * operation is drawn from a mix of send, fetch and login; a send draws its
+ * payload size and fan-out from configurable distributions, where a
+ * fan-out of 1 is a direct message and a larger fan-out sends to a group
+ * of that many members. Every thread seeds its own random generator from
+ * -Dquickchat.loadSeed, so a run can be replayed to compare builds.
+ *
+ * Reports registration and per-operation throughput with p50/p99/p999
+ * latencies from LatencyHistogram, plus heap and GC activity during the
+ * measured phase. Messages go to a segmented log in a temporary directory
+ * (deleted afterwards) unless -Dquickchat.loadPersist=false.
+ *
+ * Distributions (-Dquickchat.loadSizes, -Dquickchat.loadFanout) are one of:
+ * <pre>
+ * 40            always 40
+ * 1-250         uniform between 1 and 250
+ * exp:60        exponential with mean 60
+ * 1:90,8:9,64:1 weighted values (value:weight,...)
+ * </pre>
+ * and the mix (-Dquickchat.loadMix) is weighted the same way, by name:
+ * "send:80,fetch:15,login:5".
+ *
+ * Usage: LoadGenerator [users] [senders] [seconds]   (default 1000 16 30)
+ */
+public final class LoadGenerator
+{
+    private static final String SIZES =
+        System.getProperty("quickchat.loadSizes", "exp:60");
+    private static final String FANOUT =
+        System.getProperty("quickchat.loadFanout", "1:90,8:9,64:1");
+    private static final String MIX =
+        System.getProperty("quickchat.loadMix", "send:80,fetch:15,login:5");
+    private static final long WARMUP_SECONDS =
+        Long.getLong("quickchat.loadWarmupSeconds", 5L);
+    private static final long SEED =
+        Long.getLong("quickchat.loadSeed", 42L);
+    private static final boolean PERSIST =
+        Boolean.parseBoolean(System.getProperty("quickchat.loadPersist", "true"));
+    private static final int FETCH_LIMIT = 50;
+    private static final String PASSWORD = "Passw0rd!";
+
+    /**
+     * Operations a sender performs
+     */
+    private enum Operation
+    {
+        SEND, FETCH, LOGIN
+    }
+
+    private LoadGenerator()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int senders = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 30;
+
+        // Registration pays one key derivation per user; keep it cheap unless a cost is chosen
+        if (System.getProperty("quickchat.authIterations") == null)
+        {
+            System.setProperty("quickchat.authIterations", Integer.toString(PasswordHasher.MIN_ITERATIONS));
+        }
+
+        Distribution sizes = Distribution.parse(SIZES);
+        Distribution fanout = Distribution.parse(FANOUT);
+        Operation[] mix = parseMix(MIX);
+        System.out.printf("users=%d senders=%d seconds=%d warmup=%d sizes=%s fanout=%s mix=%s seed=%d persist=%b%n",
+                          users, senders, seconds, WARMUP_SECONDS, SIZES, FANOUT, MIX, SEED, PERSIST);
+
+        Path directory = PERSIST ? Files.createTempDirectory("quickchat-load") : null;
+        SegmentedLog log = null;
+        ChatService service;
+        if (directory != null)
+        {
+            log = new SegmentedLog(directory, 64 * 1024 * 1024, 4096, 0L, 0L);
+            GroupCommitWriter writer = new GroupCommitWriter(log, 8192, 512, DurabilityPolicy.flushPerBatch(),
+                e -> System.err.println("Log write failed: " + e.getMessage()));
+            service = new ChatService(log, writer, 500, 4 * Runtime.getRuntime().availableProcessors());
+        }
+        else
+        {
+            service = ChatService.inMemory();
+        }
+
+        try
+        {
+            register(service, users);
+            Sender[] workers = new Sender[senders];
+            for (int i = 0; i < senders; i++)
+            {
+                workers[i] = new Sender(service, i, users, sizes, fanout, mix);
+                workers[i].createGroups();
+            }
+            run(workers, seconds);
+        }
+        finally
+        {
+            service.close();
+            if (log != null)
+            {
+                log.close();
+            }
+            if (directory != null)
+            {
+                deleteRecursively(directory);
+            }
+        }
+    }
+
+    /**
+     * Registers every user and reports how long it took
+     */
+    private static void register(ChatService service, int users)
+    {
+        LatencyHistogram latency = new LatencyHistogram();
+        long started = System.nanoTime();
+        for (int i = 0; i < users; i++)
+        {
+            long begin = System.nanoTime();
+            ChatResult<Login> result = service.register(username(i), PASSWORD, "Load", "User", phone(i));
+            latency.record(System.nanoTime() - begin);
+            if (!result.isSuccess())
+            {
+                throw new IllegalStateException("Could not register " + username(i) + ": " + result.getMessage());
+            }
+        }
+        long wall = System.nanoTime() - started;
+        System.out.println();
+        printHeader();
+        printRow("register", latency, wall);
+    }
+
+    /**
+     * Runs the senders through warm-up and measurement and prints the report
+     */
+    private static void run(Sender[] workers, long seconds) throws InterruptedException
+    {
+        long now = System.nanoTime();
+        long measureFrom = now + WARMUP_SECONDS * 1_000_000_000L;
+        long measureUntil = measureFrom + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(workers.length);
+
+        for (Sender worker : workers)
+        {
+            Thread.ofPlatform().name("load-" + worker.index).daemon(true).start(() ->
+            {
+                try
+                {
+                    worker.run(measureFrom, measureUntil);
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            });
+        }
+
+        Thread.sleep(Math.max(0, (measureFrom - System.nanoTime()) / 1_000_000));
+        HeapSnapshot before = HeapSnapshot.take();
+        done.await();
+        HeapSnapshot after = HeapSnapshot.take();
+        long wall = Math.max(1, Math.min(System.nanoTime(), measureUntil) - measureFrom);
+
+        Map<Operation, LatencyHistogram> totals = new EnumMap<>(Operation.class);
+        Map<ChatResult.Status, Long> failures = new EnumMap<>(ChatResult.Status.class);
+        long allocated = 0;
+        for (Sender worker : workers)
+        {
+            for (Operation operation : Operation.values())
+            {
+                totals.computeIfAbsent(operation, o -> new LatencyHistogram()).add(worker.latencies.get(operation));
+            }
+            worker.failures.forEach((status, count) -> failures.merge(status, count, Long::sum));
+            allocated += Math.max(0, worker.allocatedBytes);
+        }
+
+        LatencyHistogram all = new LatencyHistogram();
+        for (Operation operation : Operation.values())
+        {
+            printRow(operation.name().toLowerCase(), totals.get(operation), wall);
+            all.add(totals.get(operation));
+        }
+        printRow("all", all, wall);
+        if (!failures.isEmpty())
+        {
+            System.out.println("failures: " + failures);
+        }
+
+        System.out.println();
+        after.printSince(before, all.getCount(), allocated);
+    }
+
+    private static void printHeader()
+    {
+        System.out.printf("%-10s %10s %12s %10s %10s %10s %10s %10s%n",
+                          "operation", "count", "ops/s", "mean us", "p50 us", "p99 us", "p999 us", "max us");
+    }
+
+    private static void printRow(String name, LatencyHistogram latency, long wallNanos)
+    {
+        System.out.printf("%-10s %10d %12.0f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                          name, latency.getCount(), latency.getCount() / (wallNanos / 1e9),
+                          latency.getMean() / 1e3,
+                          latency.getValueAtPercentile(50) / 1e3,
+                          latency.getValueAtPercentile(99) / 1e3,
+                          latency.getValueAtPercentile(99.9) / 1e3,
+                          latency.getMax() / 1e3);
+    }
+
+    /**
+     * Parses a weighted operation mix such as "send:80,fetch:15,login:5"
+     * @return Lookup table with one entry per unit of weight
+     */
+    private static Operation[] parseMix(String spec)
+    {
+        List<Operation> table = new ArrayList<>();
+        for (String entry : spec.split(","))
+        {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2)
+            {
+                throw new IllegalArgumentException("Invalid operation mix: " + spec);
+            }
+            Operation operation = Operation.valueOf(parts[0].trim().toUpperCase());
+            for (int i = Integer.parseInt(parts[1].trim()); i > 0; i--)
+            {
+                table.add(operation);
+            }
+        }
+        if (table.isEmpty())
+        {
+            throw new IllegalArgumentException("Operation mix has no weight: " + spec);
+        }
+        return table.toArray(new Operation[0]);
+    }
+
+    /**
+     * Username for user i: an underscore and up to four base-36 digits
+     */
+    static String username(int i)
+    {
+        return "_" + Integer.toString(i, 36);
+    }
+
+    static String phone(int i)
+    {
+        return String.format("+278%08d", i);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+            {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * One simulated client, run on its own thread
+     */
+    private static final class Sender
+    {
+        private final ChatService service;
+        private final int index;
+        private final int users;
+        private final Distribution sizes;
+        private final Distribution fanout;
+        private final Operation[] mix;
+        private final SplittableRandom random;
+        private final String phone;
+        private final Map<Integer, String> groups;
+        private final Map<Operation, LatencyHistogram> latencies;
+        private final Map<ChatResult.Status, Long> failures;
+        private final char[] text;
+        private long allocatedBytes;
+
+        Sender(ChatService service, int index, int users, Distribution sizes,
+               Distribution fanout, Operation[] mix)
+        {
+            this.service = service;
+            this.index = index;
+            this.users = users;
+            this.sizes = sizes;
+            this.fanout = fanout;
+            this.mix = mix;
+            this.random = new SplittableRandom(SEED + index);
+            this.phone = phone(index % users);
+            this.groups = new HashMap<>();
+            this.latencies = new EnumMap<>(Operation.class);
+            this.failures = new EnumMap<>(ChatResult.Status.class);
+            for (Operation operation : Operation.values())
+            {
+                latencies.put(operation, new LatencyHistogram());
+            }
+            this.text = new char[Validators.MAX_PAYLOAD_LENGTH];
+            for (int i = 0; i < text.length; i++)
+            {
+                text[i] = i % 6 == 5 ? ' ' : (char) ('a' + i % 26);
+            }
+        }
+
+        /**
+         * Creates up front the groups for every fan-out the distribution
+         * lists, so they are not created while latencies are recorded
+         */
+        void createGroups()
+        {
+            for (int size : fanout.values())
+            {
+                if (size > 1)
+                {
+                    groupOf(size);
+                }
+            }
+        }
+
+        /**
+         * Gets this sender's group with the given number of members, creating it on first use
+         */
+        private String groupOf(int size)
+        {
+            String address = groups.get(size);
+            if (address != null)
+            {
+                return address;
+            }
+            List<String> members = new ArrayList<>();
+            for (int i = 1; i < Math.min(size, users); i++)
+            {
+                members.add(phone((index + i) % users));
+            }
+            ChatResult<String> group = service.createGroup(phone, "load-" + index + "-" + size, members);
+            if (!group.isSuccess())
+            {
+                throw new IllegalStateException("Could not create group: " + group.getMessage());
+            }
+            groups.put(size, group.getValue());
+            return group.getValue();
+        }
+
+        void run(long measureFrom, long measureUntil)
+        {
+            boolean measuring = false;
+            long allocatedAtStart = 0;
+            long now;
+            while ((now = System.nanoTime()) - measureUntil < 0)
+            {
+                if (!measuring && now - measureFrom >= 0)
+                {
+                    measuring = true;
+                    allocatedAtStart = HeapSnapshot.threadAllocatedBytes();
+                }
+
+                Operation operation = mix[random.nextInt(mix.length)];
+                long begin = System.nanoTime();
+                ChatResult.Status status = perform(operation);
+                long latency = System.nanoTime() - begin;
+                if (measuring)
+                {
+                    latencies.get(operation).record(latency);
+                    if (!status.isSuccess())
+                    {
+                        failures.merge(status, 1L, Long::sum);
+                    }
+                }
+            }
+            allocatedBytes = measuring ? HeapSnapshot.threadAllocatedBytes() - allocatedAtStart : 0;
+        }
+
+        private ChatResult.Status perform(Operation operation)
+        {
+            switch (operation)
+            {
+                case SEND:
+                    int size = Math.max(1, Math.min(text.length, sizes.next(random)));
+                    int recipients = fanout.next(random);
+                    String recipient = recipients > 1
+                        ? groupOf(recipients)
+                        : phone((index + 1 + random.nextInt(Math.max(1, users - 1))) % users);
+                    return service.send(phone, recipient, new String(text, 0, size)).getStatus();
+                case FETCH:
+                    service.getInbox(phone, MessagePage.LATEST, FETCH_LIMIT);
+                    return ChatResult.Status.OK;
+                case LOGIN:
+                    return service.login(username(index % users), PASSWORD).getStatus();
+                default:
+                    throw new IllegalStateException("Unknown operation " + operation);
+            }
+        }
+    }
+
+    /**
+     * Distribution of positive integers (message sizes, fan-outs)
+     */
+    private static final class Distribution
+    {
+        private final int[] table;
+        private final double exponentialMean;
+
+        private Distribution(int[] table, double exponentialMean)
+        {
+            this.table = table;
+            this.exponentialMean = exponentialMean;
+        }
+
+        /**
+         * Parses "n", "a-b", "exp:mean" or "v:w,v:w,..."
+         */
+        static Distribution parse(String spec)
+        {
+            String s = spec.trim();
+            try
+            {
+                if (s.startsWith("exp:"))
+                {
+                    double mean = Double.parseDouble(s.substring(4));
+                    if (mean <= 0)
+                    {
+                        throw new IllegalArgumentException("Mean must be positive: " + spec);
+                    }
+                    return new Distribution(new int[0], mean);
+                }
+                if (s.contains(":"))
+                {
+                    List<Integer> table = new ArrayList<>();
+                    for (String entry : s.split(","))
+                    {
+                        String[] parts = entry.trim().split(":");
+                        for (int i = Integer.parseInt(parts[1].trim()); i > 0; i--)
+                        {
+                            table.add(Integer.parseInt(parts[0].trim()));
+                        }
+                    }
+                    return new Distribution(table.stream().mapToInt(Integer::intValue).toArray(), 0);
+                }
+                int dash = s.indexOf('-');
+                if (dash > 0)
+                {
+                    int low = Integer.parseInt(s.substring(0, dash).trim());
+                    int high = Integer.parseInt(s.substring(dash + 1).trim());
+                    int[] table = new int[Math.max(1, high - low + 1)];
+                    Arrays.setAll(table, i -> low + i);
+                    return new Distribution(table, 0);
+                }
+                return new Distribution(new int[] {Integer.parseInt(s)}, 0);
+            }
+            catch (RuntimeException e)
+            {
+                throw new IllegalArgumentException("Invalid distribution: " + spec, e);
+            }
+        }
+
+        int next(SplittableRandom random)
+        {
+            if (exponentialMean > 0)
+            {
+                return 1 + (int) (-Math.log(1 - random.nextDouble()) * exponentialMean);
+            }
+            return table[random.nextInt(table.length)];
+        }
+
+        /**
+         * Gets the distinct values a table distribution can produce (none for exp:)
+         */
+        int[] values()
+        {
+            return Arrays.stream(table).distinct().toArray();
+        }
+    }
+
+    /**
+     * Heap and collector state at one moment
+     */
+    private static final class HeapSnapshot
+    {
+        private final long used;
+        private final long committed;
+        private final long peak;
+        private final Map<String, long[]> collectors;
+
+        private HeapSnapshot(long used, long committed, long peak, Map<String, long[]> collectors)
+        {
+            this.used = used;
+            this.committed = committed;
+            this.peak = peak;
+            this.collectors = collectors;
+        }
+
+        /**
+         * Reads the heap pools and collectors; the peak is the one since the previous snapshot
+         */
+        static HeapSnapshot take()
+        {
+            long used = 0;
+            long committed = 0;
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            {
+                if (pool.getType() == MemoryType.HEAP)
+                {
+                    used += pool.getUsage().getUsed();
+                    committed += pool.getUsage().getCommitted();
+                    peak += pool.getPeakUsage().getUsed();
+                    pool.resetPeakUsage();
+                }
+            }
+            Map<String, long[]> collectors = new HashMap<>();
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            {
+                collectors.put(gc.getName(), new long[] {gc.getCollectionCount(), gc.getCollectionTime()});
+            }
+            return new HeapSnapshot(used, committed, peak, collectors);
+        }
+
+        /**
+         * Bytes allocated so far by the calling thread, or 0 if the JVM does not say
+         */
+        static long threadAllocatedBytes()
+        {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+            {
+                return threads.getCurrentThreadAllocatedBytes();
+            }
+            return 0;
+        }
+
+        /**
+         * Prints heap growth, peak and collections between an earlier snapshot and this one
+         */
+        void printSince(HeapSnapshot before, long operations, long allocated)
+        {
+            System.out.printf("heap: used %d MB -> %d MB, peak %d MB, committed %d MB, max %d MB%n",
+                              before.used >> 20, used >> 20, peak >> 20, committed >> 20,
+                              Runtime.getRuntime().maxMemory() >> 20);
+            if (allocated > 0 && operations > 0)
+            {
+                System.out.printf("allocated: %d MB by senders, %d bytes/op%n",
+                                  allocated >> 20, allocated / operations);
+            }
+            for (Map.Entry<String, long[]> gc : collectors.entrySet())
+            {
+                long[] earlier = before.collectors.getOrDefault(gc.getKey(), new long[2]);
+                System.out.printf("gc %-24s %6d collections %8d ms%n",
+                                  gc.getKey(), gc.getValue()[0] - earlier[0], gc.getValue()[1] - earlier[1]);
+            }
+        }
+    }
+}
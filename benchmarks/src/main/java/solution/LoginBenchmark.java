@@ -0,0 +1,133 @@
+package solution;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Login against growing user populations
+ *
+ * lookup is the username index alone; login adds the session cache check
+ * for a user who logged in recently, which is what a reconnecting client
+ * pays. A full PBKDF2 verification is deliberately not measured here: its
+ * cost is whatever quickchat.authTargetMillis calibrates it to. Accounts
+ * share one precomputed hash so that setting up a million of them does
+ * not take a million key derivations.
+ *
+ * store=memory keeps accounts in ChatService's maps; store=registry puts
+ * them in a UserRegistry in a temporary directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LoginBenchmark
+{
+    private static final String PASSWORD = "Passw0rd!";
+    private static final int WARM_USERS = 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    @Param({"memory", "registry"})
+    public String store;
+
+    private Path directory;
+    private ChatService service;
+    private String[] usernames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        UserRegistry registry = null;
+        if (store.equals("registry"))
+        {
+            directory = Files.createTempDirectory("quickchat-login-bench");
+            registry = UserRegistry.open(directory.resolve("users.db"), users);
+        }
+        service = new ChatService(null, null, 16, 16, new SearchIndex(), registry);
+
+        String hash = service.getAuthentication().hash(PASSWORD);
+        usernames = new String[users];
+        for (int i = 0; i < users; i++)
+        {
+            usernames[i] = "u" + i;
+            Login user = new Login(usernames[i], PASSWORD, "Bench", "User", phone(i));
+            user.applyPasswordHash(hash);
+            service.addUser(user);
+        }
+
+        // Fill the session cache (and upgrade the shared hash) for the users login() cycles through
+        for (int i = 0; i < Math.min(WARM_USERS, users); i++)
+        {
+            if (!service.login(username(i), PASSWORD).isSuccess())
+            {
+                throw new IllegalStateException("Setup login failed for " + username(i));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        service.close();
+        if (directory != null)
+        {
+            SendBenchmark.deleteRecursively(directory);
+        }
+    }
+
+    static String phone(int i)
+    {
+        return String.format("+2783%07d", i);
+    }
+
+    private String username(int i)
+    {
+        return usernames[i];
+    }
+
+    /**
+     * Cursor over the accounts, per benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int next;
+
+        int next(int bound)
+        {
+            // Stride through the population so successive lookups hit different cache lines
+            next = (next + 7919) % bound;
+            return next;
+        }
+    }
+
+    @Benchmark
+    public Login lookup(Cursor cursor)
+    {
+        return service.findUserByUsername(username(cursor.next(users)));
+    }
+
+    @Benchmark
+    public ChatResult<Login> login(Cursor cursor)
+    {
+        return service.login(username(cursor.next(Math.min(WARM_USERS, users))), PASSWORD);
+    }
+}
@@ -0,0 +1,110 @@
+package solution;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-message work done on every send: construction, validation, hashing
+ * and serialization
+ *
+ * The payload length is a parameter because hashing and JSON escaping are
+ * linear in it; 250 is the longest payload a send accepts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark
+{
+    private static final String SENDER = "+27821234567";
+    private static final String RECIPIENT = "+27837654321";
+
+    @Param({"12", "250"})
+    public int payloadLength;
+
+    private String payload;
+    private Message message;
+
+    @Setup
+    public void setUp()
+    {
+        payload = payload(payloadLength);
+        message = new Message(payload, RECIPIENT, SENDER);
+    }
+
+    /**
+     * Builds a payload of whole words, with a quote and a non-ASCII
+     * character so the JSON writer has something to escape
+     */
+    static String payload(int length)
+    {
+        String words = "Hi \"there\" – did you get the file? See you soon. ";
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length)
+        {
+            text.append(words);
+        }
+        text.setLength(length);
+        return text.toString().strip();
+    }
+
+    /**
+     * Includes the timestamp and the ID generator
+     */
+    @Benchmark
+    public Message construct()
+    {
+        return new Message(payload, RECIPIENT, SENDER);
+    }
+
+    @Benchmark
+    public String toJsonString()
+    {
+        return message.toJsonString();
+    }
+
+    /**
+     * Hashes a fresh message each time, since the hash is cached after the first call
+     */
+    @Benchmark
+    public String createMessageHash()
+    {
+        Message restored = new Message(1L, "0000000001", null, payload, RECIPIENT, SENDER,
+                                       message.getTimestamp(), MessageStatus.SENT);
+        return restored.createMessageHash();
+    }
+
+    @Benchmark
+    public String createMessageHashCached()
+    {
+        return message.createMessageHash();
+    }
+
+    @Benchmark
+    public boolean checkRecipientCell()
+    {
+        return message.checkRecipientCell();
+    }
+
+    /**
+     * Restoring constructor alone, the baseline for createMessageHash
+     */
+    @Benchmark
+    public Message restore()
+    {
+        return new Message(1L, "0000000001", null, payload, RECIPIENT, SENDER,
+                           message.getTimestamp(), MessageStatus.SENT);
+    }
+}
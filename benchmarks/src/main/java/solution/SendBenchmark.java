@@ -0,0 +1,120 @@
+package solution;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ChatService.send end to end: validation, the conversation store, the
+ * search index and the group-commit writer appending to a segmented log
+ * in a temporary directory
+ *
+ * The writer blocks senders when its queue is full, so throughput here is
+ * bounded by the disk under the chosen durability policy. Retention keeps
+ * the log from filling the disk during long runs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class SendBenchmark
+{
+    private static final int USERS = 64;
+    private static final int SEGMENT_BYTES = 16 * 1024 * 1024;
+    private static final long RETENTION_BYTES = 128L * 1024 * 1024;
+
+    @Param({"batch", "interval:100", "records:1"})
+    public String durability;
+
+    @Param({"12", "250"})
+    public int payloadLength;
+
+    private Path directory;
+    private SegmentedLog log;
+    private ChatService service;
+    private String[] phones;
+    private String payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("quickchat-send-bench");
+        log = new SegmentedLog(directory, SEGMENT_BYTES, 4096, RETENTION_BYTES, 0L);
+        GroupCommitWriter writer = new GroupCommitWriter(log, 8192, 512,
+                                                         DurabilityPolicy.parse(durability),
+                                                         e -> System.err.println("Log write failed: " + e.getMessage()));
+        service = new ChatService(log, writer, 500, 16);
+
+        String hash = service.getAuthentication().hash("Passw0rd!");
+        phones = new String[USERS];
+        for (int i = 0; i < USERS; i++)
+        {
+            phones[i] = LoginBenchmark.phone(i);
+            Login user = new Login("u" + i, "Passw0rd!", "Bench", "User", phones[i]);
+            user.applyPasswordHash(hash);
+            service.addUser(user);
+        }
+        payload = MessageBenchmark.payload(payloadLength);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        service.close();
+        log.close();
+        deleteRecursively(directory);
+    }
+
+    static void deleteRecursively(Path directory) throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+            {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Position in the sender rotation, per benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int next;
+    }
+
+    @Benchmark
+    public ChatResult<Message> send(Cursor cursor)
+    {
+        int i = cursor.next++ & Integer.MAX_VALUE;
+        return service.send(phones[i % USERS], phones[(i + 1) % USERS], payload);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ChatResult<Message> sendContended(Cursor cursor)
+    {
+        return send(cursor);
+    }
+}
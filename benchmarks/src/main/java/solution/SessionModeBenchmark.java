@@ -0,0 +1,191 @@
+package solution;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the two SessionServer modes over loopback
+ *
+ * Each simulated session connects, logs in, sends a few messages, fetches
+ * its inbox and quits, with one round trip per request and a pause
+ * between requests (-Dquickchat.benchThinkMillis) like a person typing,
+ * so sessions spend most of their life idle. Clients run on
+ * virtual threads in both cases, so the difference is on the server side.
+ * The number of sessions open at once is capped
+ * (-Dquickchat.benchConcurrency) to stay within the descriptor limit,
+ * since both ends of every connection live in this process.
+ *
+ * Usage: SessionModeBenchmark [sessions,...]   (default 1000,10000,50000)
+ */
+public final class SessionModeBenchmark
+{
+    private static final int CONCURRENCY =
+        Integer.getInteger("quickchat.benchConcurrency", 2000);
+    private static final int PLATFORM_THREADS =
+        Integer.getInteger("quickchat.platformThreads", 200);
+    private static final long THINK_MILLIS =
+        Long.getLong("quickchat.benchThinkMillis", 100L);
+    private static final int SENDS_PER_SESSION = 4;
+    private static final int USERS = 100;
+    private static final String PASSWORD = "Passw0rd!";
+
+    private SessionModeBenchmark()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        String counts = args.length > 0 ? args[0] : "1000,10000,50000";
+        System.out.printf("concurrency=%d platformThreads=%d thinkMillis=%d%n",
+                          CONCURRENCY, PLATFORM_THREADS, THINK_MILLIS);
+        System.out.printf("%-16s %8s %10s %12s %10s %10s %8s%n",
+                          "mode", "sessions", "wall ms", "sessions/s", "p50 ms", "p99 ms", "threads");
+
+        for (String count : counts.split(","))
+        {
+            int sessions = Integer.parseInt(count.trim());
+            for (SessionServer.Mode mode : SessionServer.Mode.values())
+            {
+                run(mode, sessions);
+            }
+        }
+    }
+
+    private static void run(SessionServer.Mode mode, int sessions) throws Exception
+    {
+        ChatService service = ChatService.inMemory();
+        for (int i = 0; i < USERS; i++)
+        {
+            service.register(username(i), PASSWORD, "Bench", "User", phone(i));
+        }
+
+        InetSocketAddress any = new InetSocketAddress("127.0.0.1", 0);
+        SessionServer server = mode == SessionServer.Mode.VIRTUAL_THREADS
+            ? SessionServer.virtualThreads(service, any)
+            : SessionServer.platformPool(service, any, PLATFORM_THREADS);
+        server.start();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", server.getPort());
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        threads.resetPeakThreadCount();
+
+        long[] latencies = new long[sessions];
+        AtomicInteger failures = new AtomicInteger();
+        Semaphore open = new Semaphore(CONCURRENCY);
+        long started = System.nanoTime();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor())
+        {
+            for (int i = 0; i < sessions; i++)
+            {
+                int session = i;
+                open.acquire();
+                clients.execute(() ->
+                {
+                    long begin = System.nanoTime();
+                    try
+                    {
+                        runSession(address, session);
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        failures.incrementAndGet();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        latencies[session] = System.nanoTime() - begin;
+                        open.release();
+                    }
+                });
+            }
+        }
+        long wall = System.nanoTime() - started;
+        int peakThreads = threads.getPeakThreadCount();
+        server.close();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-16s %8d %10d %12.0f %10.2f %10.2f %8d%s%n",
+                          mode, sessions, wall / 1_000_000, sessions / (wall / 1e9),
+                          latencies[sessions / 2] / 1e6, latencies[(int) (sessions * 0.99)] / 1e6,
+                          peakThreads,
+                          failures.get() == 0 ? "" : "  (" + failures.get() + " failed)");
+    }
+
+    /**
+     * Plays one session with a round trip per request
+     */
+    private static void runSession(InetSocketAddress address, int session)
+        throws IOException, InterruptedException
+    {
+        int user = session % USERS;
+        try (Socket socket = new Socket())
+        {
+            socket.connect(address);
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            LineReader in = new LineReader(socket.getInputStream(), 256, 1 << 20);
+
+            request(out, in, "LOGIN " + username(user) + " " + PASSWORD, "OK");
+            for (int i = 0; i < SENDS_PER_SESSION; i++)
+            {
+                String recipient = phone((user + 1 + i) % USERS);
+                request(out, in, "SEND " + recipient + " Session " + session + " message " + i, "OK");
+            }
+            request(out, in, "FETCH " + MessagePage.LATEST + " 20", "END");
+            request(out, in, "QUIT", "BYE");
+
+            // Reset instead of TIME_WAIT so tens of thousands of sessions do not exhaust ports
+            socket.setSoLinger(true, 0);
+        }
+    }
+
+    /**
+     * Sends one request and reads replies until the expected terminal line
+     */
+    private static void request(OutputStream out, LineReader in, String line, String terminal)
+        throws IOException, InterruptedException
+    {
+        if (THINK_MILLIS > 0)
+        {
+            Thread.sleep(THINK_MILLIS);
+        }
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        String reply;
+        while ((reply = in.readLine()) != null)
+        {
+            if (reply.startsWith(terminal))
+            {
+                return;
+            }
+            if (reply.startsWith("ERR"))
+            {
+                throw new IOException(reply);
+            }
+        }
+        throw new IOException("Server closed the session");
+    }
+
+    private static String username(int user)
+    {
+        return String.format("b_%02d", user);
+    }
+
+    private static String phone(int user)
+    {
+        return String.format("+278400%05d", user);
+    }
+}
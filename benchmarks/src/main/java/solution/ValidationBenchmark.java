@@ -0,0 +1,68 @@
+package solution;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Registration rules as checked by Login
+ *
+ * The passwords cover an early exit (too short), a scan that fails at the
+ * end (no special character) and a full pass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValidationBenchmark
+{
+    private final Login user = new Login("a_bcd", "Passw0rd!", "Bench", "User", "+27821234567");
+
+    /**
+     * Account with the password under test
+     * Never added to a service, so the plaintext is kept for the checks
+     */
+    @State(Scope.Thread)
+    public static class Candidate
+    {
+        @Param({"Pass1!", "Password123", "Passw0rd!"})
+        public String password;
+
+        Login user;
+
+        @Setup
+        public void setUp()
+        {
+            user = new Login("a_bcd", password, "Bench", "User", "+27821234567");
+        }
+    }
+
+    @Benchmark
+    public boolean checkPasswordComplexity(Candidate candidate)
+    {
+        return candidate.user.checkPasswordComplexity();
+    }
+
+    @Benchmark
+    public boolean checkUserName()
+    {
+        return user.checkUserName();
+    }
+
+    @Benchmark
+    public boolean checkCellPhoneNumber()
+    {
+        return user.checkCellPhoneNumber();
+    }
+}
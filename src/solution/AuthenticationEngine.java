@@ -0,0 +1,277 @@
+package solution;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verifies passwords on a dedicated worker pool
+ *
+ * PBKDF2 is deliberately slow, so verifications never run on the caller's
+ * thread: they are queued to a fixed pool sized for the machine, which
+ * also caps how much CPU a burst of logins can take from message traffic.
+ * When the queue is full the returned future fails with a
+ * RejectedExecutionException instead of queueing without bound.
+ * New passwords are hashed on the same pool (see hashAsync), and the
+ * hasher itself is obtained there too, so a cost calibration at startup
+ * never runs on the thread that builds the engine.
+ *
+ * A successful verification is remembered for a short time as an HMAC of
+ * the password under a per-process random key, so a client that
+ * reconnects with the same credentials is checked with one cheap MAC
+ * instead of a full key derivation. The entry is dropped when it expires
+ * or when the account's stored hash changes. Thread-safe.
+ */
+public final class AuthenticationEngine implements Closeable
+{
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final CompletableFuture<PasswordHasher> hasher;
+    private final ThreadPoolExecutor workers;
+    private final ConcurrentHashMap<String, VerifiedSession> sessions;
+    private final long sessionTtlNanos;
+    private final SecretKeySpec sessionKey;
+    private volatile String decoyHash;
+    private final AtomicLong verifications;
+    private final AtomicLong cacheHits;
+
+    /**
+     * Creates an engine and its worker pool
+     * @param hasher Hasher for new hashes and upgrades
+     * @param threads Verification threads
+     * @param queueCapacity Verifications that may wait for a thread
+     * @param sessionTtlMillis How long a verified password is remembered (0 disables the cache)
+     */
+    public AuthenticationEngine(PasswordHasher hasher, int threads, int queueCapacity, long sessionTtlMillis)
+    {
+        this(() -> hasher, threads, queueCapacity, sessionTtlMillis);
+    }
+
+    /**
+     * Creates an engine whose hasher is obtained on the worker pool
+     * Use this when obtaining the hasher is slow, e.g. PasswordHasher::configured
+     * calibrating the iteration count; work queued meanwhile waits for it
+     * @param hasherSource Supplies the hasher for new hashes and upgrades
+     * @param threads Verification threads
+     * @param queueCapacity Verifications that may wait for a thread
+     * @param sessionTtlMillis How long a verified password is remembered (0 disables the cache)
+     */
+    public AuthenticationEngine(Supplier<PasswordHasher> hasherSource, int threads, int queueCapacity,
+                                long sessionTtlMillis)
+    {
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            Thread.ofPlatform().name("auth-", 0).daemon(true).factory(),
+            new ThreadPoolExecutor.AbortPolicy());
+        this.sessions = new ConcurrentHashMap<>();
+        this.sessionTtlNanos = TimeUnit.MILLISECONDS.toNanos(sessionTtlMillis);
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.sessionKey = new SecretKeySpec(key, MAC_ALGORITHM);
+        this.verifications = new AtomicLong();
+        this.cacheHits = new AtomicLong();
+
+        // First task on the pool, so every later task finds it done or running
+        this.hasher = CompletableFuture.supplyAsync(() ->
+        {
+            PasswordHasher source = hasherSource.get();
+            decoyHash = source.hash("decoy-" + System.nanoTime());
+            return source;
+        }, workers);
+    }
+
+    /**
+     * Hashes a password on the caller's thread
+     * Waits for the hasher if it is still being set up; prefer hashAsync
+     * on threads that must stay responsive
+     * @param password Plaintext password
+     * @return Encoded hash
+     */
+    public String hash(String password)
+    {
+        return hasher.join().hash(password);
+    }
+
+    /**
+     * Hashes a password on the worker pool
+     * @param password Plaintext password
+     * @return Future completed with the encoded hash
+     * @throws java.util.concurrent.RejectedExecutionException if too many tasks are queued
+     */
+    public CompletableFuture<String> hashAsync(String password)
+    {
+        return CompletableFuture.supplyAsync(() -> hasher.join().hash(password), workers);
+    }
+
+    /**
+     * Checks a user's password without blocking the caller
+     * @param user Account whose stored hash is checked
+     * @param password Attempted password
+     * @return Future completed with true if the password matches
+     */
+    public CompletableFuture<Boolean> verify(Login user, String password)
+    {
+        String stored = user.getPasswordHash();
+        byte[] token = sessionToken(user.getCellPhoneNumber(), password);
+        VerifiedSession session = sessions.get(user.getCellPhoneNumber());
+        if (session != null)
+        {
+            if (session.matches(stored, token, System.nanoTime()))
+            {
+                cacheHits.incrementAndGet();
+                return CompletableFuture.completedFuture(true);
+            }
+            sessions.remove(user.getCellPhoneNumber(), session);
+        }
+
+        return CompletableFuture.supplyAsync(() ->
+        {
+            verifications.incrementAndGet();
+            boolean valid = stored != null
+                ? PasswordHasher.verify(password, stored)
+                : PasswordHasher.constantTimeEquals(user.getPassword(), password);
+            if (!valid)
+            {
+                return false;
+            }
+
+            PasswordHasher upgrade = hasher.join();
+            String current = stored;
+            if (stored == null || upgrade.needsRehash(stored))
+            {
+                current = upgrade.hash(password);
+                user.applyPasswordHash(current);
+            }
+            if (sessionTtlNanos > 0)
+            {
+                sessions.put(user.getCellPhoneNumber(),
+                             new VerifiedSession(current, token, System.nanoTime() + sessionTtlNanos));
+            }
+            return true;
+        }, workers);
+    }
+
+    /**
+     * Spends the cost of one verification for a username that does not exist
+     * so that the reply time does not reveal which usernames are registered
+     * @param password Attempted password
+     * @return Future completed with false
+     */
+    public CompletableFuture<Boolean> reject(String password)
+    {
+        return CompletableFuture.supplyAsync(() ->
+        {
+            verifications.incrementAndGet();
+            hasher.join(); // Sets the decoy
+            PasswordHasher.verify(password, decoyHash);
+            return false;
+        }, workers);
+    }
+
+    /**
+     * Forgets a remembered login, e.g. after a password change
+     * @param cellPhoneNumber Account's cell number
+     */
+    public void invalidate(String cellPhoneNumber)
+    {
+        sessions.remove(cellPhoneNumber);
+    }
+
+    /**
+     * Gets the hasher, waiting for it if it is still being set up
+     * @return Hasher for new hashes and upgrades
+     */
+    public PasswordHasher getHasher()
+    {
+        return hasher.join();
+    }
+
+    /**
+     * Gets the number of full key derivations run for logins
+     * @return Verification count
+     */
+    public long getVerificationCount()
+    {
+        return verifications.get();
+    }
+
+    /**
+     * Gets the number of logins answered from the session cache
+     * @return Cache hit count
+     */
+    public long getCacheHitCount()
+    {
+        return cacheHits.get();
+    }
+
+    /**
+     * Gets the number of verifications waiting for a thread
+     * @return Queued verification count
+     */
+    public int getQueuedCount()
+    {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * Stops the worker pool; queued verifications still complete
+     */
+    @Override
+    public void close()
+    {
+        workers.shutdown();
+    }
+
+    private byte[] sessionToken(String cellPhoneNumber, String password)
+    {
+        try
+        {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(sessionKey);
+            mac.update(cellPhoneNumber.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+        }
+        catch (GeneralSecurityException e)
+        {
+            // Every Java SE runtime ships HmacSHA256
+            throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * A recently verified password, valid while the stored hash is unchanged
+     */
+    private static final class VerifiedSession
+    {
+        private final String passwordHash;
+        private final byte[] token;
+        private final long expiresAt;
+
+        VerifiedSession(String passwordHash, byte[] token, long expiresAt)
+        {
+            this.passwordHash = passwordHash;
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean matches(String currentHash, byte[] attempt, long now)
+        {
+            return now - expiresAt < 0
+                && passwordHash.equals(currentHash)
+                && MessageDigest.isEqual(token, attempt);
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package solution;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pipelining client for the binary protocol of ChatServer
+ *
+ * Every request gets a fresh correlation ID and returns a future that the
+ * reader thread completes when the matching reply arrives. Requests are
+ * only batched into the open frame; nothing is sent until flush(), so
+ * issuing several requests and then flushing once sends them all in one
+ * frame without waiting for any reply in between.
+ * <pre>
+ * CompletableFuture&lt;ChatResult&lt;Void&gt;&gt; login = client.login("a_bc", "Passw0rd!");
+ * CompletableFuture&lt;MessagePage&gt; inbox = client.fetch(MessagePage.LATEST, 20);
+ * client.flush();
+ * </pre>
+ * Protocol errors (not logged in, malformed request) complete the future
+ * exceptionally with a ProtocolException. Thread-safe.
+ */
+public final class BinaryChatClient implements Closeable
+{
+    private static final int POOLED_FRAME_BUFFERS = 4;
+
+    private final SocketChannel channel;
+    private final FrameEncoder encoder;
+    private final ReentrantLock writeLock;
+    private final Map<Long, PendingCall> pending;
+    private final AtomicLong nextCorrelationId;
+    private final Thread reader;
+    private volatile IOException failure;
+
+    private BinaryChatClient(SocketChannel channel)
+    {
+        this.channel = channel;
+        this.encoder = new FrameEncoder(new BufferPool(BinaryProtocol.MAX_FRAME_BYTES, POOLED_FRAME_BUFFERS));
+        this.writeLock = new ReentrantLock();
+        this.pending = new ConcurrentHashMap<>();
+        this.nextCorrelationId = new AtomicLong();
+        this.reader = Thread.ofVirtual().name("binary-client-reader").unstarted(this::readLoop);
+    }
+
+    /**
+     * Connects and announces the binary protocol
+     * @param address Server address
+     * @return Connected client
+     * @throws IOException If the connection fails
+     */
+    public static BinaryChatClient connect(InetSocketAddress address) throws IOException
+    {
+        SocketChannel channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.write(ByteBuffer.wrap(new byte[] { BinaryProtocol.MAGIC, BinaryProtocol.VERSION }));
+
+        BinaryChatClient client = new BinaryChatClient(channel);
+        client.reader.start();
+        return client;
+    }
+
+    public CompletableFuture<ChatResult<Void>> ping()
+    {
+        return call(BinaryProtocol.PING, null);
+    }
+
+    public CompletableFuture<ChatResult<Void>> register(String username, String password,
+                                                        String firstName, String lastName,
+                                                        String cellPhoneNumber)
+    {
+        return call(BinaryProtocol.REGISTER, buffer ->
+        {
+            BinaryProtocol.putString(buffer, username);
+            BinaryProtocol.putString(buffer, password);
+            BinaryProtocol.putString(buffer, firstName);
+            BinaryProtocol.putString(buffer, lastName);
+            BinaryProtocol.putPhone(buffer, cellPhoneNumber);
+        });
+    }
+
+    public CompletableFuture<ChatResult<Void>> login(String username, String password)
+    {
+        return call(BinaryProtocol.LOGIN, buffer ->
+        {
+            BinaryProtocol.putString(buffer, username);
+            BinaryProtocol.putString(buffer, password);
+        });
+    }
+
+    /**
+     * Sends a message as the logged-in user
+     * @param recipientPhoneNumber Receiver's number
+     * @param text Message text
+     * @return Result holding the new message ID on success
+     */
+    public CompletableFuture<ChatResult<Long>> send(String recipientPhoneNumber, String text)
+    {
+        return call(BinaryProtocol.SEND, buffer ->
+        {
+            BinaryProtocol.putPhone(buffer, recipientPhoneNumber);
+            BinaryProtocol.putString(buffer, text);
+        });
+    }
+
+    /**
+     * Requests a page of the logged-in user's inbox
+     * @param before Cursor (MessagePage.LATEST for the newest page)
+     * @param limit Maximum messages
+     * @return Page, oldest first
+     */
+    public CompletableFuture<MessagePage> fetch(long before, int limit)
+    {
+        return call(BinaryProtocol.FETCH, buffer ->
+        {
+            BinaryProtocol.putVarint(buffer, before);
+            BinaryProtocol.putVarint(buffer, limit);
+        });
+    }
+
+    /**
+     * Requests a page of the conversation with one other user
+     * @param otherPhoneNumber The other participant
+     * @param before Cursor (MessagePage.LATEST for the newest page)
+     * @param limit Maximum messages
+     * @return Page, oldest first
+     */
+    public CompletableFuture<MessagePage> thread(String otherPhoneNumber, long before, int limit)
+    {
+        return call(BinaryProtocol.THREAD, buffer ->
+        {
+            BinaryProtocol.putPhone(buffer, otherPhoneNumber);
+            BinaryProtocol.putVarint(buffer, before);
+            BinaryProtocol.putVarint(buffer, limit);
+        });
+    }
+
+    public CompletableFuture<ChatResult<Void>> markAllRead(long upToId)
+    {
+        return call(BinaryProtocol.READ, buffer -> BinaryProtocol.putVarint(buffer, upToId));
+    }
+
+    public CompletableFuture<ChatResult<Void>> quit()
+    {
+        return call(BinaryProtocol.QUIT, null);
+    }
+
+    /**
+     * Sends every request issued since the last flush in one frame
+     * @throws IOException If the connection has failed
+     */
+    public void flush() throws IOException
+    {
+        writeLock.lock();
+        try
+        {
+            encoder.finishFrame();
+            while (encoder.getPendingBytes() > 0)
+            {
+                encoder.writeTo(channel);
+            }
+        }
+        catch (IOException e)
+        {
+            fail(e);
+            throw e;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests still waiting for a reply
+     * @return Outstanding request count
+     */
+    public int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+        try
+        {
+            reader.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        writeLock.lock();
+        try
+        {
+            encoder.release();
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Registers a call and appends its record to the open frame
+     */
+    private <T> CompletableFuture<T> call(int type, FrameEncoder.RecordBody body)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        IOException failed = failure;
+        if (failed != null)
+        {
+            future.completeExceptionally(failed);
+            return future;
+        }
+
+        long correlationId = nextCorrelationId.incrementAndGet();
+        pending.put(correlationId, new PendingCall(future));
+        writeLock.lock();
+        try
+        {
+            encoder.write(type, correlationId, body);
+        }
+        catch (RuntimeException e)
+        {
+            pending.remove(correlationId);
+            future.completeExceptionally(e);
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+        return future;
+    }
+
+    private void readLoop()
+    {
+        ByteBuffer input = ByteBuffer.allocate(BinaryProtocol.MAX_FRAME_BYTES);
+        try
+        {
+            while (channel.read(input) >= 0)
+            {
+                input.flip();
+                while (input.remaining() >= BinaryProtocol.LENGTH_BYTES)
+                {
+                    int length = input.getInt(input.position());
+                    if (length <= 0 || length > input.capacity() - BinaryProtocol.LENGTH_BYTES)
+                    {
+                        throw new ProtocolException("Bad frame length " + length);
+                    }
+                    if (input.remaining() < BinaryProtocol.LENGTH_BYTES + length)
+                    {
+                        break;
+                    }
+                    ByteBuffer frame = input.slice(input.position() + BinaryProtocol.LENGTH_BYTES, length);
+                    input.position(input.position() + BinaryProtocol.LENGTH_BYTES + length);
+                    readFrame(frame);
+                }
+                input.compact();
+            }
+            fail(new IOException("Server closed the connection"));
+        }
+        catch (BufferUnderflowException e)
+        {
+            fail(new ProtocolException("Truncated reply record"));
+        }
+        catch (IOException e)
+        {
+            fail(e);
+        }
+    }
+
+    private void readFrame(ByteBuffer frame) throws ProtocolException
+    {
+        while (frame.hasRemaining())
+        {
+            int type = BinaryProtocol.getVarint32(frame);
+            long correlationId = BinaryProtocol.getVarint(frame);
+            PendingCall call = pending.get(correlationId);
+            if (call == null)
+            {
+                throw new ProtocolException("Reply for unknown request " + correlationId);
+            }
+
+            switch (type)
+            {
+                case BinaryProtocol.PONG:
+                    complete(correlationId, call, ChatResult.ok("PONG", null));
+                    break;
+
+                case BinaryProtocol.BYE:
+                    complete(correlationId, call, ChatResult.ok("BYE", null));
+                    break;
+
+                case BinaryProtocol.RESULT:
+                {
+                    ChatResult.Status status = BinaryProtocol.resultStatus(BinaryProtocol.getVarint32(frame));
+                    String text = BinaryProtocol.getString(frame);
+                    complete(correlationId, call, ChatResult.of(status, text, null));
+                    break;
+                }
+
+                case BinaryProtocol.SENT:
+                {
+                    ChatResult.Status status = BinaryProtocol.resultStatus(BinaryProtocol.getVarint32(frame));
+                    long id = frame.getLong();
+                    complete(correlationId, call, ChatResult.of(status, "Message sent", id));
+                    break;
+                }
+
+                case BinaryProtocol.MESSAGE:
+                    if (call.messages == null)
+                    {
+                        call.messages = new ArrayList<>();
+                    }
+                    call.messages.add(BinaryProtocol.getMessage(frame));
+                    break;
+
+                case BinaryProtocol.PAGE_END:
+                {
+                    // The cursor is the oldest message's ID, which MessagePage derives
+                    BinaryProtocol.getVarint(frame);
+                    boolean more = frame.get() != 0;
+                    List<Message> messages = call.messages != null ? call.messages : List.of();
+                    complete(correlationId, call, new MessagePage(messages, more));
+                    break;
+                }
+
+                case BinaryProtocol.ERROR:
+                {
+                    int code = BinaryProtocol.getVarint32(frame);
+                    String text = BinaryProtocol.getString(frame);
+                    pending.remove(correlationId);
+                    call.future.completeExceptionally(new ProtocolException("Error " + code + ": " + text));
+                    break;
+                }
+
+                default:
+                    throw new ProtocolException("Unknown reply type " + type);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void complete(long correlationId, PendingCall call, Object value)
+    {
+        pending.remove(correlationId);
+        ((CompletableFuture<Object>) call.future).complete(value);
+    }
+
+    /**
+     * Fails every outstanding and future request
+     */
+    private void fail(IOException cause)
+    {
+        if (failure == null)
+        {
+            failure = cause;
+        }
+        for (Long correlationId : pending.keySet())
+        {
+            PendingCall call = pending.remove(correlationId);
+            if (call != null)
+            {
+                call.future.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * A request waiting for its reply; page replies collect messages until PAGE_END
+     */
+    private static final class PendingCall
+    {
+        final CompletableFuture<?> future;
+        List<Message> messages;
+
+        PendingCall(CompletableFuture<?> future)
+        {
+            this.future = future;
+        }
+    }
+}
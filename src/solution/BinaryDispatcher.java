@@ -0,0 +1,247 @@
+package solution;
+
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Routes binary protocol records into the ChatService
+ *
+ * The binary counterpart of RequestDispatcher: it reads every record of a
+ * frame and appends the replies to the connection's FrameEncoder, so all
+ * replies to a batch leave in one frame. A record that cannot be parsed
+ * is answered with ERROR and the session is closed, since records carry
+ * no length and the rest of the stream cannot be trusted.
+ * REGISTER and LOGIN never wait for their password hash: they park the
+ * session and dispatching stops after them, leaving the rest of the frame
+ * for the transport to dispatch once the pending reply has been run.
+ *
+ * Stateless and thread-safe; per-client state lives in ClientSession.
+ */
+public final class BinaryDispatcher
+{
+    private final ChatService service;
+
+    /**
+     * Creates a dispatcher
+     * @param service Chat engine that executes requests
+     */
+    public BinaryDispatcher(ChatService service)
+    {
+        this.service = service;
+    }
+
+    /**
+     * Executes the records of one frame until the session closes or parks
+     * A parked session's pending reply writes to out when run on the
+     * session's thread; the frame is then positioned after the record that
+     * parked it
+     * @param session Client state (login, close request, pending reply)
+     * @param frame Frame body without its length prefix
+     * @param out Receives the reply records
+     * @return Number of records executed
+     */
+    public int dispatch(ClientSession session, ByteBuffer frame, FrameEncoder out)
+    {
+        int executed = 0;
+        long correlationId = 0;
+        try
+        {
+            while (frame.hasRemaining() && !session.isClosing() && !session.isParked())
+            {
+                int type = BinaryProtocol.getVarint32(frame);
+                correlationId = BinaryProtocol.getVarint(frame);
+                execute(session, type, correlationId, frame, out);
+                executed++;
+            }
+        }
+        catch (ProtocolException | BufferUnderflowException e)
+        {
+            String reason = e.getMessage() != null ? e.getMessage() : "Truncated record";
+            error(out, correlationId, BinaryProtocol.ERROR_MALFORMED, reason);
+            session.requestClose();
+        }
+        return executed;
+    }
+
+    private void execute(ClientSession session, int type, long correlationId,
+                         ByteBuffer in, FrameEncoder out) throws ProtocolException
+    {
+        switch (type)
+        {
+            case BinaryProtocol.PING:
+                out.write(BinaryProtocol.PONG, correlationId);
+                break;
+
+            case BinaryProtocol.REGISTER:
+                register(session, correlationId, in, out);
+                break;
+
+            case BinaryProtocol.LOGIN:
+                login(session, correlationId, in, out);
+                break;
+
+            case BinaryProtocol.SEND:
+                send(session, correlationId, in, out);
+                break;
+
+            case BinaryProtocol.FETCH:
+                fetch(session, correlationId, in, out);
+                break;
+
+            case BinaryProtocol.THREAD:
+                thread(session, correlationId, in, out);
+                break;
+
+            case BinaryProtocol.READ:
+                read(session, correlationId, in, out);
+                break;
+
+            case BinaryProtocol.QUIT:
+                session.requestClose();
+                out.write(BinaryProtocol.BYE, correlationId);
+                break;
+
+            default:
+                error(out, correlationId, BinaryProtocol.ERROR_UNKNOWN_TYPE, "Unknown record type " + type);
+                session.requestClose();
+                break;
+        }
+    }
+
+    private void register(ClientSession session, long correlationId, ByteBuffer in, FrameEncoder out)
+        throws ProtocolException
+    {
+        String username = BinaryProtocol.getString(in);
+        String password = BinaryProtocol.getString(in);
+        String firstName = BinaryProtocol.getString(in);
+        String lastName = BinaryProtocol.getString(in);
+        String cell = BinaryProtocol.getPhone(in);
+        session.park(service.registerAsync(username, password, firstName, lastName, cell)
+            .thenApply(result -> () -> result(out, correlationId, result)));
+    }
+
+    private void login(ClientSession session, long correlationId, ByteBuffer in, FrameEncoder out)
+        throws ProtocolException
+    {
+        String username = BinaryProtocol.getString(in);
+        String password = BinaryProtocol.getString(in);
+
+        session.park(service.loginAsync(username, password).thenApply(result -> () ->
+        {
+            if (result.isSuccess())
+            {
+                session.setUser(result.getValue());
+            }
+            result(out, correlationId, result);
+        }));
+    }
+
+    private void send(ClientSession session, long correlationId, ByteBuffer in, FrameEncoder out)
+        throws ProtocolException
+    {
+        String recipient = BinaryProtocol.getPhone(in);
+        String text = BinaryProtocol.getString(in);
+        if (!requireLogin(session, correlationId, out))
+        {
+            return;
+        }
+
+        ChatResult<Message> result = service.send(session.getPhoneNumber(), recipient, text);
+        if (result.isSuccess())
+        {
+            long id = result.getValue().getId();
+            int status = result.getStatus().ordinal();
+            out.write(BinaryProtocol.SENT, correlationId, buffer ->
+            {
+                BinaryProtocol.putVarint(buffer, status);
+                buffer.putLong(id);
+            });
+        }
+        else
+        {
+            result(out, correlationId, result);
+        }
+    }
+
+    private void fetch(ClientSession session, long correlationId, ByteBuffer in, FrameEncoder out)
+        throws ProtocolException
+    {
+        long before = BinaryProtocol.getVarint(in);
+        int limit = RequestDispatcher.clampLimit(BinaryProtocol.getVarint32(in));
+        if (requireLogin(session, correlationId, out))
+        {
+            writePage(out, correlationId, service.getInbox(session.getPhoneNumber(), before, limit));
+        }
+    }
+
+    private void thread(ClientSession session, long correlationId, ByteBuffer in, FrameEncoder out)
+        throws ProtocolException
+    {
+        String other = BinaryProtocol.getPhone(in);
+        long before = BinaryProtocol.getVarint(in);
+        int limit = RequestDispatcher.clampLimit(BinaryProtocol.getVarint32(in));
+        if (requireLogin(session, correlationId, out))
+        {
+            writePage(out, correlationId,
+                      service.getThread(session.getPhoneNumber(), other, before, limit));
+        }
+    }
+
+    private void read(ClientSession session, long correlationId, ByteBuffer in, FrameEncoder out)
+        throws ProtocolException
+    {
+        long upToId = BinaryProtocol.getVarint(in);
+        if (requireLogin(session, correlationId, out))
+        {
+            service.markAllRead(session.getPhoneNumber(), upToId);
+            result(out, correlationId, ChatResult.ok("read", null));
+        }
+    }
+
+    private static void writePage(FrameEncoder out, long correlationId, MessagePage page)
+    {
+        for (Message message : page.getMessages())
+        {
+            out.write(BinaryProtocol.MESSAGE, correlationId,
+                      buffer -> BinaryProtocol.putMessage(buffer, message));
+        }
+        long cursor = page.getNextCursor();
+        boolean more = page.hasMore();
+        out.write(BinaryProtocol.PAGE_END, correlationId, buffer ->
+        {
+            BinaryProtocol.putVarint(buffer, cursor);
+            buffer.put((byte) (more ? 1 : 0));
+        });
+    }
+
+    private static boolean requireLogin(ClientSession session, long correlationId, FrameEncoder out)
+    {
+        if (!session.isLoggedIn())
+        {
+            error(out, correlationId, BinaryProtocol.ERROR_NOT_LOGGED_IN, "Please log in first");
+            return false;
+        }
+        return true;
+    }
+
+    private static void result(FrameEncoder out, long correlationId, ChatResult<?> result)
+    {
+        int status = result.getStatus().ordinal();
+        String text = result.getMessage();
+        out.write(BinaryProtocol.RESULT, correlationId, buffer ->
+        {
+            BinaryProtocol.putVarint(buffer, status);
+            BinaryProtocol.putString(buffer, text);
+        });
+    }
+
+    private static void error(FrameEncoder out, long correlationId, int code, String text)
+    {
+        out.write(BinaryProtocol.ERROR, correlationId, buffer ->
+        {
+            BinaryProtocol.putVarint(buffer, code);
+            BinaryProtocol.putString(buffer, text);
+        });
+    }
+}
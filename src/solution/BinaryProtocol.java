@@ -0,0 +1,424 @@
+package solution;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Binary framed protocol spoken by ChatServer next to the line protocol
+ *
+ * A binary client opens with MAGIC and VERSION; every byte after that
+ * belongs to a frame. A frame is a 4-byte big-endian length followed by
+ * one or more records, so a batch of requests or replies travels in one
+ * frame. Every record starts with a varint type and a varint correlation
+ * ID chosen by the client; replies echo the ID of the request they answer,
+ * which lets a client pipeline requests without waiting. A page of
+ * messages is answered with one MESSAGE record per message and a closing
+ * PAGE_END, all carrying the request's correlation ID.
+ * <pre>
+ * PING                                  PONG
+ * REGISTER user pass first last phone   RESULT status text
+ * LOGIN user pass                       RESULT status text
+ * SEND phone text                       SENT status id | RESULT status text
+ * FETCH before limit                    MESSAGE ... PAGE_END cursor more
+ * THREAD phone before limit             MESSAGE ... PAGE_END cursor more
+ * READ upToId                           RESULT status text
+ * QUIT                                  BYE
+ * (malformed or not allowed)            ERROR code text
+ * </pre>
+ * Integers are unsigned LEB128 varints, message IDs are fixed 8 bytes,
+ * strings are a varint byte count followed by UTF-8, and statuses are
+ * ChatResult.Status ordinals. Phone numbers of the form +digits (up to 15
+ * digits) travel as one varint holding the digits shifted left by four
+ * with the digit count in the low four bits; anything else is sent as 0
+ * followed by the number as a string.
+ */
+public final class BinaryProtocol
+{
+    /** First byte of a binary connection; never starts a text request */
+    public static final byte MAGIC = (byte) 0xCB;
+
+    /** Protocol version sent after MAGIC */
+    public static final byte VERSION = 1;
+
+    /** Bytes of the frame length prefix */
+    public static final int LENGTH_BYTES = 4;
+
+    /** Largest frame including its prefix; also the size of pooled buffers (-Dquickchat.frameBytes) */
+    public static final int MAX_FRAME_BYTES =
+        Integer.getInteger("quickchat.frameBytes", 64 * 1024);
+
+    public static final int PING = 1;
+    public static final int REGISTER = 2;
+    public static final int LOGIN = 3;
+    public static final int SEND = 4;
+    public static final int FETCH = 5;
+    public static final int THREAD = 6;
+    public static final int READ = 7;
+    public static final int QUIT = 8;
+
+    public static final int PONG = 64;
+    public static final int RESULT = 65;
+    public static final int SENT = 66;
+    public static final int ERROR = 67;
+    public static final int MESSAGE = 68;
+    public static final int PAGE_END = 69;
+    public static final int BYE = 70;
+
+    /** ERROR codes for failures outside the chat engine */
+    public static final int ERROR_MALFORMED = 1;
+    public static final int ERROR_UNKNOWN_TYPE = 2;
+    public static final int ERROR_NOT_LOGGED_IN = 3;
+
+    /** MESSAGE flag: the 10-digit display ID is derived from the 64-bit ID and omitted */
+    private static final int FLAG_DERIVED_DISPLAY_ID = 1;
+
+    private static final int MAX_PHONE_DIGITS = 15;
+    private static final int MAX_VARINT_BYTES = 10;
+    private static final MessageStatus[] MESSAGE_STATUSES = MessageStatus.values();
+    private static final ChatResult.Status[] RESULT_STATUSES = ChatResult.Status.values();
+
+    private BinaryProtocol()
+    {
+        // Static utility class
+    }
+
+    /**
+     * Writes an unsigned varint
+     * @param out Destination
+     * @param value Value, treated as unsigned
+     */
+    public static void putVarint(ByteBuffer out, long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned varint
+     * @param in Source
+     * @return Value
+     * @throws ProtocolException If the varint is longer than ten bytes
+     */
+    public static long getVarint(ByteBuffer in) throws ProtocolException
+    {
+        long value = 0;
+        for (int shift = 0, i = 0; i < MAX_VARINT_BYTES; i++, shift += 7)
+        {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+            {
+                return value;
+            }
+        }
+        throw new ProtocolException("Varint longer than " + MAX_VARINT_BYTES + " bytes");
+    }
+
+    /**
+     * Reads a varint that must fit a non-negative int
+     * @param in Source
+     * @return Value
+     * @throws ProtocolException If the value is out of range
+     */
+    public static int getVarint32(ByteBuffer in) throws ProtocolException
+    {
+        long value = getVarint(in);
+        if (value < 0 || value > Integer.MAX_VALUE)
+        {
+            throw new ProtocolException("Value out of range: " + Long.toUnsignedString(value));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Writes a string as a varint byte count and UTF-8
+     * Unpaired surrogates are written as '?', as String.getBytes does
+     * @param out Destination
+     * @param text Text (null is written as empty)
+     */
+    public static void putString(ByteBuffer out, String text)
+    {
+        if (text == null)
+        {
+            out.put((byte) 0);
+            return;
+        }
+
+        int length = text.length();
+        putVarint(out, utf8Length(text));
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            if (c < 0x80)
+            {
+                out.put((byte) c);
+            }
+            else if (c < 0x800)
+            {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length
+                     && Character.isLowSurrogate(text.charAt(i + 1)))
+            {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                out.put((byte) '?');
+            }
+            else
+            {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Reads a string written by putString
+     * @param in Source
+     * @return Decoded text
+     * @throws ProtocolException If the length runs past the record
+     */
+    public static String getString(ByteBuffer in) throws ProtocolException
+    {
+        int length = getVarint32(in);
+        if (length > in.remaining())
+        {
+            throw new ProtocolException("String of " + length + " bytes runs past the frame");
+        }
+
+        String text;
+        if (in.hasArray())
+        {
+            text = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        }
+        else
+        {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return text;
+    }
+
+    /**
+     * Counts the UTF-8 bytes putString writes for a string
+     * @param text Text
+     * @return Encoded length in bytes
+     */
+    static int utf8Length(String text)
+    {
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            if (c >= 0x800)
+            {
+                if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text.charAt(i + 1)))
+                {
+                    // Four bytes for two chars
+                    bytes += 2;
+                    i++;
+                }
+                else if (!Character.isSurrogate(c))
+                {
+                    bytes += 2;
+                }
+            }
+            else if (c >= 0x80)
+            {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Packs a number of the form +digits into a long
+     * @param number Phone number
+     * @return Digits shifted left by four with the digit count in the low bits, or 0 if not packable
+     */
+    public static long packPhone(String number)
+    {
+        if (number == null || number.length() < 2 || number.length() > MAX_PHONE_DIGITS + 1
+            || number.charAt(0) != '+')
+        {
+            return 0;
+        }
+
+        long digits = 0;
+        for (int i = 1; i < number.length(); i++)
+        {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return 0;
+            }
+            digits = digits * 10 + (c - '0');
+        }
+        return (digits << 4) | (number.length() - 1);
+    }
+
+    /**
+     * Restores a number packed by packPhone, keeping leading zeros
+     * @param packed Packed number (non-zero)
+     * @return Phone number with its leading '+'
+     */
+    public static String unpackPhone(long packed)
+    {
+        int count = (int) (packed & 0xF);
+        long digits = packed >>> 4;
+        char[] chars = new char[count + 1];
+        chars[0] = '+';
+        for (int i = count; i > 0; i--)
+        {
+            chars[i] = (char) ('0' + digits % 10);
+            digits /= 10;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Writes a phone number, packed when possible
+     * @param out Destination
+     * @param number Phone number
+     */
+    public static void putPhone(ByteBuffer out, String number)
+    {
+        long packed = packPhone(number);
+        putVarint(out, packed);
+        if (packed == 0)
+        {
+            putString(out, number);
+        }
+    }
+
+    /**
+     * Reads a phone number written by putPhone
+     * @param in Source
+     * @return Phone number
+     * @throws ProtocolException If the record is malformed
+     */
+    public static String getPhone(ByteBuffer in) throws ProtocolException
+    {
+        long packed = getVarint(in);
+        if (packed == 0)
+        {
+            return getString(in);
+        }
+        // More digits than the count says would be dropped silently by unpackPhone
+        String number = unpackPhone(packed);
+        if ((packed & 0xF) == 0 || packPhone(number) != packed)
+        {
+            throw new ProtocolException("Malformed packed phone number");
+        }
+        return number;
+    }
+
+    /**
+     * Writes the fields of a MESSAGE record
+     * @param out Destination
+     * @param message Message
+     */
+    public static void putMessage(ByteBuffer out, Message message)
+    {
+        long id = message.getId();
+        boolean derived = MessageIdGenerator.toDisplayId(id).equals(message.getMessageId());
+        putVarint(out, derived ? FLAG_DERIVED_DISPLAY_ID : 0);
+        out.putLong(id);
+        if (!derived)
+        {
+            putString(out, message.getMessageId());
+        }
+        putPhone(out, message.getSenderPhoneNumber());
+        putPhone(out, message.getRecipientPhoneNumber());
+
+        LocalDateTime timestamp = message.getTimestamp();
+        putVarint(out, zigZag(timestamp.toEpochSecond(ZoneOffset.UTC)));
+        putVarint(out, timestamp.getNano());
+        putVarint(out, message.getStatus().ordinal());
+        putString(out, message.getMessagePayload());
+        putString(out, message.createMessageHash());
+    }
+
+    /**
+     * Reads the fields of a MESSAGE record
+     * @param in Source
+     * @return Restored message
+     * @throws ProtocolException If the record is malformed
+     */
+    public static Message getMessage(ByteBuffer in) throws ProtocolException
+    {
+        int flags = getVarint32(in);
+        long id = in.getLong();
+        String messageId = (flags & FLAG_DERIVED_DISPLAY_ID) != 0
+            ? MessageIdGenerator.toDisplayId(id)
+            : getString(in);
+        String sender = getPhone(in);
+        String recipient = getPhone(in);
+
+        long seconds = unZigZag(getVarint(in));
+        int nanos = getVarint32(in);
+        if (nanos > 999_999_999)
+        {
+            throw new ProtocolException("Malformed timestamp");
+        }
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+
+        MessageStatus status = messageStatus(getVarint32(in));
+        String payload = getString(in);
+        String hash = getString(in);
+        return new Message(id, messageId, hash, payload, recipient, sender, timestamp, status);
+    }
+
+    /**
+     * Looks up a result status sent as an ordinal
+     * @param ordinal Ordinal from the wire
+     * @return Status
+     * @throws ProtocolException If the ordinal is unknown
+     */
+    public static ChatResult.Status resultStatus(int ordinal) throws ProtocolException
+    {
+        if (ordinal >= RESULT_STATUSES.length)
+        {
+            throw new ProtocolException("Unknown result status " + ordinal);
+        }
+        return RESULT_STATUSES[ordinal];
+    }
+
+    private static MessageStatus messageStatus(int ordinal) throws ProtocolException
+    {
+        if (ordinal >= MESSAGE_STATUSES.length)
+        {
+            throw new ProtocolException("Unknown message status " + ordinal);
+        }
+        return MESSAGE_STATUSES[ordinal];
+    }
+
+    private static long zigZag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,100 @@
+package solution;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of equally sized direct buffers
+ *
+ * Frames are encoded straight into pooled buffers and handed to the socket
+ * from there, so a busy connection reuses the same few buffers instead of
+ * allocating per reply, and an idle connection holds none at all. The pool
+ * keeps at most maxPooled free buffers; extra releases are left to the GC.
+ */
+public final class BufferPool
+{
+    private final int bufferBytes;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free;
+    private final AtomicInteger freeCount;
+    private final AtomicLong allocated;
+    private final AtomicLong reused;
+
+    /**
+     * Creates an empty pool
+     * @param bufferBytes Capacity of every buffer
+     * @param maxPooled Free buffers kept for reuse
+     */
+    public BufferPool(int bufferBytes, int maxPooled)
+    {
+        if (bufferBytes < 64)
+        {
+            throw new IllegalArgumentException("Pooled buffers must hold at least 64 bytes");
+        }
+        this.bufferBytes = bufferBytes;
+        this.maxPooled = maxPooled;
+        this.free = new ConcurrentLinkedQueue<>();
+        this.freeCount = new AtomicInteger();
+        this.allocated = new AtomicLong();
+        this.reused = new AtomicLong();
+    }
+
+    /**
+     * Takes a cleared buffer, allocating one if the pool is empty
+     * @return Buffer in write mode with position 0 and limit at capacity
+     */
+    public ByteBuffer acquire()
+    {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null)
+        {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(bufferBytes);
+        }
+        freeCount.decrementAndGet();
+        reused.incrementAndGet();
+        return buffer.clear();
+    }
+
+    /**
+     * Returns a buffer; the caller must not touch it afterwards
+     * @param buffer Buffer obtained from acquire()
+     */
+    public void release(ByteBuffer buffer)
+    {
+        if (buffer.capacity() != bufferBytes || !buffer.isDirect())
+        {
+            throw new IllegalArgumentException("Buffer does not belong to this pool");
+        }
+        if (freeCount.incrementAndGet() <= maxPooled)
+        {
+            free.add(buffer);
+        }
+        else
+        {
+            freeCount.decrementAndGet();
+        }
+    }
+
+    public int getBufferBytes()
+    {
+        return bufferBytes;
+    }
+
+    public int getFreeCount()
+    {
+        return freeCount.get();
+    }
+
+    public long getAllocatedCount()
+    {
+        return allocated.get();
+    }
+
+    public long getReusedCount()
+    {
+        return reused.get();
+    }
+}
@@ -3,12 +3,10 @@ package solution;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Main application controller implementing the UserInterface
@@ -17,9 +15,10 @@ import java.util.ArrayList;
  */
 public final class ChatApplication implements UserInterface 
 {
-    // Data storage collections
-    private final Map<String, Login> users;
-    private final Map<String, List<Message>> messages;
+    private static final int HISTORY_PAGE_SIZE = 100;
+    
+    // Chat engine; this class only presents it. Set on the EDT once opened
+    private ChatService service;
     private Login currentUser;
     
     // Main UI components
@@ -31,12 +30,17 @@ public final class ChatApplication implements UserInterface
     // Login panel components
     private JTextField usernameField;
     private JPasswordField passwordField;
+    private JTextField cellPhoneField;
     private JButton loginButton;
     private JButton registerButton;
     private JLabel statusLabel;
     
     // Chat panel components
-    private JTextArea chatArea;
+    private JPanel historyPanel;
+    private JList<Message> chatList;
+    private ChatHistoryModel chatHistoryModel;
+    private long olderHistoryCursor;
+    private boolean hasOlderHistory;
     private JTextField messageField;
     private JButton sendButton;
     private JComboBox<String> recipientComboBox;
@@ -47,18 +51,15 @@ public final class ChatApplication implements UserInterface
      */
     public ChatApplication() 
     {
-        // Initialize data storage
-        this.users = new HashMap<>();
-        this.messages = new HashMap<>();
         this.currentUser = null;
         
-        // Setup demo user for testing
-        initializeDemoUser();
-        
         // Initialize UI components
         initializeComponents();
         setupLayout();
         setupListeners();
+        
+        // Open the chat engine and rebuild inboxes while the window is up
+        startService();
     }
 
     /**
@@ -114,9 +115,19 @@ public final class ChatApplication implements UserInterface
         passwordField = new JPasswordField(20);
         loginPanel.add(passwordField, gbc);
         
-        // Button panel
+        // Cell number, only needed to register
         gbc.gridx = 0;
         gbc.gridy = 2;
+        loginPanel.add(new JLabel("Cell number:"), gbc);
+        
+        gbc.gridx = 1;
+        cellPhoneField = new JTextField(20);
+        cellPhoneField.setToolTipText("Needed to register, e.g. +27831234567");
+        loginPanel.add(cellPhoneField, gbc);
+        
+        // Button panel
+        gbc.gridx = 0;
+        gbc.gridy = 3;
         gbc.gridwidth = 2;
         gbc.fill = GridBagConstraints.CENTER;
         
@@ -128,7 +139,7 @@ public final class ChatApplication implements UserInterface
         loginPanel.add(buttonPanel, gbc);
         
         // Status label
-        gbc.gridy = 3;
+        gbc.gridy = 4;
         statusLabel = new JLabel(" ");
         statusLabel.setForeground(Color.RED);
         loginPanel.add(statusLabel, gbc);
@@ -142,17 +153,38 @@ public final class ChatApplication implements UserInterface
     {
         chatPanel = new JPanel(new BorderLayout(5, 5));
         
-        // Chat display area
-        chatArea = new JTextArea(15, 40);
-        chatArea.setEditable(false);
-        chatArea.setLineWrap(true);
-        chatArea.setWrapStyleWord(true);
-        JScrollPane scrollPane = new JScrollPane(chatArea);
+        // Chat display list: only visible rows are rendered
+        chatHistoryModel = new ChatHistoryModel();
+        chatList = new JList<>(chatHistoryModel);
+        chatList.setCellRenderer(new ChatMessageRenderer(this::getDisplayName));
+        chatList.setFixedCellHeight(chatList.getFontMetrics(chatList.getFont()).getHeight() + 4);
+        chatList.setVisibleRowCount(15);
+        chatList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        JScrollPane scrollPane = new JScrollPane(chatList);
+        scrollPane.setPreferredSize(new Dimension(450, 300));
+        
+        // Fetch the previous page when the user scrolls to the top
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> 
+        {
+            if (!e.getValueIsAdjusting() && e.getValue() == 0 && hasOlderHistory 
+                && chatHistoryModel.getSize() > 0) 
+            {
+                SwingUtilities.invokeLater(this::loadOlderHistory);
+            }
+        });
+        
+        // Placeholder shown while the inbox is empty
+        JLabel emptyLabel = new JLabel("No messages yet. Start chatting!", SwingConstants.CENTER);
+        historyPanel = new JPanel(new CardLayout());
+        historyPanel.add(emptyLabel, "empty");
+        historyPanel.add(scrollPane, "messages");
         
         // Recipient selection
         JPanel recipientPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         recipientPanel.add(new JLabel("To: "));
         recipientComboBox = new JComboBox<>();
+        // Lists existing conversations; any other cell number can be typed in
+        recipientComboBox.setEditable(true);
         recipientPanel.add(recipientComboBox);
         
         // Message input panel
@@ -165,7 +197,7 @@ public final class ChatApplication implements UserInterface
         
         // Add components to chat panel
         chatPanel.add(recipientPanel, BorderLayout.NORTH);
-        chatPanel.add(scrollPane, BorderLayout.CENTER);
+        chatPanel.add(historyPanel, BorderLayout.CENTER);
         chatPanel.add(messagePanel, BorderLayout.SOUTH);
     }
 
@@ -200,12 +232,11 @@ public final class ChatApplication implements UserInterface
                 return;
             }
             
-            if (login(username, password)) 
-            {
-                showChatPanel();
-                updateChatArea();
-                updateRecipientList();
-            }
+            // Password verification is deliberately slow; keep it off the EDT
+            loginButton.setEnabled(false);
+            statusLabel.setText("Signing in...");
+            service.loginAsync(username, password).thenAccept(result -> 
+                SwingUtilities.invokeLater(() -> completeLogin(result)));
         });
         
         // Register button action
@@ -213,27 +244,28 @@ public final class ChatApplication implements UserInterface
         {
             String username = usernameField.getText().trim();
             String password = new String(passwordField.getPassword()).trim();
+            String cellPhoneNumber = cellPhoneField.getText().trim();
             
-            if (username.isEmpty() || password.isEmpty()) 
+            if (username.isEmpty() || password.isEmpty() || cellPhoneNumber.isEmpty()) 
             {
-                statusLabel.setText("Please enter both username and password");
+                statusLabel.setText("Please enter a username, password and cell number");
                 return;
             }
             
-            // Using default values for demo
-            if (registerUser(username, password, "New", "User", "+27820000000")) 
-            {
-                statusLabel.setText("Registration successful! Please login.");
-                usernameField.setText("");
-                passwordField.setText("");
-            }
+            // Hashing the password is deliberately slow; keep it off the EDT
+            // (using default names for demo)
+            registerButton.setEnabled(false);
+            statusLabel.setText("Registering...");
+            service.registerAsync(username, password, "New", "User", cellPhoneNumber).thenAccept(result -> 
+                SwingUtilities.invokeLater(() -> completeRegistration(result)));
         });
         
         // Send button action
         sendButton.addActionListener((ActionEvent e) -> 
         {
             String message = messageField.getText().trim();
-            String recipient = (String) recipientComboBox.getSelectedItem();
+            Object selected = recipientComboBox.getSelectedItem();
+            String recipient = selected == null ? "" : selected.toString().trim();
             
             if (message.isEmpty()) 
             {
@@ -241,7 +273,7 @@ public final class ChatApplication implements UserInterface
                 return;
             }
             
-            if (recipient == null) 
+            if (recipient.isEmpty()) 
             {
                 showErrorDialog("Please select a recipient");
                 return;
@@ -249,7 +281,8 @@ public final class ChatApplication implements UserInterface
             
             sendMessage(recipient, message);
             messageField.setText("");
-            updateChatArea();
+            appendToChatArea();
+            updateRecipientList();
         });
         
         // Enter key in message field
@@ -298,50 +331,243 @@ public final class ChatApplication implements UserInterface
     }
     
     /**
-     * Updates the chat area with recent messages
+     * Loads the newest page of the current user's inbox into the chat list
+     * Used after login; older pages are fetched on demand
      */
     private void updateChatArea() 
     {
-        chatArea.setText("");
-        List<Message> recentMessages = getRecentMessages();
-        
-        if (recentMessages.isEmpty()) 
+        long started = System.nanoTime();
+        MessagePage page = getMessages(currentUser.getCellPhoneNumber(), 
+                                       MessagePage.LATEST, HISTORY_PAGE_SIZE);
+        chatHistoryModel.setMessages(page.getMessages());
+        olderHistoryCursor = page.getNextCursor();
+        hasOlderHistory = page.hasMore();
+        showHistory();
+        service.getMetrics().record(ChatMetrics.Stage.UI_REFRESH, System.nanoTime() - started);
+    }
+    
+    /**
+     * Shows messages received since the last refresh
+     * Only a short page is read, so the cost does not grow with the history;
+     * the time taken is recorded as the UI_REFRESH stage of a send
+     */
+    private void appendToChatArea() 
+    {
+        long started = System.nanoTime();
+        MessagePage page = getMessages(currentUser.getCellPhoneNumber(), 
+                                       MessagePage.LATEST, HISTORY_PAGE_SIZE);
+        if (chatHistoryModel.addNewerMessages(page.getMessages()) > 0) 
+        {
+            showHistory();
+        }
+        service.getMetrics().record(ChatMetrics.Stage.UI_REFRESH, System.nanoTime() - started);
+    }
+    
+    /**
+     * Prepends the page before the oldest loaded message
+     * Keeps the rows the user was looking at in place
+     */
+    private void loadOlderHistory() 
+    {
+        if (!hasOlderHistory || currentUser == null) 
         {
-            chatArea.append("No messages yet. Start chatting!\n");
             return;
         }
         
-        for (Message msg : recentMessages) 
+        MessagePage page = getMessages(currentUser.getCellPhoneNumber(), 
+                                       olderHistoryCursor, HISTORY_PAGE_SIZE);
+        int added = chatHistoryModel.addOlderMessages(page.getMessages());
+        hasOlderHistory = page.hasMore() && added > 0;
+        if (added > 0) 
+        {
+            olderHistoryCursor = page.getNextCursor();
+            chatList.ensureIndexIsVisible(added);
+        }
+    }
+    
+    /**
+     * Switches between the placeholder and the list and scrolls to the newest message
+     * Everything shown counts as read by the current user
+     */
+    private void showHistory() 
+    {
+        int size = chatHistoryModel.getSize();
+        CardLayout cl = (CardLayout) historyPanel.getLayout();
+        cl.show(historyPanel, size == 0 ? "empty" : "messages");
+        
+        if (size > 0) 
         {
-            String sender = users.get(msg.getSenderPhoneNumber()).getUsername();
-            chatArea.append(sender + ": " + msg.getMessagePayload() + "\n");
+            chatList.ensureIndexIsVisible(size - 1);
+            service.markAllRead(currentUser.getCellPhoneNumber(), 
+                                chatHistoryModel.getNewestId());
         }
     }
     
     /**
-     * Updates the recipient dropdown list with registered users
+     * Resolves the name shown for a sender
+     * Restored history may reference users that are no longer registered
+     * @param phoneNumber Sender's number
+     * @return Username, or the number itself if unknown
+     */
+    private String getDisplayName(String phoneNumber) 
+    {
+        Login user = service.getUser(phoneNumber);
+        return user != null ? user.getUsername() : phoneNumber;
+    }
+    
+    /**
+     * Updates the recipient dropdown list with the current user's contacts
+     * Only their conversations are listed, so this stays cheap however
+     * many accounts the registry holds; the entered recipient is kept
      */
     private void updateRecipientList() 
     {
+        Object entered = recipientComboBox.getSelectedItem();
         recipientComboBox.removeAllItems();
         
-        for (Map.Entry<String, Login> entry : users.entrySet()) 
+        List<String> contacts = new ArrayList<>(service.getContacts(currentUser.getCellPhoneNumber()));
+        Collections.sort(contacts);
+        for (String contact : contacts) 
         {
-            if (!entry.getKey().equals(currentUser.getCellPhoneNumber())) 
-            {
-                recipientComboBox.addItem(entry.getKey());
-            }
+            recipientComboBox.addItem(contact);
         }
+        recipientComboBox.setSelectedItem(entered);
     }
     
     /**
      * Initializes a demo user for testing purposes
+     * The password is hashed in the background; until then the demo login fails
+     * @param opened Chat engine
      */
-    private void initializeDemoUser() 
+    private static void initializeDemoUser(ChatService opened) 
     {
         Login demoUser = new Login("admin", "Pass123!", "Demo", "User", "+27821234567");
-        users.put(demoUser.getCellPhoneNumber(), demoUser);
-        messages.put(demoUser.getCellPhoneNumber(), new ArrayList<>());
+        opened.addUserAsync(demoUser).exceptionally(failure -> 
+        {
+            System.err.println("Failed to add demo user: " + failure.getMessage());
+            return false;
+        });
+    }
+    
+    /**
+     * Opens the chat engine and replays the legacy messages.json file and
+     * the segmented log into it on a background thread
+     * Mapping the user registry, loading the search index snapshot and the
+     * replay all touch the disk, so the window stays disabled meanwhile
+     * instead of blocking the EDT
+     */
+    private void startService() 
+    {
+        loginButton.setEnabled(false);
+        registerButton.setEnabled(false);
+        sendButton.setEnabled(false);
+        statusLabel.setText("Loading message history...");
+        
+        Thread startup = new Thread(() -> 
+        {
+            List<String> errors = new ArrayList<>();
+            ChatService opened = openService(errors);
+            initializeDemoUser(opened);
+            try 
+            {
+                LogReplayer.Result result = opened.restore();
+                System.out.println(result.getSummary());
+            } 
+            catch (IOException | RuntimeException e) 
+            {
+                errors.add("Failed to load message history: " + e.getMessage());
+            }
+            SwingUtilities.invokeLater(() -> completeStartup(opened, errors));
+        }, "chat-startup");
+        startup.setDaemon(true);
+        startup.start();
+    }
+    
+    /**
+     * Opens the chat engine with its segmented message log and background writer
+     * Falls back to an in-memory engine if the log cannot be opened
+     * @param errors Receives the reason for a fallback
+     * @return Chat engine
+     */
+    private ChatService openService(List<String> errors) 
+    {
+        try 
+        {
+            ChatService opened = ChatService.open(this::onPersistenceError);
+            Runtime.getRuntime().addShutdownHook(
+                new Thread(() -> shutdownService(opened), "message-writer-shutdown"));
+            return opened;
+        } 
+        catch (IOException | RuntimeException e) 
+        {
+            errors.add("Failed to open message log: " + e.getMessage());
+            return ChatService.inMemory();
+        }
+    }
+    
+    /**
+     * Enables the window once the engine is open and the history loaded; runs on the EDT
+     * @param opened Chat engine
+     * @param errors Failures to report
+     */
+    private void completeStartup(ChatService opened, List<String> errors) 
+    {
+        service = opened;
+        loginButton.setEnabled(true);
+        registerButton.setEnabled(true);
+        sendButton.setEnabled(true);
+        statusLabel.setText(" ");
+        for (String error : errors) 
+        {
+            showErrorDialog(error);
+        }
+    }
+    
+    /**
+     * Reports a failure raised by the background writer on the EDT
+     * @param e I/O failure
+     */
+    private void onPersistenceError(IOException e) 
+    {
+        SwingUtilities.invokeLater(() -> 
+            showErrorDialog("Failed to save message: " + e.getMessage()));
+    }
+    
+    /**
+     * Drains pending messages to disk and prints writer statistics
+     * @param opened Engine to shut down
+     */
+    private static void shutdownService(ChatService opened) 
+    {
+        opened.close();
+        System.out.println("Message writer: " + opened.getMessageWriter().getStatisticsSummary());
+    }
+    
+    /**
+     * Gets the chat engine behind this window
+     * @return Headless service
+     */
+    public ChatService getService() 
+    {
+        return service;
+    }
+    
+    /**
+     * Gets the segmented message log for reads by sequence number
+     * @return Log instance, or null if it could not be opened
+     */
+    public SegmentedLog getMessageLog() 
+    {
+        return service.getMessageLog();
+    }
+    
+    /**
+     * Gets the background message writer
+     * @return Writer instance, or null if the log could not be opened
+     */
+    public GroupCommitWriter getMessageWriter() 
+    {
+        return service.getMessageWriter();
     }
     
     /**
@@ -366,6 +592,8 @@ public final class ChatApplication implements UserInterface
     
     /**
      * Registers new user after validation
+     * Waits for the password hash; the Register button uses
+     * ChatService.registerAsync instead so the EDT stays free
      * @param username Unique user identifier
      * @param password Secret phrase
      * @param firstName Given name
@@ -377,17 +605,14 @@ public final class ChatApplication implements UserInterface
                               String firstName, String lastName, 
                               String cellPhoneNumber) 
     {
-        Login newUser = new Login(username, password, firstName, lastName, cellPhoneNumber);
-        String status = newUser.registerUser();
+        ChatResult<Login> result = 
+            service.register(username, password, firstName, lastName, cellPhoneNumber);
         
-        if (!status.equals("Registration successful!")) 
+        if (!result.isSuccess()) 
         {
-            showErrorDialog(status);
+            showErrorDialog(result.getMessage());
             return false;
         }
-        
-        users.put(cellPhoneNumber, newUser);
-        messages.put(cellPhoneNumber, new ArrayList<>());
         return true;
     }
     
@@ -399,100 +624,119 @@ public final class ChatApplication implements UserInterface
      */
     public boolean login(String username, String password) 
     {
-        for (Login user : users.values()) 
+        ChatResult<Login> result = service.login(username, password);
+        
+        if (!result.isSuccess()) 
         {
-            if (user.getUsername().equals(username)) 
-            {
-                boolean success = user.loginUser(username, password);
-                if (success) 
-                {
-                    currentUser = user;
-                    return true;
-                }
-            }
+            statusLabel.setText(result.getMessage());
+            return false;
         }
         
-        statusLabel.setText("Invalid username or password");
-        return false;
+        currentUser = result.getValue();
+        return true;
     }
     
     /**
-     * Sends message with full validation
-     * @param recipientNumber Receiver's phone number
-     * @param messageText Content to send
+     * Reports a registration hashed in the background; runs on the EDT
+     * @param result Outcome of ChatService.registerAsync
      */
-    public void sendMessage(String recipientNumber, String messageText) 
+    private void completeRegistration(ChatResult<Login> result) 
     {
-        Message message = new Message(messageText, recipientNumber, 
-                                   currentUser.getCellPhoneNumber());
-        
-        if (!message.checkMessageLength()) 
-        {
-            showErrorDialog("Message exceeds 250 character limit");
-            return;
-        }
-        
-        if (!message.checkRecipientCell()) 
+        registerButton.setEnabled(true);
+        if (!result.isSuccess()) 
         {
-            showErrorDialog("Invalid recipient number format");
+            statusLabel.setText(" ");
+            showErrorDialog(result.getMessage());
             return;
         }
         
-        if (!users.containsKey(recipientNumber)) 
-        {
-            showErrorDialog("Recipient not registered");
-            return;
-        }
-        
-        String result = message.processMessage(1); // Send action
-        showInfoDialog(result);
-        
-        // Store message for both parties
-        storeMessage(currentUser.getCellPhoneNumber(), message);
-        storeMessage(recipientNumber, message);
-        
-        // Persist to file
-        persistMessage(message);
+        statusLabel.setText("Registration successful! Please login.");
+        usernameField.setText("");
+        passwordField.setText("");
+        cellPhoneField.setText("");
     }
     
     /**
-     * Stores message in recipient's inbox
-     * @param phoneNumber Recipient's identifier
-     * @param message Message to store
+     * Applies a login verified in the background; runs on the EDT
+     * @param result Outcome of ChatService.loginAsync
      */
-    private void storeMessage(String phoneNumber, Message message) 
+    private void completeLogin(ChatResult<Login> result) 
     {
-        messages.computeIfAbsent(phoneNumber, k -> new ArrayList<>())
-               .add(message);
+        loginButton.setEnabled(true);
+        if (!result.isSuccess()) 
+        {
+            statusLabel.setText(result.getMessage());
+            return;
+        }
+        
+        currentUser = result.getValue();
+        statusLabel.setText(" ");
+        showChatPanel();
+        updateChatArea();
+        updateRecipientList();
     }
     
     /**
-     * Writes message to persistent storage
-     * @param message Message to persist
+     * Sends message with full validation
+     * @param recipientNumber Receiver's phone number
+     * @param messageText Content to send
      */
-    private void persistMessage(Message message) 
+    public void sendMessage(String recipientNumber, String messageText) 
     {
-        try (FileWriter writer = new FileWriter("messages.json", true)) 
-        {
-            writer.write(message.toJsonString() + "\n");
-        } 
-        catch (IOException e) 
+        ChatResult<Message> result = 
+            service.send(currentUser.getCellPhoneNumber(), recipientNumber, messageText);
+        
+        switch (result.getStatus()) 
         {
-            showErrorDialog("Failed to save message: " + e.getMessage());
+            case OK:
+                showInfoDialog(result.getMessage());
+                break;
+                
+            default:
+                // NOT_PERSISTED was delivered in memory but will not survive a restart
+                showErrorDialog(result.getMessage());
+                break;
         }
     }
     
     /**
      * Retrieves recent messages for current user
-     * @return List of messages (empty if none)
+     * @return Newest messages still held in memory, oldest first (empty if none)
      */
     public List<Message> getRecentMessages() 
     {
         if (currentUser == null) 
         {
-            return new ArrayList<>();
+            return List.of();
         }
-        return messages.getOrDefault(currentUser.getCellPhoneNumber(), new ArrayList<>());
+        return service.getInbox(currentUser.getCellPhoneNumber(), MessagePage.LATEST, 
+                                service.getConversations().getHotWindow()).getMessages();
+    }
+    
+    /**
+     * Retrieves one page of a user's inbox
+     * @param phoneNumber Inbox owner
+     * @param beforeCursor Exclusive upper bound on message IDs (MessagePage.LATEST for the newest page)
+     * @param limit Maximum number of messages
+     * @return Page of messages, oldest first
+     */
+    public MessagePage getMessages(String phoneNumber, long beforeCursor, int limit) 
+    {
+        return service.getInbox(phoneNumber, beforeCursor, limit);
+    }
+    
+    /**
+     * Retrieves one page of the thread between two users
+     * @param phoneNumber One participant
+     * @param otherPhoneNumber The other participant
+     * @param beforeCursor Exclusive upper bound on message IDs (MessagePage.LATEST for the newest page)
+     * @param limit Maximum number of messages
+     * @return Page of messages, oldest first
+     */
+    public MessagePage getThread(String phoneNumber, String otherPhoneNumber, 
+                                 long beforeCursor, int limit) 
+    {
+        return service.getThread(phoneNumber, otherPhoneNumber, beforeCursor, limit);
     }
     
     /**
@@ -514,6 +758,9 @@ public final class ChatApplication implements UserInterface
         cl.show(mainPanel, "login");
         usernameField.setText("");
         passwordField.setText("");
+        cellPhoneField.setText("");
+        recipientComboBox.removeAllItems();
+        recipientComboBox.setSelectedItem(null);
         statusLabel.setText("Logged out successfully");
     }
 }
\ No newline at end of file
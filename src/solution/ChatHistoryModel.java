@@ -0,0 +1,104 @@
+package solution;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.AbstractListModel;
+
+/**
+ * List model holding the pages of an inbox that the user has loaded
+ *
+ * The view starts with the newest page. New messages are appended and
+ * older pages are prepended as the user scrolls back, and each change
+ * announces only the rows it touched, so the view updates at constant
+ * cost regardless of history length.
+ */
+public class ChatHistoryModel extends AbstractListModel<Message>
+{
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<Message> loaded = new ArrayList<>();
+
+    /**
+     * Replaces the contents with a fresh page (e.g. after login)
+     * @param messages Messages, oldest first
+     */
+    public void setMessages(List<Message> messages)
+    {
+        int oldSize = loaded.size();
+        loaded.clear();
+        if (oldSize > 0)
+        {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+
+        loaded.addAll(messages);
+        if (!loaded.isEmpty())
+        {
+            fireIntervalAdded(this, 0, loaded.size() - 1);
+        }
+    }
+
+    /**
+     * Appends messages newer than anything shown so far
+     * @param messages Candidate messages, oldest first
+     * @return Number of rows added
+     */
+    public int addNewerMessages(List<Message> messages)
+    {
+        long newest = getNewestId();
+        int first = loaded.size();
+        for (Message message : messages)
+        {
+            if (loaded.isEmpty() || message.getId() > newest)
+            {
+                loaded.add(message);
+                newest = message.getId();
+            }
+        }
+
+        int added = loaded.size() - first;
+        if (added > 0)
+        {
+            fireIntervalAdded(this, first, loaded.size() - 1);
+        }
+        return added;
+    }
+
+    /**
+     * Prepends an older page
+     * @param messages Messages older than the first row, oldest first
+     * @return Number of rows added
+     */
+    public int addOlderMessages(List<Message> messages)
+    {
+        if (messages.isEmpty())
+        {
+            return 0;
+        }
+
+        loaded.addAll(0, messages);
+        fireIntervalAdded(this, 0, messages.size() - 1);
+        return messages.size();
+    }
+
+    /**
+     * Gets the ID of the newest loaded message
+     * @return Message ID, or Long.MIN_VALUE if nothing is loaded
+     */
+    public long getNewestId()
+    {
+        return loaded.isEmpty() ? Long.MIN_VALUE : loaded.get(loaded.size() - 1).getId();
+    }
+
+    @Override
+    public int getSize()
+    {
+        return loaded.size();
+    }
+
+    @Override
+    public Message getElementAt(int index)
+    {
+        return loaded.get(index);
+    }
+}
@@ -0,0 +1,38 @@
+package solution;
+
+import java.awt.Component;
+import java.util.function.Function;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JList;
+
+/**
+ * Renders one chat line as "sender: message"
+ * The list only asks for visible rows, so sender names are resolved
+ * lazily for what is on screen rather than for the whole history
+ */
+public class ChatMessageRenderer extends DefaultListCellRenderer
+{
+    private static final long serialVersionUID = 1L;
+
+    private final transient Function<String, String> senderNames;
+
+    /**
+     * Creates a renderer
+     * @param senderNames Maps a sender phone number to a display name
+     */
+    public ChatMessageRenderer(Function<String, String> senderNames)
+    {
+        this.senderNames = senderNames;
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                  boolean isSelected, boolean cellHasFocus)
+    {
+        Message message = (Message) value;
+        String line = senderNames.apply(message.getSenderPhoneNumber())
+                      + ": " + message.getMessagePayload();
+
+        return super.getListCellRendererComponent(list, line, index, isSelected, cellHasFocus);
+    }
+}
@@ -0,0 +1,377 @@
+package solution;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters, gauges and stage latencies of one ChatService
+ *
+ * Counters are LongAdders, so recording from many sender threads costs an
+ * uncontended add. Gauges are read from the service only when asked for.
+ * Each stage of a send has a LatencyRecorder:
+ * <pre>
+ * VALIDATE    checks up to the point the message is accepted
+ * STORE       conversation store and search index
+ * PERSIST     hand-off to the group-commit writer (back-pressure shows here)
+ * UI_REFRESH  reloading the chat list after a send, in ChatApplication
+ * </pre>
+ *
+ * publish() registers everything with the platform MBean server, under
+ * solution:type=ChatMetrics,name=&lt;name&gt; with one extra stage=&lt;stage&gt;
+ * bean per recorder, so jconsole can chart a live instance. start()
+ * closes an interval every period to compute rates and percentiles, and
+ * can also print a one-line summary each time. Thread-safe.
+ */
+public final class ChatMetrics implements ChatMetricsMBean, Closeable
+{
+    /**
+     * Timed stages of a send
+     */
+    public enum Stage
+    {
+        VALIDATE, STORE, PERSIST, UI_REFRESH
+    }
+
+    private final LongAdder messagesSent;
+    private final LongAdder sendsRejected;
+    private final LongAdder sendsNotPersisted;
+    private final LongAdder loginSuccesses;
+    private final LongAdder loginFailures;
+    private final LongAdder loginsBusy;
+    private final Map<Stage, LatencyRecorder> stages;
+    private final ConversationStore conversations;
+    private final IntSupplier registeredUsers;
+    private final IntSupplier queuedWrites;
+    private final IntSupplier queuedLogins;
+    private final List<ObjectName> published;
+
+    private ScheduledExecutorService sampler;
+    private long lastSampleNanos;
+    private long lastMessagesSent;
+    private long lastLoginSuccesses;
+    private long lastLoginFailures;
+    private volatile double messagesSentPerSecond;
+    private volatile double loginSuccessesPerSecond;
+    private volatile double loginFailuresPerSecond;
+
+    /**
+     * Creates metrics over a service's parts
+     * @param conversations Store whose sizes are reported
+     * @param registeredUsers Number of accounts
+     * @param queuedWrites Records waiting for the log writer
+     * @param queuedLogins Verifications waiting for a thread
+     */
+    public ChatMetrics(ConversationStore conversations, IntSupplier registeredUsers,
+                       IntSupplier queuedWrites, IntSupplier queuedLogins)
+    {
+        this.messagesSent = new LongAdder();
+        this.sendsRejected = new LongAdder();
+        this.sendsNotPersisted = new LongAdder();
+        this.loginSuccesses = new LongAdder();
+        this.loginFailures = new LongAdder();
+        this.loginsBusy = new LongAdder();
+        this.stages = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values())
+        {
+            stages.put(stage, new LatencyRecorder());
+        }
+        this.conversations = conversations;
+        this.registeredUsers = registeredUsers;
+        this.queuedWrites = queuedWrites;
+        this.queuedLogins = queuedLogins;
+        this.published = new ArrayList<>();
+        this.lastSampleNanos = System.nanoTime();
+    }
+
+    /**
+     * Records how long a stage took
+     * @param stage Stage of a send
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(Stage stage, long nanos)
+    {
+        stages.get(stage).record(nanos);
+    }
+
+    /**
+     * Counts a finished send by its outcome
+     * @param status Result of ChatService.send
+     */
+    public void sendCompleted(ChatResult.Status status)
+    {
+        if (status == ChatResult.Status.OK)
+        {
+            messagesSent.increment();
+        }
+        else if (status == ChatResult.Status.NOT_PERSISTED)
+        {
+            messagesSent.increment();
+            sendsNotPersisted.increment();
+        }
+        else
+        {
+            sendsRejected.increment();
+        }
+    }
+
+    /**
+     * Counts a finished login by its outcome
+     * @param status Result of ChatService.login
+     */
+    public void loginCompleted(ChatResult.Status status)
+    {
+        if (status == ChatResult.Status.OK)
+        {
+            loginSuccesses.increment();
+        }
+        else if (status == ChatResult.Status.AUTH_BUSY)
+        {
+            loginsBusy.increment();
+        }
+        else
+        {
+            loginFailures.increment();
+        }
+    }
+
+    public LatencyRecorder getStage(Stage stage)
+    {
+        return stages.get(stage);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server
+     * @param name Value of the name key, distinguishing services in one JVM
+     * @throws JMException If a bean with the same name is already registered
+     */
+    public synchronized void publish(String name) throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String prefix = "solution:type=ChatMetrics,name=" + ObjectName.quote(name);
+        try
+        {
+            register(server, new ObjectName(prefix), this);
+            for (Map.Entry<Stage, LatencyRecorder> stage : stages.entrySet())
+            {
+                register(server, new ObjectName(prefix + ",stage=" + stage.getKey().name().toLowerCase()),
+                         stage.getValue());
+            }
+        }
+        catch (JMException e)
+        {
+            unpublish();
+            throw e;
+        }
+    }
+
+    private void register(MBeanServer server, ObjectName objectName, Object bean) throws JMException
+    {
+        server.registerMBean(bean, objectName);
+        published.add(objectName);
+    }
+
+    /**
+     * Starts closing an interval every period
+     * @param periodSeconds Interval length
+     * @param dump true to also print a summary line each interval
+     */
+    public synchronized void start(long periodSeconds, boolean dump)
+    {
+        if (sampler != null || periodSeconds < 1)
+        {
+            return;
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("chat-metrics").daemon(true).factory());
+        sampler.scheduleAtFixedRate(() ->
+        {
+            sample();
+            if (dump)
+            {
+                System.out.println(getSummary());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Closes the current interval: updates the rates and rolls every stage recorder
+     */
+    public synchronized void sample()
+    {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastSampleNanos) / 1e9);
+        long sent = messagesSent.sum();
+        long successes = loginSuccesses.sum();
+        long failures = loginFailures.sum();
+
+        messagesSentPerSecond = (sent - lastMessagesSent) / seconds;
+        loginSuccessesPerSecond = (successes - lastLoginSuccesses) / seconds;
+        loginFailuresPerSecond = (failures - lastLoginFailures) / seconds;
+        lastMessagesSent = sent;
+        lastLoginSuccesses = successes;
+        lastLoginFailures = failures;
+        lastSampleNanos = now;
+
+        for (LatencyRecorder recorder : stages.values())
+        {
+            recorder.roll();
+        }
+    }
+
+    /**
+     * Describes the last interval on one line
+     * @return Summary of rates, gauges and stage percentiles in microseconds
+     */
+    public String getSummary()
+    {
+        StringBuilder summary = new StringBuilder(256);
+        summary.append(String.format("metrics: sent=%d (%.0f/s) rejected=%d notPersisted=%d"
+                                     + " logins=%d/%d failed (%.0f/%.0f per s) busy=%d"
+                                     + " conversations=%d queuedWrites=%d",
+                                     getMessagesSent(), messagesSentPerSecond, getSendsRejected(),
+                                     getSendsNotPersisted(), getLoginSuccesses(), getLoginFailures(),
+                                     loginSuccessesPerSecond, loginFailuresPerSecond, getLoginsBusy(),
+                                     getConversations(), getQueuedWrites()));
+        for (Map.Entry<Stage, LatencyRecorder> stage : stages.entrySet())
+        {
+            LatencyRecorder recorder = stage.getValue();
+            summary.append(String.format(" %s p50/p99=%.1f/%.1fus", stage.getKey().name().toLowerCase(),
+                                         recorder.getP50Micros(), recorder.getP99Micros()));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Stops the sampler and unregisters the beans
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (sampler != null)
+        {
+            sampler.shutdownNow();
+            sampler = null;
+        }
+        unpublish();
+    }
+
+    private void unpublish()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : published)
+        {
+            try
+            {
+                server.unregisterMBean(objectName);
+            }
+            catch (JMException e)
+            {
+                // Already gone
+            }
+        }
+        published.clear();
+    }
+
+    @Override
+    public long getMessagesSent()
+    {
+        return messagesSent.sum();
+    }
+
+    @Override
+    public long getSendsRejected()
+    {
+        return sendsRejected.sum();
+    }
+
+    @Override
+    public long getSendsNotPersisted()
+    {
+        return sendsNotPersisted.sum();
+    }
+
+    @Override
+    public double getMessagesSentPerSecond()
+    {
+        return messagesSentPerSecond;
+    }
+
+    @Override
+    public long getLoginSuccesses()
+    {
+        return loginSuccesses.sum();
+    }
+
+    @Override
+    public long getLoginFailures()
+    {
+        return loginFailures.sum();
+    }
+
+    @Override
+    public long getLoginsBusy()
+    {
+        return loginsBusy.sum();
+    }
+
+    @Override
+    public double getLoginSuccessesPerSecond()
+    {
+        return loginSuccessesPerSecond;
+    }
+
+    @Override
+    public double getLoginFailuresPerSecond()
+    {
+        return loginFailuresPerSecond;
+    }
+
+    @Override
+    public int getRegisteredUsers()
+    {
+        return registeredUsers.getAsInt();
+    }
+
+    @Override
+    public int getConversations()
+    {
+        return conversations.getConversationCount();
+    }
+
+    @Override
+    public int getHotMessages()
+    {
+        return conversations.getHotMessageCount();
+    }
+
+    @Override
+    public double getAverageConversationSize()
+    {
+        int count = conversations.getConversationCount();
+        return count == 0 ? 0 : (double) conversations.getHotMessageCount() / count;
+    }
+
+    @Override
+    public int getQueuedWrites()
+    {
+        return queuedWrites.getAsInt();
+    }
+
+    @Override
+    public int getQueuedLogins()
+    {
+        return queuedLogins.getAsInt();
+    }
+}
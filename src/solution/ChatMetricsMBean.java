@@ -0,0 +1,38 @@
+package solution;
+
+/**
+ * JMX view of a ChatService's counters and gauges
+ * Rates are per second over the last completed interval
+ */
+public interface ChatMetricsMBean
+{
+    long getMessagesSent();
+
+    long getSendsRejected();
+
+    long getSendsNotPersisted();
+
+    double getMessagesSentPerSecond();
+
+    long getLoginSuccesses();
+
+    long getLoginFailures();
+
+    long getLoginsBusy();
+
+    double getLoginSuccessesPerSecond();
+
+    double getLoginFailuresPerSecond();
+
+    int getRegisteredUsers();
+
+    int getConversations();
+
+    int getHotMessages();
+
+    double getAverageConversationSize();
+
+    int getQueuedWrites();
+
+    int getQueuedLogins();
+}
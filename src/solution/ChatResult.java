@@ -0,0 +1,121 @@
+package solution;
+
+/**
+ * Outcome of a ChatService operation
+ *
+ * Callers decide how to present a failure (dialog, protocol error, log
+ * line); the service itself never touches the UI.
+ * @param <T> Value produced on success
+ */
+public final class ChatResult<T>
+{
+    /**
+     * Why an operation succeeded or failed
+     */
+    public enum Status
+    {
+        OK(true),
+        NOT_PERSISTED(true),
+        INVALID_USERNAME(false),
+        INVALID_PASSWORD(false),
+        INVALID_CELL(false),
+        DUPLICATE_USER(false),
+        INVALID_CREDENTIALS(false),
+        EMPTY_MESSAGE(false),
+        MESSAGE_TOO_LONG(false),
+        INVALID_RECIPIENT(false),
+        UNKNOWN_RECIPIENT(false),
+        UNKNOWN_SENDER(false),
+        INVALID_GROUP(false),
+        DUPLICATE_GROUP(false),
+        UNKNOWN_GROUP(false),
+        NOT_A_MEMBER(false),
+        AUTH_BUSY(false),
+        USER_NOT_SAVED(false),
+        DUPLICATE_USERNAME(false),
+        UNKNOWN_USER(false);
+
+        private final boolean success;
+
+        Status(boolean success)
+        {
+            this.success = success;
+        }
+
+        public boolean isSuccess()
+        {
+            return success;
+        }
+    }
+
+    private final Status status;
+    private final String message;
+    private final T value;
+
+    private ChatResult(Status status, String message, T value)
+    {
+        this.status = status;
+        this.message = message;
+        this.value = value;
+    }
+
+    /**
+     * Creates a successful result
+     * @param message Human-readable description
+     * @param value Produced value
+     * @return Result with status OK
+     */
+    public static <T> ChatResult<T> ok(String message, T value)
+    {
+        return new ChatResult<>(Status.OK, message, value);
+    }
+
+    /**
+     * Creates a result with an explicit status
+     * @param status Outcome
+     * @param message Human-readable description
+     * @param value Produced value (may be null on failure)
+     * @return Result
+     */
+    public static <T> ChatResult<T> of(Status status, String message, T value)
+    {
+        return new ChatResult<>(status, message, value);
+    }
+
+    /**
+     * Creates a failed result without a value
+     * @param status Failure reason
+     * @param message Human-readable description
+     * @return Result
+     */
+    public static <T> ChatResult<T> failure(Status status, String message)
+    {
+        return new ChatResult<>(status, message, null);
+    }
+
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    public boolean isSuccess()
+    {
+        return status.isSuccess();
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    public T getValue()
+    {
+        return value;
+    }
+
+    @Override
+    public String toString()
+    {
+        return status + ": " + message;
+    }
+}
@@ -0,0 +1,757 @@
+package solution;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking TCP server for the line protocol of RequestDispatcher and
+ * the binary protocol of BinaryDispatcher
+ *
+ * A small, fixed set of event loops serves every connection. The first
+ * loop also accepts connections and hands them out round-robin. Each
+ * connection owns one input and one output buffer for its whole lifetime;
+ * replies produced while handling a selector tick are appended to the
+ * output buffer and written once at the end of the tick, so pipelined
+ * requests cost one write system call rather than one per reply.
+ * A connection whose first byte is BinaryProtocol.MAGIC speaks the
+ * binary protocol; its replies are framed into buffers borrowed from a
+ * pool shared by all loops and returned as soon as they are written.
+ * LOGIN and REGISTER park their connection while the password is hashed
+ * on the AuthenticationEngine's pool: the loop stops reading from it and
+ * serves the others, and the finished reply is queued back to the owning
+ * loop, which wakes its selector to write it and resume the connection.
+ */
+public final class ChatServer implements Closeable
+{
+    /** Event loops used by default (-Dquickchat.serverThreads) */
+    static final int DEFAULT_LOOPS =
+        Integer.getInteger("quickchat.serverThreads",
+                           Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+    /** Longest request line accepted, in bytes */
+    static final int MAX_LINE_BYTES = 4096;
+
+    /** Output held for a slow reader before its requests are no longer read */
+    static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+
+    private static final int INITIAL_INPUT_BYTES = 256;
+    private static final int INITIAL_OUTPUT_BYTES = 256;
+    private static final int ACCEPT_BACKLOG = 4096;
+    private static final int POOLED_FRAME_BUFFERS = 256;
+
+    private final RequestDispatcher dispatcher;
+    private final BinaryDispatcher binaryDispatcher;
+    private final BufferPool framePool;
+    private final ServerSocketChannel acceptor;
+    private final EventLoop[] loops;
+    private final AtomicInteger connections;
+    private final AtomicLong acceptedConnections;
+    private final AtomicLong requests;
+    private volatile boolean running;
+    private int nextLoop;
+
+    /**
+     * Binds the server socket; call start() to begin serving
+     * @param service Chat engine that executes requests
+     * @param address Local address (port 0 picks a free port)
+     * @param loopCount Number of event loop threads
+     * @throws IOException If the address cannot be bound
+     */
+    public ChatServer(ChatService service, InetSocketAddress address, int loopCount) throws IOException
+    {
+        if (loopCount < 1)
+        {
+            throw new IllegalArgumentException("At least one event loop is required");
+        }
+
+        this.dispatcher = new RequestDispatcher(service);
+        this.binaryDispatcher = new BinaryDispatcher(service);
+        this.framePool = new BufferPool(BinaryProtocol.MAX_FRAME_BYTES, POOLED_FRAME_BUFFERS);
+        this.connections = new AtomicInteger();
+        this.acceptedConnections = new AtomicLong();
+        this.requests = new AtomicLong();
+        this.acceptor = ServerSocketChannel.open();
+        this.acceptor.configureBlocking(false);
+        this.acceptor.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        this.acceptor.bind(address, ACCEPT_BACKLOG);
+
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++)
+        {
+            loops[i] = new EventLoop(i);
+        }
+    }
+
+    /**
+     * Starts the event loop threads
+     * @throws IOException If the acceptor cannot be registered
+     */
+    public void start() throws IOException
+    {
+        running = true;
+        acceptor.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (EventLoop loop : loops)
+        {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * Gets the bound port
+     * @return Local port number
+     */
+    public int getPort()
+    {
+        try
+        {
+            return ((InetSocketAddress) acceptor.getLocalAddress()).getPort();
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    public int getConnectionCount()
+    {
+        return connections.get();
+    }
+
+    public long getAcceptedConnectionCount()
+    {
+        return acceptedConnections.get();
+    }
+
+    public long getRequestCount()
+    {
+        return requests.get();
+    }
+
+    public int getLoopCount()
+    {
+        return loops.length;
+    }
+
+    public BufferPool getFramePool()
+    {
+        return framePool;
+    }
+
+    /**
+     * Formats connection and request counters for logging
+     * @return One-line summary
+     */
+    public String getStatisticsSummary()
+    {
+        return String.format("%d open connections (%d accepted), %d requests on %d event loops",
+                             getConnectionCount(), getAcceptedConnectionCount(),
+                             getRequestCount(), getLoopCount());
+    }
+
+    /**
+     * Stops the event loops and closes every connection
+     * Pending replies that have not been written are dropped
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        for (EventLoop loop : loops)
+        {
+            loop.selector.wakeup();
+        }
+        for (EventLoop loop : loops)
+        {
+            try
+            {
+                loop.thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        try
+        {
+            acceptor.close();
+        }
+        catch (IOException e)
+        {
+            // Nothing left to release
+        }
+    }
+
+    /**
+     * Accepts every pending connection and hands it to a loop
+     * Runs on the first event loop only
+     */
+    private void acceptAll() throws IOException
+    {
+        SocketChannel channel;
+        while ((channel = acceptor.accept()) != null)
+        {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connections.incrementAndGet();
+            acceptedConnections.incrementAndGet();
+            loops[nextLoop].assign(channel);
+            nextLoop = (nextLoop + 1) % loops.length;
+        }
+    }
+
+    /**
+     * Per-connection state; only touched by the owning loop
+     */
+    private static final class Connection
+    {
+        final SocketChannel channel;
+        final ClientSession session;
+        SelectionKey key;
+        ByteBuffer input;
+        ByteBuffer output;
+        FrameEncoder frames;
+        ByteBuffer parkedFrame;
+        boolean protocolKnown;
+        boolean dirty;
+
+        Connection(SocketChannel channel)
+        {
+            this.channel = channel;
+            this.session = new ClientSession();
+            this.input = ByteBuffer.allocate(INITIAL_INPUT_BYTES);
+            this.output = ByteBuffer.allocate(INITIAL_OUTPUT_BYTES);
+        }
+    }
+
+    /**
+     * One selector thread serving a share of the connections
+     */
+    private final class EventLoop implements Runnable
+    {
+        final Selector selector;
+        final Thread thread;
+        final ConcurrentLinkedQueue<SocketChannel> pending;
+        final ConcurrentLinkedQueue<Connection> resumable;
+        final List<Connection> dirty;
+        final StringBuilder reply;
+        final CharsetEncoder encoder;
+
+        EventLoop(int index) throws IOException
+        {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "chat-loop-" + index);
+            this.pending = new ConcurrentLinkedQueue<>();
+            this.resumable = new ConcurrentLinkedQueue<>();
+            this.dirty = new ArrayList<>();
+            this.reply = new StringBuilder(1024);
+            this.encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        /**
+         * Queues an accepted channel for registration on this loop's selector
+         * @param channel Non-blocking client channel
+         */
+        void assign(SocketChannel channel)
+        {
+            pending.add(channel);
+            if (Thread.currentThread() != thread)
+            {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            while (running)
+            {
+                try
+                {
+                    registerPending();
+                    selector.select(this::handle);
+                    registerPending();
+                    resumeParked();
+                    flushDirty();
+                }
+                catch (IOException e)
+                {
+                    System.err.println(thread.getName() + ": " + e.getMessage());
+                }
+            }
+
+            for (SelectionKey key : selector.keys())
+            {
+                if (key.attachment() instanceof Connection)
+                {
+                    close((Connection) key.attachment());
+                }
+            }
+            try
+            {
+                selector.close();
+            }
+            catch (IOException e)
+            {
+                // Shutting down
+            }
+        }
+
+        private void registerPending()
+        {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null)
+            {
+                Connection connection = new Connection(channel);
+                try
+                {
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                }
+                catch (IOException e)
+                {
+                    close(connection);
+                }
+            }
+        }
+
+        /**
+         * Stops reading from a connection until its pending reply is ready
+         * The reply completes on another thread, which queues the connection
+         * back to this loop
+         */
+        private void park(Connection connection)
+        {
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+            connection.session.getPendingReply().whenComplete((reply, failure) ->
+            {
+                resumable.add(connection);
+                if (Thread.currentThread() != thread)
+                {
+                    selector.wakeup();
+                }
+            });
+        }
+
+        /**
+         * Writes the replies that completed since the last tick and
+         * dispatches the requests their connections buffered meanwhile
+         */
+        private void resumeParked()
+        {
+            Connection connection;
+            while ((connection = resumable.poll()) != null)
+            {
+                CompletableFuture<Runnable> pending = connection.session.takePendingReply();
+                if (connection.key == null || !connection.key.isValid())
+                {
+                    continue;
+                }
+                // Dispatchers never fail their replies; a failure here is a bug, so drop the client
+                if (pending.isCompletedExceptionally())
+                {
+                    close(connection);
+                    continue;
+                }
+                Runnable reply = pending.join();
+
+                if (connection.frames != null)
+                {
+                    reply.run();
+                    ByteBuffer rest = connection.parkedFrame;
+                    connection.parkedFrame = null;
+                    if (rest != null)
+                    {
+                        dispatchFrame(connection, rest);
+                    }
+                    if (!connection.session.isParked())
+                    {
+                        readFrames(connection);
+                    }
+                }
+                else
+                {
+                    // The deferred reply appends to the builder it was dispatched with
+                    this.reply.setLength(0);
+                    reply.run();
+                    encode(connection, this.reply);
+                    readLines(connection);
+                }
+
+                if (connection.session.isParked())
+                {
+                    park(connection);
+                }
+                if (!connection.dirty)
+                {
+                    connection.dirty = true;
+                    dirty.add(connection);
+                }
+            }
+        }
+
+        /**
+         * Handles one ready key; never lets an I/O failure escape the loop
+         * @param key Selected key
+         */
+        private void handle(SelectionKey key)
+        {
+            if (key.attachment() == null)
+            {
+                try
+                {
+                    acceptAll();
+                }
+                catch (IOException e)
+                {
+                    System.err.println(thread.getName() + ": accept failed: " + e.getMessage());
+                }
+                return;
+            }
+
+            Connection connection = (Connection) key.attachment();
+            try
+            {
+                if (key.isValid() && key.isReadable())
+                {
+                    read(connection);
+                }
+                if (key.isValid() && key.isWritable())
+                {
+                    write(connection);
+                }
+            }
+            catch (IOException e)
+            {
+                close(connection);
+            }
+        }
+
+        /**
+         * Reads what is available and dispatches every complete request
+         */
+        private void read(Connection connection) throws IOException
+        {
+            int count = connection.channel.read(connection.input);
+            if (count < 0)
+            {
+                close(connection);
+                return;
+            }
+            if (!connection.protocolKnown && !detectProtocol(connection))
+            {
+                return;
+            }
+
+            if (connection.frames != null)
+            {
+                readFrames(connection);
+            }
+            else
+            {
+                readLines(connection);
+            }
+
+            if (connection.session.isParked())
+            {
+                park(connection);
+            }
+            if (hasOutput(connection) && !connection.dirty)
+            {
+                connection.dirty = true;
+                dirty.add(connection);
+            }
+        }
+
+        /**
+         * Decides the protocol from the first bytes of a connection
+         * @return true once the protocol is known and the connection is still open
+         */
+        private boolean detectProtocol(Connection connection)
+        {
+            ByteBuffer input = connection.input;
+            if (input.position() == 0)
+            {
+                return false;
+            }
+            if (input.get(0) != BinaryProtocol.MAGIC)
+            {
+                connection.protocolKnown = true;
+                return true;
+            }
+            if (input.position() < 2)
+            {
+                return false;
+            }
+            if (input.get(1) != BinaryProtocol.VERSION)
+            {
+                close(connection);
+                return false;
+            }
+
+            input.flip();
+            input.position(2);
+            input.compact();
+            connection.frames = new FrameEncoder(framePool);
+            connection.protocolKnown = true;
+            return true;
+        }
+
+        /**
+         * Dispatches every complete frame; replies stay in the open frame until the flush
+         */
+        private void readFrames(Connection connection)
+        {
+            ByteBuffer input = connection.input;
+            input.flip();
+            int needed = 0;
+            while (input.remaining() >= BinaryProtocol.LENGTH_BYTES && !connection.session.isClosing()
+                   && !connection.session.isParked())
+            {
+                int length = input.getInt(input.position());
+                if (length <= 0 || length > BinaryProtocol.MAX_FRAME_BYTES - BinaryProtocol.LENGTH_BYTES)
+                {
+                    String text = "Frames are limited to " + BinaryProtocol.MAX_FRAME_BYTES + " bytes";
+                    connection.frames.write(BinaryProtocol.ERROR, 0, buffer ->
+                    {
+                        BinaryProtocol.putVarint(buffer, BinaryProtocol.ERROR_MALFORMED);
+                        BinaryProtocol.putString(buffer, text);
+                    });
+                    connection.session.requestClose();
+                    break;
+                }
+                if (input.remaining() < BinaryProtocol.LENGTH_BYTES + length)
+                {
+                    needed = BinaryProtocol.LENGTH_BYTES + length;
+                    break;
+                }
+
+                ByteBuffer frame = input.slice(input.position() + BinaryProtocol.LENGTH_BYTES, length);
+                input.position(input.position() + BinaryProtocol.LENGTH_BYTES + length);
+                dispatchFrame(connection, frame);
+            }
+            input.compact();
+
+            // Make room for the whole of a partially received frame
+            if (needed > input.capacity())
+            {
+                ByteBuffer grown = ByteBuffer.allocate(needed);
+                input.flip();
+                grown.put(input);
+                connection.input = grown;
+            }
+        }
+
+        /**
+         * Dispatches the records of a frame, keeping those after a parking
+         * record until the connection resumes
+         */
+        private void dispatchFrame(Connection connection, ByteBuffer frame)
+        {
+            requests.addAndGet(binaryDispatcher.dispatch(connection.session, frame, connection.frames));
+            if (connection.session.isParked() && frame.hasRemaining())
+            {
+                // The frame may be a view of the input buffer, which is about to be compacted
+                ByteBuffer rest = ByteBuffer.allocate(frame.remaining());
+                rest.put(frame).flip();
+                connection.parkedFrame = rest;
+            }
+        }
+
+        /**
+         * Dispatches every complete line and encodes the replies
+         */
+        private void readLines(Connection connection)
+        {
+            ByteBuffer input = connection.input;
+            byte[] bytes = input.array();
+            int end = input.position();
+            int lineStart = 0;
+            for (int i = 0; i < end && !connection.session.isClosing() && !connection.session.isParked(); i++)
+            {
+                if (bytes[i] == '\n')
+                {
+                    int lineEnd = i > lineStart && bytes[i - 1] == '\r' ? i - 1 : i;
+                    String line = new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+                    reply.setLength(0);
+                    dispatcher.dispatchAsync(connection.session, line, reply);
+                    requests.incrementAndGet();
+                    encode(connection, reply);
+                    lineStart = i + 1;
+                }
+            }
+
+            // Keep the unfinished line at the start of the buffer
+            input.flip();
+            input.position(lineStart);
+            input.compact();
+
+            // A parked connection's buffer may be full of lines still to dispatch
+            if (!input.hasRemaining() && !connection.session.isParked())
+            {
+                if (input.capacity() >= MAX_LINE_BYTES)
+                {
+                    reply.setLength(0);
+                    reply.append("ERR LINE_TOO_LONG Requests are limited to ")
+                         .append(MAX_LINE_BYTES).append(" bytes\n");
+                    encode(connection, reply);
+                    connection.session.requestClose();
+                }
+                else
+                {
+                    ByteBuffer grown = ByteBuffer.allocate(Math.min(MAX_LINE_BYTES, input.capacity() * 2));
+                    input.flip();
+                    grown.put(input);
+                    connection.input = grown;
+                }
+            }
+        }
+
+        private boolean hasOutput(Connection connection)
+        {
+            if (connection.frames != null)
+            {
+                return connection.frames.hasOpenFrame() || connection.frames.getPendingBytes() > 0;
+            }
+            return connection.output.position() > 0;
+        }
+
+        /**
+         * Appends encoded reply text to the connection's output buffer
+         */
+        private void encode(Connection connection, CharSequence text)
+        {
+            CharBuffer chars = CharBuffer.wrap(text);
+            encoder.reset();
+            while (true)
+            {
+                CoderResult result = encoder.encode(chars, connection.output, true);
+                if (result.isOverflow())
+                {
+                    growOutput(connection, chars.remaining());
+                    continue;
+                }
+                if (encoder.flush(connection.output).isOverflow())
+                {
+                    growOutput(connection, 4);
+                    continue;
+                }
+                break;
+            }
+        }
+
+        private void growOutput(Connection connection, int remainingChars)
+        {
+            ByteBuffer output = connection.output;
+            int needed = output.position() + Math.max(16, remainingChars * 3);
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(output.capacity() * 2, needed));
+            output.flip();
+            grown.put(output);
+            connection.output = grown;
+        }
+
+        /**
+         * Writes every connection that produced replies during this tick
+         */
+        private void flushDirty()
+        {
+            for (int i = 0; i < dirty.size(); i++)
+            {
+                Connection connection = dirty.get(i);
+                connection.dirty = false;
+                if (connection.key == null || !connection.key.isValid())
+                {
+                    continue;
+                }
+                try
+                {
+                    write(connection);
+                }
+                catch (IOException e)
+                {
+                    close(connection);
+                }
+            }
+            dirty.clear();
+        }
+
+        /**
+         * Writes as much pending output as the socket accepts and adjusts interest
+         */
+        private void write(Connection connection) throws IOException
+        {
+            long pendingBytes;
+            if (connection.frames != null)
+            {
+                connection.frames.finishFrame();
+                connection.frames.writeTo(connection.channel);
+                pendingBytes = connection.frames.getPendingBytes();
+            }
+            else
+            {
+                ByteBuffer output = connection.output;
+                output.flip();
+                connection.channel.write(output);
+                output.compact();
+                pendingBytes = output.position();
+            }
+
+            if (pendingBytes == 0 && connection.session.isClosing())
+            {
+                close(connection);
+                return;
+            }
+
+            int interest = pendingBytes > 0 ? SelectionKey.OP_WRITE : 0;
+            if (pendingBytes < MAX_PENDING_OUTPUT && !connection.session.isClosing()
+                && !connection.session.isParked())
+            {
+                interest |= SelectionKey.OP_READ;
+            }
+            connection.key.interestOps(interest);
+        }
+
+        private void close(Connection connection)
+        {
+            if (connection.key != null)
+            {
+                connection.key.cancel();
+            }
+            if (connection.frames != null)
+            {
+                connection.frames.release();
+            }
+            if (connection.channel.isOpen())
+            {
+                try
+                {
+                    connection.channel.close();
+                }
+                catch (IOException e)
+                {
+                    // Already gone
+                }
+                connections.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,1287 @@
+package solution;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import javax.management.JMException;
+
+/**
+ * Headless chat engine: user registry, conversations and persistence
+ *
+ * Every operation returns a ChatResult (or a page) instead of talking to a
+ * UI, so the same engine can sit behind the Swing client, a network server
+ * or a load test. All methods are safe to call from many threads at once:
+ * users live in a ConcurrentHashMap, which locks per hash bin, and
+ * conversations are guarded by the striped locks of ConversationStore.
+ * A message to a group address is stored once and fanned out to the
+ * members' delivery cursors rather than copied per member.
+ * Every stored message is added to a SearchIndex, which is snapshotted
+ * next to the log on close so a restart only indexes newer messages.
+ * Passwords are stored as salted PBKDF2 hashes; logins are verified and
+ * new passwords hashed on the AuthenticationEngine's worker pool (see
+ * loginAsync and registerAsync), which also calibrates the hash cost.
+ * Accounts live in a memory-mapped UserRegistry when one is open; the
+ * users map then only caches the accounts that have been looked up.
+ * Usernames are unique and indexed (by the registry, or by the byUsername
+ * map in memory), and the index follows renames through Login's
+ * UsernameListener.
+ * Persistence goes through the group-commit writer, so callers never wait
+ * on disk I/O. A LogCompactor started by open() rewrites sealed log
+ * segments in the background without their superseded records.
+ * Sends and logins are counted, and each stage of a send is timed, in
+ * ChatMetrics; open() publishes them over JMX.
+ */
+public final class ChatService implements Closeable
+{
+    /** Appended to the legacy file's name once its messages are in the log */
+    public static final String MIGRATED_SUFFIX = ".migrated";
+
+    // Persistence settings (overridable with -D system properties)
+    private static final String LEGACY_MESSAGE_FILE =
+        System.getProperty("quickchat.legacyMessages", "messages.json");
+    private static final String LOG_DIRECTORY =
+        System.getProperty("quickchat.logDir", "messages-log");
+    private static final int SEGMENT_BYTES =
+        Integer.getInteger("quickchat.segmentBytes", 64 * 1024 * 1024);
+    private static final int INDEX_INTERVAL_BYTES =
+        Integer.getInteger("quickchat.indexInterval", 4096);
+    private static final long RETENTION_BYTES =
+        Long.getLong("quickchat.retentionBytes", 0L);
+    private static final long RETENTION_HOURS =
+        Long.getLong("quickchat.retentionHours", 0L);
+    private static final int WRITE_QUEUE_CAPACITY =
+        Integer.getInteger("quickchat.writeQueue", 8192);
+    private static final int WRITE_BATCH_SIZE =
+        Integer.getInteger("quickchat.writeBatch", 512);
+    private static final int HOT_WINDOW =
+        Integer.getInteger("quickchat.hotWindow", 500);
+    private static final int LOCK_STRIPES =
+        Integer.getInteger("quickchat.lockStripes", 4 * Runtime.getRuntime().availableProcessors());
+    private static final int AUTH_THREADS =
+        Integer.getInteger("quickchat.authThreads", Runtime.getRuntime().availableProcessors());
+    private static final int AUTH_QUEUE_CAPACITY =
+        Integer.getInteger("quickchat.authQueue", 1024);
+    private static final long AUTH_SESSION_MILLIS =
+        Long.getLong("quickchat.authSessionSeconds", 300L) * 1000L;
+    private static final String USER_FILE =
+        System.getProperty("quickchat.userFile", "users.db");
+    private static final int USER_CAPACITY =
+        Integer.getInteger("quickchat.userCapacity", 65536);
+    private static final boolean METRICS =
+        Boolean.parseBoolean(System.getProperty("quickchat.metrics", "true"));
+    private static final long METRICS_INTERVAL_SECONDS =
+        Long.getLong("quickchat.metricsIntervalSeconds", 10L);
+    private static final boolean METRICS_DUMP =
+        Boolean.getBoolean("quickchat.metricsDump");
+    private static final long COMPACT_INTERVAL_SECONDS =
+        Long.getLong("quickchat.compactIntervalSeconds", 600L);
+    private static final long COMPACT_BYTES_PER_SECOND =
+        Long.getLong("quickchat.compactBytesPerSecond", 8L * 1024 * 1024);
+
+    private final ConcurrentHashMap<String, Login> users;
+    private final ConcurrentHashMap<String, Login> byUsername;
+    private final ConversationStore conversations;
+    private final SegmentedLog messageLog;
+    private final LogArchive archive;
+    private final GroupCommitWriter messageWriter;
+    private final SearchIndex searchIndex;
+    private final AuthenticationEngine authentication;
+    private final UserRegistry registry;
+    private final ChatMetrics metrics;
+    private final LogCompactor compactor;
+
+    /**
+     * Creates a service over an already opened log with an empty search index
+     * @param messageLog Persistent log used for older pages (null keeps only the hot window)
+     * @param messageWriter Writer that persists sent messages (null disables persistence)
+     * @param hotWindow Messages kept in memory per conversation
+     * @param lockStripes Number of locks guarding conversations
+     */
+    public ChatService(SegmentedLog messageLog, GroupCommitWriter messageWriter,
+                       int hotWindow, int lockStripes)
+    {
+        this(messageLog, messageWriter, hotWindow, lockStripes, new SearchIndex());
+    }
+
+    /**
+     * Creates a service over an already opened log, keeping accounts in memory
+     * @param messageLog Persistent log used for older pages (null keeps only the hot window)
+     * @param messageWriter Writer that persists sent messages (null disables persistence)
+     * @param hotWindow Messages kept in memory per conversation
+     * @param lockStripes Number of locks guarding conversations
+     * @param searchIndex Index of message text, possibly loaded from a snapshot
+     */
+    public ChatService(SegmentedLog messageLog, GroupCommitWriter messageWriter,
+                       int hotWindow, int lockStripes, SearchIndex searchIndex)
+    {
+        this(messageLog, messageWriter, hotWindow, lockStripes, searchIndex, null);
+    }
+
+    /**
+     * Creates a service over an already opened log and user registry
+     * @param messageLog Persistent log used for older pages (null keeps only the hot window)
+     * @param messageWriter Writer that persists sent messages (null disables persistence)
+     * @param hotWindow Messages kept in memory per conversation
+     * @param lockStripes Number of locks guarding conversations
+     * @param searchIndex Index of message text, possibly loaded from a snapshot
+     * @param registry Persistent accounts (null keeps accounts in memory only)
+     */
+    public ChatService(SegmentedLog messageLog, GroupCommitWriter messageWriter,
+                       int hotWindow, int lockStripes, SearchIndex searchIndex,
+                       UserRegistry registry)
+    {
+        this.users = new ConcurrentHashMap<>();
+        this.byUsername = new ConcurrentHashMap<>();
+        this.registry = registry;
+        this.messageLog = messageLog;
+        this.archive = messageLog != null ? new LogArchive(messageLog) : null;
+        this.messageWriter = messageWriter;
+        this.searchIndex = searchIndex;
+        this.authentication = new AuthenticationEngine(PasswordHasher::configured, AUTH_THREADS,
+                                                       AUTH_QUEUE_CAPACITY, AUTH_SESSION_MILLIS);
+        this.conversations = new ConversationStore(hotWindow, archive, lockStripes);
+        this.metrics = new ChatMetrics(conversations, this::getUserCount,
+            () -> messageWriter != null ? messageWriter.getQueuedRecords() : 0,
+            authentication::getQueuedCount);
+        this.compactor = messageLog != null ? new LogCompactor(messageLog, COMPACT_BYTES_PER_SECOND) : null;
+    }
+
+    /**
+     * Opens the segmented log, its writer and the user registry as configured
+     * by the quickchat.* properties
+     * Durability is chosen with -Dquickchat.durability (batch, interval:ms, records:n)
+     * @param errorHandler Receives failures raised by the background writer
+     * @return Service backed by the log
+     * @throws IOException If the log or the registry cannot be opened
+     */
+    public static ChatService open(Consumer<IOException> errorHandler) throws IOException
+    {
+        DurabilityPolicy policy =
+            DurabilityPolicy.parse(System.getProperty("quickchat.durability"));
+        SegmentedLog log = new SegmentedLog(Paths.get(LOG_DIRECTORY), SEGMENT_BYTES,
+                                            INDEX_INTERVAL_BYTES, RETENTION_BYTES,
+                                            RETENTION_HOURS * 3_600_000L);
+        UserRegistry registry = null;
+        GroupCommitWriter writer = null;
+        ChatService service = null;
+        try
+        {
+            registry = UserRegistry.open(Paths.get(USER_FILE), USER_CAPACITY);
+            SearchIndex index = loadSearchIndex(log.getDirectory().resolve(SearchIndex.SNAPSHOT_FILE));
+            writer = new GroupCommitWriter(log, WRITE_QUEUE_CAPACITY, WRITE_BATCH_SIZE, policy,
+                                           errorHandler);
+            service = new ChatService(log, writer, HOT_WINDOW, LOCK_STRIPES, index, registry);
+            service.publishMetrics();
+            service.compactor.start(COMPACT_INTERVAL_SECONDS);
+            return service;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            if (service != null)
+            {
+                // Not close(): that would overwrite the search snapshot with an unrestored index
+                service.compactor.close();
+                service.metrics.close();
+                service.authentication.close();
+            }
+            if (registry != null)
+            {
+                registry.close();
+            }
+            if (writer != null)
+            {
+                // Stops the writer thread; the writer owns the log and closes it
+                writer.close();
+            }
+            else
+            {
+                log.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Publishes the metrics over JMX and starts their sampler as configured
+     * A failure to register only loses the JMX view, so it is reported and ignored
+     */
+    private void publishMetrics()
+    {
+        if (!METRICS)
+        {
+            return;
+        }
+        try
+        {
+            metrics.publish(messageLog != null ? messageLog.getDirectory().toAbsolutePath().toString() : "memory");
+        }
+        catch (JMException e)
+        {
+            System.err.println("Failed to publish metrics: " + e.getMessage());
+        }
+        metrics.start(METRICS_INTERVAL_SECONDS, METRICS_DUMP);
+    }
+
+    /**
+     * Loads the search index snapshot, starting empty if it is missing or damaged
+     * A fresh index is rebuilt from the log by restore()
+     */
+    private static SearchIndex loadSearchIndex(Path snapshot)
+    {
+        try
+        {
+            return SearchIndex.load(snapshot);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Rebuilding search index: " + e.getMessage());
+            return new SearchIndex();
+        }
+    }
+
+    /**
+     * Creates a service that keeps messages in memory only
+     * Used when the log cannot be opened
+     * @return Service without persistence
+     */
+    public static ChatService inMemory()
+    {
+        return new ChatService(null, null, HOT_WINDOW, LOCK_STRIPES);
+    }
+
+    /**
+     * Replays the legacy messages.json file and the segmented log into the conversations
+     * @return Replay statistics
+     * @throws IOException If either source cannot be read
+     */
+    public LogReplayer.Result restore() throws IOException
+    {
+        return restore(Paths.get(LEGACY_MESSAGE_FILE));
+    }
+
+    /**
+     * Replays a legacy file and the segmented log into the conversations
+     * Group joins and leaves are applied before the messages they were
+     * logged with, so group history comes back with its members. Messages
+     * newer than the search index snapshot are indexed as they are
+     * replayed, and receipts move the conversation cursors back to where
+     * they were.
+     * The archive learns the ID range and participants of every log chunk
+     * on the way, so older pages can skip chunks without reading them.
+     * New message IDs are kept above every replayed one, even when the
+     * clock is behind the newest message on disk.
+     * A legacy file found next to an empty log is copied into the log once
+     * and renamed with MIGRATED_SUFFIX after the copy is on disk; next to a
+     * log that already holds records it is replayed on every start, since
+     * appending its older messages would put them after newer ones
+     * @param legacyFile Flat NDJSON message file (may be null or not exist)
+     * @return Replay statistics
+     * @throws IOException If either source cannot be read, or the legacy
+     *         file cannot be migrated
+     */
+    public LogReplayer.Result restore(Path legacyFile) throws IOException
+    {
+        boolean migrate = legacyFile != null && messageWriter != null
+            && messageLog.getNextSequence() == 0 && Files.isRegularFile(legacyFile);
+
+        LogReplayer.Result result = LogReplayer.replay(legacyFile, messageLog, conversations::apply, message ->
+        {
+            Message.advanceIdsPast(message.getId());
+            if (conversations.store(message))
+            {
+                searchIndex.indexReplayed(message);
+            }
+            if (migrate)
+            {
+                messageWriter.submit(message.toJsonString());
+            }
+        }, receipt -> conversations.acknowledge(receipt.getReader(), receipt.getPeer(),
+                                                receipt.getStatus(), receipt.getUpToId()),
+            archive);
+
+        if (migrate)
+        {
+            if (!messageWriter.awaitDurable())
+            {
+                throw new IOException("Failed to copy " + legacyFile + " into the message log");
+            }
+            Files.move(legacyFile, legacyFile.resolveSibling(legacyFile.getFileName() + MIGRATED_SUFFIX));
+        }
+        return result;
+    }
+
+    /**
+     * Adds a user without validating their details
+     * Intended for seeding accounts such as the demo user; a plaintext
+     * password is replaced by its hash, computed on the caller's thread
+     * @param user Account to add
+     * @return true if neither the cell number nor the username was registered yet
+     * @throws UncheckedIOException If the account cannot be written to the registry
+     */
+    public boolean addUser(Login user)
+    {
+        return addAccount(user) == ChatResult.Status.OK;
+    }
+
+    /**
+     * Adds a user without validating their details or blocking the caller
+     * Like addUser, but a plaintext password is hashed on the
+     * AuthenticationEngine's pool
+     * @param user Account to add
+     * @return Future completed with true if neither the cell number nor the
+     *         username was registered yet; failed if the pool is saturated or
+     *         the registry cannot be written
+     */
+    public CompletableFuture<Boolean> addUserAsync(Login user)
+    {
+        if (user.getPasswordHash() != null || findDuplicate(user) != null)
+        {
+            return CompletableFuture.completedFuture(addUser(user));
+        }
+        try
+        {
+            return authentication.hashAsync(user.getPassword()).thenApply(hash ->
+            {
+                user.applyPasswordHash(hash);
+                return addUser(user);
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Checks both keys of an account against the registered ones
+     * @return DUPLICATE_USER, DUPLICATE_USERNAME, or null if neither is taken
+     */
+    private ChatResult.Status findDuplicate(Login user)
+    {
+        if (isRegistered(user.getCellPhoneNumber()))
+        {
+            return ChatResult.Status.DUPLICATE_USER;
+        }
+        if (findUserByUsername(user.getUsername()) != null)
+        {
+            return ChatResult.Status.DUPLICATE_USERNAME;
+        }
+        return null;
+    }
+
+    /**
+     * Adds an account under both of its keys
+     * @return OK, DUPLICATE_USER or DUPLICATE_USERNAME
+     */
+    private ChatResult.Status addAccount(Login user)
+    {
+        String phoneNumber = user.getCellPhoneNumber();
+        ChatResult.Status duplicate = findDuplicate(user);
+        if (duplicate != null)
+        {
+            return duplicate;
+        }
+        if (user.getPasswordHash() == null)
+        {
+            user.applyPasswordHash(authentication.hash(user.getPassword()));
+        }
+
+        if (registry != null)
+        {
+            // The registry decides races; the cache just follows it
+            if (!registry.add(user))
+            {
+                return isRegistered(phoneNumber)
+                    ? ChatResult.Status.DUPLICATE_USER
+                    : ChatResult.Status.DUPLICATE_USERNAME;
+            }
+            users.put(phoneNumber, user);
+        }
+        else
+        {
+            if (byUsername.putIfAbsent(user.getUsername(), user) != null)
+            {
+                return ChatResult.Status.DUPLICATE_USERNAME;
+            }
+            if (users.putIfAbsent(phoneNumber, user) != null)
+            {
+                byUsername.remove(user.getUsername(), user);
+                return ChatResult.Status.DUPLICATE_USER;
+            }
+        }
+        user.setUsernameListener(this::usernameChanging);
+        conversations.addParticipant(phoneNumber);
+        return ChatResult.Status.OK;
+    }
+
+    /**
+     * Moves an account to its new username in the index before Login renames it
+     * @throws IllegalArgumentException If another account has the username
+     */
+    private void usernameChanging(Login user, String oldUsername, String newUsername)
+    {
+        if (registry != null)
+        {
+            if (!registry.rename(user.getCellPhoneNumber(), newUsername))
+            {
+                throw new IllegalArgumentException("Username " + newUsername + " is already taken");
+            }
+            return;
+        }
+        if (byUsername.putIfAbsent(newUsername, user) != null)
+        {
+            throw new IllegalArgumentException("Username " + newUsername + " is already taken");
+        }
+        byUsername.remove(oldUsername, user);
+    }
+
+    /**
+     * Registers new user after validation, waiting for the password hash
+     * @param username Unique user identifier
+     * @param password Secret phrase
+     * @param firstName Given name
+     * @param lastName Family name
+     * @param cellPhoneNumber Contact number
+     * @return Registered account, the validation failure, or AUTH_BUSY if too many hashes are queued
+     */
+    public ChatResult<Login> register(String username, String password,
+                                      String firstName, String lastName,
+                                      String cellPhoneNumber)
+    {
+        return registerAsync(username, password, firstName, lastName, cellPhoneNumber).join();
+    }
+
+    /**
+     * Registers new user after validation without blocking the caller
+     * The details are validated and checked for duplicates on the caller's
+     * thread, then the password is hashed on the AuthenticationEngine's pool
+     * and the account is added there
+     * @param username Unique user identifier
+     * @param password Secret phrase
+     * @param firstName Given name
+     * @param lastName Family name
+     * @param cellPhoneNumber Contact number
+     * @return Future completed with the registered account or the failure; never completed exceptionally
+     */
+    public CompletableFuture<ChatResult<Login>> registerAsync(String username, String password,
+                                                              String firstName, String lastName,
+                                                              String cellPhoneNumber)
+    {
+        Login newUser = new Login(username, password, firstName, lastName, cellPhoneNumber);
+        String status = newUser.registerUser();
+
+        if (!newUser.checkUserName())
+        {
+            return CompletableFuture.completedFuture(
+                ChatResult.failure(ChatResult.Status.INVALID_USERNAME, status));
+        }
+        if (!newUser.checkPasswordComplexity())
+        {
+            return CompletableFuture.completedFuture(
+                ChatResult.failure(ChatResult.Status.INVALID_PASSWORD, status));
+        }
+        if (!newUser.checkCellPhoneNumber())
+        {
+            return CompletableFuture.completedFuture(
+                ChatResult.failure(ChatResult.Status.INVALID_CELL, status));
+        }
+
+        // Refuse obvious duplicates before paying for a hash
+        ChatResult.Status duplicate = findDuplicate(newUser);
+        if (duplicate != null)
+        {
+            return CompletableFuture.completedFuture(duplicateFailure(duplicate, username));
+        }
+
+        CompletableFuture<String> hashed;
+        try
+        {
+            hashed = authentication.hashAsync(password);
+        }
+        catch (RejectedExecutionException e)
+        {
+            return CompletableFuture.completedFuture(
+                ChatResult.failure(ChatResult.Status.AUTH_BUSY,
+                                   "Too many registrations in progress, please try again"));
+        }
+
+        return hashed.<ChatResult<Login>>handle((hash, failure) ->
+        {
+            if (failure != null)
+            {
+                return ChatResult.failure(ChatResult.Status.USER_NOT_SAVED,
+                                          "Failed to hash password: " + failure.getMessage());
+            }
+            newUser.applyPasswordHash(hash);
+            try
+            {
+                ChatResult.Status added = addAccount(newUser);
+                if (added != ChatResult.Status.OK)
+                {
+                    return duplicateFailure(added, username);
+                }
+            }
+            catch (UncheckedIOException e)
+            {
+                return ChatResult.failure(ChatResult.Status.USER_NOT_SAVED,
+                                          "Failed to save account: " + e.getCause().getMessage());
+            }
+            return ChatResult.ok(status, newUser);
+        });
+    }
+
+    private static ChatResult<Login> duplicateFailure(ChatResult.Status duplicate, String username)
+    {
+        if (duplicate == ChatResult.Status.DUPLICATE_USER)
+        {
+            return ChatResult.failure(ChatResult.Status.DUPLICATE_USER,
+                                      "Cell number is already registered");
+        }
+        return ChatResult.failure(ChatResult.Status.DUPLICATE_USERNAME,
+                                  "Username " + username + " is already taken");
+    }
+
+    /**
+     * Changes a user's username
+     * @param phoneNumber Account's cell number
+     * @param newUsername New username, validated like a registration
+     * @return Result without a value
+     */
+    public ChatResult<Void> renameUser(String phoneNumber, String newUsername)
+    {
+        Login user = getUser(phoneNumber);
+        if (user == null)
+        {
+            return ChatResult.failure(ChatResult.Status.UNKNOWN_USER, phoneNumber + " is not registered");
+        }
+        if (!Validators.isValidUsername(newUsername))
+        {
+            return ChatResult.failure(ChatResult.Status.INVALID_USERNAME,
+                                      "Username must contain underscore and be ≤5 characters");
+        }
+        try
+        {
+            user.setUsername(newUsername);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return ChatResult.failure(ChatResult.Status.DUPLICATE_USERNAME, e.getMessage());
+        }
+        return ChatResult.ok("Username changed to " + newUsername, null);
+    }
+
+    /**
+     * Deletes a user's account; their messages stay in the conversations
+     * @param phoneNumber Account's cell number
+     * @return Result without a value
+     */
+    public ChatResult<Void> removeUser(String phoneNumber)
+    {
+        Login user = getUser(phoneNumber);
+        if (user == null)
+        {
+            return ChatResult.failure(ChatResult.Status.UNKNOWN_USER, phoneNumber + " is not registered");
+        }
+
+        user.setUsernameListener(null);
+        if (registry != null)
+        {
+            registry.remove(phoneNumber);
+        }
+        else
+        {
+            byUsername.remove(user.getUsername(), user);
+        }
+        users.remove(phoneNumber, user);
+        authentication.invalidate(phoneNumber);
+        user.setLoggedIn(false);
+        return ChatResult.ok("Removed " + phoneNumber, null);
+    }
+
+    /**
+     * Looks up a registered user by username
+     * @param username Username
+     * @return Account, or null if no account has the username
+     */
+    public Login findUserByUsername(String username)
+    {
+        if (registry == null)
+        {
+            return byUsername.get(username);
+        }
+        String phoneNumber = registry.findPhoneByUsername(username);
+        return phoneNumber != null ? getUser(phoneNumber) : null;
+    }
+
+    /**
+     * Authenticates user credentials, waiting for the verification
+     * @param username Attempted username
+     * @param password Attempted password
+     * @return Authenticated account, INVALID_CREDENTIALS, or AUTH_BUSY if too many logins are queued
+     */
+    public ChatResult<Login> login(String username, String password)
+    {
+        return loginAsync(username, password).join();
+    }
+
+    /**
+     * Authenticates user credentials without blocking the caller
+     * The account is found through the username index, and the password
+     * is verified on the AuthenticationEngine's pool unless the same
+     * credentials were verified recently
+     * @param username Attempted username
+     * @param password Attempted password
+     * @return Future completed with the authenticated account or the failure; never completed exceptionally
+     */
+    public CompletableFuture<ChatResult<Login>> loginAsync(String username, String password)
+    {
+        Login candidate = findUserByUsername(username);
+        CompletableFuture<Login> verified;
+        try
+        {
+            verified = candidate == null
+                ? authentication.reject(password).thenApply(valid -> null)
+                : verify(candidate, password);
+        }
+        catch (RejectedExecutionException e)
+        {
+            verified = CompletableFuture.failedFuture(e);
+        }
+
+        return verified.<ChatResult<Login>>handle((user, failure) ->
+        {
+            if (failure != null)
+            {
+                Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                if (cause instanceof RejectedExecutionException)
+                {
+                    return ChatResult.failure(ChatResult.Status.AUTH_BUSY,
+                                              "Too many logins in progress, please try again");
+                }
+                return ChatResult.failure(ChatResult.Status.INVALID_CREDENTIALS,
+                                          "Invalid username or password");
+            }
+            if (user == null)
+            {
+                return ChatResult.failure(ChatResult.Status.INVALID_CREDENTIALS,
+                                          "Invalid username or password");
+            }
+            user.setLoggedIn(true);
+            return ChatResult.ok(user.getLoginStatus(), user);
+        }).thenApply(result ->
+        {
+            metrics.loginCompleted(result.getStatus());
+            return result;
+        });
+    }
+
+    /**
+     * Verifies a password and saves a hash upgraded to the current cost
+     * @return Future completed with the account, or null if the password is wrong
+     */
+    private CompletableFuture<Login> verify(Login user, String password)
+    {
+        String storedHash = user.getPasswordHash();
+        return authentication.verify(user, password).thenApply(valid ->
+        {
+            if (!valid)
+            {
+                return null;
+            }
+            if (registry != null && !Objects.equals(storedHash, user.getPasswordHash()))
+            {
+                registry.update(user);
+            }
+            return user;
+        });
+    }
+
+    /**
+     * Validates, stores and persists a message
+     * @param senderPhoneNumber Registered sender
+     * @param recipientPhoneNumber Registered recipient
+     * @param messageText Message content
+     * @return Sent message (NOT_PERSISTED if it could not be queued for disk), or the validation failure
+     */
+    public ChatResult<Message> send(String senderPhoneNumber, String recipientPhoneNumber,
+                                    String messageText)
+    {
+        ChatResult<Message> sent = deliver(senderPhoneNumber, recipientPhoneNumber, messageText,
+                                           System.nanoTime());
+        metrics.sendCompleted(sent.getStatus());
+        return sent;
+    }
+
+    /**
+     * Validates a direct or group message and hands it to storeAndPersist
+     * @param started When the send began, for the VALIDATE stage
+     */
+    private ChatResult<Message> deliver(String senderPhoneNumber, String recipientPhoneNumber,
+                                        String messageText, long started)
+    {
+        if (messageText == null || messageText.isEmpty())
+        {
+            return ChatResult.failure(ChatResult.Status.EMPTY_MESSAGE, "Message cannot be empty");
+        }
+        if (!isRegistered(senderPhoneNumber))
+        {
+            return ChatResult.failure(ChatResult.Status.UNKNOWN_SENDER, "Sender not registered");
+        }
+        if (ConversationKey.isGroupAddress(recipientPhoneNumber))
+        {
+            return sendToGroup(senderPhoneNumber, recipientPhoneNumber, messageText, started);
+        }
+
+        Message message = new Message(messageText, recipientPhoneNumber, senderPhoneNumber);
+
+        if (!message.checkMessageLength())
+        {
+            return ChatResult.failure(ChatResult.Status.MESSAGE_TOO_LONG,
+                                      "Message exceeds 250 character limit");
+        }
+        if (!message.checkRecipientCell())
+        {
+            return ChatResult.failure(ChatResult.Status.INVALID_RECIPIENT,
+                                      "Invalid recipient number format");
+        }
+        if (!isRegistered(recipientPhoneNumber))
+        {
+            return ChatResult.failure(ChatResult.Status.UNKNOWN_RECIPIENT, "Recipient not registered");
+        }
+
+        String result = message.processMessage(1); // Send action
+
+        // One copy serves both parties' inboxes
+        return storeAndPersist(message, result, started);
+    }
+
+    /**
+     * Stores a group message once and delivers it to every member
+     */
+    private ChatResult<Message> sendToGroup(String senderPhoneNumber, String groupAddress,
+                                            String messageText, long started)
+    {
+        if (!conversations.hasGroup(groupAddress))
+        {
+            return ChatResult.failure(ChatResult.Status.UNKNOWN_GROUP,
+                                      "Group " + groupAddress + " does not exist");
+        }
+        if (!conversations.isGroupMember(groupAddress, senderPhoneNumber))
+        {
+            return ChatResult.failure(ChatResult.Status.NOT_A_MEMBER,
+                                      "Sender is not a member of " + groupAddress);
+        }
+
+        Message message = new Message(messageText, groupAddress, senderPhoneNumber);
+        if (!message.checkMessageLength())
+        {
+            return ChatResult.failure(ChatResult.Status.MESSAGE_TOO_LONG,
+                                      "Message exceeds 250 character limit");
+        }
+
+        String result = message.processMessage(1); // Send action
+
+        // One copy and one log record, whatever the group size
+        return storeAndPersist(message, result, started);
+    }
+
+    /**
+     * Stores and indexes an accepted message and queues it for the log,
+     * recording how long validation and each of these stages took
+     */
+    private ChatResult<Message> storeAndPersist(Message message, String result, long started)
+    {
+        long validated = System.nanoTime();
+        metrics.record(ChatMetrics.Stage.VALIDATE, validated - started);
+
+        conversations.store(message);
+        searchIndex.index(message);
+        long stored = System.nanoTime();
+        metrics.record(ChatMetrics.Stage.STORE, stored - validated);
+
+        ChatResult<Message> persisted = persist(message, result);
+        metrics.record(ChatMetrics.Stage.PERSIST, System.nanoTime() - stored);
+        return persisted;
+    }
+
+    /**
+     * Queues a stored message for the log
+     */
+    private ChatResult<Message> persist(Message message, String result)
+    {
+        if (messageWriter == null)
+        {
+            return ChatResult.of(ChatResult.Status.NOT_PERSISTED,
+                                 "Failed to save message: message log is not open", message);
+        }
+        try
+        {
+            messageWriter.submit(message.toJsonString());
+        }
+        catch (IllegalStateException e)
+        {
+            return ChatResult.of(ChatResult.Status.NOT_PERSISTED,
+                                 "Failed to save message: " + e.getMessage(), message);
+        }
+        return ChatResult.ok(result, message);
+    }
+
+    /**
+     * Appends receipts to the log
+     * Receipts are best effort: if the writer is closed they are dropped
+     * and the cursors only live until the next restart
+     */
+    private void persistReceipts(List<Receipt> receipts)
+    {
+        if (messageWriter == null)
+        {
+            return;
+        }
+        try
+        {
+            for (Receipt receipt : receipts)
+            {
+                messageWriter.submit(receipt.toJsonString());
+            }
+        }
+        catch (IllegalStateException e)
+        {
+            // Writer closed during shutdown
+        }
+    }
+
+    /**
+     * Creates a group; its address is GROUP_PREFIX followed by the name
+     * @param creatorPhoneNumber Registered creator, who becomes the first member
+     * @param name Group name (letters, digits, '_' and '-')
+     * @param memberPhoneNumbers Registered users to add
+     * @return Group address, or the validation failure
+     */
+    public ChatResult<String> createGroup(String creatorPhoneNumber, String name,
+                                          Collection<String> memberPhoneNumbers)
+    {
+        if (!isRegistered(creatorPhoneNumber))
+        {
+            return ChatResult.failure(ChatResult.Status.UNKNOWN_SENDER, "Creator not registered");
+        }
+        if (!Validators.isValidGroupName(name))
+        {
+            return ChatResult.failure(ChatResult.Status.INVALID_GROUP,
+                                      "Group names are 1 to " + Validators.MAX_GROUP_NAME_LENGTH
+                                      + " letters, digits, '_' or '-'");
+        }
+
+        Set<String> members = new LinkedHashSet<>();
+        members.add(creatorPhoneNumber);
+        for (String member : memberPhoneNumbers)
+        {
+            if (!isRegistered(member))
+            {
+                return ChatResult.failure(ChatResult.Status.UNKNOWN_RECIPIENT,
+                                          member + " is not registered");
+            }
+            members.add(member);
+        }
+
+        String address = ConversationKey.GROUP_PREFIX + name;
+        List<GroupChange> joins = conversations.createGroup(address, members);
+        if (joins == null)
+        {
+            return ChatResult.failure(ChatResult.Status.DUPLICATE_GROUP,
+                                      "Group " + address + " already exists");
+        }
+        return persistGroupChanges(joins,
+            "Created " + address + " with " + members.size() + " members", address);
+    }
+
+    /**
+     * Adds a user to a group; only members may add others
+     * @param requesterPhoneNumber Active member making the change
+     * @param groupAddress Group address
+     * @param memberPhoneNumber Registered user to add
+     * @return Result without a value
+     */
+    public ChatResult<Void> addGroupMember(String requesterPhoneNumber, String groupAddress,
+                                           String memberPhoneNumber)
+    {
+        if (!conversations.hasGroup(groupAddress))
+        {
+            return ChatResult.failure(ChatResult.Status.UNKNOWN_GROUP,
+                                      "Group " + groupAddress + " does not exist");
+        }
+        if (!conversations.isGroupMember(groupAddress, requesterPhoneNumber))
+        {
+            return ChatResult.failure(ChatResult.Status.NOT_A_MEMBER,
+                                      "Only members can add to " + groupAddress);
+        }
+        if (!isRegistered(memberPhoneNumber))
+        {
+            return ChatResult.failure(ChatResult.Status.UNKNOWN_RECIPIENT,
+                                      memberPhoneNumber + " is not registered");
+        }
+        GroupChange join = conversations.joinGroup(groupAddress, memberPhoneNumber);
+        String result = memberPhoneNumber + " is a member of " + groupAddress;
+        if (join == null)
+        {
+            // Already a member
+            return ChatResult.ok(result, null);
+        }
+        return persistGroupChanges(Collections.singletonList(join), result, null);
+    }
+
+    /**
+     * Removes a member from a group; messages already delivered stay readable
+     * @param memberPhoneNumber Member leaving
+     * @param groupAddress Group address
+     * @return Result without a value
+     */
+    public ChatResult<Void> leaveGroup(String memberPhoneNumber, String groupAddress)
+    {
+        if (!conversations.hasGroup(groupAddress))
+        {
+            return ChatResult.failure(ChatResult.Status.UNKNOWN_GROUP,
+                                      "Group " + groupAddress + " does not exist");
+        }
+        GroupChange leave = conversations.leaveGroup(groupAddress, memberPhoneNumber);
+        if (leave == null)
+        {
+            return ChatResult.failure(ChatResult.Status.NOT_A_MEMBER, "Not a member of " + groupAddress);
+        }
+        return persistGroupChanges(Collections.singletonList(leave), "Left " + groupAddress, null);
+    }
+
+    /**
+     * Queues membership changes for the log, so groups survive a restart
+     * Like a message, a change that cannot be queued still applies in
+     * memory and is reported as NOT_PERSISTED
+     */
+    private <T> ChatResult<T> persistGroupChanges(List<GroupChange> changes, String result, T value)
+    {
+        if (messageWriter == null)
+        {
+            return ChatResult.of(ChatResult.Status.NOT_PERSISTED,
+                                 "Failed to save group change: message log is not open", value);
+        }
+        try
+        {
+            for (GroupChange change : changes)
+            {
+                messageWriter.submit(change.toJsonString());
+            }
+        }
+        catch (IllegalStateException e)
+        {
+            return ChatResult.of(ChatResult.Status.NOT_PERSISTED,
+                                 "Failed to save group change: " + e.getMessage(), value);
+        }
+        return ChatResult.ok(result, value);
+    }
+
+    /**
+     * Lists who a user has conversations with, for choosing a recipient
+     * Unlike getUsers, this never reads the registry
+     * @param phoneNumber User
+     * @return Phone numbers and group addresses
+     */
+    public List<String> getContacts(String phoneNumber)
+    {
+        return conversations.getPeers(phoneNumber);
+    }
+
+    /**
+     * Lists the active members of a group
+     * @param groupAddress Group address
+     * @return Phone numbers (empty if the group does not exist)
+     */
+    public List<String> getGroupMembers(String groupAddress)
+    {
+        return conversations.getGroupMembers(groupAddress);
+    }
+
+    /**
+     * Retrieves one page of a user's inbox
+     * The fetched messages from others become RECEIVED
+     * @param phoneNumber Inbox owner
+     * @param beforeCursor Exclusive upper bound on message IDs (MessagePage.LATEST for the newest page)
+     * @param limit Maximum number of messages
+     * @return Page of messages, oldest first
+     */
+    public MessagePage getInbox(String phoneNumber, long beforeCursor, int limit)
+    {
+        MessagePage page = conversations.getInbox(phoneNumber, beforeCursor, limit);
+        persistReceipts(conversations.markReceived(phoneNumber, page.getMessages()));
+        return page;
+    }
+
+    /**
+     * Retrieves one page of the thread between two users, or of a group
+     * The fetched messages from others become RECEIVED
+     * @param phoneNumber Viewer
+     * @param otherPhoneNumber The other participant, or a group address
+     * @param beforeCursor Exclusive upper bound on message IDs (MessagePage.LATEST for the newest page)
+     * @param limit Maximum number of messages
+     * @return Page of messages, oldest first
+     */
+    public MessagePage getThread(String phoneNumber, String otherPhoneNumber,
+                                 long beforeCursor, int limit)
+    {
+        MessagePage page = conversations.getThread(phoneNumber, otherPhoneNumber, beforeCursor, limit);
+        persistReceipts(conversations.markReceived(phoneNumber, page.getMessages()));
+        return page;
+    }
+
+    /**
+     * Searches the messages a user can see
+     * @param phoneNumber Viewer
+     * @param queryText Words, prefixes ending in '*' and quoted phrases (see SearchQuery)
+     * @param beforeCursor Exclusive upper bound on message IDs (MessagePage.LATEST for the newest page)
+     * @param limit Maximum number of messages
+     * @return Page of matching messages, oldest first
+     */
+    public MessagePage search(String phoneNumber, String queryText, long beforeCursor, int limit)
+    {
+        SearchQuery query = SearchQuery.parse(queryText);
+        if (query.isEmpty() || limit <= 0)
+        {
+            return MessagePage.empty();
+        }
+
+        // One extra hit tells whether an older page exists
+        List<SearchIndex.Hit> hits = searchIndex.search(query, phoneNumber, beforeCursor, limit + 1,
+                                                        conversations::canSee);
+        boolean hasMore = hits.size() > limit;
+        if (hasMore)
+        {
+            hits = hits.subList(0, limit);
+        }
+        return new MessagePage(conversations.findMessages(hits), hasMore);
+    }
+
+    /**
+     * Advances a reader's cursor in one conversation
+     * Messages up to the cursor become READ; a moved cursor is logged as
+     * one receipt however many messages it passes
+     * @param reader Phone number of the reader
+     * @param other Phone number of the other participant, or a group address
+     * @param upToId ID of the newest message read
+     */
+    public void markRead(String reader, String other, long upToId)
+    {
+        Receipt receipt = conversations.markRead(reader, other, upToId);
+        if (receipt != null)
+        {
+            persistReceipts(Collections.singletonList(receipt));
+        }
+    }
+
+    /**
+     * Advances a reader's cursor in all of their conversations
+     * @param reader Phone number of the reader
+     * @param upToId ID of the newest message read
+     */
+    public void markAllRead(String reader, long upToId)
+    {
+        persistReceipts(conversations.markAllRead(reader, upToId));
+    }
+
+    /**
+     * Counts unread messages from one participant or group
+     * @param reader Phone number of the reader
+     * @param other Phone number of the other participant, or a group address
+     * @return Unread message count
+     */
+    public int getUnreadCount(String reader, String other)
+    {
+        return conversations.getUnreadCount(reader, other);
+    }
+
+    /**
+     * Looks up a registered user
+     * @param phoneNumber Cell number
+     * @return Account, or null if not registered
+     */
+    public Login getUser(String phoneNumber)
+    {
+        Login user = users.get(phoneNumber);
+        if (user != null || registry == null)
+        {
+            return user;
+        }
+
+        Login loaded = registry.findByPhone(phoneNumber);
+        if (loaded == null)
+        {
+            return null;
+        }
+        loaded.setUsernameListener(this::usernameChanging);
+        Login cached = users.putIfAbsent(phoneNumber, loaded);
+        if (cached != null)
+        {
+            return cached;
+        }
+        conversations.addParticipant(phoneNumber);
+        return loaded;
+    }
+
+    /**
+     * Checks whether a cell number is registered
+     * @param phoneNumber Cell number
+     * @return true if registered
+     */
+    public boolean isRegistered(String phoneNumber)
+    {
+        return users.containsKey(phoneNumber) || (registry != null && registry.contains(phoneNumber));
+    }
+
+    /**
+     * Gets all registered users
+     * With a registry this reads every record, so avoid it on large registries
+     * @return Read-only accounts (a live view when kept in memory only)
+     */
+    public Collection<Login> getUsers()
+    {
+        if (registry == null)
+        {
+            return Collections.unmodifiableCollection(users.values());
+        }
+        List<Login> all = new ArrayList<>(registry.size());
+        registry.forEach(loaded ->
+        {
+            Login cached = users.get(loaded.getCellPhoneNumber());
+            if (cached == null)
+            {
+                loaded.setUsernameListener(this::usernameChanging);
+            }
+            all.add(cached != null ? cached : loaded);
+        });
+        return Collections.unmodifiableList(all);
+    }
+
+    public int getUserCount()
+    {
+        return registry != null ? registry.size() : users.size();
+    }
+
+    /**
+     * Gets the persistent user registry
+     * @return Registry, or null if accounts are kept in memory only
+     */
+    public UserRegistry getUserRegistry()
+    {
+        return registry;
+    }
+
+    public ChatMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    public ConversationStore getConversations()
+    {
+        return conversations;
+    }
+
+    public SearchIndex getSearchIndex()
+    {
+        return searchIndex;
+    }
+
+    public AuthenticationEngine getAuthentication()
+    {
+        return authentication;
+    }
+
+    /**
+     * Gets the segmented message log for reads by sequence number
+     * @return Log instance, or null if messages are kept in memory only
+     */
+    public SegmentedLog getMessageLog()
+    {
+        return messageLog;
+    }
+
+    /**
+     * Gets the background message writer
+     * @return Writer instance, or null if messages are kept in memory only
+     */
+    public GroupCommitWriter getMessageWriter()
+    {
+        return messageWriter;
+    }
+
+    /**
+     * Gets the background log compactor
+     * @return Compactor (started by open()), or null if messages are kept in memory only
+     */
+    public LogCompactor getCompactor()
+    {
+        return compactor;
+    }
+
+    /**
+     * Drains pending messages to disk, closes the log and snapshots the search index
+     */
+    @Override
+    public void close()
+    {
+        metrics.close();
+        authentication.close();
+        if (compactor != null)
+        {
+            compactor.close();
+        }
+        if (messageWriter != null)
+        {
+            // The writer owns the log and closes it after draining
+            messageWriter.close();
+        }
+        else if (messageLog != null)
+        {
+            try
+            {
+                messageLog.close();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Failed to close message log: " + e.getMessage());
+            }
+        }
+        if (messageLog != null)
+        {
+            try
+            {
+                searchIndex.writeSnapshot(messageLog.getDirectory().resolve(SearchIndex.SNAPSHOT_FILE));
+            }
+            catch (IOException e)
+            {
+                System.err.println("Failed to save search index: " + e.getMessage());
+            }
+        }
+        if (registry != null)
+        {
+            try
+            {
+                registry.close();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Failed to close user registry: " + e.getMessage());
+            }
+        }
+    }
+}
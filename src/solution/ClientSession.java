@@ -0,0 +1,99 @@
+package solution;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * State of one connected client
+ *
+ * A session is only ever touched by the thread serving its connection,
+ * so it needs no locking. A request that finishes in the background
+ * (LOGIN and REGISTER hash passwords on the AuthenticationEngine's pool)
+ * parks the session; the transport reads no further requests until it
+ * has taken the pending reply and run it on the session's thread.
+ */
+public final class ClientSession
+{
+    private Login user;
+    private boolean closing;
+    private CompletableFuture<Runnable> pendingReply;
+
+    /**
+     * Gets the authenticated user
+     * @return Account, or null before a successful login
+     */
+    public Login getUser()
+    {
+        return user;
+    }
+
+    public void setUser(Login user)
+    {
+        this.user = user;
+    }
+
+    public boolean isLoggedIn()
+    {
+        return user != null;
+    }
+
+    /**
+     * Gets the cell number of the authenticated user
+     * @return Phone number, or null before login
+     */
+    public String getPhoneNumber()
+    {
+        return user == null ? null : user.getCellPhoneNumber();
+    }
+
+    /**
+     * Asks the transport to close the connection once pending replies are written
+     */
+    public void requestClose()
+    {
+        this.closing = true;
+    }
+
+    public boolean isClosing()
+    {
+        return closing;
+    }
+
+    /**
+     * Parks the session until a reply computed in the background is ready
+     * @param reply Future completed with the action that applies the result
+     *        to the session and writes the reply; run it on the session's thread
+     */
+    void park(CompletableFuture<Runnable> reply)
+    {
+        this.pendingReply = reply;
+    }
+
+    /**
+     * Gets the reply the session is parked on, leaving it parked
+     * @return Pending reply, or null if the session is not parked
+     */
+    public CompletableFuture<Runnable> getPendingReply()
+    {
+        return pendingReply;
+    }
+
+    /**
+     * Checks whether a reply is still owed to the client
+     * @return true from park() until takePendingReply()
+     */
+    public boolean isParked()
+    {
+        return pendingReply != null;
+    }
+
+    /**
+     * Unparks the session
+     * @return Reply passed to park(), or null if the session was not parked
+     */
+    public CompletableFuture<Runnable> takePendingReply()
+    {
+        CompletableFuture<Runnable> reply = pendingReply;
+        pendingReply = null;
+        return reply;
+    }
+}
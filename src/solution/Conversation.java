@@ -0,0 +1,352 @@
+package solution;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One conversation: a single copy of its newest messages plus received
+ * and read cursors for each participant
+ *
+ * The cursors are the only record of receipts: a message's RECEIVED or
+ * READ status is derived from where its recipients' cursors stand, so
+ * acknowledging any number of messages moves one cursor.
+ *
+ * A group conversation keeps one GroupMember per member instead of the
+ * two pair cursors. Members who leave keep their cursors, so their
+ * history stays readable, but drop out of the fan-out array.
+ *
+ * Not thread-safe: ConversationStore guards each instance with a stripe
+ * lock. The exceptions are getMember() and getActiveMembers(), which
+ * senders and readers use without the lock; membership itself only
+ * changes under it.
+ */
+final class Conversation
+{
+    private static final GroupMember[] NO_MEMBERS = new GroupMember[0];
+
+    private final ConversationKey key;
+    private final MessageRing messages;
+    private final Map<String, GroupMember> members;
+    private volatile GroupMember[] activeMembers;
+    private long firstReceivedUpTo;
+    private long secondReceivedUpTo;
+    private long firstReadUpTo;
+    private long secondReadUpTo;
+
+    /**
+     * Creates an empty conversation
+     * @param key Participants
+     * @param hotWindow Messages kept in memory
+     */
+    Conversation(ConversationKey key, int hotWindow)
+    {
+        this.key = key;
+        this.messages = new MessageRing(hotWindow);
+        this.members = key.isGroup() ? new ConcurrentHashMap<>() : null;
+        this.activeMembers = NO_MEMBERS;
+        this.firstReceivedUpTo = Long.MIN_VALUE;
+        this.secondReceivedUpTo = Long.MIN_VALUE;
+        this.firstReadUpTo = Long.MIN_VALUE;
+        this.secondReadUpTo = Long.MIN_VALUE;
+    }
+
+    boolean isGroup()
+    {
+        return members != null;
+    }
+
+    /**
+     * Adds a member whose history starts with the next message
+     * A member who left and rejoins starts over
+     * @param participant Phone number
+     * @return false if already an active member
+     */
+    boolean join(String participant)
+    {
+        return join(participant, messages.newestId());
+    }
+
+    /**
+     * Adds a member whose history starts after a given message
+     * Used when replaying a join from the log
+     * @param participant Phone number
+     * @param joinedAfter ID of the newest group message when they joined
+     * @return false if already an active member
+     */
+    boolean join(String participant, long joinedAfter)
+    {
+        if (isActiveMember(participant))
+        {
+            return false;
+        }
+        GroupMember member = new GroupMember(participant, joinedAfter);
+        members.put(participant, member);
+
+        GroupMember[] current = activeMembers;
+        GroupMember[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = member;
+        activeMembers = grown;
+        return true;
+    }
+
+    /**
+     * Stops deliveries to a member; what was delivered stays readable
+     * @param participant Phone number
+     * @return false if not an active member
+     */
+    boolean leave(String participant)
+    {
+        GroupMember[] current = activeMembers;
+        for (int i = 0; i < current.length; i++)
+        {
+            if (current[i].getPhoneNumber().equals(participant))
+            {
+                GroupMember[] shrunk = new GroupMember[current.length - 1];
+                System.arraycopy(current, 0, shrunk, 0, i);
+                System.arraycopy(current, i + 1, shrunk, i, shrunk.length - i);
+                activeMembers = shrunk;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets a member's cursors, including members who have left
+     * @param participant Phone number
+     * @return Member, or null if never a member (always null for pairs)
+     */
+    GroupMember getMember(String participant)
+    {
+        return members == null ? null : members.get(participant);
+    }
+
+    boolean isActiveMember(String participant)
+    {
+        for (GroupMember member : activeMembers)
+        {
+            if (member.getPhoneNumber().equals(participant))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the members that receive new messages; safe without the stripe lock
+     * @return Copy-on-write snapshot, not to be modified
+     */
+    GroupMember[] getActiveMembers()
+    {
+        return activeMembers;
+    }
+
+    ConversationKey getKey()
+    {
+        return key;
+    }
+
+    MessageRing getMessages()
+    {
+        return messages;
+    }
+
+    /**
+     * Checks whether messages have been dropped from the hot window
+     * @return true if older messages are only in the log
+     */
+    boolean isSpilled()
+    {
+        return messages.evictedCount() > 0;
+    }
+
+    /**
+     * Gets a participant's read cursor
+     * @param participant Phone number
+     * @return ID of the newest message the participant has read
+     */
+    long getReadCursor(String participant)
+    {
+        if (members != null)
+        {
+            GroupMember member = members.get(participant);
+            return member == null ? Long.MIN_VALUE : member.getReadUpTo();
+        }
+        return key.getFirst().equals(participant) ? firstReadUpTo : secondReadUpTo;
+    }
+
+    /**
+     * Gets a participant's received cursor
+     * @param participant Phone number
+     * @return ID of the newest message the participant's client has fetched
+     */
+    long getReceivedCursor(String participant)
+    {
+        if (members != null)
+        {
+            GroupMember member = members.get(participant);
+            return member == null ? Long.MIN_VALUE : member.getReceivedUpTo();
+        }
+        return key.getFirst().equals(participant) ? firstReceivedUpTo : secondReceivedUpTo;
+    }
+
+    /**
+     * Advances a participant's received or read cursor and the status of
+     * the hot messages it passes; cursors never move backwards
+     * Pair cursors stop at the newest message, group cursors at what has
+     * been delivered to the member. Reading a message also receives it.
+     * @param participant Phone number
+     * @param status RECEIVED or READ
+     * @param upToId ID of the newest message acknowledged
+     * @return New cursor, or Long.MIN_VALUE if it did not move
+     */
+    long acknowledge(String participant, MessageStatus status, long upToId)
+    {
+        boolean read = status == MessageStatus.READ;
+        long from;
+        long to;
+        if (members != null)
+        {
+            GroupMember member = members.get(participant);
+            if (member == null)
+            {
+                return Long.MIN_VALUE;
+            }
+            from = read ? member.getReadUpTo() : member.getReceivedUpTo();
+            if (!(read ? member.markRead(upToId) : member.markReceived(upToId)))
+            {
+                return Long.MIN_VALUE;
+            }
+            to = read ? member.getReadUpTo() : member.getReceivedUpTo();
+        }
+        else
+        {
+            boolean first = key.getFirst().equals(participant);
+            boolean second = key.getSecond().equals(participant);
+            if (!first && !second)
+            {
+                return Long.MIN_VALUE;
+            }
+            from = first
+                ? (read ? firstReadUpTo : firstReceivedUpTo)
+                : (read ? secondReadUpTo : secondReceivedUpTo);
+            to = Math.min(upToId, messages.newestId());
+            if (to <= from)
+            {
+                return Long.MIN_VALUE;
+            }
+            if (first)
+            {
+                firstReceivedUpTo = Math.max(firstReceivedUpTo, to);
+                firstReadUpTo = read ? to : firstReadUpTo;
+            }
+            if (second)
+            {
+                secondReceivedUpTo = Math.max(secondReceivedUpTo, to);
+                secondReadUpTo = read ? to : secondReadUpTo;
+            }
+        }
+
+        for (int i = messages.size() - 1; i >= 0; i--)
+        {
+            Message message = messages.get(i);
+            if (message.getId() <= from)
+            {
+                break;
+            }
+            if (message.getId() <= to)
+            {
+                applyStatus(message);
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Brings a message's status in line with its recipients' cursors
+     * Used for the hot messages a cursor passes and for messages read
+     * back from the log, which carry the status they were written with
+     * @param message Message of this conversation
+     */
+    void applyStatus(Message message)
+    {
+        long id = message.getId();
+        long received;
+        long read;
+        if (members == null)
+        {
+            boolean first = key.getFirst().equals(message.getRecipientPhoneNumber());
+            received = first ? firstReceivedUpTo : secondReceivedUpTo;
+            read = first ? firstReadUpTo : secondReadUpTo;
+        }
+        else
+        {
+            // A group message is received (or read) once every member it
+            // was delivered to has received (or read) it
+            received = Long.MAX_VALUE;
+            read = Long.MAX_VALUE;
+            boolean anyRecipient = false;
+            for (GroupMember member : activeMembers)
+            {
+                if (member.getJoinedAfter() < id
+                    && !member.getPhoneNumber().equals(message.getSenderPhoneNumber()))
+                {
+                    received = Math.min(received, member.getReceivedUpTo());
+                    read = Math.min(read, member.getReadUpTo());
+                    anyRecipient = true;
+                }
+            }
+            if (!anyRecipient)
+            {
+                return;
+            }
+        }
+
+        if (id <= read)
+        {
+            message.advanceStatus(MessageStatus.READ);
+        }
+        else if (id <= received)
+        {
+            message.advanceStatus(MessageStatus.RECEIVED);
+        }
+    }
+
+    /**
+     * Counts hot messages from others newer than the reader's read cursor
+     * In a group only messages delivered to the reader count
+     * @param reader Phone number of the reader
+     * @return Unread message count (capped at the hot window)
+     */
+    int countUnread(String reader)
+    {
+        long cursor = getReadCursor(reader);
+        long delivered = Long.MAX_VALUE;
+        if (members != null)
+        {
+            GroupMember member = members.get(reader);
+            if (member == null)
+            {
+                return 0;
+            }
+            delivered = member.getDeliveredUpTo();
+        }
+
+        int unread = 0;
+        for (int i = messages.size() - 1; i >= 0; i--)
+        {
+            Message message = messages.get(i);
+            if (message.getId() <= cursor)
+            {
+                break;
+            }
+            if (message.getId() <= delivered && !reader.equals(message.getSenderPhoneNumber()))
+            {
+                unread++;
+            }
+        }
+        return unread;
+    }
+}
@@ -0,0 +1,147 @@
+package solution;
+
+/**
+ * Identifies the conversation between two participants, or a group
+ *
+ * The pair is normalised so that (a, b) and (b, a) name the same
+ * conversation. A user messaging themselves has a key whose two
+ * participants are equal. A group is named by its address, which starts
+ * with GROUP_PREFIX and is used as the recipient of its messages; both
+ * halves of a group key hold that address.
+ */
+public final class ConversationKey
+{
+    /** First character of a group address */
+    public static final char GROUP_PREFIX = '#';
+
+    private final String first;
+    private final String second;
+    private final boolean group;
+    private final int hash;
+
+    private ConversationKey(String first, String second, boolean group)
+    {
+        this.first = first;
+        this.second = second;
+        this.group = group;
+        this.hash = 31 * first.hashCode() + second.hashCode() + (group ? 1 : 0);
+    }
+
+    /**
+     * Gets the key for two participants in either order
+     * @param participantA Phone number of one participant
+     * @param participantB Phone number of the other participant
+     * @return Normalised key
+     */
+    public static ConversationKey of(String participantA, String participantB)
+    {
+        if (participantA == null || participantB == null)
+        {
+            throw new IllegalArgumentException("Conversation participants must not be null");
+        }
+        return participantA.compareTo(participantB) <= 0
+            ? new ConversationKey(participantA, participantB, false)
+            : new ConversationKey(participantB, participantA, false);
+    }
+
+    /**
+     * Gets the key of a group
+     * @param address Group address, starting with GROUP_PREFIX
+     * @return Group key
+     */
+    public static ConversationKey group(String address)
+    {
+        if (!isGroupAddress(address))
+        {
+            throw new IllegalArgumentException("Not a group address: " + address);
+        }
+        return new ConversationKey(address, address, true);
+    }
+
+    /**
+     * Gets the key of the conversation a message belongs to
+     * @param message Message
+     * @return Group key if the message was sent to a group, otherwise the sender/recipient pair
+     */
+    public static ConversationKey of(Message message)
+    {
+        String recipient = message.getRecipientPhoneNumber();
+        return isGroupAddress(recipient)
+            ? group(recipient)
+            : of(message.getSenderPhoneNumber(), recipient);
+    }
+
+    /**
+     * Checks whether a recipient names a group rather than a user
+     * @param recipient Recipient as stored in a message
+     * @return true if it starts with GROUP_PREFIX
+     */
+    public static boolean isGroupAddress(String recipient)
+    {
+        return recipient != null && recipient.length() > 1 && recipient.charAt(0) == GROUP_PREFIX;
+    }
+
+    public boolean isGroup()
+    {
+        return group;
+    }
+
+    public String getFirst()
+    {
+        return first;
+    }
+
+    public String getSecond()
+    {
+        return second;
+    }
+
+    /**
+     * Checks whether a user takes part in a two-party conversation
+     * Group membership is held by the group's conversation, not its key
+     * @param participant Phone number
+     * @return true if the user is one of the two participants
+     */
+    public boolean includes(String participant)
+    {
+        return first.equals(participant) || second.equals(participant);
+    }
+
+    /**
+     * Gets the participant on the other side
+     * @param participant Phone number of one participant
+     * @return Phone number of the other participant (the address for a group)
+     */
+    public String other(String participant)
+    {
+        return first.equals(participant) ? second : first;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof ConversationKey))
+        {
+            return false;
+        }
+        ConversationKey other = (ConversationKey) o;
+        return hash == other.hash && group == other.group
+            && first.equals(other.first) && second.equals(other.second);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return group ? first : first + "<->" + second;
+    }
+}
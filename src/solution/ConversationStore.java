@@ -0,0 +1,959 @@
+package solution;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Messages grouped by conversation, each stored exactly once
+ *
+ * A conversation is keyed by its normalised pair of participants and keeps
+ * its newest messages in a bounded hot window. A participant's inbox is a
+ * merge of their conversations, so sender and recipient share one copy of
+ * every message. Older messages are served from the persistent log through
+ * a LogArchive. Pages are addressed by message ID cursors.
+ *
+ * Thread-safe. Conversations are guarded by a fixed array of striped
+ * locks, so writers to unrelated conversations rarely contend. A page
+ * snapshots each conversation under its own stripe and merges the
+ * snapshots without holding any lock, so readers never hold two stripes
+ * at once and cannot deadlock.
+ *
+ * A group is a conversation like any other: a message sent to it is
+ * stored once, and the send then advances the delivery cursor of every
+ * member (see GroupMember). A member's inbox shows the group messages
+ * between the point they joined and their delivery cursor. Groups with
+ * more than FANOUT_CHUNK members are fanned out on the common fork-join
+ * pool, so the cost of a send stays a cursor update per member however
+ * large the payload is. Joins and leaves are returned as GroupChange
+ * records for the caller to persist and replayed through apply().
+ */
+public final class ConversationStore
+{
+    /** Members whose cursors one fan-out task advances */
+    static final int FANOUT_CHUNK = 1024;
+
+    private final int hotWindow;
+    private final LogArchive archive;
+    private final ConcurrentHashMap<ConversationKey, Conversation> conversations;
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<Conversation>> byParticipant;
+    private final ReentrantLock[] stripes;
+    private final LongAdder hotMessages = new LongAdder();
+
+    /**
+     * Creates an empty store with a stripe count sized for the machine
+     * @param hotWindow Messages kept in memory per conversation
+     * @param archive Source of older messages (null keeps only the hot window)
+     */
+    public ConversationStore(int hotWindow, LogArchive archive)
+    {
+        this(hotWindow, archive, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an empty store
+     * @param hotWindow Messages kept in memory per conversation
+     * @param archive Source of older messages (null keeps only the hot window)
+     * @param lockStripes Number of locks guarding conversations (rounded up to a power of two)
+     */
+    public ConversationStore(int hotWindow, LogArchive archive, int lockStripes)
+    {
+        this.hotWindow = hotWindow;
+        this.archive = archive;
+        this.conversations = new ConcurrentHashMap<>();
+        this.byParticipant = new ConcurrentHashMap<>();
+
+        int count = Integer.highestOneBit(Math.max(1, lockStripes - 1)) << 1;
+        this.stripes = new ReentrantLock[Math.max(1, count)];
+        for (int i = 0; i < stripes.length; i++)
+        {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Gets the lock guarding a conversation
+     * @param key Conversation key
+     * @return Stripe lock
+     */
+    private ReentrantLock lockFor(ConversationKey key)
+    {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    /**
+     * Registers a participant so that their (possibly empty) inbox can be read
+     * @param participant Phone number
+     */
+    public void addParticipant(String participant)
+    {
+        byParticipant.computeIfAbsent(participant, k -> new CopyOnWriteArrayList<>());
+    }
+
+    /**
+     * Checks whether a participant is known
+     * @param participant Phone number
+     * @return true if the participant has an inbox
+     */
+    public boolean hasParticipant(String participant)
+    {
+        return byParticipant.containsKey(participant);
+    }
+
+    /**
+     * Gets the key of the conversation a viewer has with a user or group
+     * @param viewer Phone number of the viewer
+     * @param other Phone number or group address
+     * @return Pair key, or the group key for a group address
+     */
+    private static ConversationKey keyFor(String viewer, String other)
+    {
+        return ConversationKey.isGroupAddress(other)
+            ? ConversationKey.group(other)
+            : ConversationKey.of(viewer, other);
+    }
+
+    /**
+     * Creates a group with its initial members
+     * @param address Group address (see ConversationKey.GROUP_PREFIX)
+     * @param members Phone numbers of the first members
+     * @return One join per member to persist, or null if a group with this
+     *         address already exists
+     */
+    public List<GroupChange> createGroup(String address, Collection<String> members)
+    {
+        ConversationKey key = ConversationKey.group(address);
+        Conversation group = new Conversation(key, hotWindow);
+        if (conversations.putIfAbsent(key, group) != null)
+        {
+            return null;
+        }
+        List<GroupChange> joins = new ArrayList<>(members.size());
+        for (String member : members)
+        {
+            GroupChange join = joinGroup(group, member, null);
+            if (join != null)
+            {
+                joins.add(join);
+            }
+        }
+        return joins;
+    }
+
+    /**
+     * Adds a member to a group; their history starts with the next message
+     * @param address Group address
+     * @param member Phone number
+     * @return Join to persist, or null if the group does not exist or the
+     *         member is already in it
+     */
+    public GroupChange joinGroup(String address, String member)
+    {
+        Conversation group = conversations.get(ConversationKey.group(address));
+        return group == null ? null : joinGroup(group, member, null);
+    }
+
+    /**
+     * @param joinedAfter Start of the member's history, or null for the newest message
+     */
+    private GroupChange joinGroup(Conversation group, String member, Long joinedAfter)
+    {
+        GroupChange join = null;
+        ReentrantLock lock = lockFor(group.getKey());
+        lock.lock();
+        try
+        {
+            boolean joined = joinedAfter == null
+                ? group.join(member)
+                : group.join(member, joinedAfter);
+            if (joined)
+            {
+                join = new GroupChange(GroupChange.Type.JOIN, group.getKey().getFirst(), member,
+                                       group.getMember(member).getJoinedAfter());
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        if (join != null)
+        {
+            byParticipant.computeIfAbsent(member, p -> new CopyOnWriteArrayList<>()).addIfAbsent(group);
+        }
+        return join;
+    }
+
+    /**
+     * Stops delivering a group's messages to a member
+     * What was already delivered stays in their inbox
+     * @param address Group address
+     * @param member Phone number
+     * @return Leave to persist, or null if the group does not exist or the
+     *         member is not in it
+     */
+    public GroupChange leaveGroup(String address, String member)
+    {
+        Conversation group = conversations.get(ConversationKey.group(address));
+        if (group == null)
+        {
+            return null;
+        }
+
+        ReentrantLock lock = lockFor(group.getKey());
+        lock.lock();
+        try
+        {
+            if (!group.leave(member))
+            {
+                return null;
+            }
+            return new GroupChange(GroupChange.Type.LEAVE, address, member,
+                                   group.getMember(member).getDeliveredUpTo());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies a membership change replayed from the log
+     * A join creates the group if needed and starts the member's history
+     * where it started originally; a leave first delivers everything the
+     * member had been delivered, so messages replayed after it do not
+     * have to reach them
+     * @param change Persisted join or leave
+     */
+    public void apply(GroupChange change)
+    {
+        ConversationKey key = ConversationKey.group(change.getAddress());
+        if (change.getType() == GroupChange.Type.JOIN)
+        {
+            Conversation group = conversations.computeIfAbsent(key, k -> new Conversation(k, hotWindow));
+            joinGroup(group, change.getMember(), change.getCursor());
+            return;
+        }
+
+        Conversation group = conversations.get(key);
+        GroupMember member = group == null ? null : group.getMember(change.getMember());
+        if (member != null)
+        {
+            member.deliver(change.getCursor());
+            leaveGroup(change.getAddress(), change.getMember());
+        }
+    }
+
+    /**
+     * Checks whether a group exists
+     * @param address Group address
+     * @return true if the group was created
+     */
+    public boolean hasGroup(String address)
+    {
+        return ConversationKey.isGroupAddress(address)
+            && conversations.containsKey(ConversationKey.group(address));
+    }
+
+    /**
+     * Checks whether a participant currently receives a group's messages
+     * @param address Group address
+     * @param member Phone number
+     * @return true for an active member
+     */
+    public boolean isGroupMember(String address, String member)
+    {
+        Conversation group = ConversationKey.isGroupAddress(address)
+            ? conversations.get(ConversationKey.group(address))
+            : null;
+        return group != null && group.isActiveMember(member);
+    }
+
+    /**
+     * Lists who a participant has conversations with
+     * Costs one entry per conversation of the participant, however many
+     * users are registered
+     * @param participant Phone number
+     * @return Other participants' phone numbers and group addresses
+     */
+    public List<String> getPeers(String participant)
+    {
+        List<Conversation> owned = byParticipant.get(participant);
+        if (owned == null)
+        {
+            return Collections.emptyList();
+        }
+        List<String> peers = new ArrayList<>(owned.size());
+        for (Conversation conversation : owned)
+        {
+            ConversationKey key = conversation.getKey();
+            if (key.isGroup() || !key.getFirst().equals(participant))
+            {
+                peers.add(key.getFirst());
+            }
+            else if (!key.getSecond().equals(participant))
+            {
+                peers.add(key.getSecond());
+            }
+        }
+        return peers;
+    }
+
+    /**
+     * Lists the active members of a group
+     * @param address Group address
+     * @return Phone numbers in joining order (empty if the group does not exist)
+     */
+    public List<String> getGroupMembers(String address)
+    {
+        Conversation group = ConversationKey.isGroupAddress(address)
+            ? conversations.get(ConversationKey.group(address))
+            : null;
+        if (group == null)
+        {
+            return Collections.emptyList();
+        }
+
+        GroupMember[] active = group.getActiveMembers();
+        List<String> numbers = new ArrayList<>(active.length);
+        for (GroupMember member : active)
+        {
+            numbers.add(member.getPhoneNumber());
+        }
+        return numbers;
+    }
+
+    /**
+     * Stores a message once in the conversation between its sender and
+     * recipient, or in its group and delivers it to every active member
+     * @param message Message to store
+     * @return false if the message was sent to a group that does not exist
+     */
+    public boolean store(Message message)
+    {
+        ConversationKey key = ConversationKey.of(message);
+        if (key.isGroup())
+        {
+            Conversation group = conversations.get(key);
+            if (group == null)
+            {
+                return false;
+            }
+            append(group, message);
+            fanOut(group.getActiveMembers(), message.getId());
+            return true;
+        }
+
+        Conversation conversation = conversations.computeIfAbsent(key, k ->
+        {
+            Conversation created = new Conversation(k, hotWindow);
+            byParticipant.computeIfAbsent(k.getFirst(), p -> new CopyOnWriteArrayList<>()).add(created);
+            if (!k.getFirst().equals(k.getSecond()))
+            {
+                byParticipant.computeIfAbsent(k.getSecond(), p -> new CopyOnWriteArrayList<>()).add(created);
+            }
+            return created;
+        });
+        append(conversation, message);
+        return true;
+    }
+
+    private void append(Conversation conversation, Message message)
+    {
+        ReentrantLock lock = lockFor(conversation.getKey());
+        lock.lock();
+        try
+        {
+            MessageRing messages = conversation.getMessages();
+            int before = messages.size();
+            messages.add(message);
+            hotMessages.add(messages.size() - before);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Advances the delivery cursors of a group's members to a new message
+     * @param members Active members at the time of the send
+     * @param messageId ID of the stored message
+     */
+    private static void fanOut(GroupMember[] members, long messageId)
+    {
+        if (members.length <= FANOUT_CHUNK)
+        {
+            for (GroupMember member : members)
+            {
+                member.deliver(messageId);
+            }
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(new FanOut(members, 0, members.length, messageId));
+    }
+
+    /**
+     * Splits a large group's fan-out into chunks of FANOUT_CHUNK members
+     */
+    private static final class FanOut extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final transient GroupMember[] members;
+        private final int from;
+        private final int to;
+        private final long messageId;
+
+        FanOut(GroupMember[] members, int from, int to, long messageId)
+        {
+            this.members = members;
+            this.from = from;
+            this.to = to;
+            this.messageId = messageId;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= FANOUT_CHUNK)
+            {
+                for (int i = from; i < to; i++)
+                {
+                    members[i].deliver(messageId);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new FanOut(members, from, middle, messageId),
+                      new FanOut(members, middle, to, messageId));
+        }
+    }
+
+    /**
+     * Fetches one page of the thread between two participants, or of a group
+     * A group page only holds the messages delivered to the viewer
+     * @param participantA Phone number of the viewer
+     * @param participantB Phone number of the other participant, or a group address
+     * @param beforeCursor Exclusive upper bound on message IDs (MessagePage.LATEST for the newest page)
+     * @param limit Maximum number of messages
+     * @return Page of messages, oldest first
+     */
+    public MessagePage getThread(String participantA, String participantB, long beforeCursor, int limit)
+    {
+        ConversationKey key = keyFor(participantA, participantB);
+        Conversation conversation = conversations.get(key);
+        if (conversation == null)
+        {
+            return MessagePage.empty();
+        }
+
+        Predicate<Message> filter = m -> key.equals(ConversationKey.of(m));
+        long archiveAfter = Long.MIN_VALUE;
+        if (conversation.isGroup())
+        {
+            GroupMember member = conversation.getMember(participantA);
+            if (member == null)
+            {
+                return MessagePage.empty();
+            }
+            long after = member.getJoinedAfter();
+            long upTo = member.getDeliveredUpTo();
+            filter = m -> m.getId() > after && m.getId() <= upTo
+                && participantB.equals(m.getRecipientPhoneNumber());
+            archiveAfter = after;
+        }
+        // Every message of the thread names participantB, as recipient or sender
+        return page(Collections.singletonList(conversation), participantA, filter,
+                    Collections.singletonList(participantB), archiveAfter, beforeCursor, limit);
+    }
+
+    /**
+     * Fetches one page of a participant's inbox across all of their conversations
+     * @param owner Phone number of the inbox owner
+     * @param beforeCursor Exclusive upper bound on message IDs (MessagePage.LATEST for the newest page)
+     * @param limit Maximum number of messages
+     * @return Page of messages, oldest first
+     */
+    public MessagePage getInbox(String owner, long beforeCursor, int limit)
+    {
+        List<Conversation> owned = byParticipant.get(owner);
+        if (owned == null || owned.isEmpty())
+        {
+            return MessagePage.empty();
+        }
+
+        // Visible range of each group, fixed for the archive scan
+        Map<String, long[]> groupWindows = new HashMap<>();
+        for (Conversation conversation : owned)
+        {
+            GroupMember member = conversation.getMember(owner);
+            if (member != null)
+            {
+                groupWindows.put(conversation.getKey().getFirst(),
+                                 new long[] { member.getJoinedAfter(), member.getDeliveredUpTo() });
+            }
+        }
+
+        List<String> addresses = new ArrayList<>(groupWindows.size() + 1);
+        addresses.add(owner);
+        addresses.addAll(groupWindows.keySet());
+
+        return page(owned, owner, m ->
+        {
+            if (owner.equals(m.getSenderPhoneNumber()) || owner.equals(m.getRecipientPhoneNumber()))
+            {
+                return true;
+            }
+            long[] window = groupWindows.get(m.getRecipientPhoneNumber());
+            return window != null && m.getId() > window[0] && m.getId() <= window[1];
+        }, addresses, Long.MIN_VALUE, beforeCursor, limit);
+    }
+
+    /**
+     * Merges the hot windows of several conversations newest first and falls
+     * back to the log once a conversation's window has been exhausted
+     * Group windows are narrowed to what has been delivered to the viewer.
+     * The addresses and archiveAfter let the archive skip log chunks that
+     * cannot hold a message of the page.
+     */
+    private MessagePage page(List<Conversation> sources, String viewer, Predicate<Message> filter,
+                             Collection<String> addresses, long archiveAfter,
+                             long beforeCursor, int limit)
+    {
+        if (limit <= 0)
+        {
+            return MessagePage.empty();
+        }
+
+        // Copy out at most one page per conversation, one stripe at a time
+        List<List<Message>> snapshots = new ArrayList<>(sources.size());
+        boolean moreInWindows = false;
+        long completeFrom = Long.MIN_VALUE;
+        for (Conversation conversation : sources)
+        {
+            long after = Long.MIN_VALUE;
+            long before = beforeCursor;
+            if (conversation.isGroup())
+            {
+                GroupMember member = conversation.getMember(viewer);
+                if (member == null)
+                {
+                    continue;
+                }
+                after = member.getJoinedAfter();
+                before = Math.min(beforeCursor, member.getDeliveredUpTo() + 1);
+            }
+
+            List<Message> window = new ArrayList<>();
+            ReentrantLock lock = lockFor(conversation.getKey());
+            lock.lock();
+            try
+            {
+                MessageRing messages = conversation.getMessages();
+                moreInWindows |= messages.collectBetween(after, before, limit, window);
+                if (conversation.isSpilled() && messages.oldestId() > after)
+                {
+                    // Below the newest spilled boundary the hot windows are incomplete
+                    completeFrom = Math.max(completeFrom, conversation.getMessages().oldestId());
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            snapshots.add(window);
+        }
+
+        int count = snapshots.size();
+        int[] taken = new int[count];
+        PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(1, count),
+            (a, b) -> Long.compare(headId(snapshots, taken, b), headId(snapshots, taken, a)));
+        for (int i = 0; i < count; i++)
+        {
+            if (!snapshots.get(i).isEmpty())
+            {
+                heads.add(i);
+            }
+        }
+
+        List<Message> newestFirst = new ArrayList<>(Math.min(limit, hotWindow));
+        while (newestFirst.size() < limit && !heads.isEmpty())
+        {
+            int source = heads.peek();
+            if (headId(snapshots, taken, source) < completeFrom)
+            {
+                break;
+            }
+            heads.poll();
+            newestFirst.add(snapshots.get(source).get(taken[source]++));
+            if (taken[source] < snapshots.get(source).size())
+            {
+                heads.add(source);
+            }
+        }
+
+        List<Message> page = new ArrayList<>(newestFirst.size());
+        for (int i = newestFirst.size() - 1; i >= 0; i--)
+        {
+            page.add(newestFirst.get(i));
+        }
+
+        boolean spilled = completeFrom != Long.MIN_VALUE && archive != null;
+        if (page.size() < limit && spilled)
+        {
+            int wanted = limit - page.size();
+            List<Message> older = archive.loadBetween(addresses, filter, archiveAfter,
+                                                      Math.min(beforeCursor, completeFrom), wanted);
+            applyStatuses(older);
+            boolean hasMore = older.size() == wanted;
+            older.addAll(page);
+            return new MessagePage(older, hasMore);
+        }
+
+        return new MessagePage(page, !heads.isEmpty() || moreInWindows || spilled);
+    }
+
+    private static long headId(List<List<Message>> snapshots, int[] taken, int source)
+    {
+        return snapshots.get(source).get(taken[source]).getId();
+    }
+
+    /**
+     * Checks whether a message shows up in a viewer's inbox
+     * Usable as a SearchIndex.Visibility without loading the message
+     * @param viewer Phone number of the viewer
+     * @param messageId Message ID
+     * @param sender Sender's phone number
+     * @param recipient Recipient's phone number or group address
+     * @return true if the viewer may see the message
+     */
+    public boolean canSee(String viewer, long messageId, String sender, String recipient)
+    {
+        if (ConversationKey.isGroupAddress(recipient))
+        {
+            Conversation group = conversations.get(ConversationKey.group(recipient));
+            GroupMember member = group == null ? null : group.getMember(viewer);
+            return member != null
+                && messageId > member.getJoinedAfter()
+                && messageId <= member.getDeliveredUpTo();
+        }
+        return viewer.equals(sender) || viewer.equals(recipient);
+    }
+
+    /**
+     * Loads messages by ID, from the hot windows where possible
+     * Messages that have left their window are read back from the log in
+     * a single pass
+     * @param hits Search hits, newest first
+     * @return The messages found, oldest first
+     */
+    public List<Message> findMessages(List<SearchIndex.Hit> hits)
+    {
+        Map<Long, Message> found = new HashMap<>();
+        Map<Long, Boolean> missing = new HashMap<>();
+        long below = Long.MIN_VALUE;
+        long above = Long.MAX_VALUE;
+        for (SearchIndex.Hit hit : hits)
+        {
+            ConversationKey key = ConversationKey.isGroupAddress(hit.getRecipient())
+                ? ConversationKey.group(hit.getRecipient())
+                : ConversationKey.of(hit.getSender(), hit.getRecipient());
+            Conversation conversation = conversations.get(key);
+            Message message = null;
+            if (conversation != null)
+            {
+                ReentrantLock lock = lockFor(key);
+                lock.lock();
+                try
+                {
+                    message = conversation.getMessages().find(hit.getMessageId());
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+            }
+
+            if (message != null)
+            {
+                found.put(message.getId(), message);
+            }
+            else
+            {
+                missing.put(hit.getMessageId(), Boolean.TRUE);
+                below = Math.max(below, hit.getMessageId() + 1);
+                above = Math.min(above, hit.getMessageId() - 1);
+            }
+        }
+
+        if (!missing.isEmpty() && archive != null)
+        {
+            // Only chunks overlapping the hits' ID range are read
+            List<Message> loaded = archive.loadBetween(null, m -> missing.containsKey(m.getId()),
+                                                       above, below, missing.size());
+            applyStatuses(loaded);
+            for (Message message : loaded)
+            {
+                found.put(message.getId(), message);
+            }
+        }
+
+        List<Message> oldestFirst = new ArrayList<>(found.size());
+        for (int i = hits.size() - 1; i >= 0; i--)
+        {
+            Message message = found.get(hits.get(i).getMessageId());
+            if (message != null)
+            {
+                oldestFirst.add(message);
+            }
+        }
+        return oldestFirst;
+    }
+
+    /**
+     * Advances a participant's read cursor in a conversation
+     * @param reader Phone number of the reader
+     * @param other Phone number of the other participant, or a group address
+     * @param upToId ID of the newest message read
+     * @return Receipt to persist, or null if the cursor did not move
+     */
+    public Receipt markRead(String reader, String other, long upToId)
+    {
+        return acknowledge(reader, other, MessageStatus.READ, upToId);
+    }
+
+    /**
+     * Marks every conversation of a participant as read up to a message
+     * @param reader Phone number of the reader
+     * @param upToId ID of the newest message read
+     * @return One receipt per conversation whose cursor moved
+     */
+    public List<Receipt> markAllRead(String reader, long upToId)
+    {
+        List<Conversation> owned = byParticipant.get(reader);
+        if (owned == null)
+        {
+            return Collections.emptyList();
+        }
+        List<Receipt> receipts = new ArrayList<>();
+        for (Conversation conversation : owned)
+        {
+            Receipt receipt = acknowledge(conversation, reader, MessageStatus.READ, upToId);
+            if (receipt != null)
+            {
+                receipts.add(receipt);
+            }
+        }
+        return receipts;
+    }
+
+    /**
+     * Marks the messages a participant has just fetched as received
+     * Each conversation's cursor moves once, to the newest fetched
+     * message from someone else
+     * @param reader Phone number of the participant who fetched them
+     * @param fetched Messages returned to the participant
+     * @return One receipt per conversation whose cursor moved
+     */
+    public List<Receipt> markReceived(String reader, List<Message> fetched)
+    {
+        Map<String, Long> newestByPeer = new HashMap<>();
+        for (Message message : fetched)
+        {
+            String sender = message.getSenderPhoneNumber();
+            if (!reader.equals(sender))
+            {
+                String recipient = message.getRecipientPhoneNumber();
+                String peer = ConversationKey.isGroupAddress(recipient) ? recipient : sender;
+                newestByPeer.merge(peer, message.getId(), Math::max);
+            }
+        }
+
+        List<Receipt> receipts = new ArrayList<>(newestByPeer.size());
+        for (Map.Entry<String, Long> entry : newestByPeer.entrySet())
+        {
+            Receipt receipt = acknowledge(reader, entry.getKey(), MessageStatus.RECEIVED, entry.getValue());
+            if (receipt != null)
+            {
+                receipts.add(receipt);
+            }
+        }
+        return receipts;
+    }
+
+    /**
+     * Advances a participant's received or read cursor in a conversation
+     * Also applies receipts replayed from the log
+     * @param reader Phone number of the participant
+     * @param other Phone number of the other participant, or a group address
+     * @param status RECEIVED or READ
+     * @param upToId ID of the newest message acknowledged
+     * @return Receipt to persist, or null if the cursor did not move
+     */
+    public Receipt acknowledge(String reader, String other, MessageStatus status, long upToId)
+    {
+        Conversation conversation = conversations.get(keyFor(reader, other));
+        return conversation == null ? null : acknowledge(conversation, reader, status, upToId);
+    }
+
+    private Receipt acknowledge(Conversation conversation, String reader, MessageStatus status, long upToId)
+    {
+        long cursor;
+        ReentrantLock lock = lockFor(conversation.getKey());
+        lock.lock();
+        try
+        {
+            cursor = conversation.acknowledge(reader, status, upToId);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        if (cursor == Long.MIN_VALUE)
+        {
+            return null;
+        }
+
+        ConversationKey key = conversation.getKey();
+        String peer = key.isGroup() || !key.getFirst().equals(reader) ? key.getFirst() : key.getSecond();
+        return new Receipt(status, reader, peer, cursor);
+    }
+
+    /**
+     * Derives the status of messages read back from the log
+     * @param loaded Messages that are not in a hot window
+     */
+    private void applyStatuses(List<Message> loaded)
+    {
+        for (Message message : loaded)
+        {
+            ConversationKey key = ConversationKey.of(message);
+            Conversation conversation = conversations.get(key);
+            if (conversation == null)
+            {
+                continue;
+            }
+            ReentrantLock lock = lockFor(key);
+            lock.lock();
+            try
+            {
+                conversation.applyStatus(message);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Gets a participant's read cursor in a conversation
+     * @param reader Phone number of the reader
+     * @param other Phone number of the other participant, or a group address
+     * @return ID of the newest message read, or Long.MIN_VALUE if none
+     */
+    public long getReadCursor(String reader, String other)
+    {
+        Conversation conversation = conversations.get(keyFor(reader, other));
+        if (conversation == null)
+        {
+            return Long.MIN_VALUE;
+        }
+
+        ReentrantLock lock = lockFor(conversation.getKey());
+        lock.lock();
+        try
+        {
+            return conversation.getReadCursor(reader);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts messages from the other participant that the reader has not read
+     * Only the hot window is counted
+     * @param reader Phone number of the reader
+     * @param other Phone number of the other participant, or a group address
+     * @return Unread message count
+     */
+    public int getUnreadCount(String reader, String other)
+    {
+        Conversation conversation = conversations.get(keyFor(reader, other));
+        if (conversation == null)
+        {
+            return 0;
+        }
+
+        ReentrantLock lock = lockFor(conversation.getKey());
+        lock.lock();
+        try
+        {
+            return conversation.countUnread(reader);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lists the conversations a participant takes part in
+     * @param participant Phone number
+     * @return Conversation keys (empty if none)
+     */
+    public List<ConversationKey> getConversations(String participant)
+    {
+        List<Conversation> owned = byParticipant.get(participant);
+        if (owned == null)
+        {
+            return Collections.emptyList();
+        }
+        List<ConversationKey> keys = new ArrayList<>(owned.size());
+        for (Conversation conversation : owned)
+        {
+            keys.add(conversation.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Gets the number of messages currently held in memory
+     * Each message is counted once however many inboxes show it. Kept as
+     * a running count that stores and evictions update, so reading it
+     * takes no stripe lock; it is approximate while writers are active
+     * @return Hot message count
+     */
+    public int getHotMessageCount()
+    {
+        return hotMessages.intValue();
+    }
+
+    /**
+     * Gets the number of conversations
+     * @return Conversation count
+     */
+    public int getConversationCount()
+    {
+        return conversations.size();
+    }
+
+    public int getHotWindow()
+    {
+        return hotWindow;
+    }
+}
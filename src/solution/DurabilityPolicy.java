@@ -0,0 +1,167 @@
+package solution;
+
+/**
+ * Describes when the background message writer forces data to disk
+ * Flushing hands a batch to the operating system, while syncing (fsync)
+ * waits until the storage device has acknowledged the write
+ */
+public final class DurabilityPolicy
+{
+    /**
+     * Supported durability modes
+     */
+    public enum Mode
+    {
+        FLUSH_PER_BATCH,
+        FSYNC_INTERVAL,
+        FSYNC_EVERY_N_RECORDS
+    }
+
+    private final Mode mode;
+    private final long threshold;
+
+    private DurabilityPolicy(Mode mode, long threshold)
+    {
+        this.mode = mode;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Flushes every batch to the operating system without forcing a sync
+     * @return Policy instance
+     */
+    public static DurabilityPolicy flushPerBatch()
+    {
+        return new DurabilityPolicy(Mode.FLUSH_PER_BATCH, 0);
+    }
+
+    /**
+     * Forces a sync at most once per interval while there is unsynced data
+     * @param millis Interval between syncs in milliseconds (≥1)
+     * @return Policy instance
+     */
+    public static DurabilityPolicy fsyncEveryMillis(long millis)
+    {
+        if (millis < 1)
+        {
+            throw new IllegalArgumentException("Sync interval must be at least 1 ms");
+        }
+        return new DurabilityPolicy(Mode.FSYNC_INTERVAL, millis);
+    }
+
+    /**
+     * Forces a sync once the given number of records has been written
+     * @param records Records between syncs (≥1)
+     * @return Policy instance
+     */
+    public static DurabilityPolicy fsyncEveryRecords(long records)
+    {
+        if (records < 1)
+        {
+            throw new IllegalArgumentException("Sync record count must be at least 1");
+        }
+        return new DurabilityPolicy(Mode.FSYNC_EVERY_N_RECORDS, records);
+    }
+
+    /**
+     * Parses a policy description such as "batch", "interval:100" or "records:50"
+     * @param spec Policy description (null or empty selects flush per batch)
+     * @return Parsed policy
+     */
+    public static DurabilityPolicy parse(String spec)
+    {
+        if (spec == null || spec.isBlank() || spec.trim().equals("batch"))
+        {
+            return flushPerBatch();
+        }
+
+        String[] parts = spec.trim().split(":", 2);
+        if (parts.length != 2)
+        {
+            throw new IllegalArgumentException("Unknown durability policy: " + spec);
+        }
+
+        long value;
+        try
+        {
+            value = Long.parseLong(parts[1].trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid durability threshold: " + spec, e);
+        }
+
+        switch (parts[0].trim())
+        {
+            case "interval":
+                return fsyncEveryMillis(value);
+
+            case "records":
+                return fsyncEveryRecords(value);
+
+            default:
+                throw new IllegalArgumentException("Unknown durability policy: " + spec);
+        }
+    }
+
+    /**
+     * Decides whether unsynced data should be forced to disk now
+     * @param unsyncedRecords Records written since the last sync
+     * @param nanosSinceSync Time elapsed since the last sync
+     * @return true if a sync is due
+     */
+    boolean isSyncDue(long unsyncedRecords, long nanosSinceSync)
+    {
+        if (unsyncedRecords == 0)
+        {
+            return false;
+        }
+
+        switch (mode)
+        {
+            case FSYNC_INTERVAL:
+                return nanosSinceSync >= threshold * 1_000_000L;
+
+            case FSYNC_EVERY_N_RECORDS:
+                return unsyncedRecords >= threshold;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Maximum time the writer may sleep while unsynced data is pending
+     * @return Wait time in milliseconds
+     */
+    long maxIdleWaitMillis()
+    {
+        return mode == Mode.FSYNC_INTERVAL ? threshold : 1000;
+    }
+
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    public long getThreshold()
+    {
+        return threshold;
+    }
+
+    @Override
+    public String toString()
+    {
+        switch (mode)
+        {
+            case FSYNC_INTERVAL:
+                return "interval:" + threshold;
+
+            case FSYNC_EVERY_N_RECORDS:
+                return "records:" + threshold;
+
+            default:
+                return "batch";
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package solution;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Batches protocol records into frames held in pooled buffers
+ *
+ * Records are appended to an open frame until it is full or finishFrame()
+ * is called; finished frames queue up until writeTo() hands them to a
+ * channel in one gathering write, after which their buffers go back to
+ * the pool. Each frame occupies one buffer, so a record is written
+ * straight into its final place and the length prefix is patched in when
+ * the frame is finished.
+ *
+ * Not thread-safe; owned by the thread serving one connection.
+ */
+public final class FrameEncoder
+{
+    /**
+     * Writes the fields of one record after its type and correlation ID
+     */
+    public interface RecordBody
+    {
+        void write(ByteBuffer out);
+    }
+
+    private final BufferPool pool;
+    private final ArrayDeque<ByteBuffer> ready;
+    private ByteBuffer[] gather;
+    private ByteBuffer current;
+    private int records;
+    private long pendingBytes;
+
+    /**
+     * Creates an encoder that holds no buffers until the first record
+     * @param pool Source of frame buffers
+     */
+    public FrameEncoder(BufferPool pool)
+    {
+        this.pool = pool;
+        this.ready = new ArrayDeque<>(4);
+        this.gather = new ByteBuffer[4];
+    }
+
+    /**
+     * Appends a record without fields
+     * @param type Record type
+     * @param correlationId Correlation ID
+     */
+    public void write(int type, long correlationId)
+    {
+        write(type, correlationId, null);
+    }
+
+    /**
+     * Appends a record, starting a new frame if the open one is full
+     * @param type Record type
+     * @param correlationId Correlation ID
+     * @param body Writes the record's fields (null for none)
+     * @throws IllegalArgumentException If the record alone does not fit in a frame
+     */
+    public void write(int type, long correlationId, RecordBody body)
+    {
+        while (true)
+        {
+            if (current == null)
+            {
+                current = pool.acquire();
+                current.limit(Math.min(current.capacity(), BinaryProtocol.MAX_FRAME_BYTES));
+                current.position(BinaryProtocol.LENGTH_BYTES);
+                records = 0;
+            }
+
+            int recordStart = current.position();
+            try
+            {
+                BinaryProtocol.putVarint(current, type);
+                BinaryProtocol.putVarint(current, correlationId);
+                if (body != null)
+                {
+                    body.write(current);
+                }
+                records++;
+                return;
+            }
+            catch (BufferOverflowException e)
+            {
+                current.position(recordStart);
+                if (records == 0)
+                {
+                    throw new IllegalArgumentException("Record of type " + type
+                                                       + " does not fit in a frame");
+                }
+                finishFrame();
+            }
+        }
+    }
+
+    /**
+     * Closes the open frame so it is included in the next write
+     */
+    public void finishFrame()
+    {
+        if (current == null)
+        {
+            return;
+        }
+        if (records == 0)
+        {
+            pool.release(current);
+        }
+        else
+        {
+            current.putInt(0, current.position() - BinaryProtocol.LENGTH_BYTES);
+            current.flip();
+            pendingBytes += current.remaining();
+            ready.add(current);
+        }
+        current = null;
+        records = 0;
+    }
+
+    /**
+     * Writes finished frames and returns fully written buffers to the pool
+     * @param channel Destination
+     * @return Bytes written
+     * @throws IOException If the channel fails
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException
+    {
+        int count = ready.size();
+        if (count == 0)
+        {
+            return 0;
+        }
+        if (gather.length < count)
+        {
+            gather = new ByteBuffer[Math.max(count, gather.length * 2)];
+        }
+        ready.toArray(gather);
+
+        long written = channel.write(gather, 0, count);
+        pendingBytes -= written;
+        while (!ready.isEmpty() && !ready.peekFirst().hasRemaining())
+        {
+            pool.release(ready.pollFirst());
+        }
+        Arrays.fill(gather, 0, count, null);
+        return written;
+    }
+
+    /**
+     * Gets the bytes of finished frames not yet written
+     * @return Pending byte count
+     */
+    public long getPendingBytes()
+    {
+        return pendingBytes;
+    }
+
+    /**
+     * Checks whether records are waiting in an open frame
+     * @return true if finishFrame() would produce a frame
+     */
+    public boolean hasOpenFrame()
+    {
+        return records > 0;
+    }
+
+    /**
+     * Returns every buffer to the pool, dropping unwritten frames
+     */
+    public void release()
+    {
+        if (current != null)
+        {
+            pool.release(current);
+            current = null;
+            records = 0;
+        }
+        ByteBuffer buffer;
+        while ((buffer = ready.poll()) != null)
+        {
+            pool.release(buffer);
+        }
+        pendingBytes = 0;
+    }
+}
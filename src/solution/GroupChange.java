@@ -0,0 +1,98 @@
+package solution;
+
+/**
+ * A member joining or leaving a group
+ *
+ * Group membership lives in the message log as small JSON records of its
+ * own, next to the messages and receipts:
+ * <pre>
+ * {"group":"Join","address":"#team","member":"+27831234567","at":123}
+ * {"group":"Leave","address":"#team","member":"+27831234567","at":456}
+ * </pre>
+ * A join carries the ID of the newest group message when the member
+ * joined, where their history starts; a leave carries their delivery
+ * cursor, where it ends. With the cursors in the record, a replay does
+ * not depend on where the change falls among the group's messages. The
+ * first join of an address creates the group. Immutable.
+ */
+public final class GroupChange
+{
+    /**
+     * Kind of membership change, named as written to the log
+     */
+    public enum Type
+    {
+        JOIN("Join"),
+        LEAVE("Leave");
+
+        private final String displayName;
+
+        Type(String displayName)
+        {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String toString()
+        {
+            return displayName;
+        }
+    }
+
+    private final Type type;
+    private final String address;
+    private final String member;
+    private final long cursor;
+
+    /**
+     * Creates a membership change
+     * @param type JOIN or LEAVE
+     * @param address Group address
+     * @param member Phone number of the member
+     * @param cursor Newest group message ID when joining, delivery cursor when leaving
+     */
+    public GroupChange(Type type, String address, String member, long cursor)
+    {
+        this.type = type;
+        this.address = address;
+        this.member = member;
+        this.cursor = cursor;
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public String getAddress()
+    {
+        return address;
+    }
+
+    public String getMember()
+    {
+        return member;
+    }
+
+    public long getCursor()
+    {
+        return cursor;
+    }
+
+    /**
+     * Serializes the change as one log record
+     * @return JSON object on a single line
+     */
+    public String toJsonString()
+    {
+        StringBuilder json = new StringBuilder(96);
+        JsonSerializer.writeGroupChange(this, json);
+        return json.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return member + " " + type + " " + address + " at " + cursor;
+    }
+}
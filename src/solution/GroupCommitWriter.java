@@ -0,0 +1,524 @@
+package solution;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Background writer that appends records to a log sink
+ * Records are queued by callers and committed in batches by a single
+ * daemon thread, so senders never wait on disk I/O
+ */
+public final class GroupCommitWriter implements AutoCloseable
+{
+    // Marker queued by close() to wake the writer thread without interrupting it
+    // (interrupting a thread blocked in channel I/O closes the channel).
+    // Records are never empty, so an empty string in the queue is always a
+    // marker: STOP, or a barrier queued by awaitDurable(), told apart by identity
+    private static final String STOP = new String("");
+
+    // How often a producer blocked on a full queue checks that the worker is still alive
+    private static final long QUEUE_CHECK_MILLIS = 100;
+
+    // Attempts to append a record before it is dropped, and the pause between them
+    private static final int MAX_APPEND_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 50;
+
+    private final BlockingQueue<String> queue;
+    private final int maxBatchSize;
+    private final DurabilityPolicy policy;
+    private final Consumer<IOException> errorHandler;
+    private final LogSink sink;
+    private final Thread worker;
+
+    // Submitters share the read lock while queueing; close() takes the write
+    // lock to stop accepting, so every accepted record is queued before STOP
+    private final ReentrantReadWriteLock acceptLock = new ReentrantReadWriteLock();
+    private volatile boolean running;
+
+    // Barriers the worker has reached, mapped to whether their records reached disk
+    private final ReentrantLock barrierLock = new ReentrantLock();
+    private final Condition barrierPassed = barrierLock.newCondition();
+    private final Map<String, Boolean> passedBarriers = new IdentityHashMap<>();
+
+    // Statistics (written by the worker thread only)
+    private volatile long batchCount;
+    private volatile long recordCount;
+    private volatile long syncCount;
+    private volatile long lostRecords;
+    private volatile int lastBatchSize;
+    private volatile int largestBatchSize;
+    private volatile long lastCommitNanos;
+    private volatile long maxCommitNanos;
+    private volatile long totalCommitNanos;
+
+    /**
+     * Starts the writer thread for the given sink
+     * @param sink Log the records are appended to (owned by this writer)
+     * @param queueCapacity Maximum number of records waiting to be written
+     * @param maxBatchSize Maximum number of records committed per batch
+     * @param policy When to force written data to disk
+     * @param errorHandler Receives I/O failures from the writer thread
+     */
+    public GroupCommitWriter(LogSink sink, int queueCapacity, int maxBatchSize,
+                             DurabilityPolicy policy, Consumer<IOException> errorHandler)
+    {
+        if (queueCapacity < 1 || maxBatchSize < 1)
+        {
+            throw new IllegalArgumentException("Queue capacity and batch size must be positive");
+        }
+
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.policy = policy;
+        this.errorHandler = errorHandler;
+        this.sink = sink;
+        this.running = true;
+
+        this.worker = new Thread(this::run, "message-writer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queues a record for writing
+     * Blocks only when the queue is full, which applies back-pressure
+     * to senders instead of dropping messages. A record accepted here is
+     * written even if close() is called concurrently, unless the sink keeps
+     * failing: after MAX_APPEND_ATTEMPTS it is dropped, reported to the
+     * error handler and counted in getLostRecords().
+     * @param record Single line of text (without line terminator)
+     * @throws IllegalArgumentException if the record is empty
+     * @throws IllegalStateException if the writer has been closed or its thread has stopped
+     */
+    public void submit(String record)
+    {
+        if (record.isEmpty())
+        {
+            throw new IllegalArgumentException("Records cannot be empty");
+        }
+        enqueue(record);
+    }
+
+    /**
+     * Blocks until every record queued before the call is written and
+     * forced to disk, whatever the durability policy
+     * @return false if the sync failed, the writer thread stopped, or any
+     *         accepted record has ever been dropped (see getLostRecords)
+     * @throws IllegalStateException if the writer has been closed
+     */
+    public boolean awaitDurable()
+    {
+        String barrier = new String("");
+        enqueue(barrier);
+
+        barrierLock.lock();
+        try
+        {
+            while (!passedBarriers.containsKey(barrier))
+            {
+                if (!worker.isAlive())
+                {
+                    return false;
+                }
+                barrierPassed.await(100, TimeUnit.MILLISECONDS);
+            }
+            return passedBarriers.remove(barrier);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally
+        {
+            barrierLock.unlock();
+        }
+    }
+
+    private void enqueue(String record)
+    {
+        acceptLock.readLock().lock();
+        try
+        {
+            if (!running)
+            {
+                throw new IllegalStateException("Writer has been closed");
+            }
+            // A dead worker never drains the queue, so do not wait on it forever
+            while (!queue.offer(record, QUEUE_CHECK_MILLIS, TimeUnit.MILLISECONDS))
+            {
+                if (!worker.isAlive())
+                {
+                    throw new IllegalStateException("Writer thread has stopped");
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing record", e);
+        }
+        finally
+        {
+            acceptLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Releases the callers of awaitDurable() whose barriers were in a batch
+     * @param barriers Barriers of the batch
+     * @param durable Whether the batch was written and synced
+     */
+    private void passBarriers(List<String> barriers, boolean durable)
+    {
+        if (barriers.isEmpty())
+        {
+            return;
+        }
+        barrierLock.lock();
+        try
+        {
+            for (String barrier : barriers)
+            {
+                passedBarriers.put(barrier, durable);
+            }
+            barrierPassed.signalAll();
+        }
+        finally
+        {
+            barrierLock.unlock();
+        }
+        barriers.clear();
+    }
+
+    /**
+     * Main loop of the writer thread
+     * Waits for the first record, drains whatever else is queued and
+     * commits everything with a single flush. A batch whose flush or sync
+     * fails stays unsynced, so the next batch syncs it again
+     */
+    private void run()
+    {
+        List<String> batch = new ArrayList<>(maxBatchSize);
+        List<String> barriers = new ArrayList<>();
+        long unsyncedRecords = 0;
+        long lastSync = System.nanoTime();
+
+        while (running || !queue.isEmpty())
+        {
+            try
+            {
+                String first = queue.poll(policy.maxIdleWaitMillis(), TimeUnit.MILLISECONDS);
+                if (first != null)
+                {
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatchSize - 1);
+
+                    long start = System.nanoTime();
+                    int written = 0;
+                    for (String record : batch)
+                    {
+                        if (!record.isEmpty())
+                        {
+                            if (append(record))
+                            {
+                                written++;
+                            }
+                        }
+                        else if (record != STOP)
+                        {
+                            barriers.add(record);
+                        }
+                    }
+                    batch.clear();
+                    if (written == 0 && barriers.isEmpty())
+                    {
+                        continue;
+                    }
+                    unsyncedRecords += written;
+
+                    boolean synced = false;
+                    try
+                    {
+                        sink.flush();
+                        if (!barriers.isEmpty() || policy.isSyncDue(unsyncedRecords, start - lastSync))
+                        {
+                            sink.sync();
+                            syncCount++;
+                            unsyncedRecords = 0;
+                            lastSync = System.nanoTime();
+                            synced = true;
+                        }
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        reportError(e);
+                    }
+
+                    if (written > 0)
+                    {
+                        recordBatch(written, System.nanoTime() - start);
+                    }
+                    passBarriers(barriers, synced && lostRecords == 0);
+                }
+                else if (policy.isSyncDue(unsyncedRecords, System.nanoTime() - lastSync))
+                {
+                    // Idle period: make sure interval-based syncs still happen
+                    sink.sync();
+                    syncCount++;
+                    unsyncedRecords = 0;
+                    lastSync = System.nanoTime();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (IOException | RuntimeException e)
+            {
+                reportError(e);
+            }
+        }
+
+        try
+        {
+            sink.flush();
+            if (unsyncedRecords > 0)
+            {
+                sink.sync();
+                syncCount++;
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            reportError(e);
+        }
+    }
+
+    /**
+     * Appends one record, retrying a failing sink a few times
+     * A record that still cannot be appended is dropped and counted, and
+     * the failure goes to the error handler
+     * @return true if the record was appended
+     */
+    private boolean append(String record)
+    {
+        for (int attempt = 1; ; attempt++)
+        {
+            try
+            {
+                sink.append(record);
+                return true;
+            }
+            catch (IOException | RuntimeException e)
+            {
+                if (attempt == MAX_APPEND_ATTEMPTS || !pauseBeforeRetry(attempt))
+                {
+                    lostRecords++;
+                    reportError(new IOException("Dropped a record after " + attempt
+                                                + " failed attempts: " + e.getMessage(), e));
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Backs off before the next attempt to append
+     * @return false if the writer thread was interrupted
+     */
+    private static boolean pauseBeforeRetry(int attempt)
+    {
+        try
+        {
+            TimeUnit.MILLISECONDS.sleep(RETRY_BACKOFF_MILLIS * attempt);
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Updates batch statistics after a commit
+     * @param size Number of records in the batch
+     * @param nanos Time taken to write and commit the batch
+     */
+    private void recordBatch(int size, long nanos)
+    {
+        batchCount++;
+        recordCount += size;
+        lastBatchSize = size;
+        largestBatchSize = Math.max(largestBatchSize, size);
+        lastCommitNanos = nanos;
+        maxCommitNanos = Math.max(maxCommitNanos, nanos);
+        totalCommitNanos += nanos;
+    }
+
+    /**
+     * Passes a failure to the configured handler
+     * Runtime failures of the sink (e.g. an UncheckedIOException from a
+     * segment roll) are reported as I/O failures too; the worker keeps going
+     * @param e Failure raised by the writer thread
+     */
+    private void reportError(Exception e)
+    {
+        if (errorHandler == null)
+        {
+            return;
+        }
+        if (e instanceof IOException)
+        {
+            errorHandler.accept((IOException) e);
+        }
+        else if (e instanceof UncheckedIOException)
+        {
+            errorHandler.accept(((UncheckedIOException) e).getCause());
+        }
+        else
+        {
+            errorHandler.accept(new IOException("Message writer failed: " + e, e));
+        }
+    }
+
+    /**
+     * Stops accepting records, writes everything still queued,
+     * forces it to disk and closes the sink
+     */
+    @Override
+    public void close()
+    {
+        // Waits for submitters already queueing; the worker keeps draining meanwhile
+        acceptLock.writeLock().lock();
+        try
+        {
+            if (!running)
+            {
+                return;
+            }
+            running = false;
+        }
+        finally
+        {
+            acceptLock.writeLock().unlock();
+        }
+
+        try
+        {
+            // If the worker has died there is nobody to take STOP off a full queue
+            while (worker.isAlive() && !queue.offer(STOP, QUEUE_CHECK_MILLIS, TimeUnit.MILLISECONDS))
+            {
+                // Still draining; try again
+            }
+            worker.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        try
+        {
+            sink.close();
+        }
+        catch (IOException e)
+        {
+            reportError(e);
+        }
+    }
+
+    // Statistics accessors
+    public int getQueuedRecords()
+    {
+        return queue.size();
+    }
+
+    public long getBatchCount()
+    {
+        return batchCount;
+    }
+
+    public long getRecordCount()
+    {
+        return recordCount;
+    }
+
+    public long getSyncCount()
+    {
+        return syncCount;
+    }
+
+    /**
+     * Counts accepted records the sink could not take
+     * @return Records dropped after repeated append failures
+     */
+    public long getLostRecords()
+    {
+        return lostRecords;
+    }
+
+    public int getLastBatchSize()
+    {
+        return lastBatchSize;
+    }
+
+    public int getLargestBatchSize()
+    {
+        return largestBatchSize;
+    }
+
+    public double getAverageBatchSize()
+    {
+        long batches = batchCount;
+        return batches == 0 ? 0.0 : (double) recordCount / batches;
+    }
+
+    public long getLastCommitLatencyMicros()
+    {
+        return lastCommitNanos / 1000;
+    }
+
+    public long getMaxCommitLatencyMicros()
+    {
+        return maxCommitNanos / 1000;
+    }
+
+    public double getAverageCommitLatencyMicros()
+    {
+        long batches = batchCount;
+        return batches == 0 ? 0.0 : totalCommitNanos / 1000.0 / batches;
+    }
+
+    public DurabilityPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Summarises batching behaviour for tuning
+     * @return Single-line statistics report
+     */
+    public String getStatisticsSummary()
+    {
+        return String.format(
+            "policy=%s batches=%d records=%d syncs=%d avgBatch=%.1f maxBatch=%d "
+                + "avgCommit=%.1fus maxCommit=%dus queued=%d lost=%d",
+            policy, batchCount, recordCount, syncCount, getAverageBatchSize(),
+            largestBatchSize, getAverageCommitLatencyMicros(),
+            getMaxCommitLatencyMicros(), queue.size(), lostRecords);
+    }
+}
@@ -0,0 +1,116 @@
+package solution;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One member's cursors in a group conversation
+ *
+ * A member sees the group messages after the point where they joined and
+ * up to their delivery cursor. Senders advance the delivery cursor of
+ * every active member during fan-out without taking the conversation's
+ * stripe lock, so it is atomic; the received and read cursors, which
+ * follow the member's receipts, are only touched under that lock.
+ */
+final class GroupMember
+{
+    private final String phoneNumber;
+    private final long joinedAfter;
+    private final AtomicLong deliveredUpTo;
+    private long receivedUpTo;
+    private long readUpTo;
+
+    /**
+     * Creates a member whose history starts after a message
+     * @param phoneNumber Member's cell number
+     * @param joinedAfter ID of the newest group message when they joined
+     */
+    GroupMember(String phoneNumber, long joinedAfter)
+    {
+        this.phoneNumber = phoneNumber;
+        this.joinedAfter = joinedAfter;
+        this.deliveredUpTo = new AtomicLong(joinedAfter);
+        this.receivedUpTo = joinedAfter;
+        this.readUpTo = joinedAfter;
+    }
+
+    String getPhoneNumber()
+    {
+        return phoneNumber;
+    }
+
+    /**
+     * Gets the start of the member's history
+     * @return Exclusive lower bound on visible message IDs
+     */
+    long getJoinedAfter()
+    {
+        return joinedAfter;
+    }
+
+    /**
+     * Gets the delivery cursor
+     * @return ID of the newest message delivered to the member
+     */
+    long getDeliveredUpTo()
+    {
+        return deliveredUpTo.get();
+    }
+
+    /**
+     * Advances the delivery cursor; it never moves backwards
+     * @param messageId ID of a newly stored group message
+     */
+    void deliver(long messageId)
+    {
+        long current;
+        while ((current = deliveredUpTo.get()) < messageId
+               && !deliveredUpTo.compareAndSet(current, messageId))
+        {
+            // Lost a race with another sender; retry with the newer value
+        }
+    }
+
+    long getReceivedUpTo()
+    {
+        return receivedUpTo;
+    }
+
+    /**
+     * Advances the received cursor, never past what has been delivered
+     * @param upToId ID of the newest message the member's client has fetched
+     * @return true if the cursor moved
+     */
+    boolean markReceived(long upToId)
+    {
+        long next = Math.min(upToId, getDeliveredUpTo());
+        if (next <= receivedUpTo)
+        {
+            return false;
+        }
+        receivedUpTo = next;
+        return true;
+    }
+
+    long getReadUpTo()
+    {
+        return readUpTo;
+    }
+
+    /**
+     * Advances the read cursor, never past what has been delivered
+     * A message read has also been received
+     * @param upToId ID of the newest message read
+     * @return true if the cursor moved
+     */
+    boolean markRead(long upToId)
+    {
+        long next = Math.min(upToId, getDeliveredUpTo());
+        if (next <= readUpTo)
+        {
+            return false;
+        }
+        readUpTo = next;
+        receivedUpTo = Math.max(receivedUpTo, next);
+        return true;
+    }
+}
@@ -0,0 +1,1054 @@
+package solution;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Streaming pull parser for JSON text, the reading counterpart of JsonWriter
+ *
+ * The reader walks the input one token at a time and reports events;
+ * it never builds maps or trees. Field names and string values are
+ * unescaped into a single reusable buffer that can be compared or
+ * inspected without creating a String, so parsing a record allocates
+ * nothing beyond the values the caller decides to keep.
+ *
+ * Input is either UTF-8 bytes in a ByteBuffer or characters from a Reader.
+ * Several top-level values may follow each other (line-delimited JSON).
+ * A reader instance is not thread-safe; reuse it via reset() instead.
+ */
+public final class JsonReader
+{
+    /**
+     * Parser events, one per token
+     */
+    public enum Event
+    {
+        START_OBJECT,
+        END_OBJECT,
+        START_ARRAY,
+        END_ARRAY,
+        FIELD_NAME,
+        STRING,
+        NUMBER,
+        TRUE,
+        FALSE,
+        NULL,
+        END_DOCUMENT
+    }
+
+    // What the parser expects next inside the current container
+    private static final byte TOP = 0;
+    private static final byte OBJECT_FIRST = 1;
+    private static final byte OBJECT_COLON = 2;
+    private static final byte OBJECT_NEXT = 3;
+    private static final byte ARRAY_FIRST = 4;
+    private static final byte ARRAY_NEXT = 5;
+
+    private static final int NO_CHAR = -2;
+    private static final int EOF = -1;
+    private static final MessageStatus[] STATUSES = MessageStatus.values();
+    private static final GroupChange.Type[] GROUP_CHANGE_TYPES = GroupChange.Type.values();
+
+    // Stands in for a missing timestamp when the record has no ID to derive
+    // one from; the ID epoch sorts the record before every dated message
+    private static final LocalDateTime MISSING_TIMESTAMP =
+        LocalDateTime.ofEpochSecond(MessageIdGenerator.EPOCH_MILLIS / 1000, 0, ZoneOffset.UTC);
+
+    // Byte input
+    private ByteBuffer bytes;
+    private int bytePosition;
+    private int byteLimit;
+
+    // Character input
+    private Reader reader;
+    private final char[] chars = new char[8192];
+    private int charPosition;
+    private int charLimit;
+
+    private int pending = NO_CHAR;
+    private int pendingLowSurrogate = NO_CHAR;
+    private long offset;
+
+    private byte[] stack = new byte[16];
+    private int depth;
+
+    private char[] text = new char[128];
+    private int textLength;
+    private final TextView textView = new TextView();
+
+    /**
+     * Creates a reader over UTF-8 encoded bytes between the buffer's
+     * position and limit (the buffer's own position is not modified)
+     * @param buffer Source bytes
+     */
+    public JsonReader(ByteBuffer buffer)
+    {
+        reset(buffer, buffer.position(), buffer.limit());
+    }
+
+    /**
+     * Creates a reader over a character stream
+     * @param reader Source characters
+     */
+    public JsonReader(Reader reader)
+    {
+        reset(reader);
+    }
+
+    /**
+     * Points the reader at a new byte range, keeping its internal buffers
+     * @param buffer Source bytes
+     * @param start First byte to read
+     * @param end End of the input (exclusive)
+     */
+    public void reset(ByteBuffer buffer, int start, int end)
+    {
+        this.bytes = buffer;
+        this.bytePosition = start;
+        this.byteLimit = end;
+        this.reader = null;
+        clearState();
+    }
+
+    /**
+     * Points the reader at a new character stream, keeping its internal buffers
+     * @param reader Source characters
+     */
+    public void reset(Reader reader)
+    {
+        this.reader = reader;
+        this.bytes = null;
+        this.charPosition = 0;
+        this.charLimit = 0;
+        clearState();
+    }
+
+    private void clearState()
+    {
+        pending = NO_CHAR;
+        pendingLowSurrogate = NO_CHAR;
+        offset = 0;
+        depth = 0;
+        stack[0] = TOP;
+        textLength = 0;
+    }
+
+    /**
+     * Advances to the next token
+     * @return Event describing the token
+     * @throws IOException if the input cannot be read or is not valid JSON
+     */
+    public Event next() throws IOException
+    {
+        int c = nextNonWhitespace();
+        byte state = stack[depth];
+
+        switch (state)
+        {
+            case OBJECT_FIRST:
+                if (c == '}')
+                {
+                    return closeContainer();
+                }
+                if (c != '"')
+                {
+                    throw error("Expected field name");
+                }
+                readString();
+                stack[depth] = OBJECT_COLON;
+                return Event.FIELD_NAME;
+
+            case OBJECT_COLON:
+                if (c != ':')
+                {
+                    throw error("Expected ':'");
+                }
+                stack[depth] = OBJECT_NEXT;
+                return readValue(nextNonWhitespace());
+
+            case OBJECT_NEXT:
+                if (c == '}')
+                {
+                    return closeContainer();
+                }
+                if (c != ',')
+                {
+                    throw error("Expected ',' or '}'");
+                }
+                if (nextNonWhitespace() != '"')
+                {
+                    throw error("Expected field name");
+                }
+                readString();
+                stack[depth] = OBJECT_COLON;
+                return Event.FIELD_NAME;
+
+            case ARRAY_FIRST:
+                if (c == ']')
+                {
+                    return closeContainer();
+                }
+                stack[depth] = ARRAY_NEXT;
+                return readValue(c);
+
+            case ARRAY_NEXT:
+                if (c == ']')
+                {
+                    return closeContainer();
+                }
+                if (c != ',')
+                {
+                    throw error("Expected ',' or ']'");
+                }
+                return readValue(nextNonWhitespace());
+
+            default:
+                if (c == EOF)
+                {
+                    return Event.END_DOCUMENT;
+                }
+                return readValue(c);
+        }
+    }
+
+    /**
+     * Reads a value whose first character has already been consumed
+     * @param c First character
+     * @return Event for the value
+     * @throws IOException if the value is malformed
+     */
+    private Event readValue(int c) throws IOException
+    {
+        switch (c)
+        {
+            case '{':
+                push(OBJECT_FIRST);
+                return Event.START_OBJECT;
+
+            case '[':
+                push(ARRAY_FIRST);
+                return Event.START_ARRAY;
+
+            case '"':
+                readString();
+                return Event.STRING;
+
+            case 't':
+                expectLiteral("rue");
+                return Event.TRUE;
+
+            case 'f':
+                expectLiteral("alse");
+                return Event.FALSE;
+
+            case 'n':
+                expectLiteral("ull");
+                return Event.NULL;
+
+            case EOF:
+                throw error("Unexpected end of input");
+
+            default:
+                if (c == '-' || (c >= '0' && c <= '9'))
+                {
+                    readNumber(c);
+                    return Event.NUMBER;
+                }
+                throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void push(byte state)
+    {
+        if (++depth == stack.length)
+        {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[depth] = state;
+    }
+
+    private Event closeContainer()
+    {
+        boolean object = stack[depth] <= OBJECT_NEXT;
+        depth--;
+        return object ? Event.END_OBJECT : Event.END_ARRAY;
+    }
+
+    /**
+     * Skips the value that starts with the event just returned
+     * After a FIELD_NAME the field's value is skipped; after a START
+     * event the whole container is skipped
+     * @param event Event most recently returned by next()
+     * @throws IOException if the input is malformed
+     */
+    public void skipValue(Event event) throws IOException
+    {
+        if (event == Event.FIELD_NAME)
+        {
+            event = next();
+        }
+
+        if (event == Event.START_OBJECT || event == Event.START_ARRAY)
+        {
+            int targetDepth = depth - 1;
+            while (depth > targetDepth)
+            {
+                if (next() == Event.END_DOCUMENT)
+                {
+                    throw error("Unexpected end of input");
+                }
+            }
+        }
+    }
+
+    /**
+     * Unescapes a string body into the text buffer
+     * The opening quote has already been consumed
+     * @throws IOException if the string is malformed or unterminated
+     */
+    private void readString() throws IOException
+    {
+        textLength = 0;
+        while (true)
+        {
+            int c = read();
+            if (c == '"')
+            {
+                return;
+            }
+            if (c == EOF)
+            {
+                throw error("Unterminated string");
+            }
+            if (c == '\\')
+            {
+                c = read();
+                switch (c)
+                {
+                    case 'b':
+                        c = '\b';
+                        break;
+
+                    case 'f':
+                        c = '\f';
+                        break;
+
+                    case 'n':
+                        c = '\n';
+                        break;
+
+                    case 'r':
+                        c = '\r';
+                        break;
+
+                    case 't':
+                        c = '\t';
+                        break;
+
+                    case 'u':
+                        c = readHex();
+                        break;
+
+                    case '"':
+                    case '\\':
+                    case '/':
+                        break;
+
+                    default:
+                        throw error("Invalid escape sequence");
+                }
+            }
+            appendText((char) c);
+        }
+    }
+
+    private int readHex() throws IOException
+    {
+        int value = 0;
+        for (int i = 0; i < 4; i++)
+        {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0)
+            {
+                throw error("Invalid unicode escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private void readNumber(int first) throws IOException
+    {
+        textLength = 0;
+        int c = first;
+        while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E'
+               || (c >= '0' && c <= '9'))
+        {
+            appendText((char) c);
+            c = read();
+        }
+        pending = c;
+    }
+
+    private void expectLiteral(String rest) throws IOException
+    {
+        for (int i = 0; i < rest.length(); i++)
+        {
+            if (read() != rest.charAt(i))
+            {
+                throw error("Invalid literal");
+            }
+        }
+    }
+
+    private void appendText(char c)
+    {
+        if (textLength == text.length)
+        {
+            text = Arrays.copyOf(text, text.length * 2);
+        }
+        text[textLength++] = c;
+    }
+
+    private int nextNonWhitespace() throws IOException
+    {
+        int c = read();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t')
+        {
+            c = read();
+        }
+        return c;
+    }
+
+    /**
+     * Reads one UTF-16 code unit from the active input
+     * @return Character, or EOF
+     * @throws IOException if the character stream fails
+     */
+    private int read() throws IOException
+    {
+        if (pending != NO_CHAR)
+        {
+            int c = pending;
+            pending = NO_CHAR;
+            return c;
+        }
+        offset++;
+        return bytes != null ? readUtf8() : readChar();
+    }
+
+    private int readChar() throws IOException
+    {
+        if (charPosition == charLimit)
+        {
+            charLimit = reader.read(chars, 0, chars.length);
+            charPosition = 0;
+            if (charLimit <= 0)
+            {
+                charLimit = 0;
+                return EOF;
+            }
+        }
+        return chars[charPosition++];
+    }
+
+    /**
+     * Decodes the next UTF-8 sequence without a CharsetDecoder
+     * Code points outside the BMP are returned as two surrogates
+     * @return Character, or EOF
+     */
+    private int readUtf8()
+    {
+        if (pendingLowSurrogate != NO_CHAR)
+        {
+            int low = pendingLowSurrogate;
+            pendingLowSurrogate = NO_CHAR;
+            return low;
+        }
+        if (bytePosition >= byteLimit)
+        {
+            return EOF;
+        }
+
+        int b = bytes.get(bytePosition++) & 0xFF;
+        if (b < 0x80)
+        {
+            return b;
+        }
+
+        int extra;
+        int codePoint;
+        if ((b & 0xE0) == 0xC0)
+        {
+            extra = 1;
+            codePoint = b & 0x1F;
+        }
+        else if ((b & 0xF0) == 0xE0)
+        {
+            extra = 2;
+            codePoint = b & 0x0F;
+        }
+        else if ((b & 0xF8) == 0xF0)
+        {
+            extra = 3;
+            codePoint = b & 0x07;
+        }
+        else
+        {
+            return '\uFFFD';
+        }
+
+        for (int i = 0; i < extra; i++)
+        {
+            if (bytePosition >= byteLimit)
+            {
+                return '\uFFFD';
+            }
+            int next = bytes.get(bytePosition) & 0xFF;
+            if ((next & 0xC0) != 0x80)
+            {
+                return '\uFFFD';
+            }
+            bytePosition++;
+            codePoint = (codePoint << 6) | (next & 0x3F);
+        }
+
+        if (codePoint > 0xFFFF)
+        {
+            pendingLowSurrogate = Character.lowSurrogate(codePoint);
+            return Character.highSurrogate(codePoint);
+        }
+        return codePoint;
+    }
+
+    private IOException error(String reason)
+    {
+        return new IOException(reason + " at offset " + offset);
+    }
+
+    /**
+     * Gets the current field name or string/number value as a new String
+     * @return Token text
+     */
+    public String getText()
+    {
+        return new String(text, 0, textLength);
+    }
+
+    /**
+     * Gets a reusable view of the current token text
+     * The view changes when the reader advances
+     * @return Token text without copying
+     */
+    public CharSequence getTextView()
+    {
+        return textView;
+    }
+
+    /**
+     * Compares the current token text with a string without allocating
+     * @param value String to compare with
+     * @return true if equal
+     */
+    public boolean textEquals(String value)
+    {
+        if (value.length() != textLength)
+        {
+            return false;
+        }
+        for (int i = 0; i < textLength; i++)
+        {
+            if (text[i] != value.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the current NUMBER token as a long without allocating
+     * @return Numeric value
+     * @throws IOException if the number is not an integer in range
+     */
+    public long getLong() throws IOException
+    {
+        if (textLength == 0)
+        {
+            throw error("Expected integer");
+        }
+
+        boolean negative = text[0] == '-';
+        int start = negative ? 1 : 0;
+        if (start == textLength)
+        {
+            throw error("Expected integer");
+        }
+
+        long value = 0;
+        for (int i = start; i < textLength; i++)
+        {
+            char c = text[i];
+            if (c < '0' || c > '9')
+            {
+                throw error("Expected integer");
+            }
+            long next = value * 10 - (c - '0');
+            if (value < Long.MIN_VALUE / 10 || next > value)
+            {
+                throw error("Integer out of range");
+            }
+            value = next;
+        }
+
+        if (!negative)
+        {
+            if (value == Long.MIN_VALUE)
+            {
+                throw error("Integer out of range");
+            }
+            value = -value;
+        }
+        return value;
+    }
+
+    /**
+     * Parses the current NUMBER token as a double
+     * @return Numeric value
+     * @throws IOException if the number is malformed
+     */
+    public double getDouble() throws IOException
+    {
+        try
+        {
+            return Double.parseDouble(getText());
+        }
+        catch (NumberFormatException e)
+        {
+            throw error("Invalid number");
+        }
+    }
+
+    /**
+     * Decodes the next top-level object straight into a Message
+     * Only the strings the message keeps are allocated; keys, the status
+     * and the timestamp are matched against the token buffer in place.
+     * Unknown fields are skipped.
+     * @return Restored message, or null at end of input
+     * @throws IOException if the object is malformed, lacks a required field
+     *         or is a receipt or group change
+     */
+    public Message readMessage() throws IOException
+    {
+        Object record = readRecord();
+        if (record != null && !(record instanceof Message))
+        {
+            throw error("Expected message object");
+        }
+        return (Message) record;
+    }
+
+    /**
+     * Decodes the next top-level log record
+     * A record carrying a "receipt" field is a Receipt, one carrying a
+     * "group" field a GroupChange; anything else is decoded as a Message,
+     * as in readMessage()
+     * @return Message, Receipt or GroupChange, or null at end of input
+     * @throws IOException if the object is malformed or lacks a required field
+     */
+    public Object readRecord() throws IOException
+    {
+        Event event = next();
+        if (event == Event.END_DOCUMENT)
+        {
+            return null;
+        }
+        if (event != Event.START_OBJECT)
+        {
+            throw error("Expected message object");
+        }
+
+        long id = 0;
+        boolean hasId = false;
+        String messageId = null;
+        String messageHash = null;
+        String recipient = null;
+        String sender = null;
+        String payload = null;
+        LocalDateTime timestamp = null;
+        MessageStatus status = MessageStatus.PENDING;
+        MessageStatus receipt = null;
+        String reader = null;
+        String peer = null;
+        long upToId = 0;
+        boolean hasUpTo = false;
+        GroupChange.Type change = null;
+        String address = null;
+        String member = null;
+        long at = 0;
+        boolean hasAt = false;
+
+        while ((event = next()) == Event.FIELD_NAME)
+        {
+            int field = fieldCode();
+            Event value = next();
+
+            if (field == 7 || field == 12 || field == 16)
+            {
+                if (value != Event.NUMBER)
+                {
+                    throw error("Expected numeric id");
+                }
+                if (field == 7)
+                {
+                    id = getLong();
+                    hasId = true;
+                }
+                else if (field == 12)
+                {
+                    upToId = getLong();
+                    hasUpTo = true;
+                }
+                else
+                {
+                    at = getLong();
+                    hasAt = true;
+                }
+                continue;
+            }
+            if (field != 0 && value != Event.STRING)
+            {
+                throw error("Expected string value");
+            }
+
+            switch (field)
+            {
+                case 1:
+                    messageId = getText();
+                    break;
+
+                case 2:
+                    recipient = getText();
+                    break;
+
+                case 3:
+                    sender = getText();
+                    break;
+
+                case 4:
+                    payload = getText();
+                    break;
+
+                case 5:
+                    timestamp = parseTimestamp();
+                    break;
+
+                case 6:
+                    status = parseStatus();
+                    break;
+
+                case 8:
+                    messageHash = getText();
+                    break;
+
+                case 9:
+                    receipt = parseStatus();
+                    break;
+
+                case 10:
+                    reader = getText();
+                    break;
+
+                case 11:
+                    peer = getText();
+                    break;
+
+                case 13:
+                    change = parseGroupChangeType();
+                    break;
+
+                case 14:
+                    address = getText();
+                    break;
+
+                case 15:
+                    member = getText();
+                    break;
+
+                default:
+                    skipValue(value);
+                    break;
+            }
+        }
+
+        if (event != Event.END_OBJECT)
+        {
+            throw error("Malformed message object");
+        }
+        if (receipt != null)
+        {
+            if (reader == null || peer == null || !hasUpTo)
+            {
+                throw error("Receipt is missing a required field");
+            }
+            if (receipt != MessageStatus.RECEIVED && receipt != MessageStatus.READ)
+            {
+                throw error("Unknown receipt status");
+            }
+            return new Receipt(receipt, reader, peer, upToId);
+        }
+        if (change != null)
+        {
+            if (address == null || member == null || !hasAt)
+            {
+                throw error("Group change is missing a required field");
+            }
+            return new GroupChange(change, address, member, at);
+        }
+        if (messageId == null || recipient == null || sender == null || payload == null)
+        {
+            throw error("Message is missing a required field");
+        }
+
+        if (timestamp == null)
+        {
+            // Derived rather than read from the clock, so a replay is repeatable
+            timestamp = hasId ? timestampOf(id) : MISSING_TIMESTAMP;
+        }
+        if (!hasId)
+        {
+            // Written before 64-bit IDs were persisted
+            id = MessageIdGenerator.legacyId(
+                timestamp.toInstant(ZoneOffset.UTC).toEpochMilli(), messageId);
+        }
+
+        return new Message(id, messageId, messageHash, payload, recipient, sender,
+                           timestamp, status);
+    }
+
+    /**
+     * Recovers a creation time from the time part of a message ID
+     */
+    private static LocalDateTime timestampOf(long id)
+    {
+        long millis = MessageIdGenerator.timestampMillis(id);
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+                                           (int) Math.floorMod(millis, 1000L) * 1_000_000,
+                                           ZoneOffset.UTC);
+    }
+
+    /**
+     * Maps the current field name to a message, receipt or group change field
+     * @return Field number, or 0 for fields no record uses
+     */
+    private int fieldCode()
+    {
+        if (textEquals("messageId"))
+        {
+            return 1;
+        }
+        if (textEquals("recipient"))
+        {
+            return 2;
+        }
+        if (textEquals("sender"))
+        {
+            return 3;
+        }
+        if (textEquals("message"))
+        {
+            return 4;
+        }
+        if (textEquals("timestamp"))
+        {
+            return 5;
+        }
+        if (textEquals("status"))
+        {
+            return 6;
+        }
+        if (textEquals("id"))
+        {
+            return 7;
+        }
+        if (textEquals("messageHash"))
+        {
+            return 8;
+        }
+        if (textEquals("receipt"))
+        {
+            return 9;
+        }
+        if (textEquals("reader"))
+        {
+            return 10;
+        }
+        if (textEquals("peer"))
+        {
+            return 11;
+        }
+        if (textEquals("upTo"))
+        {
+            return 12;
+        }
+        if (textEquals("group"))
+        {
+            return 13;
+        }
+        if (textEquals("address"))
+        {
+            return 14;
+        }
+        if (textEquals("member"))
+        {
+            return 15;
+        }
+        if (textEquals("at"))
+        {
+            return 16;
+        }
+        return 0;
+    }
+
+    private GroupChange.Type parseGroupChangeType() throws IOException
+    {
+        for (GroupChange.Type type : GROUP_CHANGE_TYPES)
+        {
+            if (textEquals(type.toString()))
+            {
+                return type;
+            }
+        }
+        throw error("Unknown group change");
+    }
+
+    private MessageStatus parseStatus() throws IOException
+    {
+        for (MessageStatus status : STATUSES)
+        {
+            if (textEquals(status.toString()))
+            {
+                return status;
+            }
+        }
+        throw error("Unknown message status");
+    }
+
+    private LocalDateTime parseTimestamp() throws IOException
+    {
+        try
+        {
+            return parseTimestamp(textView);
+        }
+        catch (DateTimeException e)
+        {
+            throw error("Invalid timestamp");
+        }
+    }
+
+    /**
+     * Parses the ISO-8601 form written by LocalDateTime.toString
+     * Handles the common yyyy-MM-ddTHH:mm:ss.fraction shape by hand, which is
+     * many times cheaper than the general formatter, and falls back to
+     * LocalDateTime.parse for anything else
+     * @param text Timestamp text
+     * @return Parsed time
+     * @throws DateTimeException if the text is not a valid timestamp
+     */
+    static LocalDateTime parseTimestamp(CharSequence text)
+    {
+        int length = text.length();
+        if (length >= 19 && text.charAt(4) == '-' && text.charAt(7) == '-'
+            && text.charAt(10) == 'T' && text.charAt(13) == ':' && text.charAt(16) == ':')
+        {
+            int year = digits(text, 0, 4);
+            int month = digits(text, 5, 2);
+            int day = digits(text, 8, 2);
+            int hour = digits(text, 11, 2);
+            int minute = digits(text, 14, 2);
+            int second = digits(text, 17, 2);
+            int nanos = 0;
+            boolean valid = year >= 0 && month >= 0 && day >= 0
+                && hour >= 0 && minute >= 0 && second >= 0;
+
+            if (valid && length > 19)
+            {
+                int fractionDigits = length - 20;
+                valid = text.charAt(19) == '.' && fractionDigits >= 1 && fractionDigits <= 9;
+                nanos = valid ? digits(text, 20, fractionDigits) : -1;
+                for (int i = fractionDigits; i < 9 && nanos >= 0; i++)
+                {
+                    nanos *= 10;
+                }
+                valid = nanos >= 0;
+            }
+
+            if (valid)
+            {
+                return LocalDateTime.of(year, month, day, hour, minute, second, nanos);
+            }
+        }
+        return LocalDateTime.parse(text);
+    }
+
+    /**
+     * Reads a run of decimal digits
+     * @param text Source text
+     * @param start First character
+     * @param count Number of digits
+     * @return Parsed value, or -1 if a non-digit is found
+     */
+    private static int digits(CharSequence text, int start, int count)
+    {
+        int value = 0;
+        for (int i = start; i < start + count; i++)
+        {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Read-only CharSequence over the token buffer
+     */
+    private final class TextView implements CharSequence
+    {
+        @Override
+        public int length()
+        {
+            return textLength;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            if (index < 0 || index >= textLength)
+            {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return text[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new String(text, start, end - start);
+        }
+
+        @Override
+        public String toString()
+        {
+            return getText();
+        }
+    }
+}
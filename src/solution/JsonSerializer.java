@@ -0,0 +1,261 @@
+package solution;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+
+/**
+ * Single-pass JSON output for messages and string values
+ *
+ * Strings are escaped with a lookup table while they are copied, so a
+ * value is scanned once and unescaped runs are appended in bulk.
+ * Messages are written field by field straight into the caller's buffer
+ * without building a Map or intermediate strings.
+ */
+public final class JsonSerializer
+{
+    // Escape sequence for every ASCII character that needs one (null = copy as is)
+    private static final String[] ESCAPES = new String[128];
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static
+    {
+        for (int c = 0; c < 0x20; c++)
+        {
+            ESCAPES[c] = "\\u00" + HEX[c >> 4] + HEX[c & 0xF];
+        }
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\t'] = "\\t";
+    }
+
+    private JsonSerializer()
+    {
+        // Static utility class
+    }
+
+    /**
+     * Appends a string with JSON escaping applied (without surrounding quotes)
+     * @param out Destination
+     * @param value Raw text
+     * @throws IOException if the destination fails
+     */
+    public static void appendEscaped(Appendable out, CharSequence value) throws IOException
+    {
+        int runStart = 0;
+        int length = value.length();
+
+        for (int i = 0; i < length; i++)
+        {
+            char c = value.charAt(i);
+            String escape = c < 128 ? ESCAPES[c] : null;
+            if (escape != null)
+            {
+                if (i > runStart)
+                {
+                    out.append(value, runStart, i);
+                }
+                out.append(escape);
+                runStart = i + 1;
+            }
+        }
+
+        if (runStart < length)
+        {
+            out.append(value, runStart, length);
+        }
+    }
+
+    /**
+     * Appends a quoted, escaped JSON string
+     * @param out Destination
+     * @param value Raw text
+     * @throws IOException if the destination fails
+     */
+    public static void appendString(Appendable out, CharSequence value) throws IOException
+    {
+        out.append('"');
+        appendEscaped(out, value);
+        out.append('"');
+    }
+
+    /**
+     * Writes a message as a single-line JSON object in the persisted field order:
+     * messageId, messageHash, recipient, sender, message, timestamp, status, id
+     * @param message Message to serialise
+     * @param out Destination
+     * @throws IOException if the destination fails
+     */
+    public static void writeMessage(Message message, Appendable out) throws IOException
+    {
+        out.append("{\"messageId\":");
+        appendString(out, message.getMessageId());
+        out.append(",\"messageHash\":");
+        appendString(out, message.createMessageHash());
+        out.append(",\"recipient\":");
+        appendString(out, message.getRecipientPhoneNumber());
+        out.append(",\"sender\":");
+        appendString(out, message.getSenderPhoneNumber());
+        out.append(",\"message\":");
+        appendString(out, message.getMessagePayload());
+        out.append(",\"timestamp\":\"");
+        appendTimestamp(out, message.getTimestamp());
+        out.append("\",\"status\":");
+        appendString(out, message.getStatus().toString());
+        out.append(",\"id\":");
+        if (out instanceof StringBuilder builder)
+        {
+            builder.append(message.getId());
+        }
+        else
+        {
+            out.append(Long.toString(message.getId()));
+        }
+        out.append('}');
+    }
+
+    /**
+     * Writes a receipt as a single-line JSON object:
+     * receipt (the status), reader, peer, upTo
+     * @param receipt Receipt to serialise
+     * @param out Destination
+     */
+    public static void writeReceipt(Receipt receipt, StringBuilder out)
+    {
+        try
+        {
+            out.append("{\"receipt\":");
+            appendString(out, receipt.getStatus().toString());
+            out.append(",\"reader\":");
+            appendString(out, receipt.getReader());
+            out.append(",\"peer\":");
+            appendString(out, receipt.getPeer());
+            out.append(",\"upTo\":").append(receipt.getUpToId()).append('}');
+        }
+        catch (IOException e)
+        {
+            // StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a group membership change as a single-line JSON object:
+     * group (the type), address, member, at
+     * @param change Change to serialise
+     * @param out Destination
+     */
+    public static void writeGroupChange(GroupChange change, StringBuilder out)
+    {
+        try
+        {
+            out.append("{\"group\":");
+            appendString(out, change.getType().toString());
+            out.append(",\"address\":");
+            appendString(out, change.getAddress());
+            out.append(",\"member\":");
+            appendString(out, change.getMember());
+            out.append(",\"at\":").append(change.getCursor()).append('}');
+        }
+        catch (IOException e)
+        {
+            // StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a message into a StringBuilder
+     * @param message Message to serialise
+     * @param out Destination
+     */
+    public static void writeMessage(Message message, StringBuilder out)
+    {
+        try
+        {
+            writeMessage(message, (Appendable) out);
+        }
+        catch (IOException e)
+        {
+            // StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends a timestamp exactly as LocalDateTime.toString formats it,
+     * without creating the intermediate string
+     * @param out Destination
+     * @param time Timestamp
+     * @throws IOException if the destination fails
+     */
+    static void appendTimestamp(Appendable out, LocalDateTime time) throws IOException
+    {
+        int year = time.getYear();
+        if (year < 1000 || year > 9999)
+        {
+            // Signed and padded years are rare; let the JDK handle them
+            out.append(time.toString());
+            return;
+        }
+
+        appendDigits(out, year, 4);
+        out.append('-');
+        appendDigits(out, time.getMonthValue(), 2);
+        out.append('-');
+        appendDigits(out, time.getDayOfMonth(), 2);
+        out.append('T');
+        appendDigits(out, time.getHour(), 2);
+        out.append(':');
+        appendDigits(out, time.getMinute(), 2);
+
+        int second = time.getSecond();
+        int nano = time.getNano();
+        if (second > 0 || nano > 0)
+        {
+            out.append(':');
+            appendDigits(out, second, 2);
+            if (nano > 0)
+            {
+                out.append('.');
+                if (nano % 1_000_000 == 0)
+                {
+                    appendDigits(out, nano / 1_000_000, 3);
+                }
+                else if (nano % 1000 == 0)
+                {
+                    appendDigits(out, nano / 1000, 6);
+                }
+                else
+                {
+                    appendDigits(out, nano, 9);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends a non-negative number zero-padded to a fixed width
+     * @param out Destination
+     * @param value Number to write
+     * @param width Number of digits
+     * @throws IOException if the destination fails
+     */
+    private static void appendDigits(Appendable out, int value, int width) throws IOException
+    {
+        int divisor = 1;
+        for (int i = 1; i < width; i++)
+        {
+            divisor *= 10;
+        }
+        while (divisor > 0)
+        {
+            out.append((char) ('0' + (value / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+}
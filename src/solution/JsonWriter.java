@@ -1,5 +1,7 @@
 package solution;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Map;
 
 public class JsonWriter
@@ -27,14 +29,15 @@ public class JsonWriter
             }
 
             // Append the key, enclosed in double quotes
-            json.append("\"").append(entry.getKey()).append("\":");
+            appendString(json, entry.getKey());
+            json.append(":");
 
             Object value = entry.getValue();
 
             // If the value is a String, escape it and enclose in double quotes
             if (value instanceof String string)
             {
-                json.append("\"").append(escapeJson(string)).append("\"");
+                appendString(json, string);
             }
             else
             {
@@ -50,20 +53,22 @@ public class JsonWriter
     }
 
     /**
-     * Escapes special characters in a JSON string according to JSON standards.
-     * Handles characters like backslashes, quotes, and control characters.
+     * Appends a quoted string, escaped in a single pass by JsonSerializer.
+     * Handles backslashes, quotes and all control characters below 0x20.
      *
+     * @param json the builder to append to
      * @param input the raw string to be escaped
-     * @return the escaped string safe for JSON formatting
      */
-    private static String escapeJson(String input)
+    private static void appendString(StringBuilder json, String input)
     {
-        return input.replace("\\", "\\\\")
-                    .replace("\"", "\\\"")
-                    .replace("\b", "\\b")
-                    .replace("\f", "\\f")
-                    .replace("\n", "\\n")
-                    .replace("\r", "\\r")
-                    .replace("\t", "\\t");
+        try
+        {
+            JsonSerializer.appendString(json, input);
+        }
+        catch (IOException e)
+        {
+            // StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
     }
 }
@@ -0,0 +1,176 @@
+package solution;
+
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of latencies, in the style of HdrHistogram
+ *
+ * Values below 128 get a bucket each; above that, every power of two is
+ * split into 64 equal buckets, so any recorded value is reported within
+ * 1/64 (about 1.6%) of its true value whatever its magnitude. The whole
+ * range of a long fits in under 4,000 counters, recording is a few shifts
+ * and an increment, and two histograms merge by adding their counters.
+ *
+ * Not thread-safe: give each recording thread its own histogram and
+ * merge them with add().
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int MAX_SHIFT = 62 - (SUB_BUCKET_BITS - 1); // Long.MAX_VALUE has 63 bits
+
+    /** Number of counters, shared with LatencyRecorder */
+    static final int BUCKETS = SUB_BUCKETS + MAX_SHIFT * HALF_SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+
+    /**
+     * Builds a histogram from counters gathered elsewhere (see LatencyRecorder)
+     * @param bucketCounts BUCKETS counters indexed like indexOf()
+     * @param min Smallest value counted
+     * @param max Largest value counted
+     * @param sum Sum of the values counted
+     * @return Histogram with a copy of the counters
+     */
+    static LatencyHistogram of(long[] bucketCounts, long min, long max, double sum)
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        System.arraycopy(bucketCounts, 0, histogram.counts, 0, BUCKETS);
+        for (long count : bucketCounts)
+        {
+            histogram.totalCount += count;
+        }
+        if (histogram.totalCount > 0)
+        {
+            histogram.min = min;
+            histogram.max = max;
+            histogram.sum = sum;
+        }
+        return histogram;
+    }
+
+    /**
+     * Records one value
+     * @param value Latency (negative values are recorded as 0)
+     */
+    public void record(long value)
+    {
+        long v = Math.max(0, value);
+        counts[indexOf(v)]++;
+        totalCount++;
+        sum += v;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+    }
+
+    /**
+     * Adds another histogram's values to this one
+     * @param other Histogram to merge (unchanged)
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Forgets every recorded value
+     */
+    public void reset()
+    {
+        Arrays.fill(counts, 0L);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * Gets the value at or below which a percentage of recorded values fall
+     * @param percentile Percentile, 0 to 100 (e.g. 99.9)
+     * @return Highest value in the bucket holding the percentile, capped at
+     *         the largest recorded value; 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (totalCount == 0)
+        {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+            {
+                return Math.min(max, highestValueOf(i));
+            }
+        }
+        return max;
+    }
+
+    public long getCount()
+    {
+        return totalCount;
+    }
+
+    public long getMin()
+    {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax()
+    {
+        return max;
+    }
+
+    public double getMean()
+    {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    /**
+     * Maps a value to its counter
+     * Values below SUB_BUCKETS map to themselves; a larger value keeps its
+     * top SUB_BUCKET_BITS - 1 bits after the leading one, which picks one
+     * of HALF_SUB_BUCKETS buckets in the range of its power of two
+     */
+    static int indexOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        int mantissa = (int) (value >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (mantissa - HALF_SUB_BUCKETS);
+    }
+
+    /**
+     * Gets the largest value that maps to a counter
+     */
+    static long highestValueOf(int index)
+    {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long mantissa = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        long next = (mantissa + 1) << shift;
+        return next <= 0 ? Long.MAX_VALUE : next - 1;
+    }
+}
@@ -0,0 +1,130 @@
+package solution;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe latency histogram for hot paths
+ *
+ * Uses LatencyHistogram's buckets, but each counter is a LongAdder, so
+ * threads recording at the same time do not fight over a cache line. A
+ * counter is only allocated once a value lands in its bucket, which keeps
+ * an idle recorder to a few kilobytes.
+ *
+ * Values accumulate in the current interval until roll() closes it; the
+ * closed interval is what the MBean reports. Values recorded while an
+ * interval closes may be counted in either interval.
+ */
+public final class LatencyRecorder implements LatencyRecorderMBean
+{
+    private final AtomicReferenceArray<LongAdder> counts;
+    private final LongAdder sum;
+    private final LongAccumulator min;
+    private final LongAccumulator max;
+    private final LongAdder total;
+    private volatile LatencyHistogram lastInterval;
+
+    public LatencyRecorder()
+    {
+        this.counts = new AtomicReferenceArray<>(LatencyHistogram.BUCKETS);
+        this.sum = new LongAdder();
+        this.min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        this.max = new LongAccumulator(Math::max, 0L);
+        this.total = new LongAdder();
+        this.lastInterval = new LatencyHistogram();
+    }
+
+    /**
+     * Records one latency
+     * @param nanos Duration in nanoseconds (negative values are recorded as 0)
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+        int index = LatencyHistogram.indexOf(value);
+        LongAdder bucket = counts.get(index);
+        if (bucket == null)
+        {
+            counts.compareAndSet(index, null, new LongAdder());
+            bucket = counts.get(index);
+        }
+        bucket.increment();
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+        total.increment();
+    }
+
+    /**
+     * Closes the current interval and starts a new one
+     * @return Values recorded during the interval just closed
+     */
+    public LatencyHistogram roll()
+    {
+        long[] snapshot = new long[LatencyHistogram.BUCKETS];
+        for (int i = 0; i < snapshot.length; i++)
+        {
+            LongAdder bucket = counts.get(i);
+            if (bucket != null)
+            {
+                snapshot[i] = bucket.sumThenReset();
+            }
+        }
+        LatencyHistogram interval = LatencyHistogram.of(snapshot, min.getThenReset(),
+                                                        max.getThenReset(), sum.sumThenReset());
+        lastInterval = interval;
+        return interval;
+    }
+
+    /**
+     * Gets the values of the last closed interval
+     * @return Histogram, empty before the first roll()
+     */
+    public LatencyHistogram getLastInterval()
+    {
+        return lastInterval;
+    }
+
+    @Override
+    public long getCount()
+    {
+        return total.sum();
+    }
+
+    @Override
+    public long getIntervalCount()
+    {
+        return lastInterval.getCount();
+    }
+
+    @Override
+    public double getMeanMicros()
+    {
+        return lastInterval.getMean() / 1e3;
+    }
+
+    @Override
+    public double getP50Micros()
+    {
+        return lastInterval.getValueAtPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getP99Micros()
+    {
+        return lastInterval.getValueAtPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getP999Micros()
+    {
+        return lastInterval.getValueAtPercentile(99.9) / 1e3;
+    }
+
+    @Override
+    public double getMaxMicros()
+    {
+        return lastInterval.getMax() / 1e3;
+    }
+}
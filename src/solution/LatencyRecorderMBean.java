@@ -0,0 +1,23 @@
+package solution;
+
+/**
+ * JMX view of one LatencyRecorder
+ * Percentiles describe the last completed interval; Count is the total
+ * since startup
+ */
+public interface LatencyRecorderMBean
+{
+    long getCount();
+
+    long getIntervalCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
@@ -0,0 +1,111 @@
+package solution;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads UTF-8 request lines from a blocking stream
+ *
+ * Starts with a small buffer that grows only for long lines, so tens of
+ * thousands of idle sessions cost a few hundred bytes each instead of the
+ * 8 KB buffers of BufferedReader and InputStreamReader.
+ */
+final class LineReader
+{
+    private final InputStream in;
+    private final int maxLineBytes;
+    private byte[] buffer;
+    private int start;
+    private int end;
+
+    /**
+     * Creates a reader
+     * @param in Source stream
+     * @param initialBytes Initial buffer size
+     * @param maxLineBytes Longest line accepted
+     */
+    LineReader(InputStream in, int initialBytes, int maxLineBytes)
+    {
+        this.in = in;
+        this.maxLineBytes = maxLineBytes;
+        this.buffer = new byte[initialBytes];
+    }
+
+    /**
+     * Reads the next line, blocking until one is complete
+     * @return Line without its terminator, or null at end of stream
+     * @throws IOException If the stream fails or a line exceeds the limit
+     */
+    String readLine() throws IOException
+    {
+        // Bytes after start already checked; unaffected by compaction
+        int scanned = 0;
+        while (true)
+        {
+            for (int i = start + scanned; i < end; i++)
+            {
+                if (buffer[i] == '\n')
+                {
+                    int lineEnd = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+                    String line = new String(buffer, start, lineEnd - start, StandardCharsets.UTF_8);
+                    start = i + 1;
+                    return line;
+                }
+            }
+            scanned = end - start;
+
+            if (!fill())
+            {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a complete line can be returned without blocking
+     * @return true if a line terminator is already buffered
+     */
+    boolean hasBufferedLine()
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (buffer[i] == '\n')
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads more bytes, compacting or growing the buffer first
+     * @return false at end of stream
+     */
+    private boolean fill() throws IOException
+    {
+        if (start > 0)
+        {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buffer.length)
+        {
+            if (buffer.length >= maxLineBytes)
+            {
+                throw new IOException("Request line exceeds " + maxLineBytes + " bytes");
+            }
+            buffer = Arrays.copyOf(buffer, Math.min(maxLineBytes, buffer.length * 2));
+        }
+
+        int read = in.read(buffer, end, buffer.length - end);
+        if (read < 0)
+        {
+            return false;
+        }
+        end += read;
+        return true;
+    }
+}
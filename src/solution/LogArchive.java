@@ -0,0 +1,329 @@
+package solution;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Reads older messages back from the segmented log
+ *
+ * Messages that fall out of an in-memory hot window are not copied
+ * anywhere: they are already in the log. The archive walks the log from
+ * the newest segment backwards, one sparse-index chunk at a time, and
+ * keeps a small summary of every chunk it has decoded: the range of its
+ * message IDs and a 256-bit bloom filter of its senders and recipients.
+ * A chunk whose IDs lie outside the wanted range, or which cannot hold a
+ * message of the wanted participants, is skipped without being read, so
+ * a page costs roughly the chunks that hold its own messages rather than
+ * the log newer than its cursor. LogReplayer fills the summaries while
+ * it replays the log at startup; chunks appended or compacted later are
+ * summarised the first time a page reads them. The open tail chunk of
+ * the active segment is always read. Thread-safe.
+ */
+public final class LogArchive
+{
+    private static final int BLOOM_WORDS = 4;
+
+    private final SegmentedLog log;
+    private final ConcurrentHashMap<LogSegment, SegmentSummary> summaries;
+
+    /**
+     * Creates an archive view of a log
+     * @param log Segmented log holding persisted messages
+     */
+    public LogArchive(SegmentedLog log)
+    {
+        this.log = log;
+        this.summaries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Loads the newest matching messages with an ID below the cursor
+     * @param filter Selects the messages of interest (e.g. one inbox)
+     * @param beforeId Exclusive upper bound on message IDs
+     * @param limit Maximum number of messages
+     * @return Matching messages, oldest first
+     */
+    public List<Message> loadBefore(Predicate<Message> filter, long beforeId, int limit)
+    {
+        return loadBetween(null, filter, Long.MIN_VALUE, beforeId, limit);
+    }
+
+    /**
+     * Loads the newest matching messages with an ID inside a range
+     * @param addresses Phone numbers or group addresses one of which every
+     *        matching message has as sender or recipient (null for any)
+     * @param filter Selects the messages of interest among those
+     * @param afterId Exclusive lower bound on message IDs
+     * @param beforeId Exclusive upper bound on message IDs
+     * @param limit Maximum number of messages
+     * @return Matching messages, oldest first
+     */
+    public List<Message> loadBetween(Collection<String> addresses, Predicate<Message> filter,
+                                     long afterId, long beforeId, int limit)
+    {
+        List<Message> newestFirst = new ArrayList<>(limit);
+        if (limit <= 0 || afterId >= beforeId)
+        {
+            return newestFirst;
+        }
+
+        int[] wanted = addresses == null ? null : bloomBitsOf(addresses);
+        ChunkStats stats = new ChunkStats();
+        List<Message> chunk = new ArrayList<>();
+        JsonReader reader = new JsonReader(ByteBuffer.allocate(0));
+
+        List<LogSegment> segments = log.getSegments();
+        forgetReplaced(segments);
+        for (int s = segments.size() - 1; s >= 0 && newestFirst.size() < limit; s--)
+        {
+            LogSegment segment = segments.get(s);
+            SegmentSummary summary = summaryOf(segment);
+            int[] boundaries = segment.recordBoundaries();
+
+            for (int b = boundaries.length - 1; b > 0 && newestFirst.size() < limit; b--)
+            {
+                int index = b - 1;
+                boolean complete = isComplete(segment, boundaries, index);
+                if (complete && summary.canSkip(index, wanted, afterId, beforeId))
+                {
+                    continue;
+                }
+
+                chunk.clear();
+                stats.clear();
+                segment.forEachRecord(boundaries[index], boundaries[b], (buffer, start, end) ->
+                {
+                    reader.reset(buffer, start, end);
+                    try
+                    {
+                        Object record = reader.readRecord();
+                        if (record instanceof Message)
+                        {
+                            Message message = (Message) record;
+                            stats.add(message);
+                            if (message.getId() > afterId && message.getId() < beforeId
+                                && filter.test(message))
+                            {
+                                chunk.add(message);
+                            }
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        // Not a message record; skip it
+                    }
+                });
+                if (complete)
+                {
+                    summary.record(index, stats);
+                }
+
+                for (int i = chunk.size() - 1; i >= 0 && newestFirst.size() < limit; i--)
+                {
+                    newestFirst.add(chunk.get(i));
+                }
+            }
+        }
+
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    /**
+     * Stores the summary of a chunk decoded elsewhere, e.g. during replay
+     * @param segment Segment holding the chunk
+     * @param chunkIndex Position of the chunk's first boundary in segment.recordBoundaries()
+     * @param stats Every message of the chunk, which must be complete (see isComplete)
+     */
+    void record(LogSegment segment, int chunkIndex, ChunkStats stats)
+    {
+        summaryOf(segment).record(chunkIndex, stats);
+    }
+
+    /**
+     * Checks whether a chunk of a boundary snapshot can never gain records
+     * A chunk ending at a sparse index entry is fixed; one ending at the
+     * snapshot's write position is only fixed if the segment was sealed
+     * before the snapshot was taken
+     * @param segment Segment holding the chunk
+     * @param boundaries Snapshot of segment.recordBoundaries()
+     * @param chunkIndex Index of the chunk's first boundary
+     * @return true if a summary of the chunk stays valid
+     */
+    boolean isComplete(LogSegment segment, int[] boundaries, int chunkIndex)
+    {
+        if (chunkIndex + 2 < boundaries.length)
+        {
+            return true;
+        }
+        return !log.isActive(segment) && boundaries[chunkIndex + 1] == segment.getWritePosition();
+    }
+
+    private SegmentSummary summaryOf(LogSegment segment)
+    {
+        return summaries.computeIfAbsent(segment, k -> new SegmentSummary());
+    }
+
+    /**
+     * Drops the summaries of segments removed by retention or replaced by compaction
+     */
+    private void forgetReplaced(List<LogSegment> segments)
+    {
+        if (summaries.size() > segments.size())
+        {
+            Set<LogSegment> retained = Collections.newSetFromMap(new IdentityHashMap<>());
+            retained.addAll(segments);
+            summaries.keySet().retainAll(retained);
+        }
+    }
+
+    /**
+     * Lists the two bloom bits of every address, in pairs
+     */
+    private static int[] bloomBitsOf(Collection<String> addresses)
+    {
+        int[] bits = new int[addresses.size() * 2];
+        int i = 0;
+        for (String address : addresses)
+        {
+            int h = mix(address);
+            bits[i++] = h >>> 24;
+            bits[i++] = (h >>> 16) & 0xFF;
+        }
+        return bits;
+    }
+
+    /**
+     * Sets the two bits of an address (one per byte of a mixed hash)
+     */
+    private static void addToBloom(long[] bloom, String address)
+    {
+        int h = mix(address);
+        int first = h >>> 24;
+        int second = (h >>> 16) & 0xFF;
+        bloom[first >>> 6] |= 1L << first;
+        bloom[second >>> 6] |= 1L << second;
+    }
+
+    private static int mix(String address)
+    {
+        return address.hashCode() * 0x9E3779B9;
+    }
+
+    /**
+     * ID range and address bloom of the messages of one chunk, as decoded
+     */
+    static final class ChunkStats
+    {
+        private long minId = Long.MAX_VALUE;
+        private long maxId = Long.MIN_VALUE;
+        private final long[] bloom = new long[BLOOM_WORDS];
+
+        void add(Message message)
+        {
+            minId = Math.min(minId, message.getId());
+            maxId = Math.max(maxId, message.getId());
+            addToBloom(bloom, message.getSenderPhoneNumber());
+            addToBloom(bloom, message.getRecipientPhoneNumber());
+        }
+
+        void clear()
+        {
+            minId = Long.MAX_VALUE;
+            maxId = Long.MIN_VALUE;
+            Arrays.fill(bloom, 0L);
+        }
+    }
+
+    /**
+     * Summaries of the chunks of one segment, indexed like its record boundaries
+     * Sparse index entries are only ever appended, so a chunk keeps its
+     * index once its end is an index entry
+     */
+    private static final class SegmentSummary
+    {
+        // Per chunk: minId, maxId, then the bloom words
+        private static final int STRIDE = 2 + BLOOM_WORDS;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private long[] chunks = new long[0];
+        private boolean[] known = new boolean[0];
+
+        /**
+         * Checks whether a summarised chunk cannot hold a wanted message
+         * @param wanted Bloom bit pairs of the wanted addresses (null for any)
+         * @return false if the chunk has not been summarised yet
+         */
+        boolean canSkip(int index, int[] wanted, long afterId, long beforeId)
+        {
+            lock.lock();
+            try
+            {
+                if (index >= known.length || !known[index])
+                {
+                    return false;
+                }
+                int base = index * STRIDE;
+                if (chunks[base] >= beforeId || chunks[base + 1] <= afterId)
+                {
+                    // Also true for a chunk without messages
+                    return true;
+                }
+                if (wanted == null)
+                {
+                    return false;
+                }
+                for (int i = 0; i < wanted.length; i += 2)
+                {
+                    if (hasBit(base, wanted[i]) && hasBit(base, wanted[i + 1]))
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        private boolean hasBit(int base, int bit)
+        {
+            return (chunks[base + 2 + (bit >>> 6)] & (1L << bit)) != 0;
+        }
+
+        void record(int index, ChunkStats stats)
+        {
+            lock.lock();
+            try
+            {
+                if (index >= known.length)
+                {
+                    int size = Math.max(index + 1, known.length * 2);
+                    known = Arrays.copyOf(known, size);
+                    chunks = Arrays.copyOf(chunks, size * STRIDE);
+                }
+                int base = index * STRIDE;
+                chunks[base] = stats.minId;
+                chunks[base + 1] = stats.maxId;
+                System.arraycopy(stats.bloom, 0, chunks, base + 2, BLOOM_WORDS);
+                known[index] = true;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package solution;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Rewrites sealed log segments without their dead records
+ *
+ * The log is append-only, so superseded records pile up: every receipt
+ * that moves a cursor leaves the previous receipt for that cursor behind,
+ * and a message may be written more than once. A pass first scans the whole log for the
+ * newest record of each message ID and of each (reader, peer, status)
+ * cursor. Then every sealed segment with enough dead bytes is copied,
+ * live records only and with their original sequence numbers, into a
+ * work directory and swapped in by SegmentedLog.replaceSealed. A RECEIVED
+ * receipt covered by a newer READ receipt is dead too, since reading a
+ * message also receives it. Group joins and leaves are always kept, and
+ * so is every record the compactor cannot parse: it passed its CRC, so it
+ * may be a record type from a newer version rather than damage.
+ *
+ * The active segment is never touched, so the writer thread is not held
+ * up; the compactor runs on a minimum-priority thread and its reads and
+ * writes are paced to a byte rate so it does not compete with sends for
+ * the disk.
+ */
+public final class LogCompactor implements Closeable
+{
+    /** Subdirectory of the log directory holding copies being written */
+    static final String WORK_DIRECTORY = "compacting";
+
+    private static final double MIN_DIRTY_RATIO = 0.25;
+
+    private final SegmentedLog log;
+    private final long bytesPerSecond;
+    private final Path workDirectory;
+    private final JsonReader reader = new JsonReader(ByteBuffer.allocate(0));
+    private final ReentrantLock passLock = new ReentrantLock();
+
+    private ScheduledExecutorService scheduler;
+    private long throttleStartNanos;
+    private long throttledBytes;
+    private boolean cancelled;
+
+    /**
+     * Creates a compactor for a log
+     * @param log Segmented log to compact
+     * @param bytesPerSecond Bytes read plus written per second (≤0 for unthrottled)
+     */
+    public LogCompactor(SegmentedLog log, long bytesPerSecond)
+    {
+        this.log = log;
+        this.bytesPerSecond = bytesPerSecond;
+        this.workDirectory = log.getDirectory().resolve(WORK_DIRECTORY);
+    }
+
+    /**
+     * Outcome of one compaction pass
+     */
+    public static final class Result
+    {
+        private final int segmentsCompacted;
+        private final long recordsDropped;
+        private final long bytesBefore;
+        private final long bytesAfter;
+        private final long elapsedNanos;
+
+        Result(int segmentsCompacted, long recordsDropped, long bytesBefore, long bytesAfter,
+               long elapsedNanos)
+        {
+            this.segmentsCompacted = segmentsCompacted;
+            this.recordsDropped = recordsDropped;
+            this.bytesBefore = bytesBefore;
+            this.bytesAfter = bytesAfter;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getSegmentsCompacted()
+        {
+            return segmentsCompacted;
+        }
+
+        public long getRecordsDropped()
+        {
+            return recordsDropped;
+        }
+
+        /**
+         * Record bytes of the compacted segments before the pass
+         * @return Size in bytes
+         */
+        public long getBytesBefore()
+        {
+            return bytesBefore;
+        }
+
+        /**
+         * Record bytes of the compacted segments after the pass
+         * @return Size in bytes
+         */
+        public long getBytesAfter()
+        {
+            return bytesAfter;
+        }
+
+        public long getElapsedNanos()
+        {
+            return elapsedNanos;
+        }
+
+        /**
+         * Formats the pass for the log
+         * @return Single-line summary
+         */
+        public String getSummary()
+        {
+            return String.format(
+                "Compacted %d segments in %d ms: dropped %d records, %.1f MB -> %.1f MB",
+                segmentsCompacted, elapsedNanos / 1_000_000, recordsDropped,
+                bytesBefore / (1024.0 * 1024.0), bytesAfter / (1024.0 * 1024.0));
+        }
+    }
+
+    /**
+     * Starts compacting every period on a background thread
+     * @param periodSeconds Time between passes (below 1 leaves the compactor idle)
+     */
+    public synchronized void start(long periodSeconds)
+    {
+        if (scheduler != null || periodSeconds < 1)
+        {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("log-compactor").daemon(true).priority(Thread.MIN_PRIORITY).factory());
+        scheduler.scheduleWithFixedDelay(() ->
+        {
+            try
+            {
+                Result result = compact();
+                if (result.getSegmentsCompacted() > 0)
+                {
+                    System.out.println(result.getSummary());
+                }
+            }
+            catch (InterruptedIOException e)
+            {
+                // Closing
+            }
+            catch (IOException | RuntimeException e)
+            {
+                System.err.println("Log compaction failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs one compaction pass on the calling thread
+     * Passes do not overlap: a call waits for the one in progress
+     * @return What was compacted
+     * @throws InterruptedIOException if the thread is interrupted while throttled
+     * @throws IOException if a segment copy cannot be written or swapped in
+     */
+    public Result compact() throws IOException
+    {
+        passLock.lock();
+        try
+        {
+            return compactSealed();
+        }
+        finally
+        {
+            passLock.unlock();
+        }
+    }
+
+    private Result compactSealed() throws IOException
+    {
+        long start = System.nanoTime();
+        throttleStartNanos = start;
+        throttledBytes = 0;
+        cancelled = false;
+        clearWorkDirectory();
+
+        List<LogSegment> segments = log.getSegments();
+        Newest newest = new Newest();
+        for (LogSegment segment : segments)
+        {
+            segment.forEachRecord(0, segment.getWritePosition(), (buffer, from, to) ->
+            {
+                if (throttle(to - from + LogSegment.HEADER_SIZE))
+                {
+                    newest.see(segment.sequenceAt(from), parse(buffer, from, to));
+                }
+            });
+            checkCancelled();
+        }
+
+        int compacted = 0;
+        long dropped = 0;
+        long bytesBefore = 0;
+        long bytesAfter = 0;
+        // The newest segment of the snapshot may have been active during the scan
+        for (LogSegment segment : segments.subList(0, segments.size() - 1))
+        {
+            if (log.isActive(segment))
+            {
+                continue;
+            }
+
+            LiveRecords live = new LiveRecords();
+            segment.forEachRecord(0, segment.getWritePosition(), (buffer, from, to) ->
+            {
+                if (throttle(to - from + LogSegment.HEADER_SIZE))
+                {
+                    boolean keep = newest.isNewest(segment.sequenceAt(from), parse(buffer, from, to));
+                    live.add(from, to, keep);
+                }
+            });
+            checkCancelled();
+
+            long total = live.liveBytes + live.deadBytes;
+            if (live.deadBytes == 0 || live.deadBytes < total * MIN_DIRTY_RATIO)
+            {
+                continue;
+            }
+
+            LogSegment copy = live.count == 0 ? null : copy(segment, live);
+            if (log.replaceSealed(segment, copy))
+            {
+                compacted++;
+                dropped += live.deadRecords;
+                bytesBefore += total;
+                bytesAfter += live.liveBytes;
+            }
+        }
+        return new Result(compacted, dropped, bytesBefore, bytesAfter, System.nanoTime() - start);
+    }
+
+    /**
+     * Writes a segment's live records into a closed copy in the work directory
+     */
+    private LogSegment copy(LogSegment segment, LiveRecords live) throws IOException
+    {
+        LogSegment copy = new LogSegment(workDirectory, segment.getBaseSequence(),
+                                         (int) live.liveBytes, log.getIndexInterval());
+        try
+        {
+            for (int i = 0; i < live.count; i++)
+            {
+                int from = live.ranges[2 * i];
+                byte[] payload = segment.payloadAt(from, live.ranges[2 * i + 1]);
+                copy.appendCopy(segment.sequenceAt(from), payload, segment.appendMillisAt(from));
+                throttle(payload.length + LogSegment.HEADER_SIZE);
+            }
+            checkCancelled();
+            copy.close();
+            return copy;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            copy.delete();
+            throw e;
+        }
+    }
+
+    private Object parse(ByteBuffer buffer, int from, int to)
+    {
+        reader.reset(buffer, from, to);
+        try
+        {
+            return reader.readRecord();
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Removes copies left behind by a pass that did not finish
+     */
+    private void clearWorkDirectory() throws IOException
+    {
+        Files.createDirectories(workDirectory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(workDirectory))
+        {
+            for (Path file : files)
+            {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Sleeps as needed to keep the pass at bytesPerSecond
+     * @param bytes Bytes just read or written
+     * @return false once the pass has been interrupted
+     */
+    private boolean throttle(long bytes)
+    {
+        if (cancelled)
+        {
+            return false;
+        }
+        if (bytesPerSecond <= 0)
+        {
+            return true;
+        }
+        throttledBytes += bytes;
+        long due = throttleStartNanos + (long) (throttledBytes * 1e9 / bytesPerSecond);
+        long ahead = due - System.nanoTime();
+        if (ahead >= 1_000_000)
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(ahead);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkCancelled() throws InterruptedIOException
+    {
+        if (cancelled)
+        {
+            throw new InterruptedIOException("Log compaction interrupted");
+        }
+    }
+
+    /**
+     * Stops the background thread, interrupting a pass in progress
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (scheduler == null)
+        {
+            return;
+        }
+        scheduler.shutdownNow();
+        try
+        {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+    }
+
+    /**
+     * Sequence of the newest record of every message and receipt cursor
+     */
+    private static final class Newest
+    {
+        private final LongLongMap messages = new LongLongMap();
+
+        // Per "reader\npeer": received sequence, received upTo, read sequence, read upTo
+        private final Map<String, long[]> cursors = new HashMap<>();
+
+        void see(long sequence, Object record)
+        {
+            if (record instanceof Message)
+            {
+                messages.put(((Message) record).getId(), sequence);
+            }
+            else if (record instanceof Receipt)
+            {
+                Receipt receipt = (Receipt) record;
+                long[] cursor = cursors.computeIfAbsent(key(receipt), k ->
+                    new long[] { -1, Long.MIN_VALUE, -1, Long.MIN_VALUE });
+                int slot = receipt.getStatus() == MessageStatus.READ ? 2 : 0;
+                cursor[slot] = sequence;
+                cursor[slot + 1] = receipt.getUpToId();
+            }
+        }
+
+        boolean isNewest(long sequence, Object record)
+        {
+            if (record instanceof Message)
+            {
+                return messages.get(((Message) record).getId()) == sequence;
+            }
+            if (record instanceof Receipt)
+            {
+                Receipt receipt = (Receipt) record;
+                long[] cursor = cursors.get(key(receipt));
+                if (receipt.getStatus() == MessageStatus.READ)
+                {
+                    return cursor[2] == sequence;
+                }
+                return cursor[0] == sequence && receipt.getUpToId() > cursor[3];
+            }
+            // Group changes are a history, not a cursor (a rejoin starts over).
+            // Records that do not parse passed their CRC, so they are intact but
+            // of a kind this version cannot interpret: keep them as they are
+            return true;
+        }
+
+        private static String key(Receipt receipt)
+        {
+            return receipt.getReader() + '\n' + receipt.getPeer();
+        }
+    }
+
+    /**
+     * Payload ranges of the records one segment keeps
+     */
+    private static final class LiveRecords
+    {
+        private int[] ranges = new int[256];
+        private int count;
+        private long liveBytes;
+        private long deadBytes;
+        private long deadRecords;
+
+        void add(int from, int to, boolean keep)
+        {
+            long size = to - from + LogSegment.HEADER_SIZE;
+            if (!keep)
+            {
+                deadBytes += size;
+                deadRecords++;
+                return;
+            }
+            if (2 * count + 2 > ranges.length)
+            {
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            }
+            ranges[2 * count] = from;
+            ranges[2 * count + 1] = to;
+            count++;
+            liveBytes += size;
+        }
+    }
+
+    /**
+     * Open-addressing map from message ID to sequence, without boxing
+     */
+    private static final class LongLongMap
+    {
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] keys = newKeys(1 << 12);
+        private long[] values = new long[1 << 12];
+        private int size;
+
+        private static long[] newKeys(int capacity)
+        {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        void put(long key, long value)
+        {
+            if (2 * (size + 1) > keys.length)
+            {
+                grow();
+            }
+            int slot = slotOf(keys, key);
+            if (keys[slot] == EMPTY)
+            {
+                keys[slot] = key;
+                size++;
+            }
+            values[slot] = value;
+        }
+
+        /**
+         * @return Value, or -1 if absent
+         */
+        long get(long key)
+        {
+            int slot = slotOf(keys, key);
+            return keys[slot] == EMPTY ? -1 : values[slot];
+        }
+
+        private static int slotOf(long[] keys, long key)
+        {
+            int mask = keys.length - 1;
+            int slot = (int) (key ^ (key >>> 32)) * 0x9E3779B9 & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key)
+            {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow()
+        {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new long[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++)
+            {
+                if (oldKeys[i] != EMPTY)
+                {
+                    int slot = slotOf(keys, oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
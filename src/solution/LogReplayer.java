@@ -0,0 +1,523 @@
+package solution;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Reads persisted messages, receipts and group changes back at startup
+ *
+ * Both the legacy line-delimited messages.json file and the segmented log
+ * are cut into chunks that start and end on record boundaries: newlines
+ * for the flat file, sparse index positions for segments. The chunks are
+ * parsed in parallel on the common fork-join pool and handed to the
+ * caller in log order. Chunks are processed in windows of a few per core,
+ * so memory use does not grow with the size of the log. Given a
+ * LogArchive, the replay also hands it the summary of every sparse-index
+ * chunk it decodes, so older pages can skip chunks from the start.
+ */
+public final class LogReplayer
+{
+    private static final int CHUNK_BYTES = 8 * 1024 * 1024;
+    private static final int SCAN_BUFFER_BYTES = 64 * 1024;
+
+    private LogReplayer()
+    {
+        // Static utility class
+    }
+
+    /**
+     * Outcome of a replay: record counts plus throughput figures
+     */
+    public static final class Result
+    {
+        private final long records;
+        private final long receipts;
+        private final long groupChanges;
+        private final long malformedRecords;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        Result(long records, long receipts, long groupChanges, long malformedRecords, long bytes,
+               long elapsedNanos)
+        {
+            this.records = records;
+            this.receipts = receipts;
+            this.groupChanges = groupChanges;
+            this.malformedRecords = malformedRecords;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRecords()
+        {
+            return records;
+        }
+
+        public long getReceipts()
+        {
+            return receipts;
+        }
+
+        public long getGroupChanges()
+        {
+            return groupChanges;
+        }
+
+        public long getMalformedRecords()
+        {
+            return malformedRecords;
+        }
+
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        public long getElapsedNanos()
+        {
+            return elapsedNanos;
+        }
+
+        public double getRecordsPerSecond()
+        {
+            return elapsedNanos == 0 ? 0.0 : records * 1e9 / elapsedNanos;
+        }
+
+        public double getMegabytesPerSecond()
+        {
+            return elapsedNanos == 0 ? 0.0 : bytes / (1024.0 * 1024.0) * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Formats the load throughput for the startup log
+         * @return Single-line summary
+         */
+        public String getSummary()
+        {
+            return String.format(
+                "Replayed %d messages, %d receipts and %d group changes (%.1f MB, %d malformed) in %d ms: "
+                + "%.0f records/s, %.1f MB/s",
+                records, receipts, groupChanges, bytes / (1024.0 * 1024.0), malformedRecords,
+                elapsedNanos / 1_000_000, getRecordsPerSecond(), getMegabytesPerSecond());
+        }
+    }
+
+    /**
+     * Replays the legacy file (if present) followed by the segmented log
+     * @param legacyFile Line-delimited JSON file, may be null or missing
+     * @param log Segmented log, may be null
+     * @param sink Receives every restored message, in log order, on the calling thread
+     * @return Record counts and throughput statistics
+     * @throws IOException if a file cannot be read
+     */
+    public static Result replay(Path legacyFile, SegmentedLog log, Consumer<Message> sink)
+        throws IOException
+    {
+        return replay(legacyFile, log, sink, receipt -> { });
+    }
+
+    /**
+     * Replays the legacy file (if present) followed by the segmented log
+     * Receipts only ever refer to messages written before them, so each
+     * window's receipts are handed over after its messages.
+     * @param legacyFile Line-delimited JSON file, may be null or missing
+     * @param log Segmented log, may be null
+     * @param sink Receives every restored message, in log order, on the calling thread
+     * @param receiptSink Receives every restored receipt, in log order, on the calling thread
+     * @return Record counts and throughput statistics
+     * @throws IOException if a file cannot be read
+     */
+    public static Result replay(Path legacyFile, SegmentedLog log, Consumer<Message> sink,
+                                Consumer<Receipt> receiptSink)
+        throws IOException
+    {
+        return replay(legacyFile, log, change -> { }, sink, receiptSink, null);
+    }
+
+    /**
+     * Replays the legacy file (if present) followed by the segmented log,
+     * summarising the log's chunks for an archive on the way
+     * Each window's group changes are handed over before its messages, so
+     * a group exists before its first message arrives; the changes carry
+     * their own cursors (see GroupChange), so this does not alter who saw what.
+     * @param legacyFile Line-delimited JSON file, may be null or missing
+     * @param log Segmented log, may be null
+     * @param groupSink Receives every restored group change, in log order, on the calling thread
+     * @param sink Receives every restored message, in log order, on the calling thread
+     * @param receiptSink Receives every restored receipt, in log order, on the calling thread
+     * @param archive Archive over the same log that receives chunk summaries (may be null)
+     * @return Record counts and throughput statistics
+     * @throws IOException if a file cannot be read
+     */
+    public static Result replay(Path legacyFile, SegmentedLog log, Consumer<GroupChange> groupSink,
+                                Consumer<Message> sink, Consumer<Receipt> receiptSink,
+                                LogArchive archive)
+        throws IOException
+    {
+        long start = System.nanoTime();
+        List<Chunk> chunks = new ArrayList<>();
+        FileChannel legacyChannel = null;
+
+        try
+        {
+            if (legacyFile != null && Files.isRegularFile(legacyFile))
+            {
+                legacyChannel = FileChannel.open(legacyFile, StandardOpenOption.READ);
+                addFileChunks(legacyChannel, chunks);
+            }
+
+            if (log != null)
+            {
+                addSegmentChunks(log, archive, chunks);
+            }
+
+            long bytes = 0;
+            for (Chunk chunk : chunks)
+            {
+                bytes += chunk.length();
+            }
+
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            int window = Math.max(2, pool.getParallelism() * 2);
+            long records = 0;
+            long receipts = 0;
+            long groupChanges = 0;
+            long malformed = 0;
+
+            for (int from = 0; from < chunks.size(); from += window)
+            {
+                int to = Math.min(chunks.size(), from + window);
+                Parsed parsed = pool.invoke(new ParseTask(chunks, from, to));
+                for (GroupChange change : parsed.groupChanges)
+                {
+                    groupSink.accept(change);
+                }
+                for (Message message : parsed.messages)
+                {
+                    sink.accept(message);
+                }
+                for (Receipt receipt : parsed.receipts)
+                {
+                    receiptSink.accept(receipt);
+                }
+                records += parsed.messages.size();
+                receipts += parsed.receipts.size();
+                groupChanges += parsed.groupChanges.size();
+                malformed += parsed.malformed;
+            }
+            return new Result(records, receipts, groupChanges, malformed, bytes, System.nanoTime() - start);
+        }
+        finally
+        {
+            if (legacyChannel != null)
+            {
+                legacyChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Splits a line-delimited file into chunks ending just after a newline
+     * @param channel Open file
+     * @param chunks Receives the chunks in file order
+     * @throws IOException if the file cannot be read
+     */
+    private static void addFileChunks(FileChannel channel, List<Chunk> chunks) throws IOException
+    {
+        long size = channel.size();
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_BUFFER_BYTES);
+        long chunkStart = 0;
+
+        while (chunkStart < size)
+        {
+            long chunkEnd = Math.min(size, chunkStart + CHUNK_BYTES);
+
+            // Extend to the end of the line the cut point falls into
+            while (chunkEnd < size)
+            {
+                scan.clear();
+                int read = channel.read(scan, chunkEnd);
+                if (read <= 0)
+                {
+                    chunkEnd = size;
+                    break;
+                }
+
+                int newline = -1;
+                for (int i = 0; i < read; i++)
+                {
+                    if (scan.get(i) == '\n')
+                    {
+                        newline = i;
+                        break;
+                    }
+                }
+
+                if (newline >= 0)
+                {
+                    chunkEnd += newline + 1;
+                    break;
+                }
+                chunkEnd += read;
+            }
+
+            chunks.add(new FileChunk(channel, chunkStart, Math.min(chunkEnd, size)));
+            chunkStart = chunkEnd;
+        }
+    }
+
+    /**
+     * Splits every retained segment along its sparse index positions
+     * @param log Segmented log
+     * @param archive Receives chunk summaries (may be null)
+     * @param chunks Receives the chunks in sequence order
+     */
+    private static void addSegmentChunks(SegmentedLog log, LogArchive archive, List<Chunk> chunks)
+    {
+        for (LogSegment segment : log.getSegments())
+        {
+            int[] boundaries = segment.recordBoundaries();
+            int chunkStart = 0;
+
+            for (int i = 1; i < boundaries.length; i++)
+            {
+                boolean last = i == boundaries.length - 1;
+                if (last || boundaries[i] - boundaries[chunkStart] >= CHUNK_BYTES)
+                {
+                    if (boundaries[i] > boundaries[chunkStart])
+                    {
+                        chunks.add(new SegmentChunk(segment, boundaries, chunkStart, i, archive));
+                    }
+                    chunkStart = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Messages, receipts and group changes parsed from one or more chunks
+     */
+    private static final class Parsed
+    {
+        private final List<Message> messages = new ArrayList<>();
+        private final List<Receipt> receipts = new ArrayList<>();
+        private final List<GroupChange> groupChanges = new ArrayList<>();
+        private long malformed;
+        private JsonReader reader;
+
+        /**
+         * Decodes one record in place and keeps it if it is a valid message,
+         * receipt or group change
+         * @param buffer Bytes holding the record
+         * @param start First byte of the record
+         * @param end End of the record (exclusive)
+         * @return The decoded message, or null for any other record
+         */
+        Message accept(ByteBuffer buffer, int start, int end)
+        {
+            if (reader == null)
+            {
+                reader = new JsonReader(buffer);
+            }
+            reader.reset(buffer, start, end);
+
+            try
+            {
+                Object record = reader.readRecord();
+                if (record instanceof Message)
+                {
+                    messages.add((Message) record);
+                    return (Message) record;
+                }
+                if (record instanceof Receipt)
+                {
+                    receipts.add((Receipt) record);
+                }
+                else if (record instanceof GroupChange)
+                {
+                    groupChanges.add((GroupChange) record);
+                }
+            }
+            catch (IOException e)
+            {
+                malformed++;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Fork-join task that parses a range of chunks, splitting it in half
+     * until a single chunk remains
+     */
+    private static final class ParseTask extends RecursiveTask<Parsed>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Chunk> chunks;
+        private final int from;
+        private final int to;
+
+        ParseTask(List<Chunk> chunks, int from, int to)
+        {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Parsed compute()
+        {
+            if (to - from == 1)
+            {
+                Parsed parsed = new Parsed();
+                try
+                {
+                    chunks.get(from).parse(parsed);
+                }
+                catch (IOException e)
+                {
+                    throw new IllegalStateException("Failed to read log chunk", e);
+                }
+                return parsed;
+            }
+
+            int middle = (from + to) >>> 1;
+            ParseTask right = new ParseTask(chunks, middle, to);
+            right.fork();
+            Parsed left = new ParseTask(chunks, from, middle).compute();
+            Parsed tail = right.join();
+
+            left.messages.addAll(tail.messages);
+            left.receipts.addAll(tail.receipts);
+            left.groupChanges.addAll(tail.groupChanges);
+            left.malformed += tail.malformed;
+            return left;
+        }
+    }
+
+    /**
+     * Byte range of the log holding whole records
+     */
+    private interface Chunk
+    {
+        long length();
+
+        void parse(Parsed parsed) throws IOException;
+    }
+
+    /**
+     * Range of lines in the legacy JSON file
+     */
+    private static final class FileChunk implements Chunk
+    {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        FileChunk(FileChannel channel, long start, long end)
+        {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public long length()
+        {
+            return end - start;
+        }
+
+        @Override
+        public void parse(Parsed parsed) throws IOException
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            int lineStart = 0;
+            int limit = buffer.limit();
+
+            for (int i = 0; i < limit; i++)
+            {
+                if (buffer.get(i) == '\n')
+                {
+                    parsed.accept(buffer, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            if (lineStart < limit)
+            {
+                parsed.accept(buffer, lineStart, limit);
+            }
+        }
+    }
+
+    /**
+     * Range of records inside one log segment, made of whole sparse-index chunks
+     */
+    private static final class SegmentChunk implements Chunk
+    {
+        private final LogSegment segment;
+        private final int[] boundaries;
+        private final int first;
+        private final int last;
+        private final LogArchive archive;
+
+        /**
+         * @param boundaries Record boundaries of the segment
+         * @param first Index of the boundary the range starts at
+         * @param last Index of the boundary the range ends at
+         * @param archive Receives the summary of each index chunk (may be null)
+         */
+        SegmentChunk(LogSegment segment, int[] boundaries, int first, int last, LogArchive archive)
+        {
+            this.segment = segment;
+            this.boundaries = boundaries;
+            this.first = first;
+            this.last = last;
+            this.archive = archive;
+        }
+
+        @Override
+        public long length()
+        {
+            return boundaries[last] - boundaries[first];
+        }
+
+        @Override
+        public void parse(Parsed parsed)
+        {
+            if (archive == null)
+            {
+                segment.forEachRecord(boundaries[first], boundaries[last], parsed::accept);
+                return;
+            }
+
+            LogArchive.ChunkStats stats = new LogArchive.ChunkStats();
+            for (int i = first; i < last; i++)
+            {
+                stats.clear();
+                segment.forEachRecord(boundaries[i], boundaries[i + 1], (buffer, start, end) ->
+                {
+                    Message message = parsed.accept(buffer, start, end);
+                    if (message != null)
+                    {
+                        stats.add(message);
+                    }
+                });
+                if (archive.isComplete(segment, boundaries, i))
+                {
+                    archive.record(segment, i, stats);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,549 @@
+package solution;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * One fixed-size, memory-mapped file of the segmented message log
+ *
+ * Record layout: length (int), crc32 (int), sequence (long),
+ * append time in millis (long), then the UTF-8 payload.
+ * The checksum covers sequence, append time and payload.
+ *
+ * A companion index file holds sparse (relative sequence, position)
+ * pairs so a record can be located without scanning the whole segment.
+ * Sequences increase from one record to the next; a segment rewritten
+ * by the LogCompactor keeps the original sequences, with gaps where
+ * records were dropped.
+ * Only the log's writer thread appends; any thread may read.
+ */
+final class LogSegment
+{
+    static final int HEADER_SIZE = 24;
+    private static final int INDEX_ENTRY_SIZE = 8;
+
+    private final long baseSequence;
+    private final Path dataPath;
+    private final Path indexPath;
+    private final int capacity;
+    private final int indexInterval;
+    private final FileChannel dataChannel;
+    private final FileChannel indexChannel;
+    private final MappedByteBuffer data;
+    private final MappedByteBuffer index;
+    private final CRC32 crc = new CRC32();
+    private final ReentrantLock crcLock = new ReentrantLock();
+
+    // Published state: written by the writer thread, read by any thread
+    private volatile int writePosition;
+    private volatile long nextSequence;
+    private volatile int indexEntries;
+    private volatile long lastAppendMillis;
+
+    private int lastIndexedPosition;
+    private int syncedPosition;
+
+    /**
+     * Opens (or creates) a segment and recovers its valid tail
+     * @param directory Log directory
+     * @param baseSequence Sequence number of the first record in the segment
+     * @param capacity Size of the data file in bytes
+     * @param indexInterval Bytes of records between sparse index entries
+     * @throws IOException if the files cannot be opened or mapped
+     */
+    LogSegment(Path directory, long baseSequence, int capacity, int indexInterval)
+        throws IOException
+    {
+        this.baseSequence = baseSequence;
+        this.dataPath = directory.resolve(fileName(baseSequence, ".log"));
+        this.indexPath = directory.resolve(fileName(baseSequence, ".idx"));
+        this.indexInterval = indexInterval;
+
+        this.dataChannel = FileChannel.open(dataPath, StandardOpenOption.CREATE,
+                                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+                                             StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // An existing segment keeps the size it was created with
+        long existing = dataChannel.size();
+        this.capacity = existing > 0 ? (int) existing : capacity;
+        int indexCapacity = (this.capacity / indexInterval + 1) * INDEX_ENTRY_SIZE;
+
+        this.data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+        this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                      Math.max(indexCapacity, indexChannel.size()));
+        recover();
+    }
+
+    /**
+     * Builds the zero-padded file name for a segment
+     * @param baseSequence First sequence number of the segment
+     * @param extension File extension including the dot
+     * @return File name
+     */
+    static String fileName(long baseSequence, String extension)
+    {
+        return String.format("%020d%s", baseSequence, extension);
+    }
+
+    /**
+     * Restores the write position after opening
+     * Loads the sparse index, then validates records from the last indexed
+     * position onward. The first record that is incomplete or fails its
+     * checksum marks a torn tail: everything from there to the end of the
+     * segment is zeroed and appends resume there.
+     */
+    private void recover()
+    {
+        int entries = 0;
+        int maxEntries = index.capacity() / INDEX_ENTRY_SIZE;
+        int previousPosition = 0;
+
+        while (entries < maxEntries)
+        {
+            int position = index.getInt(entries * INDEX_ENTRY_SIZE + 4);
+            if (position <= previousPosition || position >= capacity)
+            {
+                break;
+            }
+            previousPosition = position;
+            entries++;
+        }
+
+        int position = 0;
+        long sequence = baseSequence;
+        if (entries > 0)
+        {
+            position = index.getInt((entries - 1) * INDEX_ENTRY_SIZE + 4);
+            sequence = baseSequence + index.getInt((entries - 1) * INDEX_ENTRY_SIZE);
+        }
+
+        // The last index entry may point at a record that never fully landed
+        while (entries > 0 && !isValidRecord(position, sequence))
+        {
+            entries--;
+            clearIndexEntry(entries);
+            position = entries > 0 ? index.getInt((entries - 1) * INDEX_ENTRY_SIZE + 4) : 0;
+            sequence = entries > 0
+                ? baseSequence + index.getInt((entries - 1) * INDEX_ENTRY_SIZE)
+                : baseSequence;
+        }
+
+        while (isValidRecord(position, sequence))
+        {
+            lastAppendMillis = data.getLong(position + 16);
+            sequence = data.getLong(position + 8) + 1;
+            position += HEADER_SIZE + data.getInt(position);
+        }
+
+        zeroTail(position);
+
+        for (int i = entries; i < maxEntries && index.getInt(i * INDEX_ENTRY_SIZE + 4) != 0; i++)
+        {
+            clearIndexEntry(i);
+        }
+
+        this.indexEntries = entries;
+        this.lastIndexedPosition = entries > 0
+            ? index.getInt((entries - 1) * INDEX_ENTRY_SIZE + 4)
+            : 0;
+        this.syncedPosition = position;
+        this.writePosition = position;
+        this.nextSequence = sequence;
+    }
+
+    /**
+     * Zeroes the segment from the recovered position to its end
+     * A crash can leave more than one torn record behind, and a valid-looking
+     * stale record past the first one could be picked up again once new
+     * appends reach it. Only words that are not already zero are written,
+     * and the cleared range is forced so it stays clear after another crash
+     * @param position End of the last valid record
+     */
+    private void zeroTail(int position)
+    {
+        int dirtyEnd = position;
+        int i = position;
+        for (; i + Long.BYTES <= capacity; i += Long.BYTES)
+        {
+            if (data.getLong(i) != 0)
+            {
+                data.putLong(i, 0);
+                dirtyEnd = i + Long.BYTES;
+            }
+        }
+        for (; i < capacity; i++)
+        {
+            if (data.get(i) != 0)
+            {
+                data.put(i, (byte) 0);
+                dirtyEnd = i + 1;
+            }
+        }
+        if (dirtyEnd > position)
+        {
+            data.force(position, dirtyEnd - position);
+        }
+    }
+
+    /**
+     * Checks that a complete, uncorrupted record starts at the given position
+     * @param position Byte offset in the segment
+     * @param expectedSequence Lowest sequence the record may carry
+     * @return true if the record is intact
+     */
+    private boolean isValidRecord(int position, long expectedSequence)
+    {
+        if (position < 0 || position + HEADER_SIZE > capacity)
+        {
+            return false;
+        }
+
+        int length = data.getInt(position);
+        if (length <= 0 || length > capacity - position - HEADER_SIZE)
+        {
+            return false;
+        }
+
+        if (data.getLong(position + 8) < expectedSequence)
+        {
+            return false;
+        }
+
+        return checksum(position, length) == data.getInt(position + 4);
+    }
+
+    /**
+     * Computes the record checksum over sequence, time and payload
+     * @param position Start of the record
+     * @param length Payload length
+     * @return CRC32 value truncated to int
+     */
+    private int checksum(int position, int length)
+    {
+        // A lock rather than a monitor, so virtual threads never pin their carrier
+        crcLock.lock();
+        try
+        {
+            crc.reset();
+            crc.update(data.slice(position + 8, 16 + length));
+            return (int) crc.getValue();
+        }
+        finally
+        {
+            crcLock.unlock();
+        }
+    }
+
+    /**
+     * Zeroes one index entry
+     * @param entry Entry number
+     */
+    private void clearIndexEntry(int entry)
+    {
+        index.putInt(entry * INDEX_ENTRY_SIZE, 0);
+        index.putInt(entry * INDEX_ENTRY_SIZE + 4, 0);
+    }
+
+    /**
+     * Checks whether a payload of the given size still fits
+     * @param payloadLength Encoded payload size in bytes
+     * @return true if the record can be appended
+     */
+    boolean hasRoomFor(int payloadLength)
+    {
+        return (long) writePosition + HEADER_SIZE + payloadLength <= capacity;
+    }
+
+    /**
+     * Appends one record (writer thread only)
+     * @param payload UTF-8 encoded record
+     * @param appendMillis Wall-clock time of the append
+     * @return Sequence number assigned to the record
+     */
+    long append(byte[] payload, long appendMillis)
+    {
+        long sequence = nextSequence;
+        write(sequence, payload, appendMillis);
+        return sequence;
+    }
+
+    /**
+     * Appends a record copied from another segment, keeping its sequence
+     * and append time (compaction only)
+     * @param sequence Original sequence, above every record already here
+     * @param payload UTF-8 encoded record
+     * @param appendMillis Original append time
+     */
+    void appendCopy(long sequence, byte[] payload, long appendMillis)
+    {
+        if (sequence < nextSequence || !hasRoomFor(payload.length))
+        {
+            throw new IllegalArgumentException("Record " + sequence + " does not fit after " + nextSequence);
+        }
+        write(sequence, payload, appendMillis);
+    }
+
+    private void write(long sequence, byte[] payload, long appendMillis)
+    {
+        int position = writePosition;
+
+        data.putLong(position + 8, sequence);
+        data.putLong(position + 16, appendMillis);
+        data.put(position + HEADER_SIZE, payload);
+        data.putInt(position + 4, checksum(position, payload.length));
+        // Length goes last: a record without it reads as end of log
+        data.putInt(position, payload.length);
+
+        if (position > 0 && position - lastIndexedPosition >= indexInterval)
+        {
+            int entry = indexEntries;
+            index.putInt(entry * INDEX_ENTRY_SIZE, (int) (sequence - baseSequence));
+            index.putInt(entry * INDEX_ENTRY_SIZE + 4, position);
+            lastIndexedPosition = position;
+            indexEntries = entry + 1;
+        }
+
+        lastAppendMillis = appendMillis;
+        nextSequence = sequence + 1;
+        writePosition = position + HEADER_SIZE + payload.length;
+    }
+
+    /**
+     * Reads the record with the given sequence number
+     * Jumps to the closest preceding index entry and scans at most one
+     * index interval worth of records
+     * @param sequence Sequence number to look up
+     * @return Decoded payload, or null if the segment does not contain it
+     */
+    String read(long sequence)
+    {
+        int limit = writePosition;
+        if (sequence < baseSequence || sequence >= nextSequence)
+        {
+            return null;
+        }
+
+        int position = floorIndexPosition((int) (sequence - baseSequence));
+        while (position < limit)
+        {
+            int length = data.getInt(position);
+            long current = data.getLong(position + 8);
+            if (current == sequence)
+            {
+                byte[] payload = new byte[length];
+                data.get(position + HEADER_SIZE, payload);
+                return new String(payload, StandardCharsets.UTF_8);
+            }
+            if (current > sequence)
+            {
+                // Dropped by compaction
+                return null;
+            }
+            position += HEADER_SIZE + length;
+        }
+        return null;
+    }
+
+    /**
+     * Receives records in place, without copying them out of the mapping
+     */
+    interface RecordVisitor
+    {
+        /**
+         * Called once per record
+         * @param buffer Mapped segment data (read with absolute methods only)
+         * @param start Offset of the UTF-8 payload
+         * @param end End of the payload (exclusive)
+         */
+        void visit(ByteBuffer buffer, int start, int end);
+    }
+
+    /**
+     * Visits every record that starts in the given byte range
+     * Both bounds must be record boundaries (0, an index position or the write position)
+     * @param start First byte of the range
+     * @param end End of the range (exclusive)
+     * @param visitor Receives each record's payload in log order
+     */
+    void forEachRecord(int start, int end, RecordVisitor visitor)
+    {
+        int position = start;
+        int limit = Math.min(end, writePosition);
+        while (position < limit)
+        {
+            int length = data.getInt(position);
+            visitor.visit(data, position + HEADER_SIZE, position + HEADER_SIZE + length);
+            position += HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * Copies a record's payload out of the mapping
+     * @param payloadStart Payload offset passed to a RecordVisitor
+     * @param payloadEnd Payload end passed to a RecordVisitor
+     * @return UTF-8 payload
+     */
+    byte[] payloadAt(int payloadStart, int payloadEnd)
+    {
+        byte[] payload = new byte[payloadEnd - payloadStart];
+        data.get(payloadStart, payload);
+        return payload;
+    }
+
+    /**
+     * Gets the sequence number of the record whose payload starts at an offset
+     * @param payloadStart Payload offset passed to a RecordVisitor
+     * @return Sequence number
+     */
+    long sequenceAt(int payloadStart)
+    {
+        return data.getLong(payloadStart - HEADER_SIZE + 8);
+    }
+
+    /**
+     * Gets the append time of the record whose payload starts at an offset
+     * @param payloadStart Payload offset passed to a RecordVisitor
+     * @return Append time in millis
+     */
+    long appendMillisAt(int payloadStart)
+    {
+        return data.getLong(payloadStart - HEADER_SIZE + 16);
+    }
+
+    /**
+     * Lists the record boundaries known from the sparse index
+     * @return Ascending positions, starting with 0 and ending with the write position
+     */
+    int[] recordBoundaries()
+    {
+        int entries = indexEntries;
+        int end = writePosition;
+        int[] boundaries = new int[entries + 2];
+        int count = 1;
+        for (int i = 0; i < entries; i++)
+        {
+            int position = index.getInt(i * INDEX_ENTRY_SIZE + 4);
+            if (position < end)
+            {
+                boundaries[count++] = position;
+            }
+        }
+        boundaries[count++] = end;
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    /**
+     * Binary searches the sparse index for the last entry at or before
+     * the given relative sequence
+     * @param relativeSequence Sequence offset from the segment base
+     * @return Byte position to start scanning from
+     */
+    private int floorIndexPosition(int relativeSequence)
+    {
+        int low = 0;
+        int high = indexEntries - 1;
+        int position = 0;
+
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int entrySequence = index.getInt(mid * INDEX_ENTRY_SIZE);
+            if (entrySequence <= relativeSequence)
+            {
+                position = index.getInt(mid * INDEX_ENTRY_SIZE + 4);
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Forces records written since the last sync to the storage device
+     */
+    void sync()
+    {
+        int position = writePosition;
+        if (position > syncedPosition)
+        {
+            data.force(syncedPosition, position - syncedPosition);
+            index.force();
+            syncedPosition = position;
+        }
+    }
+
+    /**
+     * Syncs and releases the file handles
+     * The mappings stay valid until they are garbage collected
+     * @throws IOException if a channel cannot be closed
+     */
+    void close() throws IOException
+    {
+        sync();
+        dataChannel.close();
+        indexChannel.close();
+    }
+
+    /**
+     * Closes the segment and removes its files
+     * @throws IOException if a file cannot be deleted
+     */
+    void delete() throws IOException
+    {
+        dataChannel.close();
+        indexChannel.close();
+        Files.deleteIfExists(dataPath);
+        Files.deleteIfExists(indexPath);
+    }
+
+    /**
+     * Gets the data and index files
+     * @return Data file, then index file
+     */
+    Path[] getPaths()
+    {
+        return new Path[] { dataPath, indexPath };
+    }
+
+    long getBaseSequence()
+    {
+        return baseSequence;
+    }
+
+    long getNextSequence()
+    {
+        return nextSequence;
+    }
+
+    int getWritePosition()
+    {
+        return writePosition;
+    }
+
+    long getLastAppendMillis()
+    {
+        return lastAppendMillis;
+    }
+
+    /**
+     * Bytes the segment occupies on disk (data plus index)
+     * @return Size in bytes
+     */
+    long getSizeOnDisk()
+    {
+        return (long) capacity + index.capacity();
+    }
+}
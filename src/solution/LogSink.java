@@ -0,0 +1,30 @@
+package solution;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination for records committed by the GroupCommitWriter
+ * Implementations are only ever called from the writer thread
+ */
+public interface LogSink extends Closeable
+{
+    /**
+     * Appends a single record (buffered, not necessarily visible on disk yet)
+     * @param record Record text without line terminator
+     * @throws IOException if the record cannot be written
+     */
+    void append(String record) throws IOException;
+
+    /**
+     * Hands all appended records to the operating system
+     * @throws IOException if flushing fails
+     */
+    void flush() throws IOException;
+
+    /**
+     * Forces all flushed records to the storage device
+     * @throws IOException if syncing fails
+     */
+    void sync() throws IOException;
+}
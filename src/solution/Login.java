@@ -3,15 +3,33 @@ package solution;
 /**
  * Handles user authentication, registration, and validation
  * Implements user credential management with strict validation rules
+ * Once registered the password is kept only as a salted PBKDF2 hash
  */
 public class Login 
 {
+    /**
+     * Keeps an index of usernames in step with renames
+     */
+    public interface UsernameListener 
+    {
+        /**
+         * Called before a username changes
+         * @param user Account being renamed
+         * @param oldUsername Current username
+         * @param newUsername Requested username
+         * @throws IllegalArgumentException To refuse the change, e.g. if the name is taken
+         */
+        void usernameChanging(Login user, String oldUsername, String newUsername);
+    }
+    
     private String username;
     private String password;
+    private volatile String passwordHash;
     private String firstName;
     private String lastName;
     private String cellPhoneNumber;
     private boolean isLoggedIn;
+    private volatile UsernameListener usernameListener;
     
     /**
      * Default constructor initializes with empty values
@@ -51,9 +69,7 @@ public class Login
      */
     public boolean checkUserName() 
     {
-        return username != null && 
-               username.contains("_") && 
-               username.length() <= 5;
+        return Validators.isValidUsername(username);
     }
     
     /**
@@ -66,38 +82,7 @@ public class Login
      */
     public boolean checkPasswordComplexity() 
     {
-        if (password == null || password.length() < 8) 
-        {
-            return false;
-        }
-        
-        boolean hasCapital = false;
-        boolean hasNumber = false;
-        boolean hasSpecial = false;
-        
-        for (char c : password.toCharArray()) 
-        {
-            if (Character.isUpperCase(c)) 
-            {
-                hasCapital = true;
-            } 
-            else if (Character.isDigit(c)) 
-            {
-                hasNumber = true;
-            } 
-            else if (!Character.isLetterOrDigit(c)) 
-            {
-                hasSpecial = true;
-            }
-            
-            // Early exit if all requirements met
-            if (hasCapital && hasNumber && hasSpecial) 
-            {
-                return true;
-            }
-        }
-        
-        return hasCapital && hasNumber && hasSpecial;
+        return Validators.isComplexPassword(password);
     }
     
     /**
@@ -106,8 +91,7 @@ public class Login
      */
     public boolean checkCellPhoneNumber() 
     {
-        return cellPhoneNumber != null && 
-               cellPhoneNumber.matches("^\\+27\\d{9}$");
+        return Validators.isSouthAfricanCell(cellPhoneNumber);
     }
     
     /**
@@ -136,14 +120,18 @@ public class Login
     
     /**
      * Authenticates user credentials
+     * Blocks for one key derivation; ChatService verifies on AuthenticationEngine instead
      * @param username Attempted username
      * @param password Attempted password
      * @return true if credentials match stored values
      */
     public boolean loginUser(String username, String password) 
     {
+        String hash = passwordHash;
         boolean credentialsMatch = this.username.equals(username) && 
-                                 this.password.equals(password);
+                                 (hash != null 
+                                     ? PasswordHasher.verify(password, hash) 
+                                     : PasswordHasher.constantTimeEquals(this.password, password));
         this.isLoggedIn = credentialsMatch;
         return credentialsMatch;
     }
@@ -168,19 +156,66 @@ public class Login
         return username; 
     }
     
+    /**
+     * Renames the account; a registered listener may refuse the new name
+     * @param username New username
+     * @throws IllegalArgumentException If the listener refuses the change
+     */
     public void setUsername(String username) 
     { 
+        UsernameListener listener = usernameListener; 
+        if (listener != null && !this.username.equals(username)) 
+        { 
+            listener.usernameChanging(this, this.username, username); 
+        } 
         this.username = username; 
     }
     
+    /**
+     * Sets the index notified before every rename
+     * @param usernameListener Listener, or null to stop notifications
+     */
+    public void setUsernameListener(UsernameListener usernameListener) 
+    { 
+        this.usernameListener = usernameListener; 
+    }
+    
+    /**
+     * Gets the plaintext password
+     * @return Password, or an empty string once it has been hashed
+     */
     public String getPassword() 
     { 
         return password; 
     }
     
+    /**
+     * Replaces the password; the new one is kept in plaintext until hashed again
+     * @param password New secret phrase
+     */
     public void setPassword(String password) 
     { 
         this.password = password; 
+        this.passwordHash = null; 
+    }
+    
+    /**
+     * Gets the stored password hash
+     * @return Encoded PBKDF2 hash, or null if the password is still plaintext
+     */
+    public String getPasswordHash() 
+    { 
+        return passwordHash; 
+    }
+    
+    /**
+     * Stores a salted hash of the password and discards the plaintext
+     * @param passwordHash Hash produced by PasswordHasher.hash()
+     */
+    public void applyPasswordHash(String passwordHash) 
+    { 
+        this.passwordHash = passwordHash; 
+        this.password = ""; 
     }
     
     public String getFirstName() 
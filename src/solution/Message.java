@@ -1,9 +1,10 @@
 package solution;
 
 import java.time.LocalDateTime;
-import java.util.Random;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Represents a chat message with validation, status tracking,
@@ -11,16 +12,24 @@ import java.util.Map;
  */
 public class Message 
 {
+    private static final MessageIdGenerator ID_GENERATOR = 
+        new MessageIdGenerator(Integer.getInteger("quickchat.nodeId", 0));
+    
+    private final long id;
     private final String messageId;
-    private static int messageCounter = 0;
-    private static int totalMessagesSent = 0;
+    private static final AtomicInteger messageCounter = new AtomicInteger();
+    private static final LongAdder totalMessagesSent = new LongAdder();
+    private static final ThreadLocal<StringBuilder> JSON_BUFFER = 
+        ThreadLocal.withInitial(() -> new StringBuilder(512));
     
     private final String recipientPhoneNumber;
     private final String senderPhoneNumber;
     private final String messagePayload;
     private final LocalDateTime timestamp;
+    private final int messageNumber;
     
-    private MessageStatus status;
+    private volatile MessageStatus status;
+    private String messageHash;
     
     /**
      * Constructs a new message with automatic timestamp and ID generation
@@ -35,19 +44,37 @@ public class Message
         this.recipientPhoneNumber = recipientPhoneNumber;
         this.senderPhoneNumber = senderPhoneNumber;
         this.timestamp = LocalDateTime.now();
-        this.messageId = generateMessageId();
+        this.id = ID_GENERATOR.nextId();
+        this.messageId = MessageIdGenerator.toDisplayId(id);
         this.status = MessageStatus.PENDING;
-        messageCounter++;
+        this.messageNumber = messageCounter.incrementAndGet();
     }
     
     /**
-     * Generates unique 10-digit message ID
-     * @return Randomly generated ID string
+     * Restores a previously persisted message
+     * Does not count towards the message counter or sent total
+     * @param id Original 64-bit message ID
+     * @param messageId Original 10-digit message ID
+     * @param messageHash Hash as persisted (null to derive one with message number 0)
+     * @param messagePayload Text content of message
+     * @param recipientPhoneNumber Receiver's number
+     * @param senderPhoneNumber Sender's number
+     * @param timestamp Original creation time
+     * @param status Status at the time the message was persisted
      */
-    private String generateMessageId() 
+    Message(long id, String messageId, String messageHash, String messagePayload, 
+            String recipientPhoneNumber, String senderPhoneNumber, 
+            LocalDateTime timestamp, MessageStatus status) 
     {
-        Random random = new Random();
-        return String.format("%010d", random.nextInt(1_000_000_000));
+        this.id = id;
+        this.messageId = messageId;
+        this.messageHash = messageHash;
+        this.messageNumber = 0;
+        this.messagePayload = messagePayload;
+        this.recipientPhoneNumber = recipientPhoneNumber;
+        this.senderPhoneNumber = senderPhoneNumber;
+        this.timestamp = timestamp;
+        this.status = status;
     }
     
     /**
@@ -56,7 +83,7 @@ public class Message
      */
     public boolean checkMessageLength() 
     {
-        return messagePayload != null && messagePayload.length() <= 250;
+        return Validators.isPayloadWithinLimit(messagePayload);
     }
     
     /**
@@ -65,25 +92,118 @@ public class Message
      */
     public boolean checkRecipientCell() 
     {
-        return recipientPhoneNumber != null && 
-               recipientPhoneNumber.matches("^\\+\\d{10,15}$");
+        return Validators.isInternationalCell(recipientPhoneNumber);
     }
     
     /**
-     * Creates unique message hash for identification
-     * @return Combination of ID, counter, and message words
+     * Creates message hash for identification
+     * Format: first two ID digits, message number, then the first and last
+     * words of the payload in upper case (e.g. "28:1:HITHANKS").
+     * The message number is the value of the message counter taken when
+     * this message was constructed, so the hash never changes afterwards
+     * even while other threads create messages. Restored messages keep
+     * the hash they were persisted with.
+     * The result is computed once with a single scan and cached.
+     * @return Combination of ID, message number, and message words
      */
     public String createMessageHash() 
     {
-        String[] words = messagePayload.split("\\s+");
-        String firstWord = words.length > 0 ? words[0] : "";
-        String lastWord = words.length > 1 ? words[words.length-1] : firstWord;
+        String hash = messageHash;
+        if (hash == null) 
+        {
+            hash = computeMessageHash();
+            messageHash = hash;
+        }
+        return hash;
+    }
+    
+    /**
+     * Builds the hash without regex splitting or String.format
+     * Word boundaries follow split("\\s+"): a payload starting with
+     * whitespace has an empty first word, trailing whitespace is ignored
+     * @return Hash string
+     */
+    private String computeMessageHash() 
+    {
+        int length = messagePayload.length();
+        
+        // End of the first word (0 if the payload starts with whitespace)
+        int firstEnd = 0;
+        while (firstEnd < length && !isHashWhitespace(messagePayload.charAt(firstEnd))) 
+        {
+            firstEnd++;
+        }
+        
+        // Last word, ignoring trailing whitespace
+        int lastEnd = length;
+        while (lastEnd > 0 && isHashWhitespace(messagePayload.charAt(lastEnd - 1))) 
+        {
+            lastEnd--;
+        }
+        int lastStart = lastEnd;
+        while (lastStart > 0 && !isHashWhitespace(messagePayload.charAt(lastStart - 1))) 
+        {
+            lastStart--;
+        }
+        
+        // A single word is used as both first and last word
+        if (lastEnd <= firstEnd) 
+        {
+            lastStart = 0;
+            lastEnd = firstEnd;
+        }
         
-        return String.format("%s:%d:%s%s", 
-                           messageId.substring(0, 2),
-                           messageCounter,
-                           firstWord.toUpperCase(),
-                           lastWord.toUpperCase());
+        StringBuilder hash = new StringBuilder(16 + firstEnd + (lastEnd - lastStart));
+        hash.append(messageId, 0, 2)
+            .append(':')
+            .append(messageNumber)
+            .append(':');
+        appendUpperCase(hash, 0, firstEnd);
+        appendUpperCase(hash, lastStart, lastEnd);
+        return hash.toString();
+    }
+    
+    /**
+     * Keeps new message IDs above one already persisted
+     * Called for every message replayed from the log
+     * @param id ID of a persisted message
+     */
+    static void advanceIdsPast(long id)
+    {
+        ID_GENERATOR.advancePast(id);
+    }
+    
+    /**
+     * Matches the characters of the regex class \\s
+     * @param c Character to test
+     * @return true for space, tab, newline, vertical tab, form feed, carriage return
+     */
+    private static boolean isHashWhitespace(char c) 
+    {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+    
+    /**
+     * Appends part of the payload in upper case
+     * ASCII is converted in place; other text goes through String.toUpperCase
+     * so special cases (such as ß becoming SS) stay unchanged
+     * @param out Destination
+     * @param start First character
+     * @param end End of the range (exclusive)
+     */
+    private void appendUpperCase(StringBuilder out, int start, int end) 
+    {
+        for (int i = start; i < end; i++) 
+        {
+            if (messagePayload.charAt(i) >= 128) 
+            {
+                out.append(messagePayload.substring(i, end).toUpperCase());
+                return;
+            }
+            
+            char c = messagePayload.charAt(i);
+            out.append(c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c);
+        }
     }
     
     /**
@@ -97,7 +217,7 @@ public class Message
         {
             case 1:
                 this.status = MessageStatus.SENT;
-                totalMessagesSent++;
+                totalMessagesSent.increment();
                 return "Message sent successfully";
                 
             case 2:
@@ -112,6 +232,22 @@ public class Message
         }
     }
     
+    /**
+     * Moves a sent message on to RECEIVED or READ as receipts arrive
+     * Statuses only move forward, so a late RECEIVED never undoes READ
+     * @param next RECEIVED or READ
+     */
+    void advanceStatus(MessageStatus next) 
+    {
+        MessageStatus current = status;
+        boolean delivered = current == MessageStatus.SENT || current == MessageStatus.RECEIVED;
+        boolean receipt = next == MessageStatus.RECEIVED || next == MessageStatus.READ;
+        if (delivered && receipt && next.compareTo(current) > 0) 
+        {
+            this.status = next;
+        }
+    }
+    
     /**
      * Generates detailed message information string
      * @return Formatted multi-line message details
@@ -144,67 +280,53 @@ public class Message
         map.put("message", messagePayload);
         map.put("timestamp", timestamp.toString());
         map.put("status", status.toString());
+        map.put("id", id);
         return map;
     }
     
     /**
      * Serializes message to JSON format string
+     * Written in a single pass into a per-thread reusable buffer; virtual
+     * threads are short-lived and numerous, so they use a fresh one instead
      * @return Valid JSON representation
      */
     public String toJsonString() 
     {
-        StringBuilder json = new StringBuilder("{");
-        boolean first = true;
-        
-        for (Map.Entry<String, Object> entry : toMap().entrySet()) 
+        StringBuilder json;
+        if (Thread.currentThread().isVirtual()) 
         {
-            if (!first) 
-            {
-                json.append(",");
-            }
-            
-            json.append("\"").append(entry.getKey()).append("\":");
-            Object value = entry.getValue();
-            
-            if (value instanceof String) 
-            {
-                json.append("\"").append(escapeJson((String) value)).append("\"");
-            } 
-            else 
-            {
-                json.append(value);
-            }
-            
-            first = false;
+            json = new StringBuilder(256);
+        } 
+        else 
+        {
+            json = JSON_BUFFER.get();
+            json.setLength(0);
         }
-        
-        json.append("}");
+        writeJson(json);
         return json.toString();
     }
     
     /**
-     * Escapes special JSON characters in strings
-     * @param input Original string
-     * @return JSON-safe escaped string
+     * Appends the JSON representation to a caller-supplied buffer
+     * @param out Destination buffer
      */
-    private String escapeJson(String input) 
+    public void writeJson(StringBuilder out) 
     {
-        return input.replace("\\", "\\\\")
-                   .replace("\"", "\\\"")
-                   .replace("\b", "\\b")
-                   .replace("\f", "\\f")
-                   .replace("\n", "\\n")
-                   .replace("\r", "\\r")
-                   .replace("\t", "\\t");
+        JsonSerializer.writeMessage(this, out);
     }
     
     // Static counter accessor
     public static int getTotalMessagesSent() 
     { 
-        return totalMessagesSent; 
+        return totalMessagesSent.intValue(); 
     }
     
     // Standard getters
+    public long getId() 
+    { 
+        return id; 
+    }
+    
     public String getMessageId() 
     { 
         return messageId; 
@@ -0,0 +1,161 @@
+package solution;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free generator of time-ordered 64-bit message IDs
+ *
+ * Layout (most significant bit first):
+ * 1 unused sign bit, 41 bits of milliseconds since 2025-01-01T00:00Z,
+ * 10 bits of node ID and 12 bits of per-millisecond sequence.
+ * IDs from one generator are strictly increasing, and IDs from different
+ * nodes never collide, so they sort by creation time and can be used as
+ * log keys.
+ *
+ * The last timestamp and sequence are packed into a single AtomicLong and
+ * advanced with compare-and-set. When more than 4096 IDs are requested in
+ * one millisecond, or the clock moves backwards, the generator keeps
+ * counting from the last issued value instead of waiting. The last value
+ * is not persisted; after a restart, advancePast must be given the newest
+ * ID already on disk so a clock that is behind cannot issue smaller IDs.
+ */
+public final class MessageIdGenerator
+{
+    /** Custom epoch: 2025-01-01T00:00:00Z */
+    public static final long EPOCH_MILLIS = 1_735_689_600_000L;
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int NODE_BITS = 10;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long NODE_MASK = (1L << NODE_BITS) - 1;
+    private static final long DISPLAY_MODULUS = 10_000_000_000L;
+
+    private final long node;
+    // (milliseconds since epoch << SEQUENCE_BITS) | sequence of the last issued ID
+    private final AtomicLong lastState = new AtomicLong();
+
+    /**
+     * Creates a generator for one node (server or shard)
+     * @param nodeId Node identifier in the range 0-1023
+     */
+    public MessageIdGenerator(int nodeId)
+    {
+        if (nodeId < 0 || nodeId > NODE_MASK)
+        {
+            throw new IllegalArgumentException("Node ID must be between 0 and " + NODE_MASK);
+        }
+        this.node = nodeId;
+    }
+
+    /**
+     * Issues the next ID
+     * @return Unique, time-ordered ID
+     */
+    public long nextId()
+    {
+        long now = System.currentTimeMillis() - EPOCH_MILLIS;
+        long previous;
+        long next;
+
+        do
+        {
+            previous = lastState.get();
+            next = (now << SEQUENCE_BITS) > previous
+                ? now << SEQUENCE_BITS
+                : previous + 1;
+        }
+        while (!lastState.compareAndSet(previous, next));
+
+        long millis = next >>> SEQUENCE_BITS;
+        return (millis << (NODE_BITS + SEQUENCE_BITS))
+            | (node << SEQUENCE_BITS)
+            | (next & SEQUENCE_MASK);
+    }
+
+    /**
+     * Makes every later ID greater than one issued before
+     * Raises the last issued value to the end of the ID's millisecond, so
+     * the next ID moves on to the following millisecond and sorts after it
+     * whichever node issued it. Lower IDs leave the generator unchanged
+     * @param id Previously issued or persisted ID
+     */
+    public void advancePast(long id)
+    {
+        long floor = ((id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS) | SEQUENCE_MASK;
+        long previous;
+
+        do
+        {
+            previous = lastState.get();
+            if (previous >= floor)
+            {
+                return;
+            }
+        }
+        while (!lastState.compareAndSet(previous, floor));
+    }
+
+    /**
+     * Builds an ID for a record persisted before IDs were stored
+     * The time part comes from the record's timestamp; the node and sequence
+     * bits are filled from its old 10-digit ID
+     * @param timestampMillis Record creation time (epoch milliseconds)
+     * @param displayId Old 10-digit message ID
+     * @return Synthesised ID
+     */
+    public static long legacyId(long timestampMillis, String displayId)
+    {
+        long millis = Math.max(0, timestampMillis - EPOCH_MILLIS);
+        long low = displayId.hashCode() & ((1L << (NODE_BITS + SEQUENCE_BITS)) - 1);
+        return (millis << (NODE_BITS + SEQUENCE_BITS)) | low;
+    }
+
+    /**
+     * Extracts the creation time of an ID
+     * @param id Message ID
+     * @return Epoch milliseconds
+     */
+    public static long timestampMillis(long id)
+    {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    /**
+     * Extracts the node that issued an ID
+     * @param id Message ID
+     * @return Node identifier
+     */
+    public static int nodeId(long id)
+    {
+        return (int) ((id >>> SEQUENCE_BITS) & NODE_MASK);
+    }
+
+    /**
+     * Extracts the per-millisecond sequence of an ID
+     * @param id Message ID
+     * @return Sequence number
+     */
+    public static int sequence(long id)
+    {
+        return (int) (id & SEQUENCE_MASK);
+    }
+
+    /**
+     * Derives the classic 10-digit display form of an ID
+     * The display form keeps the low decimal digits and is for people only;
+     * it is not unique and must not be used as a key
+     * @param id Message ID
+     * @return Zero-padded 10-digit string
+     */
+    public static String toDisplayId(long id)
+    {
+        long value = Math.floorMod(id, DISPLAY_MODULUS);
+        char[] digits = new char[10];
+        for (int i = digits.length - 1; i >= 0; i--)
+        {
+            digits[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(digits);
+    }
+}
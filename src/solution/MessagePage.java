@@ -0,0 +1,64 @@
+package solution;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of messages returned by cursor-based paging
+ *
+ * Messages are ordered oldest first. To fetch the page before this one,
+ * pass getNextCursor() as the "before" cursor of the next request.
+ */
+public final class MessagePage
+{
+    /** Cursor that requests the newest page */
+    public static final long LATEST = Long.MAX_VALUE;
+
+    private static final MessagePage EMPTY = new MessagePage(Collections.emptyList(), false);
+
+    private final List<Message> messages;
+    private final boolean hasMore;
+
+    /**
+     * Creates a page
+     * @param messages Messages, oldest first
+     * @param hasMore true if older messages may exist
+     */
+    public MessagePage(List<Message> messages, boolean hasMore)
+    {
+        this.messages = Collections.unmodifiableList(messages);
+        this.hasMore = hasMore;
+    }
+
+    /**
+     * Gets the shared empty page
+     * @return Page without messages
+     */
+    public static MessagePage empty()
+    {
+        return EMPTY;
+    }
+
+    public List<Message> getMessages()
+    {
+        return messages;
+    }
+
+    /**
+     * Gets the cursor for the next (older) page
+     * @return ID of the oldest message on this page, or LATEST if the page is empty
+     */
+    public long getNextCursor()
+    {
+        return messages.isEmpty() ? LATEST : messages.get(0).getId();
+    }
+
+    /**
+     * Checks whether older messages may be available
+     * @return true if another page should be requested
+     */
+    public boolean hasMore()
+    {
+        return hasMore;
+    }
+}
@@ -0,0 +1,213 @@
+package solution;
+
+import java.util.List;
+
+/**
+ * Fixed-capacity ring buffer holding the newest messages of an inbox
+ *
+ * Messages are kept in ID (and therefore time) order. When the ring is
+ * full the oldest message is dropped; it remains available from the
+ * persistent log. Storage grows on demand up to the capacity, so the
+ * many short conversations cost only a few slots each.
+ * Not thread-safe: callers synchronise.
+ */
+final class MessageRing
+{
+    private static final int INITIAL_SLOTS = 8;
+
+    private final int capacity;
+    private Message[] slots;
+    private int start;
+    private int size;
+    private long evicted;
+
+    /**
+     * Creates an empty ring
+     * @param capacity Maximum number of messages kept (≥1)
+     */
+    MessageRing(int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("Ring capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.slots = new Message[Math.min(capacity, INITIAL_SLOTS)];
+    }
+
+    /**
+     * Adds a message, evicting the oldest one when full
+     * A message that arrives slightly out of ID order is shifted into place
+     * @param message Message to add
+     */
+    void add(Message message)
+    {
+        if (size == slots.length && size < capacity)
+        {
+            grow();
+        }
+
+        int length = slots.length;
+        if (size == capacity)
+        {
+            if (message.getId() < slots[start].getId())
+            {
+                // Older than everything kept: it lives in the log only
+                evicted++;
+                return;
+            }
+            slots[start] = null;
+            start = (start + 1) % length;
+            size--;
+            evicted++;
+        }
+
+        int index = size;
+        while (index > 0 && slot(index - 1).getId() > message.getId())
+        {
+            slots[(start + index) % length] = slot(index - 1);
+            index--;
+        }
+        slots[(start + index) % length] = message;
+        size++;
+    }
+
+    /**
+     * Doubles the storage (up to the capacity), unwrapping the ring
+     */
+    private void grow()
+    {
+        Message[] grown = new Message[Math.min(capacity, slots.length * 2)];
+        for (int i = 0; i < size; i++)
+        {
+            grown[i] = slot(i);
+        }
+        slots = grown;
+        start = 0;
+    }
+
+    /**
+     * Gets a message by age
+     * @param index 0 for the oldest kept message
+     * @return Message
+     */
+    Message get(int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return slot(index);
+    }
+
+    private Message slot(int index)
+    {
+        return slots[(start + index) % slots.length];
+    }
+
+    /**
+     * Collects the newest messages with an ID below the cursor
+     * @param beforeId Exclusive upper bound on message IDs
+     * @param limit Maximum number of messages
+     * @param newestFirst Receives the messages, newest first
+     * @return true if older messages remain in the ring
+     */
+    boolean collectBefore(long beforeId, int limit, List<Message> newestFirst)
+    {
+        return collectBetween(Long.MIN_VALUE, beforeId, limit, newestFirst);
+    }
+
+    /**
+     * Collects the newest messages with an ID inside a range
+     * @param afterId Exclusive lower bound on message IDs
+     * @param beforeId Exclusive upper bound on message IDs
+     * @param limit Maximum number of messages
+     * @param newestFirst Receives the messages, newest first
+     * @return true if older messages inside the range remain in the ring
+     */
+    boolean collectBetween(long afterId, long beforeId, int limit, List<Message> newestFirst)
+    {
+        int index = countBefore(beforeId) - 1;
+        int taken = 0;
+        while (index >= 0 && taken < limit && slot(index).getId() > afterId)
+        {
+            newestFirst.add(slot(index));
+            index--;
+            taken++;
+        }
+        return index >= 0 && slot(index).getId() > afterId;
+    }
+
+    /**
+     * Counts the kept messages with an ID below the cursor
+     * Binary search, since the ring is kept in ID order
+     * @param beforeId Exclusive upper bound on message IDs
+     * @return Index just past the newest matching message
+     */
+    int countBefore(long beforeId)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (slot(mid).getId() < beforeId)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds a kept message by ID
+     * @param id Message ID
+     * @return Message, or null if it is not in the ring
+     */
+    Message find(long id)
+    {
+        int index = countBefore(id);
+        return index < size && slot(index).getId() == id ? slot(index) : null;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    int capacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Number of messages dropped from the ring so far
+     * @return Evicted message count
+     */
+    long evictedCount()
+    {
+        return evicted;
+    }
+
+    /**
+     * ID of the oldest kept message
+     * @return Message ID, or LATEST when the ring is empty
+     */
+    long oldestId()
+    {
+        return size == 0 ? MessagePage.LATEST : slot(0).getId();
+    }
+
+    /**
+     * ID of the newest kept message
+     * @return Message ID, or Long.MIN_VALUE when the ring is empty
+     */
+    long newestId()
+    {
+        return size == 0 ? Long.MIN_VALUE : slot(size - 1).getId();
+    }
+}
@@ -23,4 +23,21 @@ public enum MessageStatus
     {
         return displayName;
     }
+
+    /**
+     * Looks up a status by the display name used in persisted messages
+     * @param displayName Name as written by toString()
+     * @return Matching status, or null if unknown
+     */
+    public static MessageStatus fromDisplayName(String displayName) 
+    {
+        for (MessageStatus status : values()) 
+        {
+            if (status.displayName.equals(displayName)) 
+            {
+                return status;
+            }
+        }
+        return null;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,219 @@
+package solution;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted, iterated password hashing with PBKDF2 from the JDK
+ *
+ * A hash is stored as one string that carries everything needed to check
+ * it later:
+ * <pre>
+ * pbkdf2-sha256$&lt;iterations&gt;$&lt;salt, base64&gt;$&lt;key, base64&gt;
+ * </pre>
+ * so raising the iteration count never invalidates existing hashes; they
+ * are upgraded the next time their owner logs in (see needsRehash).
+ *
+ * The iteration count is set with -Dquickchat.authIterations, or measured
+ * at startup so one verification takes about -Dquickchat.authTargetMillis
+ * on this machine. Thread-safe.
+ */
+public final class PasswordHasher
+{
+    /** Latency one verification should cost when the count is calibrated */
+    static final long TARGET_MILLIS =
+        Long.getLong("quickchat.authTargetMillis", 50L);
+
+    static final int MIN_ITERATIONS = 10_000;
+    static final int MAX_ITERATIONS = 5_000_000;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String SCHEME = "pbkdf2-sha256";
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+    private static final int PROBE_ITERATIONS = 20_000;
+    private static final int PROBE_RUNS = 3;
+
+    private final int iterations;
+    private final SecureRandom random;
+
+    /**
+     * Creates a hasher with a fixed cost
+     * @param iterations PBKDF2 iterations for new hashes
+     */
+    public PasswordHasher(int iterations)
+    {
+        if (iterations < 1)
+        {
+            throw new IllegalArgumentException("Iterations must be positive");
+        }
+        this.iterations = iterations;
+        this.random = new SecureRandom();
+    }
+
+    /**
+     * Gets the hasher configured by the quickchat.* properties
+     * The calibration runs once per process, on first use
+     * @return Shared hasher
+     */
+    public static PasswordHasher configured()
+    {
+        return Configured.INSTANCE;
+    }
+
+    /**
+     * Lazily calibrated shared instance
+     */
+    private static final class Configured
+    {
+        static final PasswordHasher INSTANCE = new PasswordHasher(configuredIterations());
+
+        private static int configuredIterations()
+        {
+            Integer fixed = Integer.getInteger("quickchat.authIterations");
+            return fixed != null ? fixed : calibrate(TARGET_MILLIS);
+        }
+    }
+
+    /**
+     * Measures how many iterations fit in a latency target on this machine
+     * @param targetMillis Wanted cost of one verification
+     * @return Iteration count, clamped to MIN_ITERATIONS..MAX_ITERATIONS
+     */
+    public static int calibrate(long targetMillis)
+    {
+        byte[] salt = new byte[SALT_BYTES];
+        derive("calibration".toCharArray(), salt, PROBE_ITERATIONS); // Warm up the JIT and the provider
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_RUNS; i++)
+        {
+            long start = System.nanoTime();
+            derive("calibration".toCharArray(), salt, PROBE_ITERATIONS);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        double perIteration = (double) Math.max(1, best) / PROBE_ITERATIONS;
+        long wanted = (long) (targetMillis * 1_000_000.0 / perIteration);
+        return (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, wanted));
+    }
+
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    /**
+     * Hashes a password with a fresh random salt
+     * @param password Plaintext password
+     * @return Encoded hash
+     */
+    public String hash(String password)
+    {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] key = derive(password.toCharArray(), salt, iterations);
+
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return SCHEME + '$' + iterations + '$' + base64.encodeToString(salt) + '$' + base64.encodeToString(key);
+    }
+
+    /**
+     * Checks a password against an encoded hash
+     * The derived keys are compared in constant time
+     * @param password Attempted password
+     * @param encoded Hash produced by hash()
+     * @return true if the password matches; false for a malformed hash
+     */
+    public static boolean verify(String password, String encoded)
+    {
+        String[] parts = encoded == null ? new String[0] : encoded.split("\\$");
+        if (parts.length != 4 || !SCHEME.equals(parts[0]) || password == null)
+        {
+            return false;
+        }
+        try
+        {
+            int cost = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            if (cost < 1 || cost > MAX_ITERATIONS || expected.length == 0)
+            {
+                return false;
+            }
+            return MessageDigest.isEqual(derive(password.toCharArray(), salt, cost), expected);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether a hash is cheaper than this hasher's current cost
+     * @param encoded Hash produced by hash()
+     * @return true if the hash should be replaced after a successful login
+     */
+    public boolean needsRehash(String encoded)
+    {
+        String[] parts = encoded.split("\\$");
+        try
+        {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+        }
+        catch (NumberFormatException e)
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Checks whether a stored value is an encoded hash rather than plaintext
+     * @param value Stored password value
+     * @return true if produced by hash()
+     */
+    public static boolean isHash(String value)
+    {
+        return value != null && value.startsWith(SCHEME + '$');
+    }
+
+    /**
+     * Compares two secrets in time that does not depend on where they differ
+     * @param a First secret
+     * @param b Second secret
+     * @return true if equal
+     */
+    public static boolean constantTimeEquals(String a, String b)
+    {
+        if (a == null || b == null)
+        {
+            return false;
+        }
+        return MessageDigest.isEqual(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] derive(char[] password, byte[] salt, int cost)
+    {
+        KeySpec spec = new PBEKeySpec(password, salt, cost, KEY_BITS);
+        try
+        {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException e)
+        {
+            // Every Java SE runtime ships PBKDF2WithHmacSHA256
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+        finally
+        {
+            Arrays.fill(password, '\0');
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package solution;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compressed postings of one term: the documents that contain it and the
+ * word positions inside each document
+ *
+ * Documents are appended in increasing order, so every entry is stored as
+ * varints: the gap to the previous document, the number of positions and
+ * the gaps between positions. A typical entry takes three or four bytes.
+ *
+ * Not thread-safe: SearchIndex guards all lists with its lock.
+ */
+final class PostingList
+{
+    private static final int INITIAL_BYTES = 16;
+
+    private byte[] data;
+    private int length;
+    private int lastDoc;
+    private int docCount;
+
+    PostingList()
+    {
+        this.data = new byte[INITIAL_BYTES];
+        this.lastDoc = -1;
+    }
+
+    /**
+     * Appends a document
+     * @param doc Document number, greater than any added before
+     * @param positions Word positions in increasing order
+     * @param count Number of positions used
+     */
+    void add(int doc, int[] positions, int count)
+    {
+        if (doc <= lastDoc)
+        {
+            throw new IllegalArgumentException("Documents must be added in increasing order");
+        }
+        ensureCapacity(5 * (2 + count));
+        putVarint(doc - lastDoc);
+        putVarint(count);
+        int previous = 0;
+        for (int i = 0; i < count; i++)
+        {
+            putVarint(positions[i] - previous);
+            previous = positions[i];
+        }
+        lastDoc = doc;
+        docCount++;
+    }
+
+    int getDocCount()
+    {
+        return docCount;
+    }
+
+    int getByteLength()
+    {
+        return length;
+    }
+
+    /**
+     * Starts a pass over the documents in increasing order
+     * @return Cursor positioned before the first document
+     */
+    Cursor cursor()
+    {
+        return new Cursor();
+    }
+
+    /**
+     * Writes the list for a snapshot
+     * @param out Destination
+     * @throws IOException If writing fails
+     */
+    void write(DataOutput out) throws IOException
+    {
+        out.writeInt(lastDoc);
+        out.writeInt(docCount);
+        out.writeInt(length);
+        out.write(data, 0, length);
+    }
+
+    /**
+     * Reads a list written by write()
+     * @param in Source
+     * @return Restored list
+     * @throws IOException If reading fails or the data is inconsistent
+     */
+    static PostingList read(DataInput in) throws IOException
+    {
+        PostingList list = new PostingList();
+        list.lastDoc = in.readInt();
+        list.docCount = in.readInt();
+        int length = in.readInt();
+        if (length < 0 || list.docCount < 0)
+        {
+            throw new IOException("Corrupt posting list");
+        }
+        list.data = new byte[Math.max(INITIAL_BYTES, length)];
+        in.readFully(list.data, 0, length);
+        list.length = length;
+        return list;
+    }
+
+    private void ensureCapacity(int extra)
+    {
+        if (length + extra > data.length)
+        {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+        }
+    }
+
+    private void putVarint(int value)
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            data[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+
+    /**
+     * Decodes a posting list one document at a time
+     */
+    final class Cursor
+    {
+        private int offset;
+        private int doc = -1;
+        private int[] positions = new int[8];
+        private int positionCount;
+
+        /**
+         * Moves to the next document and decodes its positions
+         * @return false when the list is exhausted
+         */
+        boolean next()
+        {
+            if (offset >= length)
+            {
+                return false;
+            }
+            doc += getVarint();
+            positionCount = getVarint();
+            if (positions.length < positionCount)
+            {
+                positions = new int[Math.max(positionCount, positions.length * 2)];
+            }
+            int position = 0;
+            for (int i = 0; i < positionCount; i++)
+            {
+                position += getVarint();
+                positions[i] = position;
+            }
+            return true;
+        }
+
+        int doc()
+        {
+            return doc;
+        }
+
+        int positionCount()
+        {
+            return positionCount;
+        }
+
+        /**
+         * Copies the current document's positions
+         * @return Positions in increasing order
+         */
+        int[] copyPositions()
+        {
+            return Arrays.copyOf(positions, positionCount);
+        }
+
+        private int getVarint()
+        {
+            int value = 0;
+            for (int shift = 0; ; shift += 7)
+            {
+                byte b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0)
+                {
+                    return value;
+                }
+            }
+        }
+    }
+}
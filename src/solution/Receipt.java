@@ -0,0 +1,77 @@
+package solution;
+
+/**
+ * A participant's delivery or read cursor moving forward in one conversation
+ *
+ * One receipt stands for every message of the conversation up to upToId,
+ * so acknowledging a thousand messages costs one record. Receipts are
+ * appended to the message log as small JSON objects of their own:
+ * <pre>
+ * {"receipt":"Read","reader":"+27831234567","peer":"+27827654321","upTo":123}
+ * </pre>
+ * and replayed into the conversation cursors at startup; messages are
+ * never rewritten. Immutable.
+ */
+public final class Receipt
+{
+    private final MessageStatus status;
+    private final String reader;
+    private final String peer;
+    private final long upToId;
+
+    /**
+     * Creates a receipt
+     * @param status RECEIVED or READ
+     * @param reader Phone number of the participant acknowledging
+     * @param peer Other participant's phone number, or a group address
+     * @param upToId ID of the newest message acknowledged
+     */
+    public Receipt(MessageStatus status, String reader, String peer, long upToId)
+    {
+        if (status != MessageStatus.RECEIVED && status != MessageStatus.READ)
+        {
+            throw new IllegalArgumentException("Receipts are RECEIVED or READ, not " + status);
+        }
+        this.status = status;
+        this.reader = reader;
+        this.peer = peer;
+        this.upToId = upToId;
+    }
+
+    public MessageStatus getStatus()
+    {
+        return status;
+    }
+
+    public String getReader()
+    {
+        return reader;
+    }
+
+    public String getPeer()
+    {
+        return peer;
+    }
+
+    public long getUpToId()
+    {
+        return upToId;
+    }
+
+    /**
+     * Serializes the receipt as one log record
+     * @return JSON object on a single line
+     */
+    public String toJsonString()
+    {
+        StringBuilder json = new StringBuilder(96);
+        JsonSerializer.writeReceipt(this, json);
+        return json.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return reader + " " + status + " " + peer + " up to " + upToId;
+    }
+}
@@ -0,0 +1,477 @@
+package solution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Routes text protocol requests into the ChatService
+ *
+ * One request per line; every request produces one or more reply lines:
+ * <pre>
+ * REGISTER user pass first last cell   OK &lt;text&gt;
+ * LOGIN user pass                      OK &lt;text&gt;
+ * SEND cell|#group text...             OK &lt;message id&gt;
+ * FETCH [before] [limit]               MSG &lt;json&gt; ... END &lt;cursor&gt; more|done
+ * THREAD cell|#group [before] [limit]  MSG &lt;json&gt; ... END &lt;cursor&gt; more|done
+ * SEARCH [@before] query...            MSG &lt;json&gt; ... END &lt;cursor&gt; more|done
+ * READ upToId                          OK read
+ * GROUP name [cell...]                 OK &lt;text&gt;
+ * INVITE #group cell                   OK &lt;text&gt;
+ * LEAVE #group                         OK &lt;text&gt;
+ * MEMBERS #group                       OK &lt;cell&gt; ...
+ * PING                                 PONG
+ * QUIT                                 BYE
+ * </pre>
+ * Failures reply with ERR &lt;STATUS&gt; &lt;text&gt;. Messages are written as
+ * single-line JSON, so payloads never break the line framing.
+ * REGISTER and LOGIN hash or verify a password on the
+ * AuthenticationEngine's pool; dispatchAsync parks the session on them
+ * instead of waiting, so event loops never run a key derivation.
+ *
+ * Stateless and thread-safe; per-client state lives in ClientSession.
+ */
+public final class RequestDispatcher
+{
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 500;
+
+    private final ChatService service;
+
+    /**
+     * Creates a dispatcher
+     * @param service Chat engine that executes requests
+     */
+    public RequestDispatcher(ChatService service)
+    {
+        this.service = service;
+    }
+
+    public ChatService getService()
+    {
+        return service;
+    }
+
+    /**
+     * Executes one request line, waiting for a reply that is computed in the background
+     * For threads that may block, such as one virtual thread per session
+     * @param session Client state (login, close request)
+     * @param line Request without its line terminator
+     * @param out Receives the reply lines, each terminated by '\n'
+     */
+    public void dispatch(ClientSession session, String line, StringBuilder out)
+    {
+        dispatchAsync(session, line, out);
+        CompletableFuture<Runnable> pending = session.takePendingReply();
+        if (pending != null)
+        {
+            pending.join().run();
+        }
+    }
+
+    /**
+     * Executes one request line without blocking
+     * If the session is parked afterwards, the reply is not in out yet:
+     * once the session's pending reply completes, running it on the
+     * session's thread applies the result and appends the reply to out
+     * @param session Client state (login, close request, pending reply)
+     * @param line Request without its line terminator
+     * @param out Receives the reply lines, each terminated by '\n'
+     */
+    public void dispatchAsync(ClientSession session, String line, StringBuilder out)
+    {
+        Tokens tokens = new Tokens(line);
+        String command = tokens.next();
+        if (command == null)
+        {
+            error(out, "EMPTY_REQUEST", "Empty request");
+            return;
+        }
+
+        switch (command)
+        {
+            case "REGISTER":
+                register(session, tokens, out);
+                break;
+
+            case "LOGIN":
+                login(session, tokens, out);
+                break;
+
+            case "SEND":
+                send(session, tokens, out);
+                break;
+
+            case "FETCH":
+                fetch(session, tokens, out);
+                break;
+
+            case "THREAD":
+                thread(session, tokens, out);
+                break;
+
+            case "SEARCH":
+                search(session, tokens, out);
+                break;
+
+            case "READ":
+                read(session, tokens, out);
+                break;
+
+            case "GROUP":
+                group(session, tokens, out);
+                break;
+
+            case "INVITE":
+                invite(session, tokens, out);
+                break;
+
+            case "LEAVE":
+                leave(session, tokens, out);
+                break;
+
+            case "MEMBERS":
+                members(session, tokens, out);
+                break;
+
+            case "PING":
+                out.append("PONG\n");
+                break;
+
+            case "QUIT":
+                session.requestClose();
+                out.append("BYE\n");
+                break;
+
+            default:
+                error(out, "UNKNOWN_COMMAND", "Unknown command " + command);
+                break;
+        }
+    }
+
+    private void register(ClientSession session, Tokens tokens, StringBuilder out)
+    {
+        String username = tokens.next();
+        String password = tokens.next();
+        String firstName = tokens.next();
+        String lastName = tokens.next();
+        String cell = tokens.next();
+        if (cell == null)
+        {
+            error(out, "BAD_REQUEST", "Usage: REGISTER user pass first last cell");
+            return;
+        }
+        session.park(service.registerAsync(username, password, firstName, lastName, cell)
+            .thenApply(result -> () -> reply(out, result)));
+    }
+
+    private void login(ClientSession session, Tokens tokens, StringBuilder out)
+    {
+        String username = tokens.next();
+        String password = tokens.next();
+        if (password == null)
+        {
+            error(out, "BAD_REQUEST", "Usage: LOGIN user pass");
+            return;
+        }
+
+        session.park(service.loginAsync(username, password).thenApply(result -> () ->
+        {
+            if (result.isSuccess())
+            {
+                session.setUser(result.getValue());
+            }
+            reply(out, result);
+        }));
+    }
+
+    private void send(ClientSession session, Tokens tokens, StringBuilder out)
+    {
+        if (!requireLogin(session, out))
+        {
+            return;
+        }
+
+        String recipient = tokens.next();
+        String text = tokens.rest();
+        if (recipient == null)
+        {
+            error(out, "BAD_REQUEST", "Usage: SEND cell text");
+            return;
+        }
+
+        ChatResult<Message> result = service.send(session.getPhoneNumber(), recipient, text);
+        if (result.isSuccess())
+        {
+            out.append("OK ").append(result.getValue().getId()).append('\n');
+        }
+        else
+        {
+            reply(out, result);
+        }
+    }
+
+    private void fetch(ClientSession session, Tokens tokens, StringBuilder out)
+    {
+        if (!requireLogin(session, out))
+        {
+            return;
+        }
+
+        long before = tokens.nextLong(MessagePage.LATEST);
+        int limit = clampLimit(tokens.nextLong(DEFAULT_PAGE_SIZE));
+        writePage(service.getInbox(session.getPhoneNumber(), before, limit), out);
+    }
+
+    private void thread(ClientSession session, Tokens tokens, StringBuilder out)
+    {
+        if (!requireLogin(session, out))
+        {
+            return;
+        }
+
+        String other = tokens.next();
+        if (other == null)
+        {
+            error(out, "BAD_REQUEST", "Usage: THREAD cell [before] [limit]");
+            return;
+        }
+        long before = tokens.nextLong(MessagePage.LATEST);
+        int limit = clampLimit(tokens.nextLong(DEFAULT_PAGE_SIZE));
+        writePage(service.getThread(session.getPhoneNumber(), other, before, limit), out);
+    }
+
+    private void search(ClientSession session, Tokens tokens, StringBuilder out)
+    {
+        if (!requireLogin(session, out))
+        {
+            return;
+        }
+
+        // An optional '@' cursor pages back through older results
+        String query = tokens.rest();
+        long before = MessagePage.LATEST;
+        if (query.startsWith("@"))
+        {
+            int end = query.indexOf(' ');
+            try
+            {
+                before = Long.parseLong(query.substring(1, end < 0 ? query.length() : end));
+            }
+            catch (NumberFormatException e)
+            {
+                error(out, "BAD_REQUEST", "Usage: SEARCH [@before] query");
+                return;
+            }
+            query = end < 0 ? "" : query.substring(end + 1);
+        }
+        if (SearchQuery.parse(query).isEmpty())
+        {
+            error(out, "BAD_REQUEST", "Usage: SEARCH [@before] query");
+            return;
+        }
+        writePage(service.search(session.getPhoneNumber(), query, before, DEFAULT_PAGE_SIZE), out);
+    }
+
+    private void read(ClientSession session, Tokens tokens, StringBuilder out)
+    {
+        if (!requireLogin(session, out))
+        {
+            return;
+        }
+
+        long upToId = tokens.nextLong(Long.MIN_VALUE);
+        if (upToId == Long.MIN_VALUE)
+        {
+            error(out, "BAD_REQUEST", "Usage: READ upToId");
+            return;
+        }
+        service.markAllRead(session.getPhoneNumber(), upToId);
+        out.append("OK read\n");
+    }
+
+    private void group(ClientSession session, Tokens tokens, StringBuilder out)
+    {
+        if (!requireLogin(session, out))
+        {
+            return;
+        }
+
+        String name = tokens.next();
+        if (name == null)
+        {
+            error(out, "BAD_REQUEST", "Usage: GROUP name [cell...]");
+            return;
+        }
+        List<String> members = new ArrayList<>();
+        String member;
+        while ((member = tokens.next()) != null)
+        {
+            members.add(member);
+        }
+        reply(out, service.createGroup(session.getPhoneNumber(), name, members));
+    }
+
+    private void invite(ClientSession session, Tokens tokens, StringBuilder out)
+    {
+        if (!requireLogin(session, out))
+        {
+            return;
+        }
+
+        String group = tokens.next();
+        String member = tokens.next();
+        if (member == null)
+        {
+            error(out, "BAD_REQUEST", "Usage: INVITE #group cell");
+            return;
+        }
+        reply(out, service.addGroupMember(session.getPhoneNumber(), group, member));
+    }
+
+    private void leave(ClientSession session, Tokens tokens, StringBuilder out)
+    {
+        if (!requireLogin(session, out))
+        {
+            return;
+        }
+
+        String group = tokens.next();
+        if (group == null)
+        {
+            error(out, "BAD_REQUEST", "Usage: LEAVE #group");
+            return;
+        }
+        reply(out, service.leaveGroup(session.getPhoneNumber(), group));
+    }
+
+    private void members(ClientSession session, Tokens tokens, StringBuilder out)
+    {
+        if (!requireLogin(session, out))
+        {
+            return;
+        }
+
+        String group = tokens.next();
+        if (group == null)
+        {
+            error(out, "BAD_REQUEST", "Usage: MEMBERS #group");
+            return;
+        }
+        if (!service.getConversations().hasGroup(group))
+        {
+            error(out, ChatResult.Status.UNKNOWN_GROUP.name(), "Group " + group + " does not exist");
+            return;
+        }
+        out.append("OK");
+        for (String member : service.getGroupMembers(group))
+        {
+            out.append(' ').append(member);
+        }
+        out.append('\n');
+    }
+
+    private static void writePage(MessagePage page, StringBuilder out)
+    {
+        for (Message message : page.getMessages())
+        {
+            out.append("MSG ");
+            message.writeJson(out);
+            out.append('\n');
+        }
+        out.append("END ").append(page.getNextCursor())
+           .append(page.hasMore() ? " more\n" : " done\n");
+    }
+
+    static int clampLimit(long requested)
+    {
+        return (int) Math.max(1, Math.min(MAX_PAGE_SIZE, requested));
+    }
+
+    private static boolean requireLogin(ClientSession session, StringBuilder out)
+    {
+        if (!session.isLoggedIn())
+        {
+            error(out, "NOT_LOGGED_IN", "Please log in first");
+            return false;
+        }
+        return true;
+    }
+
+    private static void reply(StringBuilder out, ChatResult<?> result)
+    {
+        if (result.isSuccess())
+        {
+            out.append("OK ").append(result.getMessage()).append('\n');
+        }
+        else
+        {
+            error(out, result.getStatus().name(), result.getMessage());
+        }
+    }
+
+    private static void error(StringBuilder out, String status, String text)
+    {
+        out.append("ERR ").append(status).append(' ').append(text).append('\n');
+    }
+
+    /**
+     * Splits a request on single spaces without regular expressions
+     */
+    private static final class Tokens
+    {
+        private final String line;
+        private int position;
+
+        Tokens(String line)
+        {
+            this.line = line;
+        }
+
+        String next()
+        {
+            int length = line.length();
+            while (position < length && line.charAt(position) == ' ')
+            {
+                position++;
+            }
+            if (position == length)
+            {
+                return null;
+            }
+
+            int start = position;
+            while (position < length && line.charAt(position) != ' ')
+            {
+                position++;
+            }
+            return line.substring(start, position);
+        }
+
+        long nextLong(long fallback)
+        {
+            String token = next();
+            if (token == null)
+            {
+                return fallback;
+            }
+            try
+            {
+                return Long.parseLong(token);
+            }
+            catch (NumberFormatException e)
+            {
+                return fallback;
+            }
+        }
+
+        String rest()
+        {
+            if (position < line.length() && line.charAt(position) == ' ')
+            {
+                position++;
+            }
+            return line.substring(Math.min(position, line.length()));
+        }
+    }
+}
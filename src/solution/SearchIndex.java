@@ -0,0 +1,571 @@
+package solution;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Incremental inverted index over message payloads
+ *
+ * Every stored message becomes a document numbered in arrival order. Its
+ * payload is split into terms (see SearchQuery.tokenize) and each term's
+ * PostingList records the document and the word positions, so term,
+ * prefix and phrase queries never scan payloads. The sender and recipient
+ * of each document are kept alongside, so results can be limited to the
+ * messages a user is allowed to see without loading them.
+ *
+ * The index is written to a snapshot file next to the message log on
+ * shutdown. At startup the snapshot is loaded and only messages newer
+ * than its watermark are indexed again while the log is replayed.
+ *
+ * Thread-safe: indexing takes a write lock, queries and snapshots a read lock.
+ */
+public final class SearchIndex
+{
+    /** Snapshot file name inside the log directory */
+    public static final String SNAPSHOT_FILE = "search.snapshot";
+
+    /** Most dictionary terms a single prefix clause expands to */
+    static final int MAX_PREFIX_TERMS = 4096;
+
+    private static final int SNAPSHOT_MAGIC = 0x51435349;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int INITIAL_DOCS = 1024;
+
+    /**
+     * Decides whether a user may see a message
+     */
+    public interface Visibility
+    {
+        boolean canSee(String viewer, long messageId, String sender, String recipient);
+    }
+
+    /**
+     * A matching message, identified without loading it
+     */
+    public static final class Hit
+    {
+        private final long messageId;
+        private final String sender;
+        private final String recipient;
+
+        Hit(long messageId, String sender, String recipient)
+        {
+            this.messageId = messageId;
+            this.sender = sender;
+            this.recipient = recipient;
+        }
+
+        public long getMessageId()
+        {
+            return messageId;
+        }
+
+        public String getSender()
+        {
+            return sender;
+        }
+
+        public String getRecipient()
+        {
+            return recipient;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock;
+    private final TreeMap<String, PostingList> terms;
+    private final List<String> participants;
+    private final Map<String, Integer> participantIds;
+    private final long loadedUpTo;
+    private long[] messageIds;
+    private int[] senders;
+    private int[] recipients;
+    private int docCount;
+    private long indexedUpTo;
+
+    /**
+     * Creates an empty index
+     */
+    public SearchIndex()
+    {
+        this(Long.MIN_VALUE);
+    }
+
+    private SearchIndex(long loadedUpTo)
+    {
+        this.lock = new ReentrantReadWriteLock();
+        this.terms = new TreeMap<>();
+        this.participants = new ArrayList<>();
+        this.participantIds = new HashMap<>();
+        this.loadedUpTo = loadedUpTo;
+        this.indexedUpTo = loadedUpTo;
+        this.messageIds = new long[INITIAL_DOCS];
+        this.senders = new int[INITIAL_DOCS];
+        this.recipients = new int[INITIAL_DOCS];
+    }
+
+    /**
+     * Adds a message to the index
+     * @param message Stored message
+     */
+    public void index(Message message)
+    {
+        // Group the positions of each term before taking the lock; slot 0 holds the count
+        List<String> words = SearchQuery.tokenize(message.getMessagePayload());
+        Map<String, int[]> positions = new LinkedHashMap<>();
+        for (int i = 0; i < words.size(); i++)
+        {
+            int[] list = positions.get(words.get(i));
+            if (list == null)
+            {
+                list = new int[4];
+                positions.put(words.get(i), list);
+            }
+            else if (list[0] + 1 == list.length)
+            {
+                list = Arrays.copyOf(list, list.length * 2);
+                positions.put(words.get(i), list);
+            }
+            list[++list[0]] = i;
+        }
+
+        lock.writeLock().lock();
+        try
+        {
+            int doc = docCount;
+            if (doc == messageIds.length)
+            {
+                int grown = doc * 2;
+                messageIds = Arrays.copyOf(messageIds, grown);
+                senders = Arrays.copyOf(senders, grown);
+                recipients = Arrays.copyOf(recipients, grown);
+            }
+            messageIds[doc] = message.getId();
+            senders[doc] = participantId(message.getSenderPhoneNumber());
+            recipients[doc] = participantId(message.getRecipientPhoneNumber());
+            docCount++;
+            indexedUpTo = Math.max(indexedUpTo, message.getId());
+
+            for (Map.Entry<String, int[]> entry : positions.entrySet())
+            {
+                int[] list = entry.getValue();
+                terms.computeIfAbsent(entry.getKey(), k -> new PostingList())
+                     .add(doc, Arrays.copyOfRange(list, 1, list[0] + 1), list[0]);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes a message replayed at startup unless the snapshot already holds it
+     * @param message Replayed message
+     * @return true if the message was indexed now
+     */
+    public boolean indexReplayed(Message message)
+    {
+        if (message.getId() <= loadedUpTo)
+        {
+            return false;
+        }
+        index(message);
+        return true;
+    }
+
+    private int participantId(String participant)
+    {
+        String key = participant == null ? "" : participant;
+        Integer id = participantIds.get(key);
+        if (id == null)
+        {
+            id = participants.size();
+            participants.add(key);
+            participantIds.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Finds the newest messages matching a query that a user may see
+     * @param query Parsed query; every clause must match
+     * @param viewer Phone number of the user searching
+     * @param beforeCursor Exclusive upper bound on message IDs (MessagePage.LATEST for the newest)
+     * @param limit Maximum number of hits
+     * @param visibility Decides which messages the viewer may see
+     * @return Hits, newest first
+     */
+    public List<Hit> search(SearchQuery query, String viewer, long beforeCursor, int limit,
+                            Visibility visibility)
+    {
+        List<Hit> hits = new ArrayList<>(Math.min(limit, 64));
+        if (query.isEmpty() || limit <= 0)
+        {
+            return hits;
+        }
+
+        lock.readLock().lock();
+        try
+        {
+            BitSet matches = null;
+            for (SearchQuery.Clause clause : query.getClauses())
+            {
+                BitSet docs = match(clause, matches);
+                if (matches == null)
+                {
+                    matches = docs;
+                }
+                else
+                {
+                    matches.and(docs);
+                }
+                if (matches.isEmpty())
+                {
+                    return hits;
+                }
+            }
+
+            for (int doc = matches.previousSetBit(docCount - 1);
+                 doc >= 0 && hits.size() < limit;
+                 doc = matches.previousSetBit(doc - 1))
+            {
+                long id = messageIds[doc];
+                String sender = participants.get(senders[doc]);
+                String recipient = participants.get(recipients[doc]);
+                if (id < beforeCursor && visibility.canSee(viewer, id, sender, recipient))
+                {
+                    hits.add(new Hit(id, sender, recipient));
+                }
+            }
+            return hits;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the documents matching one clause
+     * @param candidates Documents matched by earlier clauses (null if none yet)
+     */
+    private BitSet match(SearchQuery.Clause clause, BitSet candidates)
+    {
+        switch (clause.getKind())
+        {
+            case PREFIX:
+            {
+                String prefix = clause.getTerms().get(0);
+                BitSet docs = new BitSet(docCount);
+                NavigableMap<String, PostingList> range =
+                    terms.subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+                int expanded = 0;
+                for (PostingList postings : range.values())
+                {
+                    if (++expanded > MAX_PREFIX_TERMS)
+                    {
+                        break;
+                    }
+                    addDocs(postings, docs);
+                }
+                return docs;
+            }
+
+            case PHRASE:
+                return matchPhrase(clause.getTerms(), candidates);
+
+            default:
+            {
+                BitSet docs = new BitSet(docCount);
+                PostingList postings = terms.get(clause.getTerms().get(0));
+                if (postings != null)
+                {
+                    addDocs(postings, docs);
+                }
+                return docs;
+            }
+        }
+    }
+
+    private static void addDocs(PostingList postings, BitSet docs)
+    {
+        PostingList.Cursor cursor = postings.cursor();
+        while (cursor.next())
+        {
+            docs.set(cursor.doc());
+        }
+    }
+
+    /**
+     * Finds documents holding the words at consecutive positions
+     */
+    private BitSet matchPhrase(List<String> words, BitSet candidates)
+    {
+        BitSet docs = new BitSet(docCount);
+        PostingList[] lists = new PostingList[words.size()];
+        for (int i = 0; i < lists.length; i++)
+        {
+            lists[i] = terms.get(words.get(i));
+            if (lists[i] == null)
+            {
+                return docs;
+            }
+        }
+
+        // Documents containing every word, restricted to earlier clauses
+        BitSet common = candidates == null ? null : (BitSet) candidates.clone();
+        for (PostingList list : lists)
+        {
+            BitSet listDocs = new BitSet(docCount);
+            addDocs(list, listDocs);
+            if (common == null)
+            {
+                common = listDocs;
+            }
+            else
+            {
+                common.and(listDocs);
+            }
+        }
+        if (common.isEmpty())
+        {
+            return docs;
+        }
+
+        List<Map<Integer, int[]>> positions = new ArrayList<>(lists.length);
+        for (PostingList list : lists)
+        {
+            Map<Integer, int[]> byDoc = new HashMap<>();
+            PostingList.Cursor cursor = list.cursor();
+            while (cursor.next())
+            {
+                if (common.get(cursor.doc()))
+                {
+                    byDoc.put(cursor.doc(), cursor.copyPositions());
+                }
+            }
+            positions.add(byDoc);
+        }
+
+        for (int doc = common.nextSetBit(0); doc >= 0; doc = common.nextSetBit(doc + 1))
+        {
+            for (int start : positions.get(0).get(doc))
+            {
+                boolean all = true;
+                for (int w = 1; w < lists.length && all; w++)
+                {
+                    all = Arrays.binarySearch(positions.get(w).get(doc), start + w) >= 0;
+                }
+                if (all)
+                {
+                    docs.set(doc);
+                    break;
+                }
+            }
+        }
+        return docs;
+    }
+
+    public int getDocumentCount()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return docCount;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getTermCount()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return terms.size();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the total size of all posting lists
+     * @return Bytes of compressed postings
+     */
+    public long getPostingBytes()
+    {
+        lock.readLock().lock();
+        try
+        {
+            long bytes = 0;
+            for (PostingList postings : terms.values())
+            {
+                bytes += postings.getByteLength();
+            }
+            return bytes;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the snapshot watermark this index was loaded with
+     * @return Highest message ID in the loaded snapshot, or Long.MIN_VALUE
+     */
+    public long getLoadedUpTo()
+    {
+        return loadedUpTo;
+    }
+
+    /**
+     * Writes the index to a file, replacing it atomically
+     * Call while no messages are being sent (for example on shutdown), so
+     * the watermark does not pass a message that is still being indexed
+     * @param file Snapshot path
+     * @throws IOException If the file cannot be written
+     */
+    public void writeSnapshot(Path file) throws IOException
+    {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        lock.readLock().lock();
+        try
+        {
+            CRC32 crc = new CRC32();
+            try (OutputStream raw = Files.newOutputStream(temporary);
+                 CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(raw, 64 * 1024), crc);
+                 DataOutputStream out = new DataOutputStream(checked))
+            {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(indexedUpTo);
+
+                out.writeInt(participants.size());
+                for (String participant : participants)
+                {
+                    out.writeUTF(participant);
+                }
+
+                out.writeInt(docCount);
+                for (int doc = 0; doc < docCount; doc++)
+                {
+                    out.writeLong(messageIds[doc]);
+                    out.writeInt(senders[doc]);
+                    out.writeInt(recipients[doc]);
+                }
+
+                out.writeInt(terms.size());
+                for (Map.Entry<String, PostingList> entry : terms.entrySet())
+                {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+                }
+                out.flush();
+                out.writeLong(crc.getValue());
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a snapshot written by writeSnapshot()
+     * @param file Snapshot path
+     * @return Loaded index, or an empty one if the file does not exist
+     * @throws IOException If the file is unreadable or corrupt
+     */
+    public static SearchIndex load(Path file) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        try (InputStream raw = Files.newInputStream(file);
+             CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(raw, 64 * 1024), crc);
+             DataInputStream in = new DataInputStream(checked))
+        {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION)
+            {
+                throw new IOException("Not a search index snapshot: " + file);
+            }
+            SearchIndex index = new SearchIndex(in.readLong());
+
+            int participantCount = in.readInt();
+            for (int i = 0; i < participantCount; i++)
+            {
+                index.participantId(in.readUTF());
+            }
+
+            int docs = in.readInt();
+            if (docs < 0 || participantCount < 0)
+            {
+                throw new IOException("Corrupt search index snapshot: " + file);
+            }
+            int capacity = Math.max(INITIAL_DOCS, docs);
+            index.messageIds = new long[capacity];
+            index.senders = new int[capacity];
+            index.recipients = new int[capacity];
+            for (int doc = 0; doc < docs; doc++)
+            {
+                index.messageIds[doc] = in.readLong();
+                index.senders[doc] = checkParticipant(in.readInt(), participantCount);
+                index.recipients[doc] = checkParticipant(in.readInt(), participantCount);
+            }
+            index.docCount = docs;
+
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++)
+            {
+                String term = in.readUTF();
+                index.terms.put(term, PostingList.read(in));
+            }
+
+            long expected = crc.getValue();
+            if (in.readLong() != expected)
+            {
+                throw new IOException("Search index snapshot checksum mismatch: " + file);
+            }
+            return index;
+        }
+        catch (NoSuchFileException e)
+        {
+            return new SearchIndex();
+        }
+    }
+
+    private static int checkParticipant(int id, int count) throws IOException
+    {
+        if (id < 0 || id >= count)
+        {
+            throw new IOException("Corrupt search index snapshot");
+        }
+        return id;
+    }
+}
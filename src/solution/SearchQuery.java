@@ -0,0 +1,201 @@
+package solution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parsed full-text query for SearchIndex
+ *
+ * A query is a list of clauses that must all match:
+ * <pre>
+ * hello            term: the word appears in the message
+ * meet*            prefix: some word starts with "meet"
+ * "see you soon"   phrase: the words appear next to each other in order
+ * </pre>
+ * Text is split into terms exactly as message payloads are indexed.
+ */
+public final class SearchQuery
+{
+    /** Longest term kept; longer words are cut to this length */
+    public static final int MAX_TERM_LENGTH = 32;
+
+    /**
+     * Kinds of clause
+     */
+    public enum Kind
+    {
+        TERM,
+        PREFIX,
+        PHRASE
+    }
+
+    /**
+     * One clause of a query
+     */
+    public static final class Clause
+    {
+        private final Kind kind;
+        private final List<String> terms;
+
+        Clause(Kind kind, List<String> terms)
+        {
+            this.kind = kind;
+            this.terms = Collections.unmodifiableList(terms);
+        }
+
+        public Kind getKind()
+        {
+            return kind;
+        }
+
+        /**
+         * Gets the clause's terms
+         * @return One term (or prefix), or the words of a phrase in order
+         */
+        public List<String> getTerms()
+        {
+            return terms;
+        }
+
+        @Override
+        public String toString()
+        {
+            switch (kind)
+            {
+                case PREFIX:
+                    return terms.get(0) + "*";
+                case PHRASE:
+                    return "\"" + String.join(" ", terms) + "\"";
+                default:
+                    return terms.get(0);
+            }
+        }
+    }
+
+    private final List<Clause> clauses;
+
+    private SearchQuery(List<Clause> clauses)
+    {
+        this.clauses = Collections.unmodifiableList(clauses);
+    }
+
+    /**
+     * Parses query text
+     * @param text Words, prefixes ending in '*' and quoted phrases
+     * @return Query (with no clauses if the text has no searchable words)
+     */
+    public static SearchQuery parse(String text)
+    {
+        List<Clause> clauses = new ArrayList<>();
+        if (text == null)
+        {
+            return new SearchQuery(clauses);
+        }
+
+        int length = text.length();
+        int i = 0;
+        while (i < length)
+        {
+            char c = text.charAt(i);
+            if (c == '"')
+            {
+                int close = text.indexOf('"', i + 1);
+                int end = close < 0 ? length : close;
+                List<String> words = tokenize(text.substring(i + 1, end));
+                if (words.size() == 1)
+                {
+                    clauses.add(new Clause(Kind.TERM, words));
+                }
+                else if (!words.isEmpty())
+                {
+                    clauses.add(new Clause(Kind.PHRASE, words));
+                }
+                i = end + 1;
+            }
+            else if (isTermChar(c))
+            {
+                int start = i;
+                while (i < length && isTermChar(text.charAt(i)))
+                {
+                    i++;
+                }
+                String term = normalize(text, start, i);
+                boolean prefix = i < length && text.charAt(i) == '*';
+                List<String> single = new ArrayList<>(1);
+                single.add(term);
+                clauses.add(new Clause(prefix ? Kind.PREFIX : Kind.TERM, single));
+            }
+            else
+            {
+                i++;
+            }
+        }
+        return new SearchQuery(clauses);
+    }
+
+    public List<Clause> getClauses()
+    {
+        return clauses;
+    }
+
+    public boolean isEmpty()
+    {
+        return clauses.isEmpty();
+    }
+
+    /**
+     * Splits text into lower-case terms of letters and digits
+     * @param text Message payload or query phrase
+     * @return Terms in order of appearance
+     */
+    public static List<String> tokenize(String text)
+    {
+        List<String> terms = new ArrayList<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length)
+        {
+            while (i < length && !isTermChar(text.charAt(i)))
+            {
+                i++;
+            }
+            int start = i;
+            while (i < length && isTermChar(text.charAt(i)))
+            {
+                i++;
+            }
+            if (i > start)
+            {
+                terms.add(normalize(text, start, i));
+            }
+        }
+        return terms;
+    }
+
+    static boolean isTermChar(char c)
+    {
+        return Character.isLetterOrDigit(c);
+    }
+
+    private static String normalize(String text, int start, int end)
+    {
+        return text.substring(start, Math.min(end, start + MAX_TERM_LENGTH)).toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder();
+        for (Clause clause : clauses)
+        {
+            if (text.length() > 0)
+            {
+                text.append(' ');
+            }
+            text.append(clause);
+        }
+        return text.toString();
+    }
+}
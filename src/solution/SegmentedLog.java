@@ -0,0 +1,318 @@
+package solution;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only message log split into fixed-size, memory-mapped segments
+ *
+ * Every record receives a sequence number. Segments are named after the
+ * first sequence they hold, so a read by sequence picks the segment with a
+ * floor lookup and then uses that segment's sparse index. When the active
+ * segment is full a new one is started, and sealed segments are removed
+ * once the log exceeds its retention size or age. A LogCompactor may
+ * replace sealed segments with smaller copies; the swap only excludes
+ * retention, never appends to the active segment.
+ */
+public final class SegmentedLog implements LogSink
+{
+    private final Path directory;
+    private final int segmentCapacity;
+    private final int indexInterval;
+    private final long retentionBytes;
+    private final long retentionMillis;
+    private final ConcurrentNavigableMap<Long, LogSegment> segments;
+    private final ReentrantLock sealedLock = new ReentrantLock();
+
+    private volatile LogSegment active;
+
+    /**
+     * Opens the log in the given directory, recovering existing segments
+     * @param directory Directory holding segment and index files
+     * @param segmentCapacity Size of each segment file in bytes
+     * @param indexInterval Bytes of records between sparse index entries
+     * @param retentionBytes Total size above which old segments are deleted (≤0 keeps all)
+     * @param retentionMillis Age above which old segments are deleted (≤0 keeps all)
+     * @throws IOException if the directory or segments cannot be opened
+     */
+    public SegmentedLog(Path directory, int segmentCapacity, int indexInterval,
+                        long retentionBytes, long retentionMillis) throws IOException
+    {
+        if (segmentCapacity <= LogSegment.HEADER_SIZE || indexInterval < 1)
+        {
+            throw new IllegalArgumentException("Invalid segment or index size");
+        }
+
+        this.directory = directory;
+        this.segmentCapacity = segmentCapacity;
+        this.indexInterval = indexInterval;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+        this.segments = new ConcurrentSkipListMap<>();
+
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log"))
+        {
+            for (Path file : files)
+            {
+                String name = file.getFileName().toString();
+                long base = Long.parseLong(name.substring(0, name.length() - 4));
+                segments.put(base, new LogSegment(directory, base, segmentCapacity, indexInterval));
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException("Unexpected file in log directory " + directory, e);
+        }
+
+        if (segments.isEmpty())
+        {
+            segments.put(0L, new LogSegment(directory, 0, segmentCapacity, indexInterval));
+        }
+        active = segments.lastEntry().getValue();
+    }
+
+    /**
+     * Appends a record, rolling to a new segment when the active one is full
+     * @param record Record text
+     * @throws IOException if a new segment cannot be created
+     */
+    @Override
+    public void append(String record) throws IOException
+    {
+        byte[] payload = record.getBytes(StandardCharsets.UTF_8);
+        if (payload.length == 0 || payload.length > segmentCapacity - LogSegment.HEADER_SIZE)
+        {
+            throw new IOException("Record size " + payload.length + " does not fit in a segment");
+        }
+
+        if (!active.hasRoomFor(payload.length))
+        {
+            roll();
+        }
+        active.append(payload, System.currentTimeMillis());
+    }
+
+    /**
+     * Seals the active segment and starts a new one
+     * @throws IOException if the new segment cannot be created
+     */
+    private void roll() throws IOException
+    {
+        LogSegment sealed = active;
+        sealed.sync();
+
+        long base = sealed.getNextSequence();
+        LogSegment next = new LogSegment(directory, base, segmentCapacity, indexInterval);
+        segments.put(base, next);
+        active = next;
+
+        enforceRetention();
+    }
+
+    /**
+     * Deletes the oldest sealed segments that exceed the size or age limit
+     * The active segment is never removed
+     * @throws IOException if a segment cannot be deleted
+     */
+    public void enforceRetention() throws IOException
+    {
+        sealedLock.lock();
+        try
+        {
+            removeExpired();
+        }
+        finally
+        {
+            sealedLock.unlock();
+        }
+    }
+
+    private void removeExpired() throws IOException
+    {
+        long totalBytes = 0;
+        for (LogSegment segment : segments.values())
+        {
+            totalBytes += segment.getSizeOnDisk();
+        }
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, LogSegment> entry : segments.entrySet())
+        {
+            LogSegment segment = entry.getValue();
+            if (segment == active)
+            {
+                break;
+            }
+
+            boolean tooLarge = retentionBytes > 0 && totalBytes > retentionBytes;
+            boolean tooOld = retentionMillis > 0
+                && now - segment.getLastAppendMillis() > retentionMillis;
+            if (!tooLarge && !tooOld)
+            {
+                break;
+            }
+
+            segments.remove(entry.getKey());
+            totalBytes -= segment.getSizeOnDisk();
+            segment.delete();
+        }
+    }
+
+    /**
+     * Swaps a sealed segment for its compacted copy
+     * The copy's files are moved over the segment's own, index first
+     * removed so a crash in between leaves a segment that recovers by
+     * scanning. Readers that already hold the old segment keep reading
+     * its mapping.
+     * @param sealed Segment that was compacted
+     * @param compacted Closed copy with the same base sequence, in another
+     *        directory; null if no record survived
+     * @return false if the segment is gone (removed by retention) or is
+     *         the active one, in which case the copy is deleted
+     * @throws IOException if the files cannot be moved
+     */
+    boolean replaceSealed(LogSegment sealed, LogSegment compacted) throws IOException
+    {
+        sealedLock.lock();
+        try
+        {
+            long base = sealed.getBaseSequence();
+            if (sealed == active || segments.get(base) != sealed)
+            {
+                if (compacted != null)
+                {
+                    compacted.delete();
+                }
+                return false;
+            }
+            if (compacted == null)
+            {
+                segments.remove(base);
+                sealed.delete();
+                return true;
+            }
+
+            Path[] from = compacted.getPaths();
+            Path[] to = sealed.getPaths();
+            Files.deleteIfExists(to[1]);
+            Files.move(from[0], to[0], StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(from[1], to[1], StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            segments.put(base, new LogSegment(directory, base, segmentCapacity, indexInterval));
+            sealed.close();
+            return true;
+        }
+        finally
+        {
+            sealedLock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether a segment still receives appends
+     * @param segment Segment of this log
+     * @return true for the active segment
+     */
+    boolean isActive(LogSegment segment)
+    {
+        return segment == active;
+    }
+
+    int getIndexInterval()
+    {
+        return indexInterval;
+    }
+
+    /**
+     * Mmapped writes are already visible to the operating system
+     */
+    @Override
+    public void flush()
+    {
+        // Nothing buffered in the JVM
+    }
+
+    /**
+     * Forces the active segment's new records to the storage device
+     */
+    @Override
+    public void sync()
+    {
+        active.sync();
+    }
+
+    /**
+     * Reads a record by sequence number without scanning the log
+     * @param sequence Sequence number
+     * @return Record text, or null if it does not exist or was removed by retention
+     */
+    public String read(long sequence)
+    {
+        Map.Entry<Long, LogSegment> entry = segments.floorEntry(sequence);
+        return entry == null ? null : entry.getValue().read(sequence);
+    }
+
+    /**
+     * Takes a snapshot of the retained segments in sequence order
+     * @return Segments, oldest first
+     */
+    List<LogSegment> getSegments()
+    {
+        return new ArrayList<>(segments.values());
+    }
+
+    /**
+     * Gets the oldest sequence number still retained
+     * @return First available sequence
+     */
+    public long getFirstSequence()
+    {
+        return segments.firstKey();
+    }
+
+    /**
+     * Gets the sequence number the next append will receive
+     * @return Next sequence
+     */
+    public long getNextSequence()
+    {
+        return active.getNextSequence();
+    }
+
+    /**
+     * Gets the number of segment files
+     * @return Segment count
+     */
+    public int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Syncs and closes every segment
+     * @throws IOException if a segment cannot be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        for (LogSegment segment : segments.values())
+        {
+            segment.close();
+        }
+    }
+}
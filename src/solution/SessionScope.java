@@ -0,0 +1,126 @@
+package solution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Structured lifetime for the subtasks of one client session
+ *
+ * Every subtask runs on its own virtual thread. join() returns once all
+ * of them have finished or as soon as one fails; a failure (typically the
+ * client disconnecting) cancels the siblings, and close() does not return
+ * until every subtask has ended. This is the "shutdown on failure" policy
+ * of StructuredTaskScope, which is still a preview API.
+ */
+final class SessionScope implements AutoCloseable
+{
+    /**
+     * A subtask body
+     */
+    interface Task
+    {
+        void run() throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final List<Future<?>> forked;
+    private final AtomicInteger running;
+    private final AtomicReference<Throwable> failure;
+    private final CountDownLatch finished;
+
+    /**
+     * Opens a scope
+     * @param name Prefix for the subtask thread names
+     */
+    SessionScope(String name)
+    {
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        this.forked = new ArrayList<>(2);
+        this.running = new AtomicInteger();
+        this.failure = new AtomicReference<>();
+        this.finished = new CountDownLatch(1);
+    }
+
+    /**
+     * Starts a subtask; only the scope owner may fork
+     * @param task Subtask body
+     */
+    void fork(Task task)
+    {
+        running.incrementAndGet();
+        forked.add(executor.submit(() ->
+        {
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                if (failure.compareAndSet(null, t))
+                {
+                    finished.countDown();
+                }
+            }
+            finally
+            {
+                if (running.decrementAndGet() == 0)
+                {
+                    finished.countDown();
+                }
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Waits until every subtask is done or one has failed, then cancels the rest
+     * @throws InterruptedException If the owner is interrupted
+     */
+    void join() throws InterruptedException
+    {
+        try
+        {
+            finished.await();
+        }
+        finally
+        {
+            shutdown();
+        }
+    }
+
+    /**
+     * Interrupts every subtask that is still running
+     */
+    void shutdown()
+    {
+        for (Future<?> future : forked)
+        {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Gets the first failure
+     * @return Exception that ended the scope early, or null
+     */
+    Throwable getFailure()
+    {
+        return failure.get();
+    }
+
+    /**
+     * Cancels outstanding subtasks and waits for all of them to end
+     */
+    @Override
+    public void close()
+    {
+        shutdown();
+        executor.close();
+    }
+}
@@ -0,0 +1,358 @@
+package solution;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-per-session TCP server for the line protocol of RequestDispatcher
+ *
+ * The alternative to the event loops of ChatServer: every session is
+ * served with plain blocking socket I/O. In VIRTUAL_THREADS mode each
+ * session gets a virtual thread and a SessionScope with one subtask
+ * reading and dispatching requests and one writing replies; when either
+ * side fails (the client disconnects) the other is cancelled. In
+ * PLATFORM_POOL mode sessions run inline on a fixed pool of platform
+ * threads, the classic design that the virtual mode is measured against.
+ */
+public final class SessionServer implements Closeable
+{
+    /**
+     * How sessions are mapped to threads
+     */
+    public enum Mode
+    {
+        VIRTUAL_THREADS,
+        PLATFORM_POOL
+    }
+
+    /** Replies a session may queue before its reader waits for the writer */
+    static final int MAX_QUEUED_REPLIES = 64;
+
+    private static final int INITIAL_LINE_BYTES = 256;
+    private static final int ACCEPT_BACKLOG = 4096;
+    private static final String END_OF_REPLIES = new String("end-of-replies");
+
+    private final RequestDispatcher dispatcher;
+    private final Mode mode;
+    private final ServerSocket serverSocket;
+    private final ExecutorService sessions;
+    private final Thread acceptor;
+    private final Set<Socket> openSockets;
+    private final AtomicInteger activeSessions;
+    private final AtomicLong completedSessions;
+    private final AtomicLong requests;
+    private volatile boolean running;
+
+    private SessionServer(ChatService service, InetSocketAddress address, Mode mode,
+                          ExecutorService sessions, Thread.Builder acceptorBuilder) throws IOException
+    {
+        this.dispatcher = new RequestDispatcher(service);
+        this.mode = mode;
+        this.sessions = sessions;
+        this.openSockets = ConcurrentHashMap.newKeySet();
+        this.activeSessions = new AtomicInteger();
+        this.completedSessions = new AtomicLong();
+        this.requests = new AtomicLong();
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(address, ACCEPT_BACKLOG);
+        this.acceptor = acceptorBuilder.name("session-acceptor").unstarted(this::acceptLoop);
+    }
+
+    /**
+     * Creates a server that runs every session on its own virtual thread
+     * @param service Chat engine that executes requests
+     * @param address Local address (port 0 picks a free port)
+     * @return Unstarted server
+     * @throws IOException If the address cannot be bound
+     */
+    public static SessionServer virtualThreads(ChatService service, InetSocketAddress address)
+        throws IOException
+    {
+        return new SessionServer(service, address, Mode.VIRTUAL_THREADS,
+                                 Executors.newThreadPerTaskExecutor(
+                                     Thread.ofVirtual().name("session-", 0).factory()),
+                                 Thread.ofVirtual());
+    }
+
+    /**
+     * Creates a server that runs sessions on a fixed pool of platform threads
+     * Sessions beyond the pool size wait until a thread is free
+     * @param service Chat engine that executes requests
+     * @param address Local address (port 0 picks a free port)
+     * @param threads Pool size
+     * @return Unstarted server
+     * @throws IOException If the address cannot be bound
+     */
+    public static SessionServer platformPool(ChatService service, InetSocketAddress address,
+                                             int threads) throws IOException
+    {
+        return new SessionServer(service, address, Mode.PLATFORM_POOL,
+                                 Executors.newFixedThreadPool(threads,
+                                     Thread.ofPlatform().name("session-", 0).factory()),
+                                 Thread.ofPlatform());
+    }
+
+    /**
+     * Starts accepting sessions
+     */
+    public void start()
+    {
+        running = true;
+        acceptor.start();
+    }
+
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getActiveSessionCount()
+    {
+        return activeSessions.get();
+    }
+
+    public long getCompletedSessionCount()
+    {
+        return completedSessions.get();
+    }
+
+    public long getRequestCount()
+    {
+        return requests.get();
+    }
+
+    /**
+     * Formats session and request counters for logging
+     * @return One-line summary
+     */
+    public String getStatisticsSummary()
+    {
+        return String.format("%s: %d active sessions, %d completed, %d requests",
+                             mode, getActiveSessionCount(), getCompletedSessionCount(),
+                             getRequestCount());
+    }
+
+    /**
+     * Stops accepting, disconnects every session and waits for them to end
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        try
+        {
+            serverSocket.close();
+        }
+        catch (IOException e)
+        {
+            // Already closed
+        }
+
+        for (Socket socket : openSockets)
+        {
+            closeQuietly(socket);
+        }
+        sessions.shutdownNow();
+        try
+        {
+            acceptor.join();
+            sessions.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop()
+    {
+        while (running)
+        {
+            try
+            {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                sessions.execute(() -> serve(socket));
+            }
+            catch (IOException e)
+            {
+                if (running)
+                {
+                    System.err.println("session-acceptor: " + e.getMessage());
+                }
+            }
+            catch (RuntimeException e)
+            {
+                // Executor shut down while closing
+                break;
+            }
+        }
+    }
+
+    /**
+     * Serves one session until the client quits or disconnects
+     * @param socket Connected client
+     */
+    private void serve(Socket socket)
+    {
+        activeSessions.incrementAndGet();
+        openSockets.add(socket);
+        try
+        {
+            if (mode == Mode.VIRTUAL_THREADS)
+            {
+                serveStructured(socket);
+            }
+            else
+            {
+                serveInline(socket);
+            }
+        }
+        catch (IOException e)
+        {
+            // Client went away; nothing to report back
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            openSockets.remove(socket);
+            closeQuietly(socket);
+            activeSessions.decrementAndGet();
+            completedSessions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reads and writes on separate subtasks of one scope, so a disconnect
+     * seen by either side cancels the other side's in-flight work
+     */
+    private void serveStructured(Socket socket) throws IOException, InterruptedException
+    {
+        ClientSession session = new ClientSession();
+        BlockingQueue<String> replies = new ArrayBlockingQueue<>(MAX_QUEUED_REPLIES);
+        LineReader reader = new LineReader(socket.getInputStream(), INITIAL_LINE_BYTES,
+                                           ChatServer.MAX_LINE_BYTES);
+        OutputStream out = socket.getOutputStream();
+
+        try (SessionScope scope = new SessionScope("session-io"))
+        {
+            scope.fork(() -> readRequests(reader, session, replies));
+            scope.fork(() -> writeReplies(out, replies));
+            scope.join();
+        }
+    }
+
+    private void readRequests(LineReader reader, ClientSession session,
+                              BlockingQueue<String> replies) throws IOException, InterruptedException
+    {
+        String line;
+        while (!session.isClosing() && (line = reader.readLine()) != null)
+        {
+            StringBuilder reply = new StringBuilder(64);
+            dispatcher.dispatch(session, line, reply);
+            requests.incrementAndGet();
+            replies.put(reply.toString());
+        }
+        replies.put(END_OF_REPLIES);
+    }
+
+    /**
+     * Writes queued replies, coalescing everything already queued into one write
+     */
+    private static void writeReplies(OutputStream out, BlockingQueue<String> replies)
+        throws IOException, InterruptedException
+    {
+        StringBuilder batch = new StringBuilder(256);
+        while (true)
+        {
+            String reply = replies.take();
+            boolean finished = false;
+            batch.setLength(0);
+            do
+            {
+                if (reply == END_OF_REPLIES)
+                {
+                    finished = true;
+                    break;
+                }
+                batch.append(reply);
+            }
+            while ((reply = replies.poll()) != null);
+
+            if (batch.length() > 0)
+            {
+                out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (finished)
+            {
+                out.flush();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Handles requests on the calling thread, writing once the client's
+     * pipelined requests have all been answered
+     */
+    private void serveInline(Socket socket) throws IOException
+    {
+        ClientSession session = new ClientSession();
+        LineReader reader = new LineReader(socket.getInputStream(), INITIAL_LINE_BYTES,
+                                           ChatServer.MAX_LINE_BYTES);
+        OutputStream out = socket.getOutputStream();
+        StringBuilder batch = new StringBuilder(256);
+
+        String line;
+        while (!session.isClosing() && (line = reader.readLine()) != null)
+        {
+            dispatcher.dispatch(session, line, batch);
+            requests.incrementAndGet();
+            if (!reader.hasBufferedLine())
+            {
+                out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                batch.setLength(0);
+            }
+        }
+        if (batch.length() > 0)
+        {
+            out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        out.flush();
+    }
+
+    private static void closeQuietly(Socket socket)
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (IOException e)
+        {
+            // Already closed
+        }
+    }
+}
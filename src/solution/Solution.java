@@ -1,5 +1,9 @@
 package solution;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.function.Supplier;
 import javax.swing.SwingUtilities;
 
 /**
@@ -7,12 +11,24 @@ import javax.swing.SwingUtilities;
  */
 public class Solution 
 {
+    // Server settings (overridable with -D system properties)
+    private static final int SERVER_PORT = 
+        Integer.getInteger("quickchat.port", 5050);
+
     /**
      * Main method to launch the application
-     * @param args Command line arguments (not used)
+     * @param args Command line arguments: --server [port] runs the headless
+     *             event-loop server, --sessions [port] the thread-per-session one
      */
-    public static void main(String[] args) 
+    public static void main(String[] args) throws IOException 
     {
+        if (args.length > 0 && (args[0].equals("--server") || args[0].equals("--sessions"))) 
+        {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : SERVER_PORT;
+            runServer(port, args[0].equals("--sessions"));
+            return;
+        }
+
         // Create and show the GUI on the Event Dispatch Thread
         SwingUtilities.invokeLater(() -> 
         {
@@ -20,4 +36,84 @@ public class Solution
             app.show();
         });
     }
+
+    /**
+     * Runs the chat engine behind a network server until the JVM is stopped
+     * @param port TCP port to listen on
+     * @param virtualSessions true for a virtual thread per session, false for NIO event loops
+     * @throws IOException If the port cannot be bound
+     */
+    private static void runServer(int port, boolean virtualSessions) throws IOException 
+    {
+        ChatService service = openService();
+
+        try 
+        {
+            System.out.println(service.restore().getSummary());
+        }
+        catch (IOException | RuntimeException e) 
+        {
+            System.err.println("Failed to load message history: " + e.getMessage());
+        }
+
+        Closeable server;
+        Supplier<String> statistics;
+        if (virtualSessions) 
+        {
+            SessionServer sessions = SessionServer.virtualThreads(service, new InetSocketAddress(port));
+            sessions.start();
+            System.out.println("QuickChat server listening on port " + sessions.getPort()
+                               + " with a virtual thread per session");
+            server = sessions;
+            statistics = sessions::getStatisticsSummary;
+        }
+        else 
+        {
+            ChatServer loops = new ChatServer(service, new InetSocketAddress(port), 
+                                              ChatServer.DEFAULT_LOOPS);
+            loops.start();
+            System.out.println("QuickChat server listening on port " + loops.getPort()
+                               + " with " + loops.getLoopCount() + " event loops");
+            server = loops;
+            statistics = loops::getStatisticsSummary;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> 
+        {
+            try 
+            {
+                server.close();
+            }
+            catch (IOException e) 
+            {
+                System.err.println("Failed to stop server: " + e.getMessage());
+            }
+            System.out.println("Server: " + statistics.get());
+            service.close();
+            if (service.getMessageWriter() != null) 
+            {
+                System.out.println("Message writer: "
+                                   + service.getMessageWriter().getStatisticsSummary());
+            }
+        }, "server-shutdown"));
+    }
+
+    /**
+     * Opens the persistent chat engine, or an in-memory one if the log is unavailable
+     * @return Chat engine
+     */
+    private static ChatService openService() 
+    {
+        try 
+        {
+            return ChatService.open(e -> 
+                System.err.println("Failed to save message: " + e.getMessage()));
+        }
+        catch (IOException | IllegalArgumentException e) 
+        {
+            System.err.println("Failed to open message log: " + e.getMessage()
+                               + "; messages will not be persisted");
+            return ChatService.inMemory();
+        }
+    }
 }
\ No newline at end of file
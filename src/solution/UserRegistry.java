@@ -0,0 +1,848 @@
+package solution;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Persistent user registry in two memory-mapped files
+ *
+ * The records file holds one fixed-width record per account, appended in
+ * registration order:
+ * <pre>
+ * offset  width  field
+ *      0      1  flags (1 = live)
+ *      2     16  cell number
+ *     18     32  username
+ *     50     48  first name
+ *     98     48  last name
+ *    146    110  password hash
+ * </pre>
+ * Every field starts with its UTF-8 length in one byte. Names that do not
+ * fit are cut; keys and hashes that do not fit are rejected.
+ *
+ * The index file holds two open-addressing tables with linear probing,
+ * one keyed by cell number and one by username. A slot is the record
+ * number plus one (0 = empty) and the key's 32-bit hash, so a probe only
+ * reads a record whose hash matches. A lookup therefore touches the index
+ * page holding the slot and the record's page. The tables are rebuilt at
+ * twice the size when they pass 70% load. Both keys are unique. Removing
+ * an account clears its flag and shifts later slots of its probe runs
+ * back, so the tables never hold tombstones; the record itself is not
+ * reused.
+ *
+ * Opening maps the files without reading any record. Records are written
+ * before the index entries that point at them; records the index missed
+ * (after a crash) are indexed again on open. Thread-safe: lookups share a
+ * read lock, writes take the write lock.
+ */
+public final class UserRegistry implements Closeable
+{
+    static final int RECORD_BYTES = 256;
+    static final int HEADER_BYTES = 4096;
+    static final int MIN_SLOTS = 1 << 12;
+    static final int MAX_SLOTS = 1 << 26;
+
+    /** Records per mapped chunk of the records file (16 MiB) */
+    static final int CHUNK_RECORDS = 1 << 16;
+
+    private static final int RECORDS_MAGIC = 0x51435544;
+    private static final int INDEX_MAGIC = 0x51435549;
+    private static final int VERSION = 1;
+    private static final int SLOT_BYTES = 8;
+    private static final int MAX_CHUNKS = (int) ((long) MAX_SLOTS * 7 / 10 / CHUNK_RECORDS + 1);
+
+    // Header fields (both files)
+    private static final int MAGIC_AT = 0;
+    private static final int VERSION_AT = 4;
+    private static final int SIZE_AT = 8;
+    private static final int COUNT_AT = 12;
+    private static final int LIVE_AT = 16;
+
+    // Record fields
+    private static final int FLAGS = 0;
+    private static final int PHONE = 2;
+    private static final int PHONE_WIDTH = 16;
+    private static final int USERNAME = 18;
+    private static final int USERNAME_WIDTH = 32;
+    private static final int FIRST_NAME = 50;
+    private static final int LAST_NAME = 98;
+    private static final int NAME_WIDTH = 48;
+    private static final int PASSWORD_HASH = 146;
+    private static final int HASH_WIDTH = 110;
+    private static final byte LIVE = 1;
+
+    private static final int PHONE_TABLE = 0;
+    private static final int USERNAME_TABLE = 1;
+
+    private final Path recordsPath;
+    private final Path indexPath;
+    private final FileChannel records;
+    private final MappedByteBuffer recordsHeader;
+    private final AtomicReferenceArray<MappedByteBuffer> chunks;
+    private final ReentrantLock chunkLock;
+    private final ReentrantReadWriteLock lock;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int slots;
+    private volatile int count;
+    private volatile int live;
+
+    private UserRegistry(Path recordsPath, FileChannel records, MappedByteBuffer recordsHeader)
+    {
+        this.recordsPath = recordsPath;
+        this.indexPath = recordsPath.resolveSibling(recordsPath.getFileName() + ".idx");
+        this.records = records;
+        this.recordsHeader = recordsHeader;
+        this.chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+        this.chunkLock = new ReentrantLock();
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Opens (or creates) a registry and its index file (same name plus ".idx")
+     * @param recordsPath Records file
+     * @param expectedUsers Accounts the index is first sized for
+     * @return Open registry
+     * @throws IOException If the files cannot be opened or are not registry files
+     */
+    public static UserRegistry open(Path recordsPath, int expectedUsers) throws IOException
+    {
+        FileChannel channel = FileChannel.open(recordsPath, StandardOpenOption.CREATE,
+                                               StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            if (header.getInt(MAGIC_AT) == 0)
+            {
+                header.putInt(VERSION_AT, VERSION);
+                header.putInt(SIZE_AT, RECORD_BYTES);
+                header.putInt(COUNT_AT, 0);
+                header.putInt(MAGIC_AT, RECORDS_MAGIC);
+            }
+            else if (header.getInt(MAGIC_AT) != RECORDS_MAGIC || header.getInt(VERSION_AT) != VERSION
+                     || header.getInt(SIZE_AT) != RECORD_BYTES)
+            {
+                throw new IOException("Not a user registry: " + recordsPath);
+            }
+
+            UserRegistry registry = new UserRegistry(recordsPath, channel, header);
+            registry.count = header.getInt(COUNT_AT);
+            registry.live = header.getInt(LIVE_AT);
+            if (registry.live == 0 && registry.count > 0)
+            {
+                // Written before the live count was kept
+                registry.live = registry.countLive();
+                header.putInt(LIVE_AT, registry.live);
+            }
+            registry.openIndex(slotsFor(expectedUsers));
+            return registry;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Smallest table size that keeps the load under 70%
+     */
+    private static int slotsFor(long users)
+    {
+        long wanted = Math.max(MIN_SLOTS, users * 10 / 7 + 1);
+        return (int) Math.min(MAX_SLOTS, Long.highestOneBit(wanted - 1) << 1);
+    }
+
+    /**
+     * Maps the index, rebuilding it if it is missing or damaged, and indexes
+     * any records appended after it was last written
+     */
+    private void openIndex(int wantedSlots) throws IOException
+    {
+        FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+                                               StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int existingSlots = 0;
+        int indexed = 0;
+        if (channel.size() >= HEADER_BYTES)
+        {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            existingSlots = header.getInt(SIZE_AT);
+            indexed = header.getInt(COUNT_AT);
+            boolean valid = header.getInt(MAGIC_AT) == INDEX_MAGIC && header.getInt(VERSION_AT) == VERSION
+                && Integer.bitCount(existingSlots) == 1 && existingSlots <= MAX_SLOTS
+                && channel.size() >= indexBytes(existingSlots)
+                && indexed >= 0 && indexed <= count;
+            if (!valid)
+            {
+                existingSlots = 0;
+            }
+        }
+
+        if (existingSlots == 0)
+        {
+            channel.close();
+            rebuildIndex(Math.max(wantedSlots, slotsFor(count + 1L)));
+            return;
+        }
+
+        indexChannel = channel;
+        index = channel.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes(existingSlots));
+        slots = existingSlots;
+        for (int record = indexed; record < count; record++)
+        {
+            if (isLive(record))
+            {
+                insertKeys(record);
+            }
+        }
+        index.putInt(COUNT_AT, count);
+    }
+
+    private int countLive()
+    {
+        int total = 0;
+        for (int record = 0; record < count; record++)
+        {
+            if (isLive(record))
+            {
+                total++;
+            }
+        }
+        return total;
+    }
+
+    private static long indexBytes(int slots)
+    {
+        return HEADER_BYTES + 2L * slots * SLOT_BYTES;
+    }
+
+    /**
+     * Writes a new index of the given size from the records and swaps it in atomically
+     */
+    private void rebuildIndex(int newSlots) throws IOException
+    {
+        Path temporary = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW,
+                                                    StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            MappedByteBuffer built = channel.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes(newSlots));
+            MappedByteBuffer previous = index;
+            int previousSlots = slots;
+            index = built;
+            slots = newSlots;
+            try
+            {
+                for (int record = 0; record < count; record++)
+                {
+                    if (isLive(record))
+                    {
+                        insertKeys(record);
+                    }
+                }
+            }
+            catch (RuntimeException e)
+            {
+                index = previous;
+                slots = previousSlots;
+                throw e;
+            }
+            built.putInt(VERSION_AT, VERSION);
+            built.putInt(SIZE_AT, newSlots);
+            built.putInt(COUNT_AT, count);
+            built.putInt(MAGIC_AT, INDEX_MAGIC);
+            built.force();
+        }
+
+        Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileChannel previousChannel = indexChannel;
+        indexChannel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes(newSlots));
+        if (previousChannel != null)
+        {
+            previousChannel.close();
+        }
+    }
+
+    /**
+     * Looks up an account by cell number
+     * @param phoneNumber Cell number
+     * @return Account read from its record, or null if not registered
+     */
+    public Login findByPhone(String phoneNumber)
+    {
+        lock.readLock().lock();
+        try
+        {
+            int record = findPhone(phoneNumber);
+            return record < 0 ? null : read(record);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether a cell number is registered
+     * @param phoneNumber Cell number
+     * @return true if an account has it
+     */
+    public boolean contains(String phoneNumber)
+    {
+        lock.readLock().lock();
+        try
+        {
+            return findPhone(phoneNumber) >= 0;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up an account by username
+     * @param username Username
+     * @return Cell number of the account, or null if no account has the username
+     */
+    public String findPhoneByUsername(String username)
+    {
+        lock.readLock().lock();
+        try
+        {
+            int record = findUsername(username.getBytes(StandardCharsets.UTF_8));
+            return record < 0 ? null : readField(record, PHONE);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends an account
+     * @param user Account with a hashed password
+     * @return false if the cell number or the username is already registered
+     * @throws IllegalArgumentException If the password is not hashed or a key does not fit its field
+     * @throws UncheckedIOException If the records file cannot be extended or the index rebuilt
+     */
+    public boolean add(Login user)
+    {
+        byte[] phone = encode(user.getCellPhoneNumber(), PHONE_WIDTH, "Cell number");
+        byte[] username = encode(user.getUsername(), USERNAME_WIDTH, "Username");
+        byte[] hash = encode(user.getPasswordHash(), HASH_WIDTH, "Password hash");
+
+        lock.writeLock().lock();
+        try
+        {
+            if (findPhone(user.getCellPhoneNumber()) >= 0 || findUsername(username) >= 0)
+            {
+                return false;
+            }
+            if ((count + 1L) * 10 > (long) slots * 7)
+            {
+                if (slots == MAX_SLOTS)
+                {
+                    throw new IllegalStateException("User registry is full");
+                }
+                rebuildIndex(slots * 2);
+            }
+
+            int record = count;
+            MappedByteBuffer chunk = chunk(record);
+            int base = chunkOffset(record);
+            writeField(chunk, base + PHONE, PHONE_WIDTH, phone);
+            writeField(chunk, base + USERNAME, USERNAME_WIDTH, username);
+            writeField(chunk, base + FIRST_NAME, NAME_WIDTH, truncate(user.getFirstName(), NAME_WIDTH));
+            writeField(chunk, base + LAST_NAME, NAME_WIDTH, truncate(user.getLastName(), NAME_WIDTH));
+            writeField(chunk, base + PASSWORD_HASH, HASH_WIDTH, hash);
+            chunk.put(base + FLAGS, LIVE);
+
+            // The record is complete before the count or the index refers to it
+            count = record + 1;
+            live++;
+            recordsHeader.putInt(COUNT_AT, count);
+            recordsHeader.putInt(LIVE_AT, live);
+            insertKeys(record);
+            index.putInt(COUNT_AT, count);
+            return true;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed to extend user registry " + recordsPath, e);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the names and password hash of an account in place
+     * The cell number and username are keys and are not changed here
+     * @param user Account to save
+     * @return false if the cell number is not registered
+     */
+    public boolean update(Login user)
+    {
+        byte[] hash = encode(user.getPasswordHash(), HASH_WIDTH, "Password hash");
+        lock.writeLock().lock();
+        try
+        {
+            int record = findPhone(user.getCellPhoneNumber());
+            if (record < 0)
+            {
+                return false;
+            }
+            MappedByteBuffer chunk = chunk(record);
+            int base = chunkOffset(record);
+            writeField(chunk, base + FIRST_NAME, NAME_WIDTH, truncate(user.getFirstName(), NAME_WIDTH));
+            writeField(chunk, base + LAST_NAME, NAME_WIDTH, truncate(user.getLastName(), NAME_WIDTH));
+            writeField(chunk, base + PASSWORD_HASH, HASH_WIDTH, hash);
+            return true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Changes the username of an account
+     * @param phoneNumber Account's cell number
+     * @param newUsername New username
+     * @return false if the account does not exist or another account has the username
+     * @throws IllegalArgumentException If the username does not fit its field
+     */
+    public boolean rename(String phoneNumber, String newUsername)
+    {
+        byte[] key = encode(newUsername, USERNAME_WIDTH, "Username");
+        lock.writeLock().lock();
+        try
+        {
+            int record = findPhone(phoneNumber);
+            if (record < 0)
+            {
+                return false;
+            }
+            int holder = findUsername(key);
+            if (holder >= 0)
+            {
+                return holder == record;
+            }
+
+            MappedByteBuffer chunk = chunk(record);
+            int base = chunkOffset(record);
+            deleteSlot(USERNAME_TABLE, slotOf(USERNAME_TABLE, hash(chunk, base + USERNAME), record));
+            writeField(chunk, base + USERNAME, USERNAME_WIDTH, key);
+            insert(USERNAME_TABLE, hash(key), record);
+            return true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an account
+     * @param phoneNumber Account's cell number
+     * @return false if no account has the cell number
+     */
+    public boolean remove(String phoneNumber)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            int record = findPhone(phoneNumber);
+            if (record < 0)
+            {
+                return false;
+            }
+
+            // Unreachable through the index first, then dead on disk
+            MappedByteBuffer chunk = chunk(record);
+            int base = chunkOffset(record);
+            deleteSlot(PHONE_TABLE, slotOf(PHONE_TABLE, hash(chunk, base + PHONE), record));
+            deleteSlot(USERNAME_TABLE, slotOf(USERNAME_TABLE, hash(chunk, base + USERNAME), record));
+            chunk.put(base + FLAGS, (byte) 0);
+            live--;
+            recordsHeader.putInt(LIVE_AT, live);
+            return true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Visits every account in registration order
+     * Reads every record, so avoid on large registries; the consumer must
+     * not write to the registry
+     * @param consumer Receives each account
+     */
+    public void forEach(Consumer<Login> consumer)
+    {
+        lock.readLock().lock();
+        try
+        {
+            for (int record = 0; record < count; record++)
+            {
+                if (isLive(record))
+                {
+                    consumer.accept(read(record));
+                }
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of registered accounts
+     * @return Account count
+     */
+    public int size()
+    {
+        return live;
+    }
+
+    public int getIndexSlots()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return slots;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes both files to disk and closes them
+     */
+    @Override
+    public void close() throws IOException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            for (int c = 0; c < chunks.length(); c++)
+            {
+                MappedByteBuffer chunk = chunks.get(c);
+                if (chunk != null)
+                {
+                    chunk.force();
+                }
+            }
+            recordsHeader.force();
+            index.force();
+            records.close();
+            indexChannel.close();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int findPhone(String phoneNumber)
+    {
+        byte[] key = phoneNumber.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(key);
+        int mask = slots - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask)
+        {
+            int record = slotRecord(PHONE_TABLE, slot);
+            if (record < 0)
+            {
+                return -1;
+            }
+            if (slotHash(PHONE_TABLE, slot) == hash && fieldEquals(record, PHONE, key))
+            {
+                return record;
+            }
+        }
+    }
+
+    private int findUsername(byte[] key)
+    {
+        int hash = hash(key);
+        int mask = slots - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask)
+        {
+            int record = slotRecord(USERNAME_TABLE, slot);
+            if (record < 0)
+            {
+                return -1;
+            }
+            if (slotHash(USERNAME_TABLE, slot) == hash && fieldEquals(record, USERNAME, key))
+            {
+                return record;
+            }
+        }
+    }
+
+    /**
+     * Finds the slot pointing at a record
+     */
+    private int slotOf(int table, int hash, int record)
+    {
+        int mask = slots - 1;
+        int slot = hash & mask;
+        while (slotRecord(table, slot) != record)
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties a slot and moves later entries of the probe run back into
+     * the gap, so every entry stays reachable from its home slot
+     */
+    private void deleteSlot(int table, int slot)
+    {
+        int mask = slots - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; slotRecord(table, next) >= 0; next = (next + 1) & mask)
+        {
+            int home = slotHash(table, next) & mask;
+            boolean reachable = hole <= next
+                ? hole < home && home <= next
+                : hole < home || home <= next;
+            if (!reachable)
+            {
+                int from = slotOffset(table, next);
+                int to = slotOffset(table, hole);
+                index.putInt(to + 4, index.getInt(from + 4));
+                index.putInt(to, index.getInt(from));
+                hole = next;
+            }
+        }
+        int at = slotOffset(table, hole);
+        index.putInt(at, 0);
+        index.putInt(at + 4, 0);
+    }
+
+    private void insertKeys(int record)
+    {
+        MappedByteBuffer chunk = chunk(record);
+        int base = chunkOffset(record);
+        insert(PHONE_TABLE, hash(chunk, base + PHONE), record);
+        insert(USERNAME_TABLE, hash(chunk, base + USERNAME), record);
+    }
+
+    private void insert(int table, int hash, int record)
+    {
+        int mask = slots - 1;
+        int slot = hash & mask;
+        while (slotRecord(table, slot) >= 0)
+        {
+            slot = (slot + 1) & mask;
+        }
+        int at = slotOffset(table, slot);
+        index.putInt(at + 4, hash);
+        index.putInt(at, record + 1);
+    }
+
+    private int slotOffset(int table, int slot)
+    {
+        return HEADER_BYTES + (table * slots + slot) * SLOT_BYTES;
+    }
+
+    /**
+     * Gets the record a slot points at
+     * @return Record number, or -1 if the slot is empty
+     */
+    private int slotRecord(int table, int slot)
+    {
+        return index.getInt(slotOffset(table, slot)) - 1;
+    }
+
+    private int slotHash(int table, int slot)
+    {
+        return index.getInt(slotOffset(table, slot) + 4);
+    }
+
+    /**
+     * Gets the mapped chunk holding a record, mapping it on first use
+     */
+    private MappedByteBuffer chunk(int record)
+    {
+        int c = record / CHUNK_RECORDS;
+        MappedByteBuffer chunk = chunks.get(c);
+        if (chunk != null)
+        {
+            return chunk;
+        }
+
+        chunkLock.lock();
+        try
+        {
+            chunk = chunks.get(c);
+            if (chunk == null)
+            {
+                long start = HEADER_BYTES + (long) c * CHUNK_RECORDS * RECORD_BYTES;
+                chunk = records.map(FileChannel.MapMode.READ_WRITE, start, (long) CHUNK_RECORDS * RECORD_BYTES);
+                chunks.set(c, chunk);
+            }
+            return chunk;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed to map user registry " + recordsPath, e);
+        }
+        finally
+        {
+            chunkLock.unlock();
+        }
+    }
+
+    private static int chunkOffset(int record)
+    {
+        return (record % CHUNK_RECORDS) * RECORD_BYTES;
+    }
+
+    private boolean isLive(int record)
+    {
+        return chunk(record).get(chunkOffset(record) + FLAGS) == LIVE;
+    }
+
+    private Login read(int record)
+    {
+        Login user = new Login(readField(record, USERNAME), "", readField(record, FIRST_NAME),
+                               readField(record, LAST_NAME), readField(record, PHONE));
+        user.applyPasswordHash(readField(record, PASSWORD_HASH));
+        return user;
+    }
+
+    private String readField(int record, int field)
+    {
+        MappedByteBuffer chunk = chunk(record);
+        int at = chunkOffset(record) + field;
+        byte[] bytes = new byte[chunk.get(at) & 0xFF];
+        chunk.get(at + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean fieldEquals(int record, int field, byte[] key)
+    {
+        MappedByteBuffer chunk = chunk(record);
+        int at = chunkOffset(record) + field;
+        if ((chunk.get(at) & 0xFF) != key.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++)
+        {
+            if (chunk.get(at + 1 + i) != key[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeField(MappedByteBuffer chunk, int at, int width, byte[] value)
+    {
+        chunk.put(at, (byte) value.length);
+        chunk.put(at + 1, value);
+        for (int i = value.length + 1; i < width; i++)
+        {
+            chunk.put(at + i, (byte) 0);
+        }
+    }
+
+    private static byte[] encode(String value, int width, String what)
+    {
+        if (value == null)
+        {
+            throw new IllegalArgumentException(what + " is missing");
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > width - 1)
+        {
+            throw new IllegalArgumentException(what + " is longer than " + (width - 1) + " bytes");
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes a display field, cutting it on a character boundary to fit
+     */
+    private static byte[] truncate(String value, int width)
+    {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < width)
+        {
+            return bytes;
+        }
+        int length = width - 1;
+        while (length > 0 && (bytes[length] & 0xC0) == 0x80)
+        {
+            length--;
+        }
+        byte[] cut = new byte[length];
+        System.arraycopy(bytes, 0, cut, 0, length);
+        return cut;
+    }
+
+    /**
+     * Hashes a key field in place, matching hash(byte[])
+     */
+    private static int hash(MappedByteBuffer chunk, int at)
+    {
+        int length = chunk.get(at) & 0xFF;
+        int h = 1;
+        for (int i = 0; i < length; i++)
+        {
+            h = 31 * h + chunk.get(at + 1 + i);
+        }
+        return mix(h);
+    }
+
+    private static int hash(byte[] key)
+    {
+        int h = 1;
+        for (byte b : key)
+        {
+            h = 31 * h + b;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Spreads the bits of a hash (the murmur3 finalizer), since the table
+     * index uses the low bits
+     */
+    private static int mix(int h)
+    {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
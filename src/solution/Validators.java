@@ -0,0 +1,228 @@
+package solution;
+
+/**
+ * Allocation-free validation rules for users and messages
+ *
+ * Every check is a hand-written character scan, replacing the regular
+ * expressions that String.matches recompiled on each call.
+ */
+public final class Validators
+{
+    /** Maximum message payload length in characters */
+    public static final int MAX_PAYLOAD_LENGTH = 250;
+
+    /** Maximum username length in characters */
+    public static final int MAX_USERNAME_LENGTH = 5;
+
+    /** Minimum password length in characters */
+    public static final int MIN_PASSWORD_LENGTH = 8;
+
+    /** Maximum group name length in characters, excluding the address prefix */
+    public static final int MAX_GROUP_NAME_LENGTH = 32;
+
+    /** Failure flag: payload missing or longer than 250 characters */
+    public static final int INVALID_PAYLOAD = 1;
+
+    /** Failure flag: recipient is not an international number */
+    public static final int INVALID_RECIPIENT = 1 << 1;
+
+    /** Failure flag: sender is not an international number */
+    public static final int INVALID_SENDER = 1 << 2;
+
+    private Validators()
+    {
+        // Static utility class
+    }
+
+    /**
+     * Checks the South African cell number format +27XXXXXXXXX
+     * @param number Number to check
+     * @return true if it is +27 followed by exactly 9 digits
+     */
+    public static boolean isSouthAfricanCell(CharSequence number)
+    {
+        if (number == null || number.length() != 12
+            || number.charAt(0) != '+' || number.charAt(1) != '2' || number.charAt(2) != '7')
+        {
+            return false;
+        }
+        return allDigits(number, 3, 12);
+    }
+
+    /**
+     * Checks the international number format +XXXXXXXXXX
+     * @param number Number to check
+     * @return true if it is + followed by 10 to 15 digits
+     */
+    public static boolean isInternationalCell(CharSequence number)
+    {
+        if (number == null)
+        {
+            return false;
+        }
+
+        int length = number.length();
+        return length >= 11 && length <= 16
+            && number.charAt(0) == '+'
+            && allDigits(number, 1, length);
+    }
+
+    /**
+     * Checks the message length limit
+     * @param payload Message text
+     * @return true if present and at most 250 characters
+     */
+    public static boolean isPayloadWithinLimit(CharSequence payload)
+    {
+        return payload != null && payload.length() <= MAX_PAYLOAD_LENGTH;
+    }
+
+    /**
+     * Checks the username rules
+     * @param username Username to check
+     * @return true if it contains an underscore and is at most 5 characters
+     */
+    public static boolean isValidUsername(CharSequence username)
+    {
+        if (username == null || username.length() > MAX_USERNAME_LENGTH)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < username.length(); i++)
+        {
+            if (username.charAt(i) == '_')
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks the group name rules
+     * @param name Group name without its address prefix
+     * @return true if it has 1 to 32 letters, digits, '_' or '-'
+     */
+    public static boolean isValidGroupName(CharSequence name)
+    {
+        if (name == null || name.length() == 0 || name.length() > MAX_GROUP_NAME_LENGTH)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the password complexity rules
+     * @param password Password to check
+     * @return true if it has at least 8 characters including an uppercase
+     * letter, a digit and a special character
+     */
+    public static boolean isComplexPassword(CharSequence password)
+    {
+        if (password == null || password.length() < MIN_PASSWORD_LENGTH)
+        {
+            return false;
+        }
+
+        boolean hasCapital = false;
+        boolean hasNumber = false;
+        boolean hasSpecial = false;
+
+        for (int i = 0; i < password.length(); i++)
+        {
+            char c = password.charAt(i);
+            if (Character.isUpperCase(c))
+            {
+                hasCapital = true;
+            }
+            else if (Character.isDigit(c))
+            {
+                hasNumber = true;
+            }
+            else if (!Character.isLetterOrDigit(c))
+            {
+                hasSpecial = true;
+            }
+
+            // Early exit if all requirements met
+            if (hasCapital && hasNumber && hasSpecial)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Validates a single message
+     * @param message Message to check
+     * @return Combination of INVALID_* flags, 0 if the message is valid
+     */
+    public static int validate(Message message)
+    {
+        int failures = 0;
+        if (!isPayloadWithinLimit(message.getMessagePayload()))
+        {
+            failures |= INVALID_PAYLOAD;
+        }
+        if (!isInternationalCell(message.getRecipientPhoneNumber()))
+        {
+            failures |= INVALID_RECIPIENT;
+        }
+        if (!isInternationalCell(message.getSenderPhoneNumber()))
+        {
+            failures |= INVALID_SENDER;
+        }
+        return failures;
+    }
+
+    /**
+     * Validates a whole batch of messages
+     * @param messages Messages to check
+     * @return Bitmask with bit i (word i / 64, bit i % 64) set when message i fails any check
+     */
+    public static long[] validateBatch(Message[] messages)
+    {
+        long[] failed = new long[(messages.length + 63) >>> 6];
+        for (int i = 0; i < messages.length; i++)
+        {
+            if (validate(messages[i]) != 0)
+            {
+                failed[i >>> 6] |= 1L << i;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Checks that a character range holds only ASCII digits
+     * @param text Text to scan
+     * @param start First index
+     * @param end End index (exclusive)
+     * @return true if every character is 0-9
+     */
+    private static boolean allDigits(CharSequence text, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,100 @@
+package solution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Round trips of the log record formats through JsonSerializer and JsonReader
+ */
+public class JsonSerializerTest
+{
+    private static final String AWKWARD =
+        "Say \"hi\" \\ back\n\ttab \u0001\u001f café 😀 </script>";
+
+    @Test
+    public void messageWithCharactersToEscapeRoundTrips() throws IOException
+    {
+        Message message = new Message(AWKWARD, "+27830000002", "+27830000001");
+        String json = message.toJsonString();
+
+        assertTrue("one record per line", json.indexOf('\n') < 0);
+        Message restored = read(json).readMessage();
+        assertEquals(AWKWARD, restored.getMessagePayload());
+        assertEquals(message.getId(), restored.getId());
+        assertEquals(message.getMessageId(), restored.getMessageId());
+        assertEquals(message.getRecipientPhoneNumber(), restored.getRecipientPhoneNumber());
+        assertEquals(message.getSenderPhoneNumber(), restored.getSenderPhoneNumber());
+        assertEquals(message.getTimestamp(), restored.getTimestamp());
+        assertEquals(message.getStatus(), restored.getStatus());
+        assertEquals(json, restored.toJsonString());
+    }
+
+    @Test
+    public void escapedTextReadsBackFromAReader() throws IOException
+    {
+        StringBuilder json = new StringBuilder();
+        JsonSerializer.appendString(json, AWKWARD);
+
+        JsonReader reader = new JsonReader(new StringReader(json.toString()));
+        assertEquals(JsonReader.Event.STRING, reader.next());
+        assertEquals(AWKWARD, reader.getText());
+    }
+
+    @Test
+    public void controlCharactersAreEscaped() throws IOException
+    {
+        StringBuilder json = new StringBuilder();
+        JsonSerializer.appendEscaped(json, "a\u0000b\u001fc");
+
+        for (int i = 0; i < json.length(); i++)
+        {
+            assertTrue("raw control character at " + i, json.charAt(i) >= 0x20);
+        }
+    }
+
+    @Test
+    public void receiptRoundTrips() throws IOException
+    {
+        Receipt receipt = new Receipt(MessageStatus.READ, "+27830000001", "#team", 1234567890123L);
+
+        Object record = read(receipt.toJsonString()).readRecord();
+        assertTrue(record instanceof Receipt);
+        Receipt restored = (Receipt) record;
+        assertEquals(MessageStatus.READ, restored.getStatus());
+        assertEquals("+27830000001", restored.getReader());
+        assertEquals("#team", restored.getPeer());
+        assertEquals(1234567890123L, restored.getUpToId());
+    }
+
+    @Test
+    public void groupChangeRoundTrips() throws IOException
+    {
+        GroupChange change = new GroupChange(GroupChange.Type.LEAVE, "#te\"am", "+27830000001", 42L);
+
+        Object record = read(change.toJsonString()).readRecord();
+        assertTrue(record instanceof GroupChange);
+        GroupChange restored = (GroupChange) record;
+        assertEquals(GroupChange.Type.LEAVE, restored.getType());
+        assertEquals("#te\"am", restored.getAddress());
+        assertEquals("+27830000001", restored.getMember());
+        assertEquals(42L, restored.getCursor());
+    }
+
+    @Test
+    public void endOfInputReadsAsNull() throws IOException
+    {
+        assertNull(read("").readRecord());
+    }
+
+    private static JsonReader read(String json)
+    {
+        return new JsonReader(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
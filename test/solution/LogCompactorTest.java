@@ -0,0 +1,146 @@
+package solution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compaction of sealed segments and the swap of their copies into the log
+ */
+public class LogCompactorTest
+{
+    private static final int SEGMENT_BYTES = 512;
+    private static final int INDEX_INTERVAL = 128;
+    private static final String ALICE = "+27830000001";
+    private static final String BOB = "+27830000002";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void supersededReceiptsAreDroppedAndEverythingElseKept() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        SegmentedLog log = open(directory);
+
+        long join = append(log, new GroupChange(GroupChange.Type.JOIN, "#team", ALICE, 0).toJsonString());
+        long unknown = append(log, "{\"future\":\"record type\"}");
+        long received = append(log, receipt(MessageStatus.RECEIVED, 3));
+        long firstRead = append(log, receipt(MessageStatus.READ, 1));
+        for (int upTo = 2; upTo <= 30; upTo++)
+        {
+            append(log, receipt(MessageStatus.READ, upTo));
+        }
+        long lastRead = log.getNextSequence() - 1;
+        long activeBase = active(log).getBaseSequence();
+        assertTrue("fixture spans several segments", log.getSegmentCount() > 3);
+
+        LogCompactor.Result result = new LogCompactor(log, 0).compact();
+
+        assertTrue(result.getSegmentsCompacted() > 0);
+        assertTrue(result.getBytesAfter() < result.getBytesBefore());
+        assertSurvivors(log, join, unknown, received, firstRead, lastRead, activeBase);
+        assertEquals(result.getRecordsDropped(), dropped(log, lastRead));
+        log.close();
+
+        // The copies were swapped in under the original names
+        log = open(directory);
+        assertSurvivors(log, join, unknown, received, firstRead, lastRead, activeBase);
+        assertEquals(lastRead + 1, log.getNextSequence());
+        try (Stream<Path> left = Files.list(directory.resolve(LogCompactor.WORK_DIRECTORY)))
+        {
+            assertEquals(0, left.count());
+        }
+        log.close();
+    }
+
+    @Test
+    public void newestMessageCopyIsKept() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        SegmentedLog log = open(directory);
+
+        Message message = new Message("Hello", BOB, ALICE);
+        long firstCopy = append(log, message.toJsonString());
+        for (int i = 0; i < 12; i++)
+        {
+            append(log, message.toJsonString());
+        }
+        long lastCopy = log.getNextSequence() - 1;
+        long activeBase = active(log).getBaseSequence();
+
+        new LogCompactor(log, 0).compact();
+
+        assertNull(log.read(firstCopy));
+        for (long sequence = firstCopy + 1; sequence < Math.min(activeBase, lastCopy); sequence++)
+        {
+            assertNull("copy " + sequence, log.read(sequence));
+        }
+        assertEquals(message.toJsonString(), log.read(lastCopy));
+        log.close();
+    }
+
+    private static void assertSurvivors(SegmentedLog log, long join, long unknown, long received,
+                                        long firstRead, long lastRead, long activeBase)
+    {
+        assertNotNull("group change", log.read(join));
+        assertEquals("{\"future\":\"record type\"}", log.read(unknown));
+        assertNull("RECEIVED covered by a later READ", log.read(received));
+        assertNull("superseded READ", log.read(firstRead));
+        assertEquals(receipt(MessageStatus.READ, 30), log.read(lastRead));
+        // Every sealed segment is mostly superseded receipts, so all were compacted
+        for (long sequence = firstRead; sequence < activeBase; sequence++)
+        {
+            if (sequence != lastRead)
+            {
+                assertNull("superseded READ " + sequence, log.read(sequence));
+            }
+        }
+    }
+
+    private static long dropped(SegmentedLog log, long lastSequence)
+    {
+        long missing = 0;
+        for (long sequence = 0; sequence <= lastSequence; sequence++)
+        {
+            if (log.read(sequence) == null)
+            {
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    private static SegmentedLog open(Path directory) throws IOException
+    {
+        return new SegmentedLog(directory, SEGMENT_BYTES, INDEX_INTERVAL, 0, 0);
+    }
+
+    private static LogSegment active(SegmentedLog log)
+    {
+        List<LogSegment> segments = log.getSegments();
+        return segments.get(segments.size() - 1);
+    }
+
+    private static long append(SegmentedLog log, String record) throws IOException
+    {
+        long sequence = log.getNextSequence();
+        log.append(record);
+        return sequence;
+    }
+
+    private static String receipt(MessageStatus status, long upTo)
+    {
+        return new Receipt(status, ALICE, BOB, upTo).toJsonString();
+    }
+}
@@ -0,0 +1,155 @@
+package solution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Torn-tail recovery of LogSegment
+ */
+public class LogSegmentTest
+{
+    private static final int CAPACITY = 4096;
+    private static final int INDEX_INTERVAL = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsSurviveReopening() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        LogSegment segment = open(directory);
+        for (int i = 0; i < 20; i++)
+        {
+            segment.append(bytes("record " + i), 1000 + i);
+        }
+        segment.close();
+
+        segment = open(directory);
+        assertEquals(20, segment.getNextSequence());
+        assertEquals(1019, segment.getLastAppendMillis());
+        for (int i = 0; i < 20; i++)
+        {
+            assertEquals("record " + i, segment.read(i));
+        }
+        segment.close();
+    }
+
+    @Test
+    public void corruptRecordEndsTheLogAndTheTailIsZeroed() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        LogSegment segment = open(directory);
+        segment.append(bytes("first"), 1);
+        int second = segment.getWritePosition();
+        segment.append(bytes("second"), 2);
+        segment.append(bytes("third, intact but after the tear"), 3);
+        int end = segment.getWritePosition();
+        segment.close();
+
+        flipByte(directory, second + LogSegment.HEADER_SIZE);
+
+        segment = open(directory);
+        assertEquals(second, segment.getWritePosition());
+        assertEquals(1, segment.getNextSequence());
+        assertNull(segment.read(1));
+        assertNull(segment.read(2));
+        assertZero(directory, second, end);
+        segment.close();
+    }
+
+    @Test
+    public void appendsAfterRecoveryDoNotReviveStaleRecords() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        LogSegment segment = open(directory);
+        segment.append(bytes("first"), 1);
+        int second = segment.getWritePosition();
+        segment.append(bytes("second"), 2);
+        segment.append(bytes("third"), 3);
+        segment.close();
+
+        flipByte(directory, second + LogSegment.HEADER_SIZE);
+
+        // The replacement is the same size as the torn record, so the
+        // stale third record would line up right after it
+        segment = open(directory);
+        segment.append(bytes("SECOND"), 4);
+        segment.close();
+
+        segment = open(directory);
+        assertEquals(2, segment.getNextSequence());
+        assertEquals("SECOND", segment.read(1));
+        assertNull(segment.read(2));
+        segment.close();
+    }
+
+    @Test
+    public void lengthPastTheEndIsATornRecord() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        LogSegment segment = open(directory);
+        segment.append(bytes("kept"), 1);
+        int torn = segment.getWritePosition();
+        segment.close();
+
+        try (FileChannel channel = FileChannel.open(dataFile(directory), StandardOpenOption.WRITE))
+        {
+            channel.write(ByteBuffer.allocate(4).putInt(0, CAPACITY), torn);
+        }
+
+        segment = open(directory);
+        assertEquals(torn, segment.getWritePosition());
+        assertEquals("kept", segment.read(0));
+        assertZero(directory, torn, CAPACITY);
+        segment.close();
+    }
+
+    private static LogSegment open(Path directory) throws IOException
+    {
+        return new LogSegment(directory, 0, CAPACITY, INDEX_INTERVAL);
+    }
+
+    private static Path dataFile(Path directory)
+    {
+        return directory.resolve(LogSegment.fileName(0, ".log"));
+    }
+
+    private static void flipByte(Path directory, int position) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(dataFile(directory),
+                                                    StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, position);
+            one.put(0, (byte) (one.get(0) ^ 0x55));
+            one.rewind();
+            channel.write(one, position);
+        }
+    }
+
+    private static void assertZero(Path directory, int from, int to) throws IOException
+    {
+        byte[] data = Files.readAllBytes(dataFile(directory));
+        for (int i = from; i < to; i++)
+        {
+            assertEquals("byte " + i, 0, data[i]);
+        }
+    }
+
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,83 @@
+package solution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * ID layout and ordering of MessageIdGenerator, including restarts
+ */
+public class MessageIdGeneratorTest
+{
+    @Test
+    public void fieldsRoundTrip()
+    {
+        long before = System.currentTimeMillis();
+        long id = new MessageIdGenerator(1023).nextId();
+        long after = System.currentTimeMillis();
+
+        assertTrue(id > 0);
+        assertEquals(1023, MessageIdGenerator.nodeId(id));
+        assertTrue(MessageIdGenerator.timestampMillis(id) >= before);
+        assertTrue(MessageIdGenerator.timestampMillis(id) <= after);
+        assertTrue(MessageIdGenerator.sequence(id) < 4096);
+    }
+
+    @Test
+    public void idsStrictlyIncreasePastTheSequenceRange()
+    {
+        MessageIdGenerator generator = new MessageIdGenerator(7);
+        long previous = generator.nextId();
+        for (int i = 0; i < 20_000; i++)
+        {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            assertEquals(7, MessageIdGenerator.nodeId(id));
+            previous = id;
+        }
+    }
+
+    @Test
+    public void restartBehindTheClockStaysAboveReplayedIds()
+    {
+        // The last run issued IDs a minute ahead of this clock, from another node
+        long ahead = new MessageIdGenerator(1023).nextId() + (60_000L << 22) + 4095;
+
+        MessageIdGenerator restarted = new MessageIdGenerator(0);
+        restarted.advancePast(ahead);
+        long first = restarted.nextId();
+        assertTrue(first > ahead);
+        assertTrue(restarted.nextId() > first);
+    }
+
+    @Test
+    public void advancingToAnOlderIdChangesNothing()
+    {
+        MessageIdGenerator generator = new MessageIdGenerator(3);
+        long issued = generator.nextId();
+        generator.advancePast(issued - (1_000L << 22));
+        assertTrue(generator.nextId() > issued);
+    }
+
+    @Test
+    public void legacyIdKeepsTheTimestamp()
+    {
+        long millis = MessageIdGenerator.EPOCH_MILLIS + 86_400_000L;
+        long id = MessageIdGenerator.legacyId(millis, "0123456789");
+        assertEquals(millis, MessageIdGenerator.timestampMillis(id));
+    }
+
+    @Test
+    public void displayIdIsTenDigits()
+    {
+        assertEquals("0000000042", MessageIdGenerator.toDisplayId(42));
+        assertEquals(10, MessageIdGenerator.toDisplayId(Long.MAX_VALUE).length());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nodeOutOfRangeIsRejected()
+    {
+        new MessageIdGenerator(1024);
+    }
+}
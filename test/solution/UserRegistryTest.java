@@ -0,0 +1,114 @@
+package solution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Records and index tables of UserRegistry, including slot deletion
+ */
+public class UserRegistryTest
+{
+    // Just under the 70% load that would rebuild the minimum table, so probe runs are long
+    private static final int USERS = UserRegistry.MIN_SLOTS * 7 / 10 - 1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void accountRoundTrips() throws IOException
+    {
+        try (UserRegistry registry = open())
+        {
+            assertTrue(registry.add(user(1)));
+            assertFalse("cell number taken", registry.add(user(1)));
+
+            Login restored = registry.findByPhone(phone(1));
+            assertEquals(username(1), restored.getUsername());
+            assertEquals("First1", restored.getFirstName());
+            assertEquals("Last1", restored.getLastName());
+            assertEquals("hash-1", restored.getPasswordHash());
+            assertEquals(phone(1), registry.findPhoneByUsername(username(1)));
+        }
+    }
+
+    @Test
+    public void removalShiftsProbeRunsBack() throws IOException
+    {
+        try (UserRegistry registry = open())
+        {
+            for (int i = 0; i < USERS; i++)
+            {
+                assertTrue(registry.add(user(i)));
+            }
+            assertEquals(UserRegistry.MIN_SLOTS, registry.getIndexSlots());
+
+            for (int i = 0; i < USERS; i += 3)
+            {
+                assertTrue(registry.remove(phone(i)));
+            }
+            assertFalse("already removed", registry.remove(phone(0)));
+            assertEveryOtherLookup(registry);
+
+            // Freed slots take new keys without breaking the runs around them
+            for (int i = 0; i < USERS; i += 3)
+            {
+                assertTrue(registry.add(user(USERS + i)));
+            }
+            assertEveryOtherLookup(registry);
+        }
+
+        try (UserRegistry registry = open())
+        {
+            assertEveryOtherLookup(registry);
+            assertEquals(phone(USERS), registry.findPhoneByUsername(username(USERS)));
+        }
+    }
+
+    private static void assertEveryOtherLookup(UserRegistry registry)
+    {
+        for (int i = 0; i < USERS; i++)
+        {
+            if (i % 3 == 0)
+            {
+                assertFalse(registry.contains(phone(i)));
+                assertNull(registry.findPhoneByUsername(username(i)));
+            }
+            else
+            {
+                assertEquals(username(i), registry.findByPhone(phone(i)).getUsername());
+                assertEquals(phone(i), registry.findPhoneByUsername(username(i)));
+            }
+        }
+    }
+
+    private UserRegistry open() throws IOException
+    {
+        Path records = folder.getRoot().toPath().resolve("users.db");
+        return UserRegistry.open(records, 1);
+    }
+
+    private static Login user(int i)
+    {
+        Login user = new Login(username(i), null, "First" + i, "Last" + i, phone(i));
+        user.applyPasswordHash("hash-" + i);
+        return user;
+    }
+
+    private static String username(int i)
+    {
+        return "u_" + i;
+    }
+
+    private static String phone(int i)
+    {
+        return String.format("+2783%07d", i);
+    }
+}